@@ -0,0 +1,60 @@
+package com.tyme.payment.benchmark;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.service.AccountRateLimiter;
+import com.tyme.payment.store.EmbeddedTokenBucketStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// The cost the limiter adds to every payment. The bucket never runs dry, so this measures leasing, not refusals;
+// leaseSize=1 asks the (in-process) bucket store on every call, which is what the lease saves.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class AccountRateLimiterBenchmark {
+
+    @Param({"1", "10"})
+    public int leaseSize;
+
+    private AccountRateLimiter limiter;
+
+    @Setup
+    public void setUp() {
+        IdempotencyProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+                "app.idempotency.ttl-duration", "24h",
+                "app.idempotency.lock-duration", "30s",
+                "app.idempotency.rate-limit.capacity", String.valueOf(Long.MAX_VALUE / 2),
+                "app.idempotency.rate-limit.refill-per-second", "1e12",
+                "app.idempotency.rate-limit.lease-size", String.valueOf(leaseSize))))
+                .bindOrCreate("app.idempotency", Bindable.of(IdempotencyProperties.class));
+        limiter = new AccountRateLimiter(new EmbeddedTokenBucketStore(properties.rateLimit(), Clock.systemUTC()),
+                properties, new SimpleMeterRegistry());
+    }
+
+    @Benchmark
+    public void acquire() {
+        limiter.acquire("ACC-001");
+    }
+}
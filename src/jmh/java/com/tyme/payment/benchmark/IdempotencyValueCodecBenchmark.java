@@ -0,0 +1,66 @@
+package com.tyme.payment.benchmark;
+
+import com.tyme.payment.codec.IdempotencyValueCodec;
+import com.tyme.payment.config.RedisConfig;
+import com.tyme.payment.model.IdempotentResponse;
+import com.tyme.payment.model.PaymentResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Compares the polymorphic Jackson serializer with the binary codec; bytes per entry are printed at setup.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdempotencyValueCodecBenchmark {
+
+    @Param({"json", "binary"})
+    public String format;
+
+    private RedisSerializer<Object> serializer;
+    private IdempotentResponse value;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        GenericJackson2JsonRedisSerializer json = RedisConfig.jsonValueSerializer();
+        serializer = "json".equals(format)
+                ? json
+                : new IdempotencyValueCodec(json, IdempotencyValueCodec.WriteFormat.BINARY, 1024);
+
+        value = new IdempotentResponse(201,
+                new PaymentResponse(UUID.randomUUID().toString(), "SUCCESS", new BigDecimal("1500.00"), "PHP", LocalDateTime.now()),
+                HexFormat.of().parseHex("2f1c0a7d3e5b4c6a8f9e0d1c2b3a4f5e6d7c8b9a0f1e2d3c4b5a69788796a5b4"));
+        encoded = serializer.serialize(value);
+        System.out.printf("%n[%s] bytes per entry: %d%n", format, encoded.length);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return serializer.serialize(value);
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return serializer.deserialize(encoded);
+    }
+}
@@ -0,0 +1,166 @@
+package com.tyme.payment.benchmark;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.config.IdempotencyStoreConfig;
+import com.tyme.payment.config.RedisConfig;
+import com.tyme.payment.config.RedisShards;
+import com.tyme.payment.model.BatchPaymentItem;
+import com.tyme.payment.model.BatchPaymentResult;
+import com.tyme.payment.model.IdempotencyOutcome;
+import com.tyme.payment.model.PaymentRequest;
+import com.tyme.payment.model.PaymentResponse;
+import com.tyme.payment.service.AccountPaymentExecutor;
+import com.tyme.payment.service.AccountRateLimiter;
+import com.tyme.payment.service.ClaimLeaseKeeper;
+import com.tyme.payment.service.IdempotencyCompletionSignals;
+import com.tyme.payment.service.IdempotencyNearCache;
+import com.tyme.payment.service.PaymentJournal;
+import com.tyme.payment.service.PaymentMetrics;
+import com.tyme.payment.service.PaymentService;
+import com.tyme.payment.service.RequestFingerprinter;
+import com.tyme.payment.service.ResponseRenderer;
+import com.tyme.payment.store.EmbeddedTokenBucketStore;
+import com.tyme.payment.store.IdempotencyStore;
+import com.tyme.payment.support.InProcessRedisServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// End-to-end processPayment against the in-process RESP stand-in, so the numbers include the real
+// Lettuce/RedisTemplate/codec path and Lua execution but not network or Redis server variance.
+// store=embedded swaps Redis for the in-process store to show what the round trips cost.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessPaymentBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"true", "false"})
+    public boolean nearCache;
+
+    @Param({"redis", "embedded"})
+    public String store;
+
+    private final AtomicLong keys = new AtomicLong();
+    private InProcessRedisServer redis;
+    private LettuceConnectionFactory connectionFactory;
+    private IdempotencyStore idempotencyStore;
+    private ClaimLeaseKeeper leaseKeeper;
+    private PaymentService paymentService;
+    private PaymentRequest request;
+    private String replayKey;
+
+    @Setup
+    public void setUp() {
+        redis = InProcessRedisServer.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(redis.getHost(), redis.getPort()));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+
+        IdempotencyProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+                "app.idempotency.ttl-duration", "24h",
+                "app.idempotency.lock-duration", "30s",
+                "app.idempotency.near-cache.enabled", String.valueOf(nearCache),
+                "app.idempotency.store.type", store,
+                // newKeysAsync keeps a whole batch of one account's payments in flight.
+                "app.idempotency.payment-executor.max-queued-per-account", String.valueOf(BATCH_SIZE),
+                // AccountRateLimiterBenchmark measures the limiter; here it would only refuse the new keys.
+                "app.idempotency.rate-limit.enabled", "false")))
+                .bindOrCreate("app.idempotency", Bindable.of(IdempotencyProperties.class));
+
+        StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        IdempotencyNearCache idempotencyNearCache = new IdempotencyNearCache(properties, stringRedisTemplate, meterRegistry);
+        var redisTemplate = new RedisConfig().redisTemplate(connectionFactory, properties);
+        redisTemplate.afterPropertiesSet();
+        IdempotencyStoreConfig storeConfig = new IdempotencyStoreConfig();
+        idempotencyStore = "embedded".equals(store)
+                ? storeConfig.embeddedIdempotencyStore(properties, meterRegistry)
+                : storeConfig.redisIdempotencyStore(redisTemplate, properties, meterRegistry, RedisShards.none());
+        leaseKeeper = new ClaimLeaseKeeper(idempotencyStore, properties);
+        paymentService = new PaymentService(idempotencyStore, properties, idempotencyNearCache, new RequestFingerprinter(),
+                new IdempotencyCompletionSignals(), leaseKeeper, new PaymentMetrics(meterRegistry, leaseKeeper),
+                new ResponseRenderer(Jackson2ObjectMapperBuilder.json().build()),
+                new AccountPaymentExecutor(properties, meterRegistry),
+                new AccountRateLimiter(new EmbeddedTokenBucketStore(properties.rateLimit(), Clock.systemUTC()), properties, meterRegistry),
+                new PaymentJournal(idempotencyStore, properties, meterRegistry));
+
+        request = new PaymentRequest("ACC-001", new BigDecimal("1500.00"), "PHP", "DEST-999");
+        replayKey = "bench-replay";
+        paymentService.processPayment(replayKey, request);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        leaseKeeper.destroy();
+        if (idempotencyStore instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+        connectionFactory.destroy();
+        redis.close();
+    }
+
+    @Benchmark
+    public IdempotencyOutcome<PaymentResponse> newKey() {
+        return paymentService.processPayment("bench-" + keys.incrementAndGet(), request);
+    }
+
+    // Per-item cost of a 100-item batch, comparable with newKey.
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<BatchPaymentResult> newKeysBatch() {
+        List<BatchPaymentItem> items = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            items.add(new BatchPaymentItem("bench-" + keys.incrementAndGet(), request));
+        }
+        return paymentService.processBatch(items);
+    }
+
+    // Per-request cost of 100 async payments in flight at once from one thread, comparable with newKey.
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<IdempotencyOutcome<PaymentResponse>> newKeysAsync() {
+        List<CompletableFuture<IdempotencyOutcome<PaymentResponse>>> inFlight = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            inFlight.add(paymentService.processPaymentAsync("bench-" + keys.incrementAndGet(), request, Duration.ZERO));
+        }
+        return inFlight.stream().map(CompletableFuture::join).toList();
+    }
+
+    @Benchmark
+    public IdempotencyOutcome<PaymentResponse> replay() {
+        return paymentService.processPayment(replayKey, request);
+    }
+}
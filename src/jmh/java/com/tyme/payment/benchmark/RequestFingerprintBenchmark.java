@@ -0,0 +1,47 @@
+package com.tyme.payment.benchmark;
+
+import com.tyme.payment.model.PaymentRequest;
+import com.tyme.payment.service.RequestFingerprinter;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+// legacyHexHash is the concatenate-and-hex hash that fingerprints replaced, kept for comparison.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestFingerprintBenchmark {
+
+    private RequestFingerprinter fingerprinter;
+    private PaymentRequest request;
+
+    @Setup
+    public void setUp() {
+        fingerprinter = new RequestFingerprinter();
+        request = new PaymentRequest("ACC-001", new BigDecimal("1500.00"), "PHP", "DEST-999");
+    }
+
+    @Benchmark
+    public byte[] fingerprint() {
+        return fingerprinter.fingerprint(request);
+    }
+
+    @Benchmark
+    public String legacyHexHash() {
+        return DigestUtils.sha256Hex(request.accountId() + request.amount() + request.destinationAccount());
+    }
+}
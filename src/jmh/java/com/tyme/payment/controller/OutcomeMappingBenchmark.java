@@ -0,0 +1,46 @@
+package com.tyme.payment.controller;
+
+import com.tyme.payment.model.IdempotencyOutcome;
+import com.tyme.payment.model.PaymentResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+// Lives in the controller package to reach the package-private PaymentController.toResponse.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutcomeMappingBenchmark {
+
+    @Param({"CREATED", "ALREADY_EXISTS", "IN_PROGRESS", "DATA_MISMATCH"})
+    public IdempotencyOutcome.OutcomeStatus status;
+
+    private IdempotencyOutcome<PaymentResponse> outcome;
+
+    @Setup
+    public void setUp() {
+        PaymentResponse response = new PaymentResponse("TXN-123", "SUCCESS", new BigDecimal("100"), "PHP", LocalDateTime.now());
+        outcome = new IdempotencyOutcome<>(response, status);
+    }
+
+    @Benchmark
+    public ResponseEntity<?> toResponse() {
+        return PaymentController.toResponse(outcome);
+    }
+}
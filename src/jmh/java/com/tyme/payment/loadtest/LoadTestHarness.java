@@ -0,0 +1,329 @@
+package com.tyme.payment.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.tyme.payment.TymePaymentServiceApplication;
+import com.tyme.payment.model.PaymentRequest;
+import com.tyme.payment.support.InProcessRedisServer;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives HTTP load at the payment endpoint and writes a JSON report that can be diffed across versions. Unless
+ * {@code --target} points at a running node, it boots the application against an in-process Redis stand-in, so no
+ * Docker is needed.
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec@loadtest -Dloadtest.args="--workloads=unique,burst --requests=20000"
+ * </pre>
+ *
+ * Options (defaults in brackets):
+ * <ul>
+ *   <li>{@code --workloads} [unique,replay,burst,mismatch] run in order, each after its own warmup</li>
+ *   <li>{@code --requests} [20000] measured requests per workload; {@code --warmup} [2000]</li>
+ *   <li>{@code --concurrency} [64] requests in flight; for {@code burst}, bursts in flight</li>
+ *   <li>{@code --burst-size} [10] concurrent requests sharing one new key</li>
+ *   <li>{@code --replay-keys} [100] completed keys that {@code replay} and {@code mismatch} draw from</li>
+ *   <li>{@code --label} [local] recorded in the report, e.g. a commit id</li>
+ *   <li>{@code --report} [target/loadtest/report.json]</li>
+ *   <li>{@code --target} [none] base URL of a running node instead of the embedded one</li>
+ *   <li>{@code --app.*}, {@code --spring.*}, {@code --server.*} passed to the embedded application</li>
+ * </ul>
+ */
+public final class LoadTestHarness {
+
+    private static final PaymentRequest PAYMENT = new PaymentRequest("ACC-LOAD", new BigDecimal("100.00"), "PHP", "DEST-LOAD");
+    private static final PaymentRequest MISMATCHED_PAYMENT = new PaymentRequest("ACC-LOAD", new BigDecimal("100.01"), "PHP", "DEST-LOAD");
+    private static final long MAX_TRACKED_LATENCY_MICROS = Duration.ofSeconds(60).toNanos() / 1000;
+
+    private final Options options;
+    private final HttpClient client;
+    private final URI paymentsUri;
+    private final byte[] payment;
+    private final byte[] mismatchedPayment;
+    // Each workload gets fresh keys, also when several harness runs share one Redis.
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+
+    private LoadTestHarness(Options options, String baseUrl, ObjectMapper objectMapper) throws IOException {
+        this.options = options;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        this.paymentsUri = URI.create(baseUrl + "/v1/payments");
+        this.payment = objectMapper.writeValueAsBytes(PAYMENT);
+        this.mismatchedPayment = objectMapper.writeValueAsBytes(MISMATCHED_PAYMENT);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        ObjectMapper objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .enable(SerializationFeature.INDENT_OUTPUT);
+
+        InProcessRedisServer redis = null;
+        ConfigurableApplicationContext application = null;
+        String baseUrl = options.target();
+        if (baseUrl == null) {
+            redis = InProcessRedisServer.start();
+            List<String> applicationArgs = new ArrayList<>(List.of(
+                    "--spring.data.redis.host=" + redis.getHost(),
+                    "--spring.data.redis.port=" + redis.getPort(),
+                    "--server.port=0",
+                    "--app.idempotency.memory-sampler.enabled=false",
+                    // Every workload pays from one account, which the per-account limit would turn away.
+                    "--app.idempotency.rate-limit.enabled=false"));
+            applicationArgs.addAll(options.applicationArgs());
+            application = SpringApplication.run(TymePaymentServiceApplication.class, applicationArgs.toArray(String[]::new));
+            baseUrl = "http://localhost:" + application.getEnvironment().getProperty("local.server.port");
+        }
+
+        try {
+            LoadTestHarness harness = new LoadTestHarness(options, baseUrl, objectMapper);
+            List<WorkloadReport> workloads = new ArrayList<>();
+            for (Workload workload : options.workloads()) {
+                workloads.add(harness.run(workload));
+            }
+
+            Report report = new Report(options.label(), Instant.now(), environment(options), workloads);
+            Path reportPath = Path.of(options.report());
+            Files.createDirectories(reportPath.toAbsolutePath().getParent());
+            objectMapper.writeValue(reportPath.toFile(), report);
+            for (WorkloadReport workload : workloads) {
+                System.out.printf(Locale.ROOT, "%-9s %10.0f req/s  p50 %6d us  p99 %6d us  p999 %6d us  %s%n",
+                        workload.workload(), workload.throughputPerSecond(), workload.latencyMicros().p50(),
+                        workload.latencyMicros().p99(), workload.latencyMicros().p999(), workload.outcomes());
+            }
+            System.out.println("Report written to " + reportPath.toAbsolutePath());
+        } finally {
+            if (application != null) {
+                application.close();
+            }
+            if (redis != null) {
+                redis.close();
+            }
+        }
+    }
+
+    private WorkloadReport run(Workload workload) throws InterruptedException {
+        String keyPrefix = keyPrefix(workload);
+        if (workload == Workload.REPLAY || workload == Workload.MISMATCH) {
+            for (int i = 0; i < options.replayKeys(); i++) {
+                send(replayedKey(workload, i), payment);
+            }
+        }
+
+        drive(workload, keyPrefix + "warmup-", options.warmup(), null);
+        Measurement measurement = new Measurement();
+        long started = System.nanoTime();
+        drive(workload, keyPrefix, options.requests(), measurement);
+        long elapsedNanos = System.nanoTime() - started;
+
+        Histogram latencies = measurement.latencies;
+        long requests = latencies.getTotalCount();
+        return new WorkloadReport(
+                workload.name().toLowerCase(Locale.ROOT),
+                requests,
+                workload == Workload.BURST ? options.concurrency() * options.burstSize() : options.concurrency(),
+                elapsedNanos / 1_000_000,
+                requests * 1e9 / elapsedNanos,
+                new Latency(
+                        latencies.getValueAtPercentile(50),
+                        latencies.getValueAtPercentile(90),
+                        latencies.getValueAtPercentile(99),
+                        latencies.getValueAtPercentile(99.9),
+                        latencies.getMaxValue(),
+                        Math.round(latencies.getMean())),
+                measurement.outcomes());
+    }
+
+    // Workers pull task numbers until the request budget is spent. A burst task sends burst-size requests at once.
+    private void drive(Workload workload, String keyPrefix, int requests, Measurement measurement) throws InterruptedException {
+        int requestsPerTask = workload == Workload.BURST ? options.burstSize() : 1;
+        long tasks = Math.max(1, requests / requestsPerTask);
+        AtomicLong nextTask = new AtomicLong();
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int w = 0; w < options.concurrency(); w++) {
+                workers.submit(() -> {
+                    long task;
+                    while ((task = nextTask.getAndIncrement()) < tasks) {
+                        runTask(workload, keyPrefix, task, measurement);
+                    }
+                    return null;
+                });
+            }
+        }
+    }
+
+    private void runTask(Workload workload, String keyPrefix, long task, Measurement measurement) throws InterruptedException {
+        switch (workload) {
+            case UNIQUE -> timedSend(keyPrefix + task, payment, measurement);
+            case REPLAY -> timedSend(replayedKey(workload, task), payment, measurement);
+            case MISMATCH -> timedSend(replayedKey(workload, task), mismatchedPayment, measurement);
+            case BURST -> {
+                String key = keyPrefix + task;
+                CountDownLatch start = new CountDownLatch(1);
+                try (ExecutorService burst = Executors.newVirtualThreadPerTaskExecutor()) {
+                    for (int i = 0; i < options.burstSize(); i++) {
+                        burst.submit(() -> {
+                            start.await();
+                            timedSend(key, payment, measurement);
+                            return null;
+                        });
+                    }
+                    start.countDown();
+                }
+            }
+        }
+    }
+
+    private String keyPrefix(Workload workload) {
+        return "load-" + runId + "-" + workload.name().toLowerCase(Locale.ROOT) + "-";
+    }
+
+    // Warmup and measured runs replay the same completed keys.
+    private String replayedKey(Workload workload, long task) {
+        return keyPrefix(workload) + "replayed-" + (task % options.replayKeys());
+    }
+
+    private void timedSend(String key, byte[] body, Measurement measurement) {
+        long started = System.nanoTime();
+        String outcome = send(key, body);
+        if (measurement != null) {
+            measurement.record((System.nanoTime() - started) / 1000, outcome);
+        }
+    }
+
+    private String send(String key, byte[] body) {
+        HttpRequest request = HttpRequest.newBuilder(paymentsUri)
+                .header("Content-Type", "application/json")
+                .header("Idempotency-Key", key)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        try {
+            return outcome(client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode());
+        } catch (IOException e) {
+            return "ERROR";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "ERROR";
+        }
+    }
+
+    // Named after IdempotencyOutcome.OutcomeStatus so the report reads like the service's own metrics.
+    private static String outcome(int statusCode) {
+        return switch (statusCode) {
+            case 201 -> "CREATED";
+            case 200 -> "ALREADY_EXISTS";
+            case 409 -> "IN_PROGRESS";
+            case 422 -> "DATA_MISMATCH";
+            case 500 -> "FAILED";
+            default -> "HTTP_" + statusCode;
+        };
+    }
+
+    private static Map<String, Object> environment(Options options) {
+        Map<String, Object> environment = new LinkedHashMap<>();
+        environment.put("java", Runtime.version().toString());
+        environment.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        environment.put("target", options.target() != null ? options.target() : "embedded");
+        environment.put("applicationArgs", options.applicationArgs());
+        environment.put("warmupRequests", options.warmup());
+        environment.put("burstSize", options.burstSize());
+        environment.put("replayKeys", options.replayKeys());
+        return environment;
+    }
+
+    enum Workload { UNIQUE, REPLAY, BURST, MISMATCH }
+
+    private static final class Measurement {
+
+        private final Histogram latencies = new ConcurrentHistogram(MAX_TRACKED_LATENCY_MICROS, 3);
+        private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+        private void record(long latencyMicros, String outcome) {
+            latencies.recordValue(Math.min(Math.max(latencyMicros, 1), MAX_TRACKED_LATENCY_MICROS));
+            outcomes.computeIfAbsent(outcome, o -> new LongAdder()).increment();
+        }
+
+        private Map<String, Long> outcomes() {
+            Map<String, Long> counts = new TreeMap<>();
+            outcomes.forEach((outcome, count) -> counts.put(outcome, count.sum()));
+            return counts;
+        }
+    }
+
+    record Report(String label, Instant finishedAt, Map<String, Object> environment, List<WorkloadReport> workloads) {
+    }
+
+    record WorkloadReport(String workload, long requests, int concurrency, long durationMillis, double throughputPerSecond,
+                          Latency latencyMicros, Map<String, Long> outcomes) {
+    }
+
+    record Latency(long p50, long p90, long p99, long p999, long max, long mean) {
+    }
+
+    record Options(List<Workload> workloads, int requests, int warmup, int concurrency, int burstSize, int replayKeys,
+                   String label, String report, String target, List<String> applicationArgs) {
+
+        private static final List<String> NAMES =
+                List.of("workloads", "requests", "warmup", "concurrency", "burst-size", "replay-keys", "label", "report", "target");
+
+        static Options parse(String[] args) {
+            Map<String, String> values = new LinkedHashMap<>();
+            List<String> applicationArgs = new ArrayList<>();
+            for (String arg : args) {
+                if (arg.startsWith("--app.") || arg.startsWith("--spring.") || arg.startsWith("--server.")) {
+                    applicationArgs.add(arg);
+                } else if (arg.startsWith("--") && arg.contains("=") && NAMES.contains(arg.substring(2, arg.indexOf('=')))) {
+                    values.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+                } else if (!arg.isBlank()) {
+                    throw new IllegalArgumentException("Unrecognised argument: " + arg);
+                }
+            }
+
+            List<Workload> workloads = new ArrayList<>();
+            for (String workload : values.getOrDefault("workloads", "unique,replay,burst,mismatch").split(",")) {
+                workloads.add(Workload.valueOf(workload.trim().toUpperCase(Locale.ROOT)));
+            }
+            return new Options(
+                    workloads,
+                    Integer.parseInt(values.getOrDefault("requests", "20000")),
+                    Integer.parseInt(values.getOrDefault("warmup", "2000")),
+                    Integer.parseInt(values.getOrDefault("concurrency", "64")),
+                    Integer.parseInt(values.getOrDefault("burst-size", "10")),
+                    Integer.parseInt(values.getOrDefault("replay-keys", "100")),
+                    values.getOrDefault("label", "local"),
+                    values.getOrDefault("report", "target/loadtest/report.json"),
+                    values.get("target"),
+                    List.copyOf(applicationArgs));
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.tyme.payment.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.tyme.payment.model.PaymentRequest;
+import com.tyme.payment.support.InProcessRedisServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Starts the packaged service repeatedly in each startup mode and measures how long until Spring reports it started
+ * and until it answers its first payment with 201. Every run is a fresh process against an in-process Redis stand-in,
+ * and the JSON report can be diffed across versions like the load-test one.
+ *
+ * <pre>
+ * mvn -Pfast-startup package -DskipTests
+ * mvn -Pbenchmark test-compile exec:exec@startup -Dstartup.args="--modes=jar,aot,cds --runs=5"
+ * </pre>
+ *
+ * Modes: {@code jar} (plain {@code java -jar}), {@code aot} (with {@code -Dspring.aot.enabled=true}), {@code cds}
+ * (AOT plus the class-data archive in {@code target/cds}) and {@code native} (the GraalVM executable from
+ * {@code mvn -Pnative native:compile}). Options (defaults in brackets):
+ * <ul>
+ *   <li>{@code --modes} [jar,aot,cds,native] modes whose artifact is missing are skipped</li>
+ *   <li>{@code --runs} [5] process starts per mode, after one unmeasured start</li>
+ *   <li>{@code --timeout} [120] seconds a single start may take</li>
+ *   <li>{@code --label} [local] recorded in the report, e.g. a commit id</li>
+ *   <li>{@code --report} [target/startup/report.json]</li>
+ *   <li>{@code --target} [target] the build directory holding the artifacts</li>
+ *   <li>{@code --app.*}, {@code --spring.*} passed to every started process</li>
+ * </ul>
+ */
+public final class StartupTimer {
+
+    private static final Pattern STARTED = Pattern.compile("Started \\S+ in [0-9.]+ seconds");
+    private static final PaymentRequest PAYMENT = new PaymentRequest("ACC-STARTUP", new BigDecimal("1.00"), "PHP", "DEST-STARTUP");
+
+    private final Options options;
+    private final InProcessRedisServer redis;
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(200))
+            .build();
+    private final byte[] payment;
+
+    private StartupTimer(Options options, InProcessRedisServer redis, ObjectMapper objectMapper) throws IOException {
+        this.options = options;
+        this.redis = redis;
+        this.payment = objectMapper.writeValueAsBytes(PAYMENT);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        ObjectMapper objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .enable(SerializationFeature.INDENT_OUTPUT);
+
+        try (InProcessRedisServer redis = InProcessRedisServer.start()) {
+            StartupTimer timer = new StartupTimer(options, redis, objectMapper);
+            List<ModeReport> modes = new ArrayList<>();
+            for (Mode mode : options.modes()) {
+                List<String> command = mode.command(options.target());
+                if (command == null) {
+                    System.out.printf(Locale.ROOT, "%-6s skipped, artifact not built%n", mode.name().toLowerCase(Locale.ROOT));
+                    continue;
+                }
+                modes.add(timer.measure(mode, command));
+            }
+
+            Report report = new Report(options.label(), Instant.now(), environment(options), modes);
+            Path reportPath = Path.of(options.report());
+            Files.createDirectories(reportPath.toAbsolutePath().getParent());
+            objectMapper.writeValue(reportPath.toFile(), report);
+            for (ModeReport mode : modes) {
+                System.out.printf(Locale.ROOT, "%-6s started %6d ms  first request %6d ms  (medians of %d runs)%n",
+                        mode.mode(), mode.startedMillis().median(), mode.firstRequestMillis().median(), mode.runs());
+            }
+            System.out.println("Report written to " + reportPath.toAbsolutePath());
+        }
+    }
+
+    private ModeReport measure(Mode mode, List<String> command) throws Exception {
+        // The first start also pays for a cold page cache, which no autoscaled pod sees twice.
+        start(command);
+        long[] started = new long[options.runs()];
+        long[] firstRequest = new long[options.runs()];
+        for (int run = 0; run < options.runs(); run++) {
+            Run result = start(command);
+            started[run] = result.startedMillis();
+            firstRequest[run] = result.firstRequestMillis();
+        }
+        return new ModeReport(mode.name().toLowerCase(Locale.ROOT), options.runs(), command, Stats.of(started), Stats.of(firstRequest));
+    }
+
+    private Run start(List<String> baseCommand) throws Exception {
+        int port = freePort();
+        List<String> command = new ArrayList<>(baseCommand);
+        command.addAll(List.of(
+                "--server.port=" + port,
+                "--spring.data.redis.host=" + redis.getHost(),
+                "--spring.data.redis.port=" + redis.getPort(),
+                "--app.idempotency.memory-sampler.enabled=false"));
+        command.addAll(options.applicationArgs());
+
+        long launched = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        try {
+            CompletableFuture<Long> started = new CompletableFuture<>();
+            Thread.ofVirtual().start(() -> watchOutput(process, launched, started));
+            long firstRequest = awaitFirstPayment(port, launched);
+            return new Run(started.get(options.timeout().toSeconds(), TimeUnit.SECONDS), firstRequest);
+        } finally {
+            process.destroy();
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    // Timed on this side rather than read from the log line, so the JVM's own startup is included. The output is
+    // drained to the end either way, so the process never blocks on a full pipe.
+    private static void watchOutput(Process process, long launched, CompletableFuture<Long> started) {
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (!started.isDone() && STARTED.matcher(line).find()) {
+                    started.complete((System.nanoTime() - launched) / 1_000_000);
+                }
+            }
+        } catch (IOException e) {
+            started.completeExceptionally(e);
+        }
+        started.complete(-1L);
+    }
+
+    private long awaitFirstPayment(int port, long launched) throws InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/v1/payments"))
+                .header("Content-Type", "application/json")
+                .header("Idempotency-Key", "startup-" + launched)
+                .timeout(options.timeout())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(payment))
+                .build();
+        long deadline = launched + options.timeout().toNanos();
+        while (System.nanoTime() < deadline) {
+            try {
+                if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 201) {
+                    return (System.nanoTime() - launched) / 1_000_000;
+                }
+            } catch (IOException e) {
+                // Not listening yet.
+            }
+            Thread.sleep(5);
+        }
+        throw new IllegalStateException("No payment was accepted within " + options.timeout() + ": " + request.uri());
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static Map<String, Object> environment(Options options) {
+        Map<String, Object> environment = new LinkedHashMap<>();
+        environment.put("java", Runtime.version().toString());
+        environment.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        environment.put("target", options.target().toString());
+        environment.put("applicationArgs", options.applicationArgs());
+        return environment;
+    }
+
+    enum Mode {
+        JAR, AOT, CDS, NATIVE;
+
+        // null when the artifact this mode starts has not been built.
+        List<String> command(Path target) throws IOException {
+            String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+            Path jar = bootJar(target);
+            Path extracted = jar == null ? null : target.resolve("cds").resolve(jar.getFileName());
+            Path archive = target.resolve("cds").resolve("application.jsa");
+            return switch (this) {
+                case JAR -> jar == null ? null : List.of(java, "-jar", jar.toString());
+                case AOT -> jar == null ? null : List.of(java, "-Dspring.aot.enabled=true", "-jar", jar.toString());
+                case CDS -> extracted == null || !Files.exists(extracted) || !Files.exists(archive) ? null
+                        : List.of(java, "-XX:SharedArchiveFile=" + archive, "-Xlog:cds=off", "-Dspring.aot.enabled=true",
+                        "-jar", extracted.toString());
+                case NATIVE -> {
+                    Path executable = target.resolve("tyme-payment-service");
+                    yield Files.isExecutable(executable) ? List.of(executable.toString()) : null;
+                }
+            };
+        }
+
+        private static Path bootJar(Path target) throws IOException {
+            if (!Files.isDirectory(target)) {
+                return null;
+            }
+            try (Stream<Path> files = Files.list(target)) {
+                return files.filter(file -> file.getFileName().toString().matches("tyme-payment-service-.*\\.jar"))
+                        .findFirst()
+                        .orElse(null);
+            }
+        }
+    }
+
+    private record Run(long startedMillis, long firstRequestMillis) {
+    }
+
+    record Report(String label, Instant finishedAt, Map<String, Object> environment, List<ModeReport> modes) {
+    }
+
+    record ModeReport(String mode, int runs, List<String> command, Stats startedMillis, Stats firstRequestMillis) {
+    }
+
+    record Stats(long median, long min, long max) {
+
+        static Stats of(long[] values) {
+            long[] sorted = values.clone();
+            Arrays.sort(sorted);
+            return new Stats(sorted[sorted.length / 2], sorted[0], sorted[sorted.length - 1]);
+        }
+    }
+
+    record Options(List<Mode> modes, int runs, Duration timeout, String label, String report, Path target,
+                   List<String> applicationArgs) {
+
+        private static final List<String> NAMES = List.of("modes", "runs", "timeout", "label", "report", "target");
+
+        static Options parse(String[] args) {
+            Map<String, String> values = new LinkedHashMap<>();
+            List<String> applicationArgs = new ArrayList<>();
+            for (String arg : args) {
+                if (arg.startsWith("--app.") || arg.startsWith("--spring.")) {
+                    applicationArgs.add(arg);
+                } else if (arg.startsWith("--") && arg.contains("=") && NAMES.contains(arg.substring(2, arg.indexOf('=')))) {
+                    values.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+                } else if (!arg.isBlank()) {
+                    throw new IllegalArgumentException("Unrecognised argument: " + arg);
+                }
+            }
+
+            List<Mode> modes = new ArrayList<>();
+            for (String mode : values.getOrDefault("modes", "jar,aot,cds,native").split(",")) {
+                modes.add(Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT)));
+            }
+            return new Options(
+                    modes,
+                    Integer.parseInt(values.getOrDefault("runs", "5")),
+                    Duration.ofSeconds(Long.parseLong(values.getOrDefault("timeout", "120"))),
+                    values.getOrDefault("label", "local"),
+                    values.getOrDefault("report", "target/startup/report.json"),
+                    Path.of(values.getOrDefault("target", "target")),
+                    List.copyOf(applicationArgs));
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package com.tyme.payment.advice;
 
+import com.tyme.payment.exception.BatchSizeExceededException;
 import com.tyme.payment.exception.IdempotencyKeyRequiredException;
+import com.tyme.payment.exception.PaymentRejectedException;
+import com.tyme.payment.exception.RateLimitExceededException;
 import com.tyme.payment.model.ApiError;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -23,6 +27,38 @@ public class GlobalExceptionHandler {
                 .body(new ApiError("IDEMPOTENCY_KEY_MISSING", String.valueOf(status.value()), ex.getMessage(), LocalDateTime.now()));
     }
 
+    @ExceptionHandler(BatchSizeExceededException.class)
+    public ResponseEntity<ApiError> handleBatchSizeException(BatchSizeExceededException ex) {
+
+        HttpStatus status = HttpStatus.BAD_REQUEST;
+
+        return ResponseEntity.status(status)
+                .body(new ApiError("BATCH_TOO_LARGE", String.valueOf(status.value()), ex.getMessage(), LocalDateTime.now()));
+    }
+
+    // The key was released before this is thrown, so the client can retry the same request.
+    @ExceptionHandler(PaymentRejectedException.class)
+    public ResponseEntity<ApiError> handlePaymentRejectedException(PaymentRejectedException ex) {
+
+        // Any 4xx or 5xx code may be configured, including ones HttpStatus does not name.
+        int status = ex.getStatus();
+
+        return ResponseEntity.status(status)
+                .body(new ApiError("PAYMENT_BACKLOGGED", String.valueOf(status), ex.getMessage(), LocalDateTime.now()));
+    }
+
+    // Retry-After is in whole seconds, rounded up so a client that honours it finds tokens waiting.
+    @ExceptionHandler(RateLimitExceededException.class)
+    public ResponseEntity<ApiError> handleRateLimitException(RateLimitExceededException ex) {
+
+        HttpStatus status = HttpStatus.TOO_MANY_REQUESTS;
+        long retryAfterSeconds = Math.max(1, (ex.getRetryAfter().toMillis() + 999) / 1000);
+
+        return ResponseEntity.status(status)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(new ApiError("RATE_LIMITED", String.valueOf(status.value()), ex.getMessage(), LocalDateTime.now()));
+    }
+
     @ExceptionHandler(MethodArgumentNotValidException.class)
     public ResponseEntity<ApiError> handleValidationExceptions(MethodArgumentNotValidException ex) {
 
@@ -0,0 +1,390 @@
+package com.tyme.payment.codec;
+
+import com.tyme.payment.model.IdempotentResponse;
+import com.tyme.payment.model.PaymentResponse;
+import com.tyme.payment.model.RenderedBody;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary encoding of idempotency values. Layout: {@code MAGIC, VERSION, FLAGS, payload}, where the payload is a
+ * tagged record (optionally deflated). Anything that does not start with {@link #MAGIC} is handed to the JSON
+ * fallback serializer, so entries written before the codec existed stay readable.
+ */
+public class IdempotencyValueCodec implements RedisSerializer<Object> {
+
+    public enum WriteFormat {
+        JSON,
+        BINARY
+    }
+
+    static final byte MAGIC = (byte) 0xB1;
+    static final byte VERSION = 1;
+
+    private static final int FLAG_COMPRESSED = 1;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    // Tag 2 carried the request hash as a hex string; still read for entries written before fingerprints.
+    private static final byte TAG_IDEMPOTENT_RESPONSE_HEX_HASH = 2;
+    private static final byte TAG_PAYMENT_RESPONSE = 3;
+    private static final byte TAG_IDEMPOTENT_RESPONSE = 4;
+    private static final byte TAG_RENDERED_BODY = 5;
+    private static final byte TAG_JSON = 9;
+
+    private static final int HEADER_LENGTH = 3;
+
+    private final RedisSerializer<Object> jsonFallback;
+    private final WriteFormat writeFormat;
+    private final int compressionThreshold;
+
+    public IdempotencyValueCodec(RedisSerializer<Object> jsonFallback, WriteFormat writeFormat, int compressionThreshold) {
+        this.jsonFallback = jsonFallback;
+        this.writeFormat = writeFormat;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return null;
+        }
+        if (writeFormat == WriteFormat.JSON) {
+            return jsonFallback.serialize(value);
+        }
+
+        Output out = new Output(128);
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(0);
+        writeValue(out, value);
+
+        int payloadLength = out.length - HEADER_LENGTH;
+        if (compressionThreshold > 0 && payloadLength >= compressionThreshold) {
+            return compress(out, payloadLength);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != MAGIC) {
+            return jsonFallback.deserialize(bytes);
+        }
+        if (bytes.length < HEADER_LENGTH || bytes[1] != VERSION) {
+            throw new SerializationException("Unsupported idempotency value version: " + (bytes.length > 1 ? bytes[1] : -1));
+        }
+
+        Input in = (bytes[2] & FLAG_COMPRESSED) != 0
+                ? new Input(decompress(bytes), 0)
+                : new Input(bytes, HEADER_LENGTH);
+        return readValue(in);
+    }
+
+    private void writeValue(Output out, Object value) {
+        switch (value) {
+            case null -> out.writeByte(TAG_NULL);
+            case String text -> {
+                out.writeByte(TAG_STRING);
+                out.writeString(text);
+            }
+            case IdempotentResponse response -> {
+                out.writeByte(TAG_IDEMPOTENT_RESPONSE);
+                out.writeVarLong(response.statusCode());
+                out.writeNullableBytes(response.requestHash());
+                writeValue(out, response.responseBody());
+            }
+            case PaymentResponse payment -> {
+                out.writeByte(TAG_PAYMENT_RESPONSE);
+                out.writeString(payment.transactionId());
+                out.writeString(payment.status());
+                out.writeDecimal(payment.amount());
+                out.writeString(payment.currency());
+                out.writeTimestamp(payment.createdAt());
+            }
+            case RenderedBody body -> {
+                out.writeByte(TAG_RENDERED_BODY);
+                out.writeString(body.contentType());
+                out.writeNullableBytes(body.content());
+            }
+            default -> {
+                out.writeByte(TAG_JSON);
+                out.writeBytes(jsonFallback.serialize(value));
+            }
+        }
+    }
+
+    private Object readValue(Input in) {
+        byte tag = in.readByte();
+        return switch (tag) {
+            case TAG_NULL -> null;
+            case TAG_STRING -> in.readString();
+            case TAG_IDEMPOTENT_RESPONSE -> {
+                int statusCode = (int) in.readVarLong();
+                byte[] requestHash = in.readNullableBytes();
+                yield new IdempotentResponse(statusCode, readValue(in), requestHash);
+            }
+            case TAG_IDEMPOTENT_RESPONSE_HEX_HASH -> {
+                int statusCode = (int) in.readVarLong();
+                String requestHash = in.readString();
+                yield new IdempotentResponse(statusCode, readValue(in),
+                        requestHash == null ? null : requestHash.getBytes(StandardCharsets.US_ASCII));
+            }
+            case TAG_PAYMENT_RESPONSE -> new PaymentResponse(
+                    in.readString(), in.readString(), in.readDecimal(), in.readString(), in.readTimestamp());
+            case TAG_RENDERED_BODY -> new RenderedBody(in.readString(), in.readNullableBytes());
+            case TAG_JSON -> jsonFallback.deserialize(in.readBytes());
+            default -> throw new SerializationException("Unknown idempotency value tag: " + tag);
+        };
+    }
+
+    private static byte[] compress(Output out, int payloadLength) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(out.buffer, HEADER_LENGTH, payloadLength);
+            deflater.finish();
+
+            Output compressed = new Output(payloadLength + 16);
+            compressed.writeByte(MAGIC);
+            compressed.writeByte(VERSION);
+            compressed.writeByte(FLAG_COMPRESSED);
+            compressed.writeVarLong(payloadLength);
+            while (!deflater.finished()) {
+                compressed.ensureCapacity(256);
+                compressed.length += deflater.deflate(compressed.buffer, compressed.length, compressed.buffer.length - compressed.length);
+            }
+            // Not worth it: store the payload uncompressed instead.
+            if (compressed.length >= out.length) {
+                return out.toByteArray();
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] bytes) {
+        Input header = new Input(bytes, HEADER_LENGTH);
+        int originalLength = (int) header.readVarLong();
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(bytes, header.position, bytes.length - header.position);
+            byte[] payload = new byte[originalLength];
+            int read = 0;
+            while (read < originalLength && !inflater.finished()) {
+                int inflated = inflater.inflate(payload, read, originalLength - read);
+                if (inflated == 0 && inflater.needsInput()) {
+                    break;
+                }
+                read += inflated;
+            }
+            if (read != originalLength) {
+                throw new SerializationException("Truncated compressed idempotency value");
+            }
+            return payload;
+        } catch (DataFormatException e) {
+            throw new SerializationException("Corrupt compressed idempotency value", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static final class Output {
+
+        private byte[] buffer;
+        private int length;
+
+        private Output(int initialCapacity) {
+            this.buffer = new byte[initialCapacity];
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+            }
+        }
+
+        private void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[length++] = (byte) value;
+        }
+
+        private void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        private void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        private void writeBytes(byte[] bytes) {
+            writeVarLong(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        // Length is stored +1 so that 0 can mean null.
+        private void writeNullableBytes(byte[] value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            writeVarLong(value.length + 1L);
+            ensureCapacity(value.length);
+            System.arraycopy(value, 0, buffer, length, value.length);
+            length += value.length;
+        }
+
+        private void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length + 1L);
+            ensureCapacity(utf8.length);
+            System.arraycopy(utf8, 0, buffer, length, utf8.length);
+            length += utf8.length;
+        }
+
+        // Scale, then the unscaled value as a zig-zag varint when it fits a long, or as two's-complement bytes.
+        private void writeDecimal(BigDecimal value) {
+            if (value == null) {
+                writeByte(0);
+                return;
+            }
+            BigInteger unscaled = value.unscaledValue();
+            boolean compact = unscaled.bitLength() < 64;
+            writeByte(compact ? 1 : 2);
+            writeZigZag(value.scale());
+            if (compact) {
+                writeZigZag(unscaled.longValue());
+            } else {
+                writeBytes(unscaled.toByteArray());
+            }
+        }
+
+        private void writeTimestamp(LocalDateTime value) {
+            if (value == null) {
+                writeByte(0);
+                return;
+            }
+            writeByte(1);
+            writeZigZag(value.toEpochSecond(ZoneOffset.UTC));
+            writeVarLong(value.getNano());
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, length);
+        }
+    }
+
+    private static final class Input {
+
+        private final byte[] buffer;
+        private int position;
+
+        private Input(byte[] buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        private byte readByte() {
+            if (position >= buffer.length) {
+                throw new SerializationException("Truncated idempotency value");
+            }
+            return buffer[position++];
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new SerializationException("Malformed varint in idempotency value");
+        }
+
+        private long readZigZag() {
+            long raw = readVarLong();
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+
+        private byte[] readBytes() {
+            int length = (int) readVarLong();
+            checkRemaining(length);
+            byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        private byte[] readNullableBytes() {
+            int length = (int) readVarLong() - 1;
+            if (length < 0) {
+                return null;
+            }
+            checkRemaining(length);
+            byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        private String readString() {
+            int length = (int) readVarLong() - 1;
+            if (length < 0) {
+                return null;
+            }
+            checkRemaining(length);
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        private BigDecimal readDecimal() {
+            byte kind = readByte();
+            if (kind == 0) {
+                return null;
+            }
+            int scale = (int) readZigZag();
+            return kind == 1
+                    ? BigDecimal.valueOf(readZigZag(), scale)
+                    : new BigDecimal(new BigInteger(readBytes()), scale);
+        }
+
+        private LocalDateTime readTimestamp() {
+            if (readByte() == 0) {
+                return null;
+            }
+            long epochSecond = readZigZag();
+            return LocalDateTime.ofEpochSecond(epochSecond, (int) readVarLong(), ZoneOffset.UTC);
+        }
+
+        private void checkRemaining(int length) {
+            if (length < 0 || position + length > buffer.length) {
+                throw new SerializationException("Truncated idempotency value");
+            }
+        }
+    }
+}
@@ -1,11 +1,190 @@
 package com.tyme.payment.config;
 
+import com.tyme.payment.codec.IdempotencyValueCodec;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
 
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.List;
 
 @ConfigurationProperties(prefix = "app.idempotency")
 public record IdempotencyProperties(
     Duration ttlDuration,
-    Duration lockDuration
-) {}
\ No newline at end of file
+    // Lease on an in-flight claim; renewed every third of it while the payment runs.
+    Duration lockDuration,
+    @DefaultValue("idempotency:fencing") String fencingCounterKey,
+    @DefaultValue NearCache nearCache,
+    @DefaultValue Codec codec,
+    @DefaultValue Batch batch,
+    @DefaultValue WaitForCompletion waitForCompletion,
+    @DefaultValue Store store,
+    @DefaultValue Keys keys,
+    @DefaultValue MemorySampler memorySampler,
+    @DefaultValue("SYNC") ExecutionMode executionMode,
+    @DefaultValue Sharding sharding,
+    @DefaultValue Fallback fallback,
+    @DefaultValue Admin admin,
+    @DefaultValue PaymentExecutor paymentExecutor,
+    @DefaultValue RateLimit rateLimit,
+    @DefaultValue Coalescing coalescing,
+    @DefaultValue Journal journal
+) {
+    // ASYNC runs single payments as a chain of non-blocking Redis calls and completes the HTTP response from it.
+    public enum ExecutionMode { SYNC, ASYNC }
+
+    public record NearCache(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("10000") long maximumSize,
+        @DefaultValue("16MB") DataSize maximumWeight,
+        @DefaultValue("5m") Duration ttl,
+        @DefaultValue("idempotency:invalidations") String invalidationChannel
+    ) {}
+
+    public record Codec(
+        @DefaultValue("binary") IdempotencyValueCodec.WriteFormat writeFormat,
+        @DefaultValue("1KB") DataSize compressionThreshold
+    ) {}
+
+    public record Batch(
+        @DefaultValue("500") int maxItems,
+        @DefaultValue("32") int concurrency
+    ) {}
+
+    // default-timeout 0s keeps the immediate 409 unless the client sends "Prefer: wait=<seconds>".
+    public record WaitForCompletion(
+        @DefaultValue("0s") Duration defaultTimeout,
+        @DefaultValue("10s") Duration maxTimeout,
+        @DefaultValue("idempotency:completions") String completionChannel
+    ) {}
+
+    // "embedded" keeps keys in this JVM only: for single-node deployments and tests, not for a horizontally scaled fleet.
+    // Off-heap values are allocated off-heap-chunk-size at a time from direct memory, which -XX:MaxDirectMemorySize
+    // caps (by default at the heap size); once it is used up, further values are kept on-heap.
+    public record Store(
+        @DefaultValue("redis") StoreType type,
+        @DefaultValue Embedded embedded
+    ) {
+        public enum StoreType {
+            REDIS,
+            EMBEDDED
+        }
+
+        public record Embedded(
+            @DefaultValue("true") boolean offHeapValues,
+            @DefaultValue("1MB") DataSize offHeapChunkSize,
+            @DefaultValue("1s") Duration expiryTick,
+            @DefaultValue("4096") int wheelSlots
+        ) {}
+    }
+
+    // Redis keys are "<prefix>:<tenant>:<client key>"; client keys longer than max-raw-length are replaced by a hash.
+    // read-legacy-keys lets claims see entries stored under the bare client key; turn it off once ttl-duration has
+    // passed since the rollout. Client keys under prefix, fencing-counter-key or rate-limit.key-prefix are never read
+    // or deleted bare, since those are the service's own keys.
+    public record Keys(
+        @DefaultValue("idem") String prefix,
+        @DefaultValue("default") String tenant,
+        @DefaultValue("64") int maxRawLength,
+        @DefaultValue("true") boolean readLegacyKeys
+    ) {}
+
+    // Each run SCANs the whole keyspace, so enable it on one node only; the first run is one interval after startup.
+    public record MemorySampler(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("5m") Duration interval,
+        @DefaultValue("200") int sampleSize,
+        @DefaultValue("1000") int scanCount
+    ) {}
+
+    // CLUSTER expects spring.data.redis.cluster.nodes and hash-tags every key into one of hash-tag-buckets slots, each
+    // with its own fencing counter. CONSISTENT_HASH spreads keys over standalone nodes (redis://host:port) on a hash
+    // ring; while nodes are added, previous-nodes lists the ring before the change, and keys that moved are claimed on
+    // both owners until ttl-duration has passed.
+    public record Sharding(
+        @DefaultValue("NONE") Mode mode,
+        @DefaultValue("1024") int hashTagBuckets,
+        @DefaultValue List<String> nodes,
+        @DefaultValue List<String> previousNodes,
+        @DefaultValue("160") int virtualNodes
+    ) {
+        public enum Mode { NONE, CLUSTER, CONSISTENT_HASH }
+    }
+
+    // With fallback enabled, idempotency store calls are given up on after call-timeout, per 64 commands for a batch
+    // (other Redis commands keep spring.data.redis.timeout), and failure-threshold failures in a row open a breaker for
+    // open-duration. While it is open, keys are claimed and completed in this JVM only, so duplicates are only caught on
+    // the node that sees them. Those results are written back to Redis once it answers again.
+    public record Fallback(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("250ms") Duration callTimeout,
+        @DefaultValue("5") int failureThreshold,
+        @DefaultValue("5s") Duration openDuration,
+        @DefaultValue("15m") Duration localResultTtl,
+        @DefaultValue("5s") Duration reconcileInterval
+    ) {}
+
+    // The key administration API under /v1/admin/idempotency-keys; off unless the port is reachable by operators only.
+    // Walks are paced to max-keys-per-second scanned keys, scan-count per SCAN call.
+    public record Admin(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("500") int scanCount,
+        @DefaultValue("100") int unlinkBatchSize,
+        @DefaultValue("5000") int maxKeysPerSecond
+    ) {}
+
+    // Claimed payments run one at a time per account and up to max-concurrent at once. A payment is turned away with
+    // rejection-status when max-queued-per-account or max-queued payments are already waiting, or when it has not
+    // started within max-queue-wait; its key is released so the client can retry. rejection-status must be a 4xx or
+    // 5xx code.
+    public record PaymentExecutor(
+        @DefaultValue("256") int maxConcurrent,
+        @DefaultValue("64") int maxQueuedPerAccount,
+        @DefaultValue("10000") int maxQueued,
+        @DefaultValue("5s") Duration maxQueueWait,
+        @DefaultValue("503") int rejectionStatus
+    ) {
+        public PaymentExecutor {
+            if (rejectionStatus < 400 || rejectionStatus > 599) {
+                throw new IllegalArgumentException(
+                        "app.idempotency.payment-executor.rejection-status must be a 4xx or 5xx code, got " + rejectionStatus);
+            }
+        }
+    }
+
+    // One token bucket per account, kept in the store so every node draws from it: capacity tokens, regained at
+    // refill-per-second. A node takes lease-size tokens at a time and spends them locally for up to lease-ttl, so most
+    // payments cost no Redis call; the price is that up to lease-size tokens per node may expire unspent. Tokens are
+    // spent once a payment has claimed its key.
+    public record RateLimit(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("200") long capacity,
+        @DefaultValue("100") double refillPerSecond,
+        @DefaultValue("10") int leaseSize,
+        @DefaultValue("1s") Duration leaseTtl,
+        @DefaultValue("idempotency:rate") String keyPrefix
+    ) {}
+
+    // Single-key claims, completions and releases sent to Redis by concurrent requests are gathered from the first one
+    // for up to window, or until max-batch are waiting, and written as one pipeline. A window of 0 sends whatever is
+    // already queued without waiting for more. A command sent while no other is pending goes straight out.
+    public record Coalescing(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("50us") Duration window,
+        @DefaultValue("64") int maxBatch
+    ) {}
+
+    // Completed payments are also appended to a journal of segment-size files in directory, and each response waits
+    // for its record to be fsynced. On startup, the entries still within ttl-duration are written back to the store
+    // wherever it no longer has them, retrying every replay-retry-interval while it cannot be reached. A segment is
+    // deleted once all its entries have expired. directory must survive restarts, e.g. a persistent volume.
+    public record Journal(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("data/journal") Path directory,
+        @DefaultValue("64MB") DataSize segmentSize,
+        @DefaultValue("1m") Duration compactInterval,
+        @DefaultValue("500") int replayBatchSize,
+        @DefaultValue("10s") Duration replayRetryInterval
+    ) {}
+}
@@ -0,0 +1,93 @@
+package com.tyme.payment.config;
+
+import com.tyme.payment.codec.IdempotencyValueCodec;
+import com.tyme.payment.store.CoalescingIdempotencyStore;
+import com.tyme.payment.store.EmbeddedIdempotencyStore;
+import com.tyme.payment.store.EmbeddedTokenBucketStore;
+import com.tyme.payment.store.FallbackIdempotencyStore;
+import com.tyme.payment.store.IdempotencyStore;
+import com.tyme.payment.store.MeteredIdempotencyStore;
+import com.tyme.payment.store.RedisIdempotencyStore;
+import com.tyme.payment.store.RedisTokenBucketStore;
+import com.tyme.payment.store.ShardedIdempotencyStore;
+import com.tyme.payment.store.TokenBucketStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.time.Clock;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Configuration
+public class IdempotencyStoreConfig {
+
+    static final String STORE_TYPE_PROPERTY = "app.idempotency.store.type";
+
+    @Bean
+    @ConditionalOnProperty(name = STORE_TYPE_PROPERTY, havingValue = "redis", matchIfMissing = true)
+    public IdempotencyStore redisIdempotencyStore(RedisTemplate<String, Object> redisTemplate, IdempotencyProperties properties,
+                                                  MeterRegistry meterRegistry, RedisShards redisShards) {
+        IdempotencyStore store = redisShards.isEmpty()
+                ? coalesced(new RedisIdempotencyStore(redisTemplate, properties), properties, meterRegistry,
+                        "idempotency.store", Tags.of("store", "redis"))
+                : shardedStore(redisShards, properties, meterRegistry);
+        MeteredIdempotencyStore metered = new MeteredIdempotencyStore(store, meterRegistry, "redis");
+        return properties.fallback().enabled()
+                ? new FallbackIdempotencyStore(metered, embeddedStore(properties), properties, meterRegistry, Clock.systemUTC())
+                : metered;
+    }
+
+    // Each shard is timed on its own as idempotency.shard.requests, next to the overall idempotency.store.requests.
+    private static ShardedIdempotencyStore shardedStore(RedisShards redisShards, IdempotencyProperties properties,
+                                                        MeterRegistry meterRegistry) {
+        Map<String, IdempotencyStore> shards = new LinkedHashMap<>();
+        for (String name : redisShards.names()) {
+            Tags tags = Tags.of("shard", name);
+            IdempotencyStore shard = coalesced(new RedisIdempotencyStore(redisShards.template(name), properties), properties,
+                    meterRegistry, "idempotency.shard", tags);
+            shards.put(name, new MeteredIdempotencyStore(shard, meterRegistry, "idempotency.shard", tags));
+        }
+        return new ShardedIdempotencyStore(shards, redisShards.nodes(), redisShards.previousNodes(),
+                properties.sharding().virtualNodes());
+    }
+
+    // Inside the metered store, so idempotency.store.requests still shows what a caller waited, window included.
+    private static IdempotencyStore coalesced(RedisIdempotencyStore store, IdempotencyProperties properties,
+                                              MeterRegistry meterRegistry, String meterPrefix, Tags tags) {
+        return properties.coalescing().enabled()
+                ? new CoalescingIdempotencyStore(store, properties.coalescing(), meterRegistry, meterPrefix, tags)
+                : store;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = STORE_TYPE_PROPERTY, havingValue = "embedded")
+    public IdempotencyStore embeddedIdempotencyStore(IdempotencyProperties properties, MeterRegistry meterRegistry) {
+        return new MeteredIdempotencyStore(embeddedStore(properties), meterRegistry, "embedded");
+    }
+
+    // Buckets live on the default connection even when keys are sharded; one bucket is one small hash per account.
+    @Bean
+    @ConditionalOnProperty(name = STORE_TYPE_PROPERTY, havingValue = "redis", matchIfMissing = true)
+    public TokenBucketStore redisTokenBucketStore(RedisTemplate<String, Object> redisTemplate, IdempotencyProperties properties) {
+        return new RedisTokenBucketStore(redisTemplate, properties);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = STORE_TYPE_PROPERTY, havingValue = "embedded")
+    public TokenBucketStore embeddedTokenBucketStore(IdempotencyProperties properties) {
+        return new EmbeddedTokenBucketStore(properties.rateLimit(), Clock.systemUTC());
+    }
+
+    // Nothing written by older nodes can be in-process, so values are always binary.
+    public static EmbeddedIdempotencyStore embeddedStore(IdempotencyProperties properties) {
+        IdempotencyValueCodec codec = new IdempotencyValueCodec(
+                RedisConfig.jsonValueSerializer(),
+                IdempotencyValueCodec.WriteFormat.BINARY,
+                (int) properties.codec().compressionThreshold().toBytes());
+        return new EmbeddedIdempotencyStore(properties.store().embedded(), codec, Clock.systemUTC());
+    }
+}
@@ -5,22 +5,54 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.jsontype.BasicPolymorphicTypeValidator;
 import com.fasterxml.jackson.databind.jsontype.PolymorphicTypeValidator;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.tyme.payment.codec.IdempotencyValueCodec;
+import com.tyme.payment.service.IdempotencyCompletionSignals;
+import com.tyme.payment.service.IdempotencyNearCache;
+import io.lettuce.core.resource.ClientResources;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
+import java.util.ArrayList;
+import java.util.List;
+
+@Slf4j
 @Configuration
 public class RedisConfig {
 
 
     @Bean
-    public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory connectionFactory) {
+    public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory connectionFactory, IdempotencyProperties properties) {
+        return idempotencyTemplate(connectionFactory, properties);
+    }
+
+    static RedisTemplate<String, Object> idempotencyTemplate(RedisConnectionFactory connectionFactory, IdempotencyProperties properties) {
         RedisTemplate<String, Object> template = new RedisTemplate<>();
         template.setConnectionFactory(connectionFactory);
 
+        IdempotencyValueCodec serializer = new IdempotencyValueCodec(
+                jsonValueSerializer(),
+                properties.codec().writeFormat(),
+                (int) properties.codec().compressionThreshold().toBytes());
+
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(serializer);
+        template.setHashKeySerializer(new StringRedisSerializer());
+        template.setHashValueSerializer(serializer);
+
+        return template;
+    }
+
+    // Polymorphic JSON used before the binary codec; still needed to read entries written by older nodes.
+    public static GenericJackson2JsonRedisSerializer jsonValueSerializer() {
         ObjectMapper mapper = new ObjectMapper();
         mapper.registerModule(new JavaTimeModule());
 
@@ -28,13 +60,66 @@ public class RedisConfig {
 
         mapper.activateDefaultTyping(ptv, ObjectMapper.DefaultTyping.EVERYTHING, JsonTypeInfo.As.PROPERTY);
 
-        GenericJackson2JsonRedisSerializer serializer = new GenericJackson2JsonRedisSerializer(mapper);
+        return new GenericJackson2JsonRedisSerializer(mapper);
+    }
+
+    // Pub/sub only carries news from other nodes, which an embedded store does not have.
+    @Bean
+    @ConditionalOnProperty(name = IdempotencyStoreConfig.STORE_TYPE_PROPERTY, havingValue = "redis", matchIfMissing = true)
+    public RedisMessageListenerContainer idempotencyListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                      IdempotencyNearCache nearCache,
+                                                                      IdempotencyCompletionSignals completionSignals,
+                                                                      IdempotencyProperties properties) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer() {
+            @Override
+            public boolean isAutoStartup() {
+                return false;
+            }
+        };
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(nearCache, new ChannelTopic(properties.nearCache().invalidationChannel()));
+        container.addMessageListener(completionSignals, new ChannelTopic(properties.waitForCompletion().completionChannel()));
+        return container;
+    }
 
-        template.setKeySerializer(new StringRedisSerializer());
-        template.setValueSerializer(serializer);
-        template.setHashKeySerializer(new StringRedisSerializer());
-        template.setHashValueSerializer(serializer);
+    // Empty unless sharding.mode is consistent-hash. Completions are published on the shard that owns the key, so
+    // each shard gets its own listener; near-cache invalidations stay on the default connection.
+    @Bean
+    @ConditionalOnProperty(name = IdempotencyStoreConfig.STORE_TYPE_PROPERTY, havingValue = "redis", matchIfMissing = true)
+    public RedisShards redisShards(IdempotencyProperties properties, ClientResources clientResources,
+                                   IdempotencyCompletionSignals completionSignals) {
+        return RedisShards.connect(properties, clientResources, completionSignals);
+    }
 
-        return template;
+    // Pub/sub is started off the startup path so an unreachable Redis does not stop the service from booting.
+    @Bean
+    @ConditionalOnProperty(name = IdempotencyStoreConfig.STORE_TYPE_PROPERTY, havingValue = "redis", matchIfMissing = true)
+    public ApplicationRunner idempotencyListenerStarter(RedisMessageListenerContainer idempotencyListenerContainer,
+                                                        RedisShards redisShards) {
+        return args -> {
+            List<RedisMessageListenerContainer> containers = new ArrayList<>();
+            containers.add(idempotencyListenerContainer);
+            containers.addAll(redisShards.listenerContainers());
+            for (RedisMessageListenerContainer container : containers) {
+                Thread.ofVirtual().name("idempotency-pubsub-starter").start(() -> startWhenReachable(container));
+            }
+        };
+    }
+
+    private static void startWhenReachable(RedisMessageListenerContainer container) {
+        while (!container.isListening()) {
+            try {
+                container.start();
+            } catch (RuntimeException e) {
+                container.stop();
+                log.warn("Idempotency pub/sub subscription failed, retrying: {}", e.getMessage());
+                try {
+                    Thread.sleep(RedisMessageListenerContainer.DEFAULT_RECOVERY_INTERVAL);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,159 @@
+package com.tyme.payment.config;
+
+import io.lettuce.core.RedisCredentials;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.resource.ClientResources;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The standalone Redis nodes of a consistent-hash sharded store: a connection factory, template and completion
+ * listener per node. Nodes are named {@code host:port} (plus {@code /db} when not 0), which keeps credentials out of
+ * the ring and the metric tags. All share the application's Lettuce {@link ClientResources}, so command latency is
+ * recorded per node as well.
+ */
+public class RedisShards implements DisposableBean {
+
+    private final Map<String, Shard> shards = new LinkedHashMap<>();
+    private final List<String> nodes;
+    private final List<String> previousNodes;
+
+    private RedisShards(List<String> nodes, List<String> previousNodes) {
+        this.nodes = nodes;
+        this.previousNodes = previousNodes;
+    }
+
+    static RedisShards connect(IdempotencyProperties properties, ClientResources clientResources,
+                               MessageListener completionListener) {
+        IdempotencyProperties.Sharding sharding = properties.sharding();
+        if (sharding.mode() != IdempotencyProperties.Sharding.Mode.CONSISTENT_HASH) {
+            return none();
+        }
+        if (sharding.nodes().isEmpty()) {
+            throw new IllegalStateException("app.idempotency.sharding.nodes must list the Redis nodes of the hash ring");
+        }
+
+        Map<String, RedisURI> uris = new LinkedHashMap<>();
+        List<String> nodes = names(sharding.nodes(), uris);
+        List<String> previousNodes = names(sharding.previousNodes(), uris);
+        RedisShards redisShards = new RedisShards(nodes, previousNodes);
+        try {
+            uris.forEach((name, uri) -> redisShards.shards.put(name, Shard.connect(uri, clientResources, properties, completionListener)));
+        } catch (RuntimeException e) {
+            redisShards.destroy();
+            throw e;
+        }
+        return redisShards;
+    }
+
+    /** No shards: the store uses the default Redis connection. */
+    public static RedisShards none() {
+        return new RedisShards(List.of(), List.of());
+    }
+
+    private static List<String> names(List<String> uris, Map<String, RedisURI> parsed) {
+        Set<String> names = new LinkedHashSet<>();
+        for (String value : uris) {
+            RedisURI uri = RedisURI.create(value);
+            String name = uri.getHost() + ":" + uri.getPort() + (uri.getDatabase() != 0 ? "/" + uri.getDatabase() : "");
+            parsed.putIfAbsent(name, uri);
+            names.add(name);
+        }
+        return List.copyOf(names);
+    }
+
+    public boolean isEmpty() {
+        return shards.isEmpty();
+    }
+
+    /** The current ring. */
+    public List<String> nodes() {
+        return nodes;
+    }
+
+    /** The ring before nodes were added; empty outside a migration. */
+    public List<String> previousNodes() {
+        return previousNodes;
+    }
+
+    /** Every node of both rings. */
+    public Set<String> names() {
+        return shards.keySet();
+    }
+
+    public RedisTemplate<String, Object> template(String name) {
+        return shards.get(name).template();
+    }
+
+    public List<RedisMessageListenerContainer> listenerContainers() {
+        return shards.values().stream().map(Shard::listenerContainer).toList();
+    }
+
+    @Override
+    public void destroy() {
+        shards.values().forEach(Shard::close);
+    }
+
+    private record Shard(LettuceConnectionFactory connectionFactory, RedisTemplate<String, Object> template,
+                         RedisMessageListenerContainer listenerContainer) {
+
+        private static Shard connect(RedisURI uri, ClientResources clientResources, IdempotencyProperties properties,
+                                     MessageListener completionListener) {
+            RedisStandaloneConfiguration standalone = new RedisStandaloneConfiguration(uri.getHost(), uri.getPort());
+            standalone.setDatabase(uri.getDatabase());
+            // Node URIs come from configuration, so their credentials are static and resolve without blocking.
+            RedisCredentials credentials = uri.getCredentialsProvider().resolveCredentials().block();
+            if (credentials != null && credentials.hasUsername()) {
+                standalone.setUsername(credentials.getUsername());
+            }
+            if (credentials != null && credentials.hasPassword()) {
+                standalone.setPassword(credentials.getPassword());
+            }
+            LettuceClientConfiguration.LettuceClientConfigurationBuilder client = LettuceClientConfiguration.builder()
+                    .clientResources(clientResources)
+                    .commandTimeout(uri.getTimeout());
+            if (uri.isSsl()) {
+                client.useSsl();
+            }
+            LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(standalone, client.build());
+            connectionFactory.afterPropertiesSet();
+            connectionFactory.start();
+
+            RedisTemplate<String, Object> template = RedisConfig.idempotencyTemplate(connectionFactory, properties);
+            template.afterPropertiesSet();
+
+            // Started with the default container, off the startup path.
+            RedisMessageListenerContainer listenerContainer = new RedisMessageListenerContainer() {
+                @Override
+                public boolean isAutoStartup() {
+                    return false;
+                }
+            };
+            listenerContainer.setConnectionFactory(connectionFactory);
+            listenerContainer.addMessageListener(completionListener, new ChannelTopic(properties.waitForCompletion().completionChannel()));
+            listenerContainer.afterPropertiesSet();
+            return new Shard(connectionFactory, template, listenerContainer);
+        }
+
+        private void close() {
+            try {
+                listenerContainer.destroy();
+            } catch (Exception ignored) {
+                // the connection factory below is closed regardless
+            }
+            connectionFactory.destroy();
+        }
+    }
+}
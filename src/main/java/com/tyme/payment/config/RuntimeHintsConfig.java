@@ -0,0 +1,42 @@
+package com.tyme.payment.config;
+
+import com.tyme.payment.model.ApiError;
+import com.tyme.payment.model.IdempotentResponse;
+import com.tyme.payment.model.PaymentResponse;
+import com.tyme.payment.model.RenderedBody;
+import com.tyme.payment.service.IdempotencyKeyAdmin;
+import com.tyme.payment.store.StoredKey;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.boot.context.properties.bind.BindableRuntimeHintsRegistrar;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ImportRuntimeHints;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * What an AOT-processed build cannot infer from the bean definitions and controller signatures: the Lua scripts read
+ * from the classpath, and the types Jackson writes outside Spring MVC's declared return types. The polymorphic Redis
+ * serializer names every value's class in the JSON, so the JDK types inside a stored response need hints too.
+ */
+@Configuration(proxyBeanMethods = false)
+@ImportRuntimeHints(RuntimeHintsConfig.IdempotencyRuntimeHints.class)
+@RegisterReflectionForBinding({IdempotentResponse.class, PaymentResponse.class, RenderedBody.class, ApiError.class,
+        StoredKey.class, IdempotencyKeyAdmin.Progress.class})
+public class RuntimeHintsConfig {
+
+    static class IdempotencyRuntimeHints implements RuntimeHintsRegistrar {
+
+        @Override
+        public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+            hints.resources().registerPattern("scripts/*.lua");
+            hints.reflection().registerType(BigDecimal.class, MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+            hints.reflection().registerType(LocalDateTime.class, MemberCategory.INVOKE_PUBLIC_METHODS);
+            // Boot infers this from @EnableConfigurationProperties as well; the nested records are what matter here.
+            BindableRuntimeHintsRegistrar.forTypes(IdempotencyProperties.class).registerHints(hints, classLoader);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.tyme.payment.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tyme.payment.service.IdempotencyKeyAdmin;
+import com.tyme.payment.store.KeyPage;
+import com.tyme.payment.store.StoredKey;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Duration;
+
+/**
+ * Lists (GET) or removes (DELETE) idempotency keys matching a client-key prefix, state and minimum age. The response
+ * is newline-delimited JSON written as the walk goes: one line per page with the running totals and the page's
+ * matches, then a final line with {@code "done":true}. Passing a page's cursor back resumes an interrupted walk.
+ */
+@RestController
+@RequestMapping("/v1/admin/idempotency-keys")
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "app.idempotency.admin.enabled", havingValue = "true")
+public class IdempotencyKeyAdminController {
+
+    static final String NDJSON = "application/x-ndjson";
+
+    private final IdempotencyKeyAdmin admin;
+    private final ObjectMapper objectMapper;
+
+    @GetMapping
+    public void listKeys(@RequestParam(defaultValue = "") String prefix,
+                         @RequestParam(required = false) StoredKey.State state,
+                         @RequestParam(required = false) String olderThan,
+                         @RequestParam(defaultValue = "false") boolean legacy,
+                         @RequestParam(required = false) Long limit,
+                         @RequestParam(defaultValue = KeyPage.START) String cursor,
+                         HttpServletResponse response) throws Exception {
+        walk(query(prefix, state, olderThan, legacy, limit), cursor, false, response);
+    }
+
+    @DeleteMapping
+    public void deleteKeys(@RequestParam(defaultValue = "") String prefix,
+                           @RequestParam(required = false) StoredKey.State state,
+                           @RequestParam(required = false) String olderThan,
+                           @RequestParam(defaultValue = "false") boolean legacy,
+                           @RequestParam(required = false) Long limit,
+                           @RequestParam(defaultValue = KeyPage.START) String cursor,
+                           HttpServletResponse response) throws Exception {
+        walk(query(prefix, state, olderThan, legacy, limit), cursor, true, response);
+    }
+
+    // "olderThan" takes the same forms as duration properties, e.g. "6h" or "PT6H".
+    private static IdempotencyKeyAdmin.KeyQuery query(String prefix, StoredKey.State state, String olderThan,
+                                                      boolean legacy, Long limit) {
+        Duration minAge = olderThan != null ? DurationStyle.detectAndParse(olderThan) : null;
+        return new IdempotencyKeyAdmin.KeyQuery(prefix, state, minAge, legacy, limit != null ? limit : Long.MAX_VALUE);
+    }
+
+    // Runs on the request thread and flushes every page, so progress reaches the client while the walk goes on.
+    private void walk(IdempotencyKeyAdmin.KeyQuery query, String cursor, boolean unlink, HttpServletResponse response)
+            throws Exception {
+        response.setContentType(NDJSON);
+        ServletOutputStream out = response.getOutputStream();
+        IdempotencyKeyAdmin.Progress last = admin.walk(query, cursor, unlink, progress -> writeLine(out, progress));
+        writeLine(out, last);
+    }
+
+    private void writeLine(ServletOutputStream out, IdempotencyKeyAdmin.Progress progress) throws Exception {
+        out.write(objectMapper.writeValueAsBytes(progress));
+        out.write('\n');
+        out.flush();
+    }
+}
@@ -1,17 +1,23 @@
 package com.tyme.payment.controller;
 
+import com.tyme.payment.config.IdempotencyProperties;
 import com.tyme.payment.exception.IdempotencyKeyRequiredException;
 import com.tyme.payment.model.ApiError;
+import com.tyme.payment.model.BatchPaymentRequest;
+import com.tyme.payment.model.BatchPaymentResponse;
 import com.tyme.payment.model.IdempotencyOutcome;
 import com.tyme.payment.model.PaymentRequest;
 import com.tyme.payment.model.PaymentResponse;
+import com.tyme.payment.model.RenderedBody;
 import com.tyme.payment.service.PaymentService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 
 @RestController
@@ -20,25 +26,70 @@ import java.time.LocalDateTime;
 public class PaymentController {
 
     private final PaymentService paymentService;
+    private final IdempotencyProperties properties;
 
+    // Returns a CompletableFuture in async mode; Spring MVC picks the return value handler by the returned type.
     @PostMapping
-    public ResponseEntity<?> createPayment(
+    public Object createPayment(
             @RequestHeader(value = "Idempotency-Key", required = false) String key,
+            @RequestHeader(value = "Prefer", required = false) String prefer,
             @Valid @RequestBody PaymentRequest request) {
 
         if (key == null || key.isBlank()) {
             throw new IdempotencyKeyRequiredException("The 'Idempotency-Key' header is mandatory for payment transactions.");
         }
 
-        IdempotencyOutcome<PaymentResponse> outcome = paymentService.processPayment(key, request);
+        if (properties.executionMode() == IdempotencyProperties.ExecutionMode.ASYNC) {
+            return paymentService.processPaymentAsync(key, request, requestedWait(prefer)).thenApply(PaymentController::toResponse);
+        }
+
+        IdempotencyOutcome<PaymentResponse> outcome = paymentService.processPayment(key, request, requestedWait(prefer));
+
+        return toResponse(outcome);
+    }
 
+    @PostMapping("/batch")
+    public ResponseEntity<BatchPaymentResponse> createPayments(@Valid @RequestBody BatchPaymentRequest request) {
+        return ResponseEntity.ok(new BatchPaymentResponse(paymentService.processBatch(request.items())));
+    }
+
+    // RFC 7240 "Prefer: wait=<seconds>"; anything unparseable falls back to the configured default.
+    static Duration requestedWait(String prefer) {
+        if (prefer == null) {
+            return null;
+        }
+        for (String preference : prefer.split(",")) {
+            String[] nameAndValue = preference.trim().split("=", 2);
+            if (nameAndValue.length == 2 && nameAndValue[0].trim().equalsIgnoreCase("wait")) {
+                try {
+                    return Duration.ofSeconds(Math.max(0, Long.parseLong(nameAndValue[1].trim())));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    static ResponseEntity<?> toResponse(IdempotencyOutcome<PaymentResponse> outcome) {
         return switch (outcome.status()) {
-            case CREATED -> ResponseEntity.status(HttpStatus.CREATED).body(outcome.data());
-            case ALREADY_EXISTS -> ResponseEntity.ok(outcome.data());
+            case CREATED -> body(HttpStatus.CREATED, outcome);
+            case ALREADY_EXISTS -> body(HttpStatus.OK, outcome);
             case IN_PROGRESS -> ResponseEntity.status(HttpStatus.CONFLICT)
                     .body(new ApiError("PROCESSING", String.valueOf(HttpStatus.CONFLICT), "Transaction is currently being handled.", LocalDateTime.now()));
             case DATA_MISMATCH -> ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
                     .body(new ApiError("KEY_REUSE",  String.valueOf(HttpStatus.UNPROCESSABLE_ENTITY),"Idempotency Key used with different request data.", LocalDateTime.now()));
+            case FAILED -> ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ApiError("PAYMENT_FAILED", String.valueOf(HttpStatus.INTERNAL_SERVER_ERROR), "Payment failed; the key may be retried.", LocalDateTime.now()));
         };
     }
+
+    // A rendered body goes out as stored bytes, so every replay is byte-identical to the first response.
+    private static ResponseEntity<?> body(HttpStatus status, IdempotencyOutcome<PaymentResponse> outcome) {
+        RenderedBody body = outcome.body();
+        if (body == null) {
+            return ResponseEntity.status(status).body(outcome.data());
+        }
+        return ResponseEntity.status(status).contentType(MediaType.parseMediaType(body.contentType())).body(body.content());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,7 @@
+package com.tyme.payment.exception;
+
+public class BatchSizeExceededException extends RuntimeException {
+    public BatchSizeExceededException(String message) {
+        super(message);
+    }
+}
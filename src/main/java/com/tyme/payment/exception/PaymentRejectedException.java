@@ -0,0 +1,15 @@
+package com.tyme.payment.exception;
+
+import lombok.Getter;
+
+@Getter
+public class PaymentRejectedException extends RuntimeException {
+
+    // The HTTP status to answer with, from app.idempotency.payment-executor.rejection-status.
+    private final int status;
+
+    public PaymentRejectedException(String message, int status) {
+        super(message);
+        this.status = status;
+    }
+}
@@ -0,0 +1,17 @@
+package com.tyme.payment.exception;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+@Getter
+public class RateLimitExceededException extends RuntimeException {
+
+    // How long until the account has tokens again; sent as Retry-After.
+    private final Duration retryAfter;
+
+    public RateLimitExceededException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+}
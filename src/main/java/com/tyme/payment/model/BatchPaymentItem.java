@@ -0,0 +1,15 @@
+package com.tyme.payment.model;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+
+public record BatchPaymentItem(
+        @NotBlank(message = "Idempotency key is required")
+        String idempotencyKey,
+
+        @NotNull(message = "Payment is required")
+        @Valid
+        PaymentRequest payment
+) {
+}
@@ -0,0 +1,13 @@
+package com.tyme.payment.model;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+
+import java.util.List;
+
+public record BatchPaymentRequest(
+        @NotEmpty(message = "At least one item is required")
+        List<@NotNull @Valid BatchPaymentItem> items
+) {
+}
@@ -0,0 +1,8 @@
+package com.tyme.payment.model;
+
+import java.util.List;
+
+public record BatchPaymentResponse(
+        List<BatchPaymentResult> results
+) {
+}
@@ -0,0 +1,8 @@
+package com.tyme.payment.model;
+
+public record BatchPaymentResult(
+        String idempotencyKey,
+        IdempotencyOutcome.OutcomeStatus status,
+        PaymentResponse data
+) {
+}
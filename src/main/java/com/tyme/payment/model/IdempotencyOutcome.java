@@ -1,13 +1,66 @@
 package com.tyme.payment.model;
 
-public record IdempotencyOutcome<T>(
-    T data,
-    OutcomeStatus status
-) {
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * {@code body} is the response body as first sent, when there is one. A replay of it is built from the body alone and
+ * reads {@code data} back from it the first time {@link #data()} is called, so replays that only write the body out
+ * never deserialize it.
+ */
+public final class IdempotencyOutcome<T> {
+
+    private final OutcomeStatus status;
+    private final RenderedBody body;
+    // Null once data has been read, or when the outcome was built with it.
+    private volatile Function<RenderedBody, T> reader;
+    private volatile T data;
+
+    public IdempotencyOutcome(T data, OutcomeStatus status, RenderedBody body) {
+        this.data = data;
+        this.status = status;
+        this.body = body;
+    }
+
+    public IdempotencyOutcome(T data, OutcomeStatus status) {
+        this(data, status, null);
+    }
+
+    public static <T> IdempotencyOutcome<T> replayed(RenderedBody body, Function<RenderedBody, T> reader) {
+        IdempotencyOutcome<T> outcome = new IdempotencyOutcome<>(null, OutcomeStatus.ALREADY_EXISTS, body);
+        outcome.reader = Objects.requireNonNull(reader);
+        return outcome;
+    }
+
+    // Concurrent first calls may each read the body; they get equal values.
+    public T data() {
+        Function<RenderedBody, T> pending = reader;
+        if (pending != null) {
+            data = pending.apply(body);
+            reader = null;
+        }
+        return data;
+    }
+
+    public OutcomeStatus status() {
+        return status;
+    }
+
+    public RenderedBody body() {
+        return body;
+    }
+
+    @Override
+    public String toString() {
+        return "IdempotencyOutcome[status=" + status + ", data=" + (reader != null ? "<unread>" : data) + ", body=" + body + "]";
+    }
+
     public enum OutcomeStatus {
         CREATED,
         ALREADY_EXISTS,
         IN_PROGRESS,
-        DATA_MISMATCH
+        DATA_MISMATCH,
+        // Batch items only: the payment failed and the key was released, so the item can be retried.
+        FAILED
     }
-}
\ No newline at end of file
+}
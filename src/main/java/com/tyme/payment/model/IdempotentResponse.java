@@ -1,8 +1,78 @@
 package com.tyme.payment.model;
 
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.jsontype.TypeDeserializer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Objects;
+
+/**
+ * {@code requestHash} is the 32-byte request fingerprint, or the ASCII bytes of the 64-char hex hash for entries
+ * written before fingerprints existed.
+ */
 public record IdempotentResponse(
         int statusCode,
         Object responseBody,
-        String requestHash
+        @JsonTypeInfo(use = JsonTypeInfo.Id.NONE)
+        @JsonDeserialize(using = RequestHashDeserializer.class)
+        byte[] requestHash
 ) {
-}
\ No newline at end of file
+
+    private static final int LEGACY_HEX_LENGTH = 64;
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof IdempotentResponse that
+                && statusCode == that.statusCode
+                && Objects.equals(responseBody, that.responseBody)
+                && Arrays.equals(requestHash, that.requestHash);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hash(statusCode, responseBody) + Arrays.hashCode(requestHash);
+    }
+
+    @Override
+    public String toString() {
+        return "IdempotentResponse[statusCode=" + statusCode + ", responseBody=" + responseBody
+                + ", requestHash=" + (requestHash == null ? null : HexFormat.of().formatHex(requestHash)) + "]";
+    }
+
+    // Fingerprints are written as base64; older JSON entries hold the hex string itself.
+    static class RequestHashDeserializer extends StdDeserializer<byte[]> {
+
+        RequestHashDeserializer() {
+            super(byte[].class);
+        }
+
+        @Override
+        public byte[] deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            String text = parser.getValueAsString();
+            if (text == null) {
+                return null;
+            }
+            return text.length() == LEGACY_HEX_LENGTH
+                    ? text.getBytes(StandardCharsets.US_ASCII)
+                    : Base64.getDecoder().decode(text);
+        }
+
+        // Default typing may still wrap the value; the legacy hex string never carries type information.
+        @Override
+        public Object deserializeWithType(JsonParser parser, DeserializationContext context, TypeDeserializer typeDeserializer)
+                throws IOException {
+            return parser.currentToken() == JsonToken.VALUE_STRING
+                    ? deserialize(parser, context)
+                    : super.deserializeWithType(parser, context, typeDeserializer);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.tyme.payment.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * An HTTP response body exactly as it was first sent. Stored as the {@link IdempotentResponse#responseBody()} so a
+ * replay writes the same bytes back instead of rebuilding them from a deserialized object.
+ */
+public record RenderedBody(String contentType, byte[] content) {
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof RenderedBody that
+                && Objects.equals(contentType, that.contentType)
+                && Arrays.equals(content, that.content);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hashCode(contentType) + Arrays.hashCode(content);
+    }
+
+    @Override
+    public String toString() {
+        return "RenderedBody[contentType=" + contentType + ", content="
+                + (content == null ? null : new String(content, StandardCharsets.UTF_8)) + "]";
+    }
+}
@@ -0,0 +1,187 @@
+package com.tyme.payment.service;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.exception.PaymentRejectedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs payments one at a time per account, in the order they were submitted, and payments for different accounts in
+ * parallel. Each account with work has a queue that one virtual thread drains; the queue is dropped once it is empty.
+ * Three limits push back instead of letting work pile up: payments waiting per account, payments waiting overall, and
+ * how long a payment may wait for its turn. At most {@code max-concurrent} payments run at once.
+ */
+@Component
+public class AccountPaymentExecutor implements DisposableBean {
+
+    public enum Rejection { ACCOUNT_QUEUE_FULL, QUEUE_FULL, QUEUE_WAIT_EXCEEDED }
+
+    private final IdempotencyProperties.PaymentExecutor settings;
+    // An account is present while one of its payments runs; the deque holds the ones behind it.
+    private final ConcurrentHashMap<String, ArrayDeque<Task<?>>> accounts = new ConcurrentHashMap<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final Semaphore running;
+    private final ExecutorService drainers = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("payment-account-", 0).factory());
+    private final Timer queueWait;
+    private final Map<Rejection, Counter> rejections = new EnumMap<>(Rejection.class);
+
+    public AccountPaymentExecutor(IdempotencyProperties properties, MeterRegistry meterRegistry) {
+        this.settings = properties.paymentExecutor();
+        this.running = new Semaphore(settings.maxConcurrent());
+        this.queueWait = Timer.builder("idempotency.payment.queue.wait")
+                .description("Time a claimed payment waited for its account's turn and a free slot")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(10_000))
+                .maximumExpectedValue(settings.maxQueueWait())
+                .register(meterRegistry);
+        Gauge.builder("idempotency.payment.queue.depth", waiting, AtomicInteger::get)
+                .description("Claimed payments waiting to run")
+                .register(meterRegistry);
+        Gauge.builder("idempotency.payment.queue.accounts", accounts, Map::size)
+                .description("Accounts with a payment running or waiting")
+                .register(meterRegistry);
+        for (Rejection rejection : Rejection.values()) {
+            rejections.put(rejection, Counter.builder("idempotency.payment.rejected")
+                    .description("Payments turned away before running")
+                    .tag("reason", rejection.name())
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Queues {@code payment} behind the earlier ones for {@code accountId}. The future fails with a
+     * {@link PaymentRejectedException} if the payment could not be queued or did not get its turn in time.
+     */
+    public <T> CompletableFuture<T> submit(String accountId, Supplier<T> payment) {
+        Task<T> task = new Task<>(payment);
+        if (waiting.incrementAndGet() > settings.maxQueued()) {
+            waiting.decrementAndGet();
+            return CompletableFuture.failedFuture(reject(Rejection.QUEUE_FULL, accountId));
+        }
+
+        boolean[] admitted = {true};
+        boolean[] first = {false};
+        accounts.compute(accountId, (id, queue) -> {
+            if (queue == null) {
+                first[0] = true;
+                return new ArrayDeque<>();
+            }
+            if (queue.size() >= settings.maxQueuedPerAccount()) {
+                admitted[0] = false;
+            } else {
+                queue.add(task);
+            }
+            return queue;
+        });
+        if (!admitted[0]) {
+            waiting.decrementAndGet();
+            return CompletableFuture.failedFuture(reject(Rejection.ACCOUNT_QUEUE_FULL, accountId));
+        }
+        if (first[0]) {
+            drainers.execute(() -> drain(accountId, task));
+        }
+        return task.result;
+    }
+
+    /** {@link #submit}, waiting for the payment and rethrowing what it threw. */
+    public <T> T execute(String accountId, Supplier<T> payment) {
+        try {
+            return submit(accountId, payment).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void drain(String accountId, Task<?> first) {
+        Task<?> task = first;
+        while (task != null) {
+            run(accountId, task);
+            task = next(accountId);
+        }
+    }
+
+    // Removes the account once nothing is waiting behind the payment that just ran.
+    private Task<?> next(String accountId) {
+        Task<?>[] next = new Task<?>[1];
+        accounts.computeIfPresent(accountId, (id, queue) -> {
+            next[0] = queue.poll();
+            return next[0] == null ? null : queue;
+        });
+        return next[0];
+    }
+
+    private void run(String accountId, Task<?> task) {
+        long remaining = settings.maxQueueWait().toNanos() - (System.nanoTime() - task.submittedAt);
+        boolean permitted;
+        try {
+            permitted = remaining > 0 && running.tryAcquire(remaining, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            permitted = false;
+        }
+        waiting.decrementAndGet();
+        queueWait.record(System.nanoTime() - task.submittedAt, TimeUnit.NANOSECONDS);
+        if (!permitted) {
+            task.result.completeExceptionally(reject(Rejection.QUEUE_WAIT_EXCEEDED, accountId));
+            return;
+        }
+        try {
+            task.run();
+        } finally {
+            running.release();
+        }
+    }
+
+    private PaymentRejectedException reject(Rejection rejection, String accountId) {
+        rejections.get(rejection).increment();
+        return new PaymentRejectedException("Payments for account " + accountId + " are backed up ("
+                + rejection.name().toLowerCase() + "); retry with the same Idempotency-Key.",
+                settings.rejectionStatus());
+    }
+
+    @Override
+    public void destroy() {
+        drainers.shutdownNow();
+    }
+
+    private static final class Task<T> {
+
+        private final Supplier<T> payment;
+        private final long submittedAt = System.nanoTime();
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private Task(Supplier<T> payment) {
+            this.payment = payment;
+        }
+
+        private void run() {
+            try {
+                result.complete(payment.get());
+            } catch (RuntimeException | Error e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.tyme.payment.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.exception.RateLimitExceededException;
+import com.tyme.payment.store.TokenBucketStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-account rate limit on payments that claimed a new key; replays and duplicates cost nothing. The account's token bucket is shared through the
+ * {@link TokenBucketStore}, but this node takes tokens from it in leases of {@code lease-size} and spends them locally,
+ * so only every lease-size-th payment of an account costs a store call. A refusal is remembered until the bucket has
+ * tokens again, so a flooding account is turned away without reaching the store at all, and
+ * {@link #rejectIfDenied} turns it away before its payments claim a key. Every call is timed as
+ * {@code idempotency.rate-limit.acquire}, tagged with how it was answered.
+ */
+@Slf4j
+@Component
+public class AccountRateLimiter {
+
+    public enum Outcome { LEASED, FETCHED, REJECTED, STORE_FAILED }
+
+    private final TokenBucketStore buckets;
+    private final IdempotencyProperties.RateLimit settings;
+    private final Cache<String, Lease> leases;
+    private final Map<Outcome, Timer> timers = new EnumMap<>(Outcome.class);
+
+    public AccountRateLimiter(TokenBucketStore buckets, IdempotencyProperties properties, MeterRegistry meterRegistry) {
+        this.buckets = buckets;
+        this.settings = properties.rateLimit();
+        this.leases = Caffeine.newBuilder().expireAfterAccess(settings.leaseTtl().multipliedBy(2)).build();
+        for (Outcome outcome : Outcome.values()) {
+            timers.put(outcome, Timer.builder("idempotency.rate-limit.acquire")
+                    .description("Time spent deciding whether an account may make a payment")
+                    .tag("outcome", outcome.name())
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(100))
+                    .maximumExpectedValue(Duration.ofSeconds(1))
+                    .register(meterRegistry));
+        }
+    }
+
+    public void acquire(String accountId) {
+        acquire(accountId, 1);
+    }
+
+    /**
+     * Spends the permits of every account in {@code permitsByAccount}, or spends none and throws the first
+     * {@link RateLimitExceededException}. Tokens already spent for the accounts before it go back to their leases.
+     */
+    public void acquire(Map<String, Integer> permitsByAccount) {
+        Map<String, Integer> acquired = new LinkedHashMap<>();
+        try {
+            permitsByAccount.forEach((accountId, permits) -> {
+                acquire(accountId, permits);
+                acquired.put(accountId, permits);
+            });
+        } catch (RateLimitExceededException e) {
+            acquired.forEach(this::giveBack);
+            throw e;
+        }
+    }
+
+    /**
+     * Spends {@code permits} of the account's tokens, or spends none and throws {@link RateLimitExceededException}.
+     * More than {@code capacity} permits could never be granted, so callers must turn such requests away themselves.
+     */
+    public void acquire(String accountId, int permits) {
+        if (!settings.enabled()) {
+            return;
+        }
+        if (permits > settings.capacity()) {
+            throw new IllegalArgumentException("Account " + accountId + " asked for " + permits
+                    + " tokens, more than the bucket capacity of " + settings.capacity());
+        }
+        long started = System.nanoTime();
+
+        Lease lease = leases.get(accountId, id -> new Lease(started));
+        Duration retryAfter = null;
+        Outcome outcome;
+        lease.lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (now - lease.deniedUntil < 0) {
+                outcome = Outcome.REJECTED;
+                retryAfter = Duration.ofNanos(lease.deniedUntil - now);
+            } else {
+                if (now - lease.expiresAt >= 0) {
+                    lease.tokens = 0;
+                }
+                if (lease.tokens >= permits) {
+                    lease.tokens -= permits;
+                    outcome = Outcome.LEASED;
+                } else {
+                    long needed = permits - lease.tokens;
+                    TokenBucketStore.Grant grant;
+                    try {
+                        grant = buckets.take(accountId, needed, Math.max(needed, settings.leaseSize()));
+                        outcome = Outcome.FETCHED;
+                    } catch (RuntimeException e) {
+                        // Fails open for one lease: a limiter that cannot reach its buckets must not stop every payment.
+                        log.warn("Rate limit for account {} could not be checked, allowing: {}", accountId, e.getMessage());
+                        grant = new TokenBucketStore.Grant(Math.max(needed, settings.leaseSize()), Duration.ZERO);
+                        outcome = Outcome.STORE_FAILED;
+                    }
+                    if (grant.denied()) {
+                        lease.deniedUntil = now + grant.retryAfter().toNanos();
+                        outcome = Outcome.REJECTED;
+                        retryAfter = grant.retryAfter();
+                    } else {
+                        lease.tokens += grant.taken() - permits;
+                        lease.expiresAt = now + settings.leaseTtl().toNanos();
+                    }
+                }
+            }
+        } finally {
+            lease.lock.unlock();
+        }
+
+        if (retryAfter != null) {
+            reject(started, retryAfter, "Too many payments for account " + accountId + "; retry later.");
+        }
+        timers.get(outcome).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Throws {@link RateLimitExceededException} if this node has already seen the account refused and its bucket is
+     * not yet due tokens again. Spends nothing and never calls the store, so callers can turn the account away before
+     * doing any work for it.
+     */
+    public void rejectIfDenied(String accountId) {
+        Lease lease = leases.getIfPresent(accountId);
+        if (!settings.enabled() || lease == null) {
+            return;
+        }
+        long started = System.nanoTime();
+        long deniedUntil;
+        lease.lock.lock();
+        try {
+            deniedUntil = lease.deniedUntil;
+        } finally {
+            lease.lock.unlock();
+        }
+        if (started - deniedUntil < 0) {
+            reject(started, Duration.ofNanos(deniedUntil - started), "Too many payments for account " + accountId + "; retry later.");
+        }
+    }
+
+    // Returned tokens are spent locally like leased ones; they are lost if the lease expires first.
+    private void giveBack(String accountId, int permits) {
+        Lease lease = leases.getIfPresent(accountId);
+        if (!settings.enabled() || lease == null) {
+            return;
+        }
+        lease.lock.lock();
+        try {
+            if (System.nanoTime() - lease.expiresAt < 0) {
+                lease.tokens += permits;
+            }
+        } finally {
+            lease.lock.unlock();
+        }
+    }
+
+    private void reject(long started, Duration retryAfter, String message) {
+        timers.get(Outcome.REJECTED).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        throw new RateLimitExceededException(message, retryAfter);
+    }
+
+    // A lock rather than synchronized, so a virtual thread waiting on the store does not pin its carrier.
+    private static final class Lease {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private long tokens;
+        private long expiresAt;
+        private long deniedUntil;
+
+        private Lease(long now) {
+            this.expiresAt = now;
+            this.deniedUntil = now;
+        }
+    }
+}
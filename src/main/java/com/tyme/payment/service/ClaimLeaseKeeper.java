@@ -0,0 +1,123 @@
+package com.tyme.payment.service;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.store.IdempotencyStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heartbeat for in-flight claims. Claims are taken with a short lease; each third of the lease, one background task
+ * renews, in a single store call, every held lease with less than two thirds of the lease left before it expires. A
+ * payment that finishes within a third of the lease never costs a renewal. A lease the store refuses to renew is
+ * marked lost; its holder's result is then rejected by the fencing check on complete.
+ */
+@Slf4j
+@Component
+public class ClaimLeaseKeeper implements DisposableBean {
+
+    private final IdempotencyStore store;
+    private final Duration lease;
+    private final long periodNanos;
+    private final Set<Lease> held = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService heartbeat;
+
+    public ClaimLeaseKeeper(IdempotencyStore store, IdempotencyProperties properties) {
+        this.store = store;
+        this.lease = properties.lockDuration();
+
+        long periodMillis = Math.max(1, lease.toMillis() / 3);
+        this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("idempotency-lease-heartbeat").daemon().factory());
+        heartbeat.scheduleAtFixedRate(this::renewQuietly, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public Lease hold(String key, long fencingToken) {
+        Lease claimLease = new Lease(key, fencingToken);
+        held.add(claimLease);
+        return claimLease;
+    }
+
+    public int heldLeases() {
+        return held.size();
+    }
+
+    void renewHeld() {
+        if (held.isEmpty()) {
+            return;
+        }
+        // A lease with two periods or more left is still valid after the next round, so it waits for that one.
+        long now = System.nanoTime();
+        List<Lease> leases = held.stream().filter(l -> l.expiresAt - now < 2 * periodNanos).toList();
+        if (leases.isEmpty()) {
+            return;
+        }
+        List<Boolean> renewed = store.renewAll(
+                leases.stream().map(l -> new IdempotencyStore.RenewCommand(l.key(), l.fencingToken())).toList(), lease);
+        for (int i = 0; i < leases.size(); i++) {
+            Lease claimLease = leases.get(i);
+            // A lease closed while the renewal was in flight was simply completed, not lost.
+            if (renewed.get(i)) {
+                claimLease.expiresAt = now + lease.toNanos();
+            } else if (held.remove(claimLease)) {
+                claimLease.lost = true;
+                log.warn("Lease on idempotency key {} (fencing token {}) was lost while the payment was running",
+                        claimLease.key(), claimLease.fencingToken());
+            }
+        }
+    }
+
+    private void renewQuietly() {
+        try {
+            renewHeld();
+        } catch (RuntimeException e) {
+            // A lease is first renewed with at least one period left, so a failed round leaves it one more try.
+            log.warn("Idempotency lease renewal failed: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        heartbeat.shutdownNow();
+    }
+
+    public final class Lease implements AutoCloseable {
+
+        private final String key;
+        private final long fencingToken;
+        // Counted from when it was held or last asked to renew; the claim itself was taken just before it was held.
+        private volatile long expiresAt = System.nanoTime() + lease.toNanos();
+        private volatile boolean lost;
+
+        private Lease(String key, long fencingToken) {
+            this.key = key;
+            this.fencingToken = fencingToken;
+        }
+
+        public String key() {
+            return key;
+        }
+
+        public long fencingToken() {
+            return fencingToken;
+        }
+
+        public boolean isLost() {
+            return lost;
+        }
+
+        @Override
+        public void close() {
+            held.remove(this);
+        }
+    }
+}
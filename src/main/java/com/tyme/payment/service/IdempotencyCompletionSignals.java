@@ -0,0 +1,67 @@
+package com.tyme.payment.service;
+
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Single-flight map of keys that local requests are waiting on. All waiters for a key share one future, which is
+ * completed when any node completes or releases the key (published by complete.lua / release.lua). A lock that
+ * simply expires is not announced, so waiters must always bound their wait.
+ */
+@Component
+public class IdempotencyCompletionSignals implements MessageListener {
+
+    private final ConcurrentMap<String, Waiters> waiters = new ConcurrentHashMap<>();
+
+    public CompletableFuture<Void> register(String key) {
+        return waiters.compute(key, (k, existing) -> existing == null ? new Waiters() : existing.join()).completion();
+    }
+
+    public void unregister(String key, CompletableFuture<Void> completion) {
+        waiters.computeIfPresent(key, (k, existing) ->
+                existing.completion() != completion || existing.leave() ? existing : null);
+    }
+
+    public void signal(String key) {
+        Waiters removed = waiters.remove(key);
+        if (removed != null) {
+            removed.completion().complete(null);
+        }
+    }
+
+    public int waitingKeys() {
+        return waiters.size();
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        signal(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    // Only touched inside ConcurrentHashMap.compute, which serializes updates per key.
+    private static final class Waiters {
+
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        private int count = 1;
+
+        private Waiters join() {
+            count++;
+            return this;
+        }
+
+        // True while other waiters remain.
+        private boolean leave() {
+            return --count > 0;
+        }
+
+        private CompletableFuture<Void> completion() {
+            return completion;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.tyme.payment.service;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.store.IdempotencyStore;
+import com.tyme.payment.store.KeyPage;
+import com.tyme.payment.store.StoredKey;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk inspection and removal of idempotency keys for operators. Walks the store with its cursor, one page per call,
+ * paced so the walk never reads more than admin.max-keys-per-second keys, and reports after every page. Removal
+ * unlinks the matches in batches and evicts them from every near cache.
+ * <p>
+ * Entries do not record when they were written, so their age is the TTL they were given less what is left of it:
+ * ttl-duration for completed entries, lock-duration since the last renewal for claims. A claim that never expires
+ * is stuck and counts as older than any bound.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IdempotencyKeyAdmin {
+
+    private final IdempotencyStore store;
+    private final IdempotencyNearCache nearCache;
+    private final IdempotencyProperties properties;
+
+    /** {@code state} and {@code minAge} match anything when null; at most {@code limit} keys are matched. */
+    public record KeyQuery(String keyPrefix, StoredKey.State state, Duration minAge, boolean legacyKeys, long limit) {
+    }
+
+    /** Running totals after a page; {@code keys} are the page's matches, and {@code cursor} resumes after it. */
+    public record Progress(String cursor, long scanned, long matched, long unlinked, List<StoredKey> keys, boolean done) {
+    }
+
+    public interface ProgressListener {
+        void onPage(Progress progress) throws Exception;
+    }
+
+    /**
+     * Walks from {@code cursor} until the store is exhausted or {@code limit} keys matched, unlinking the matches if
+     * {@code unlink} is set. A listener failure, such as the client going away, ends the walk.
+     */
+    public Progress walk(KeyQuery query, String cursor, boolean unlink, ProgressListener listener) throws Exception {
+        IdempotencyProperties.Admin settings = properties.admin();
+        long started = System.nanoTime();
+        long scanned = 0;
+        long matched = 0;
+        long unlinked = 0;
+        String next = cursor;
+        boolean done = false;
+        while (!done) {
+            KeyPage page = store.scanKeys(next, query.keyPrefix(), query.legacyKeys(), settings.scanCount());
+            scanned += page.scanned();
+            List<StoredKey> matches = new ArrayList<>();
+            for (StoredKey key : page.keys()) {
+                if (matched + matches.size() < query.limit() && matches(query, key)) {
+                    matches.add(key);
+                }
+            }
+            matched += matches.size();
+            if (unlink) {
+                unlinked += unlink(matches, settings.unlinkBatchSize());
+            }
+            next = page.nextCursor();
+            done = page.isLast() || matched >= query.limit();
+            listener.onPage(new Progress(next, scanned, matched, unlinked, matches, done));
+            pace(started, scanned, settings.maxKeysPerSecond());
+        }
+        log.info("Idempotency key walk (prefix '{}', state {}, min age {}, legacy {}, unlink {}): {} scanned, {} matched, {} unlinked",
+                query.keyPrefix(), query.state(), query.minAge(), query.legacyKeys(), unlink, scanned, matched, unlinked);
+        return new Progress(next, scanned, matched, unlinked, List.of(), true);
+    }
+
+    private boolean matches(KeyQuery query, StoredKey key) {
+        if (query.state() != null && key.state() != query.state()) {
+            return false;
+        }
+        if (query.minAge() == null || key.remainingTtl() == null) {
+            return true;
+        }
+        Duration given = key.state() == StoredKey.State.COMPLETED ? properties.ttlDuration() : properties.lockDuration();
+        return given.minus(key.remainingTtl()).compareTo(query.minAge()) >= 0;
+    }
+
+    private long unlink(List<StoredKey> keys, int batchSize) {
+        long unlinked = 0;
+        for (int from = 0; from < keys.size(); from += batchSize) {
+            List<StoredKey> batch = keys.subList(from, Math.min(keys.size(), from + batchSize));
+            unlinked += store.unlinkAll(batch);
+            for (StoredKey key : batch) {
+                if (key.clientKey() != null) {
+                    nearCache.invalidateEverywhere(key.clientKey());
+                }
+            }
+        }
+        return unlinked;
+    }
+
+    // Sleeps until the keys scanned so far fit the rate; pages are what is paced, so a walk may burst one page.
+    private static void pace(long started, long scanned, int maxKeysPerSecond) throws InterruptedException {
+        long due = started + scanned * TimeUnit.SECONDS.toNanos(1) / maxKeysPerSecond;
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
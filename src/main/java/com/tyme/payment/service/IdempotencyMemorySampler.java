@@ -0,0 +1,122 @@
+package com.tyme.payment.service;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.store.IdempotencyStore;
+import com.tyme.payment.store.KeyspaceSample;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically measures the idempotency keyspace and projects its steady-state size: at the observed claim rate,
+ * every claim keeps an entry for ttl-duration, so the keyspace settles at rate x ttl entries. Exposed as the
+ * {@code idempotencymemory} actuator endpoint; reading it does not trigger a measurement. Every run SCANs the whole
+ * keyspace, so it is meant to be enabled on one node, not the whole fleet.
+ */
+@Slf4j
+@Component
+@Endpoint(id = "idempotencymemory")
+public class IdempotencyMemorySampler implements DisposableBean {
+
+    private final IdempotencyStore store;
+    private final IdempotencyProperties properties;
+    private final Clock clock;
+    private final ScheduledExecutorService scheduler;
+    private volatile Snapshot last;
+
+    @Autowired
+    public IdempotencyMemorySampler(IdempotencyStore store, IdempotencyProperties properties) {
+        this(store, properties, Clock.systemUTC());
+    }
+
+    IdempotencyMemorySampler(IdempotencyStore store, IdempotencyProperties properties, Clock clock) {
+        this.store = store;
+        this.properties = properties;
+        this.clock = clock;
+
+        IdempotencyProperties.MemorySampler settings = properties.memorySampler();
+        if (settings.enabled()) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().name("idempotency-memory-sampler").daemon().factory());
+            long periodMillis = settings.interval().toMillis();
+            scheduler.scheduleWithFixedDelay(this::sampleQuietly, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    @ReadOperation
+    public Snapshot snapshot() {
+        return last;
+    }
+
+    Snapshot sample() {
+        IdempotencyProperties.MemorySampler settings = properties.memorySampler();
+        KeyspaceSample sample = store.sampleKeyspace(settings.sampleSize(), settings.scanCount());
+        Instant now = clock.instant();
+
+        Snapshot previous = last;
+        double claimsPerSecond = 0;
+        if (previous != null && sample.claimsIssued() >= previous.claimsIssued()) {
+            long elapsedMillis = Duration.between(previous.sampledAt(), now).toMillis();
+            if (elapsedMillis > 0) {
+                claimsPerSecond = (sample.claimsIssued() - previous.claimsIssued()) * 1000.0 / elapsedMillis;
+            }
+        }
+
+        long averageEntryBytes = sample.averageEntryBytes();
+        long projectedKeys = (long) (claimsPerSecond * properties.ttlDuration().toSeconds());
+        Snapshot snapshot = new Snapshot(
+                now,
+                sample.keyCount(),
+                sample.sampledKeys(),
+                averageEntryBytes,
+                sample.keyCount() * averageEntryBytes,
+                sample.claimsIssued(),
+                claimsPerSecond,
+                projectedKeys,
+                projectedKeys * averageEntryBytes);
+        last = snapshot;
+        return snapshot;
+    }
+
+    private void sampleQuietly() {
+        try {
+            Snapshot snapshot = sample();
+            log.info("Idempotency keyspace: {} keys, ~{} bytes each, ~{} bytes total; projected {} bytes at {} claims/s",
+                    snapshot.keyCount(), snapshot.averageEntryBytes(), snapshot.estimatedBytes(),
+                    snapshot.projectedBytes(), String.format("%.1f", snapshot.claimsPerSecond()));
+        } catch (RuntimeException e) {
+            log.warn("Idempotency keyspace sampling failed: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public record Snapshot(
+            Instant sampledAt,
+            long keyCount,
+            int sampledKeys,
+            long averageEntryBytes,
+            long estimatedBytes,
+            long claimsIssued,
+            double claimsPerSecond,
+            long projectedKeys,
+            long projectedBytes
+    ) {}
+}
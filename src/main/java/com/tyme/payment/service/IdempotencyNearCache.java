@@ -0,0 +1,88 @@
+package com.tyme.payment.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.model.IdempotentResponse;
+import com.tyme.payment.model.PaymentResponse;
+import com.tyme.payment.model.RenderedBody;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+@Component
+public class IdempotencyNearCache implements MessageListener {
+
+    private static final int BASE_ENTRY_WEIGHT = 160;
+
+    private final Cache<String, IdempotentResponse> cache;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final IdempotencyProperties.NearCache settings;
+    // An embedded store has no other nodes to tell.
+    private final boolean broadcastInvalidations;
+
+    public IdempotencyNearCache(IdempotencyProperties properties, StringRedisTemplate stringRedisTemplate, MeterRegistry meterRegistry) {
+        this.settings = properties.nearCache();
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.broadcastInvalidations = properties.store().type() == IdempotencyProperties.Store.StoreType.REDIS;
+
+        // Every entry weighs at least maxWeight / maxSize, so the weight bound also caps the entry count.
+        long maximumWeight = settings.maximumWeight().toBytes();
+        int minimumEntryWeight = (int) Math.max(1, maximumWeight / Math.max(1, settings.maximumSize()));
+
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((String key, IdempotentResponse value) -> Math.max(minimumEntryWeight, estimateWeight(key, value)))
+                .expireAfter(Expiry.creating((String key, IdempotentResponse value) -> settings.ttl()))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "idempotency.near-cache");
+    }
+
+    public IdempotentResponse get(String key) {
+        return settings.enabled() ? cache.getIfPresent(key) : null;
+    }
+
+    public void put(String key, IdempotentResponse response, Duration storeTtl) {
+        if (!settings.enabled()) {
+            return;
+        }
+        Duration ttl = storeTtl.compareTo(settings.ttl()) < 0 ? storeTtl : settings.ttl();
+        cache.policy().expireVariably().orElseThrow().put(key, response, ttl);
+    }
+
+    public void invalidateEverywhere(String key) {
+        cache.invalidate(key);
+        if (broadcastInvalidations) {
+            stringRedisTemplate.convertAndSend(settings.invalidationChannel(), key);
+        }
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        cache.invalidate(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private static int estimateWeight(String key, IdempotentResponse value) {
+        int weight = BASE_ENTRY_WEIGHT + key.length() + value.requestHash().length;
+        if (value.responseBody() instanceof PaymentResponse body) {
+            weight += 2 * (body.transactionId().length() + body.status().length() + body.currency().length()) + 64;
+        } else if (value.responseBody() instanceof RenderedBody body) {
+            weight += body.content().length + body.contentType().length();
+        }
+        return weight;
+    }
+}
@@ -0,0 +1,209 @@
+package com.tyme.payment.service;
+
+import com.tyme.payment.codec.IdempotencyValueCodec;
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.config.RedisConfig;
+import com.tyme.payment.model.IdempotentResponse;
+import com.tyme.payment.store.Claim;
+import com.tyme.payment.store.CompletionJournal;
+import com.tyme.payment.store.IdempotencyStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps every completed payment in a local {@link CompletionJournal} as well as in the store, so a store that lost
+ * its entries (a flush, a failover to an empty replica) can be refilled and keep turning duplicates away. On startup,
+ * before the service reports ready, every journaled entry still within ttl-duration is claimed in the store like a
+ * new request would be, and completed with the journaled response where the claim succeeds; entries the store still
+ * has are left alone. Each entry is counted as {@code idempotency.journal.restored}, tagged with what was found.
+ * Does nothing unless {@code journal.enabled}.
+ */
+@Slf4j
+@Component
+public class PaymentJournal implements ApplicationRunner, DisposableBean {
+
+    public enum Restore { RESTORED, PRESENT, CONFLICT, UNREADABLE }
+
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final IdempotencyStore store;
+    private final IdempotencyProperties properties;
+    private final Clock clock;
+    private final IdempotencyValueCodec codec;
+    // Null when the journal is disabled.
+    private final CompletionJournal journal;
+    private final ScheduledExecutorService maintenance;
+    private final Counter appendFailures;
+    private final Map<Restore, Counter> restores = new EnumMap<>(Restore.class);
+
+    @Autowired
+    public PaymentJournal(IdempotencyStore store, IdempotencyProperties properties, MeterRegistry meterRegistry) {
+        this(store, properties, meterRegistry, Clock.systemUTC());
+    }
+
+    PaymentJournal(IdempotencyStore store, IdempotencyProperties properties, MeterRegistry meterRegistry, Clock clock) {
+        this.store = store;
+        this.properties = properties;
+        this.clock = clock;
+        this.codec = new IdempotencyValueCodec(RedisConfig.jsonValueSerializer(), IdempotencyValueCodec.WriteFormat.BINARY,
+                (int) properties.codec().compressionThreshold().toBytes());
+        this.appendFailures = Counter.builder("idempotency.journal.append.failed")
+                .description("Completed payments that could not be written to the journal")
+                .register(meterRegistry);
+        for (Restore restore : Restore.values()) {
+            restores.put(restore, Counter.builder("idempotency.journal.restored")
+                    .description("Journal entries replayed into the idempotency store on startup")
+                    .tag("outcome", restore.name())
+                    .register(meterRegistry));
+        }
+
+        IdempotencyProperties.Journal settings = properties.journal();
+        if (!settings.enabled()) {
+            this.journal = null;
+            this.maintenance = null;
+            return;
+        }
+        try {
+            this.journal = CompletionJournal.open(settings.directory(), (int) settings.segmentSize().toBytes(), clock,
+                    meterRegistry);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the completion journal in " + settings.directory(), e);
+        }
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("idempotency-journal-maintenance").daemon().factory());
+        long periodMillis = settings.compactInterval().toMillis();
+        maintenance.scheduleWithFixedDelay(this::compactQuietly, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Appends the response just stored for {@code key}. The future completes once the entry is durable; it never fails,
+     * since the payment has been made either way, but a lost entry is logged and counted.
+     */
+    public CompletableFuture<Void> record(String key, IdempotentResponse response) {
+        if (journal == null) {
+            return DONE;
+        }
+        long expiresAt = clock.millis() + properties.ttlDuration().toMillis();
+        CompletableFuture<Void> durable;
+        try {
+            durable = journal.append(key, codec.serialize(response), expiresAt);
+        } catch (SerializationException e) {
+            durable = CompletableFuture.failedFuture(e);
+        }
+        return durable.exceptionally(error -> {
+            appendFailures.increment();
+            log.error("Completed payment for idempotency key {} was not journaled: {}", key, error.toString());
+            return null;
+        });
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (journal != null) {
+            recover();
+        }
+    }
+
+    // Segments already replayed are not read again, so a retry picks up where the failure was.
+    void recover() {
+        try {
+            CompletionJournal.ReplayStats stats = journal.replay(properties.journal().replayBatchSize(), this::restore);
+            journal.compact();
+            if (stats.segments() > 0) {
+                log.info("Replayed {} journal entries from {} segments into the idempotency store ({} already expired)",
+                        stats.live(), stats.segments(), stats.expired());
+            }
+        } catch (IOException | RuntimeException e) {
+            Duration retry = properties.journal().replayRetryInterval();
+            log.warn("Journal replay failed, retrying in {}: {}", retry, e.toString());
+            maintenance.schedule(this::recover, retry.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void restore(List<CompletionJournal.Entry> entries) {
+        List<CompletionJournal.Entry> readable = new ArrayList<>(entries.size());
+        List<IdempotentResponse> responses = new ArrayList<>(entries.size());
+        List<IdempotencyStore.ClaimCommand> claimCommands = new ArrayList<>(entries.size());
+        for (CompletionJournal.Entry entry : entries) {
+            Object value;
+            try {
+                value = codec.deserialize(entry.value());
+            } catch (SerializationException e) {
+                value = null;
+            }
+            if (value instanceof IdempotentResponse response) {
+                readable.add(entry);
+                responses.add(response);
+                claimCommands.add(new IdempotencyStore.ClaimCommand(entry.key(), response.requestHash(), properties.lockDuration()));
+            } else {
+                restores.get(Restore.UNREADABLE).increment();
+            }
+        }
+        List<Claim> claims = store.claimAll(claimCommands);
+
+        long now = clock.millis();
+        List<IdempotencyStore.FinishCommand> finishes = new ArrayList<>(claims.size());
+        for (int i = 0; i < claims.size(); i++) {
+            Claim claim = claims.get(i);
+            String key = readable.get(i).key();
+            Duration remaining = Duration.ofMillis(readable.get(i).expiresAtMillis() - now);
+            switch (claim.status()) {
+                case CLAIMED -> finishes.add(remaining.isPositive()
+                        ? new IdempotencyStore.FinishCommand(key, claim.fencingToken(), responses.get(i), remaining)
+                        : new IdempotencyStore.FinishCommand(key, claim.fencingToken(), null, null));
+                case COMPLETED -> restores.get(responses.get(i).equals(claim.response()) ? Restore.PRESENT : Restore.CONFLICT).increment();
+                // The key was taken again after the store lost it; the journaled payment may have been repeated.
+                case IN_PROGRESS, MISMATCH -> {
+                    restores.get(Restore.CONFLICT).increment();
+                    log.warn("Journaled idempotency key {} was reused after the store lost it ({})", key, claim.status());
+                }
+            }
+        }
+
+        List<Boolean> written = store.finishAll(finishes);
+        for (int i = 0; i < finishes.size(); i++) {
+            if (finishes.get(i).response() != null) {
+                restores.get(written.get(i) ? Restore.RESTORED : Restore.CONFLICT).increment();
+            }
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            int deleted = journal.compact();
+            if (deleted > 0) {
+                log.debug("Deleted {} expired journal segments", deleted);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Journal compaction failed: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (journal != null) {
+            maintenance.shutdownNow();
+            journal.close();
+        }
+    }
+}
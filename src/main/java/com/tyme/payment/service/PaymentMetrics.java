@@ -0,0 +1,62 @@
+package com.tyme.payment.service;
+
+import com.tyme.payment.model.IdempotencyOutcome;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Meters for the payment flow: one {@code idempotency.outcomes} counter per outcome and mode (single or batch), the
+ * latency of the payment itself, and the number of claims currently held. All meters are registered up front.
+ */
+@Component
+public class PaymentMetrics {
+
+    private final Map<IdempotencyOutcome.OutcomeStatus, Counter> singleOutcomes;
+    private final Map<IdempotencyOutcome.OutcomeStatus, Counter> batchOutcomes;
+    private final Timer paymentExecution;
+
+    public PaymentMetrics(MeterRegistry meterRegistry, ClaimLeaseKeeper leaseKeeper) {
+        this.singleOutcomes = outcomeCounters(meterRegistry, "single");
+        this.batchOutcomes = outcomeCounters(meterRegistry, "batch");
+        this.paymentExecution = Timer.builder("idempotency.payment.execution")
+                .description("Latency of executing a claimed payment")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(100_000))
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(meterRegistry);
+        Gauge.builder("idempotency.claims.in-flight", leaseKeeper, ClaimLeaseKeeper::heldLeases)
+                .description("Claims held by this node while their payment runs")
+                .register(meterRegistry);
+    }
+
+    private static Map<IdempotencyOutcome.OutcomeStatus, Counter> outcomeCounters(MeterRegistry meterRegistry, String mode) {
+        Map<IdempotencyOutcome.OutcomeStatus, Counter> counters = new EnumMap<>(IdempotencyOutcome.OutcomeStatus.class);
+        for (IdempotencyOutcome.OutcomeStatus status : IdempotencyOutcome.OutcomeStatus.values()) {
+            counters.put(status, Counter.builder("idempotency.outcomes")
+                    .description("Idempotent payment requests by outcome")
+                    .tags("outcome", status.name(), "mode", mode)
+                    .register(meterRegistry));
+        }
+        return counters;
+    }
+
+    <T> IdempotencyOutcome<T> recordSingle(IdempotencyOutcome<T> outcome) {
+        singleOutcomes.get(outcome.status()).increment();
+        return outcome;
+    }
+
+    void recordBatch(IdempotencyOutcome.OutcomeStatus status) {
+        batchOutcomes.get(status).increment();
+    }
+
+    Timer paymentExecution() {
+        return paymentExecution;
+    }
+}
@@ -1,78 +1,461 @@
 package com.tyme.payment.service;
 
 import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.exception.BatchSizeExceededException;
+import com.tyme.payment.exception.RateLimitExceededException;
+import com.tyme.payment.model.BatchPaymentItem;
+import com.tyme.payment.model.BatchPaymentResult;
 import com.tyme.payment.model.IdempotencyOutcome;
 import com.tyme.payment.model.IdempotentResponse;
 import com.tyme.payment.model.PaymentRequest;
 import com.tyme.payment.model.PaymentResponse;
+import com.tyme.payment.model.RenderedBody;
+import com.tyme.payment.store.Claim;
+import com.tyme.payment.store.IdempotencyStore;
 import lombok.RequiredArgsConstructor;
-import org.apache.commons.codec.digest.DigestUtils;
-import org.springframework.data.redis.core.RedisTemplate;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class PaymentService {
 
-    private static final String PROCESSING_SENTINEL = "PROCESSING";
-
-    private final RedisTemplate<String, Object> redisTemplate;
+    private final IdempotencyStore store;
     private final IdempotencyProperties properties;
+    private final IdempotencyNearCache nearCache;
+    private final RequestFingerprinter fingerprinter;
+    private final IdempotencyCompletionSignals completionSignals;
+    private final ClaimLeaseKeeper leaseKeeper;
+    private final PaymentMetrics metrics;
+    private final ResponseRenderer renderer;
+    private final AccountPaymentExecutor accountExecutor;
+    private final AccountRateLimiter rateLimiter;
+    private final PaymentJournal journal;
 
+    /**
+     * Like {@link #processPayment(String, PaymentRequest)}, but a duplicate of an in-flight request parks until the
+     * original completes or {@code requestedWait} (capped by configuration) passes. {@code null} uses the configured
+     * default; a zero wait answers IN_PROGRESS immediately.
+     */
+    public IdempotencyOutcome<PaymentResponse> processPayment(String key, PaymentRequest request, Duration requestedWait) {
+        return metrics.recordSingle(awaitOutcome(key, request, requestedWait));
+    }
 
     public IdempotencyOutcome<PaymentResponse> processPayment(String key, PaymentRequest request) {
-        String currentRequestHash = generateHash(request);
+        return metrics.recordSingle(attempt(key, request));
+    }
 
-        Boolean isNewClaim = redisTemplate.opsForValue().setIfAbsent(key, PROCESSING_SENTINEL, properties.lockDuration());
+    /**
+     * Non-blocking {@link #processPayment(String, PaymentRequest, Duration)}. Every store call is asynchronous and the
+     * payment runs on the thread that receives the claim reply, so no thread is parked while Redis answers or while a
+     * duplicate waits for its original.
+     */
+    public CompletableFuture<IdempotencyOutcome<PaymentResponse>> processPaymentAsync(String key, PaymentRequest request,
+                                                                                    Duration requestedWait) {
+        Duration wait = effectiveWait(requestedWait);
+        CompletableFuture<IdempotencyOutcome<PaymentResponse>> outcome = attemptAsync(key, request);
+        if (wait.isPositive()) {
+            long deadline = System.nanoTime() + wait.toNanos();
+            outcome = outcome.thenCompose(first -> first.status() == IdempotencyOutcome.OutcomeStatus.IN_PROGRESS
+                    ? awaitOutcomeAsync(key, request, deadline)
+                    : CompletableFuture.completedFuture(first));
+        }
+        return outcome.thenApply(metrics::recordSingle);
+    }
 
-        if (Boolean.FALSE.equals(isNewClaim)) {
-            return handleExistingKey(key, currentRequestHash);
+    private IdempotencyOutcome<PaymentResponse> awaitOutcome(String key, PaymentRequest request, Duration requestedWait) {
+        IdempotencyOutcome<PaymentResponse> outcome = attempt(key, request);
+        Duration wait = effectiveWait(requestedWait);
+        if (outcome.status() != IdempotencyOutcome.OutcomeStatus.IN_PROGRESS || !wait.isPositive()) {
+            return outcome;
         }
 
-        try {
-            PaymentResponse response = executePaymentTransaction(request);
+        long deadline = System.nanoTime() + wait.toNanos();
+        while (outcome.status() == IdempotencyOutcome.OutcomeStatus.IN_PROGRESS) {
+            CompletableFuture<Void> completion = completionSignals.register(key);
+            try {
+                // Re-check after registering, so a completion published in between is not missed.
+                outcome = attempt(key, request);
+                long remaining = deadline - System.nanoTime();
+                if (outcome.status() != IdempotencyOutcome.OutcomeStatus.IN_PROGRESS || remaining <= 0) {
+                    return outcome;
+                }
+                completion.get(remaining, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                return outcome;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return outcome;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Completion signals are never completed exceptionally", e);
+            } finally {
+                completionSignals.unregister(key, completion);
+            }
+        }
+        return outcome;
+    }
 
-            IdempotentResponse cacheWrapper = new IdempotentResponse(201, response, currentRequestHash);
-            redisTemplate.opsForValue().set(key, cacheWrapper, properties.lockDuration());
+    // Same steps as the loop above: register, re-check, then wait for the signal or the deadline.
+    private CompletableFuture<IdempotencyOutcome<PaymentResponse>> awaitOutcomeAsync(String key, PaymentRequest request,
+                                                                                   long deadline) {
+        CompletableFuture<Void> completion = completionSignals.register(key);
+        CompletableFuture<IdempotencyOutcome<PaymentResponse>> settled = attemptAsync(key, request).thenCompose(outcome -> {
+            long remaining = deadline - System.nanoTime();
+            if (outcome.status() != IdempotencyOutcome.OutcomeStatus.IN_PROGRESS || remaining <= 0) {
+                return CompletableFuture.completedFuture(outcome);
+            }
+            // A copy, so timing out does not complete the future the other waiters share.
+            return completion.copy().completeOnTimeout(null, remaining, TimeUnit.NANOSECONDS).thenApply(ignored -> outcome);
+        }).whenComplete((outcome, error) -> completionSignals.unregister(key, completion));
 
-            return new IdempotencyOutcome<>(response, IdempotencyOutcome.OutcomeStatus.CREATED);
+        return settled.thenCompose(outcome -> outcome.status() != IdempotencyOutcome.OutcomeStatus.IN_PROGRESS
+                || deadline - System.nanoTime() <= 0
+                ? CompletableFuture.completedFuture(outcome)
+                : awaitOutcomeAsync(key, request, deadline));
+    }
+
+    private Duration effectiveWait(Duration requestedWait) {
+        IdempotencyProperties.WaitForCompletion settings = properties.waitForCompletion();
+        Duration wait = requestedWait != null ? requestedWait : settings.defaultTimeout();
+        return wait.compareTo(settings.maxTimeout()) > 0 ? settings.maxTimeout() : wait;
+    }
+
+    private IdempotencyOutcome<PaymentResponse> attempt(String key, PaymentRequest request) {
+        byte[] fingerprint = fingerprinter.fingerprint(request);
+
+        IdempotentResponse nearCached = nearCache.get(key);
+        if (nearCached != null) {
+            return replay(nearCached, fingerprint, request);
+        }
+
+        // An account this node has just seen refused is turned away before it can take a claim; until its bucket
+        // refills, that includes replays of its keys that are not in the near cache.
+        rateLimiter.rejectIfDenied(request.accountId());
+        Claim claim = store.claim(key, fingerprint, properties.lockDuration());
+
+        if (claim.status() != Claim.Status.CLAIMED) {
+            return handleExistingKey(key, fingerprint, request, claim);
+        }
+
+        long fencingToken = claim.fencingToken();
+        try (ClaimLeaseKeeper.Lease lease = leaseKeeper.hold(key, fencingToken)) {
+            PaymentResponse response = accountExecutor.execute(request.accountId(), () -> pay(request));
+            RenderedBody body = renderer.render(response);
+
+            IdempotentResponse cacheWrapper = new IdempotentResponse(201, body, fingerprint);
+            if (store.complete(key, fencingToken, cacheWrapper, properties.ttlDuration())) {
+                journal.record(key, cacheWrapper).join();
+                nearCache.put(key, cacheWrapper, properties.ttlDuration());
+                completionSignals.signal(key);
+            } else {
+                log.warn("Claim on idempotency key {} (fencing token {}, lease lost: {}) was superseded before completion; "
+                        + "result not stored", key, fencingToken, lease.isLost());
+            }
+
+            return new IdempotencyOutcome<>(response, IdempotencyOutcome.OutcomeStatus.CREATED, body);
 
         } catch (Exception e) {
-            redisTemplate.delete(key);
+            store.release(key, fencingToken);
+            completionSignals.signal(key);
             throw e;
         }
     }
 
-    private IdempotencyOutcome<PaymentResponse> handleExistingKey(String key, String currentHash) {
-        Object cachedValue = redisTemplate.opsForValue().get(key);
+    private CompletableFuture<IdempotencyOutcome<PaymentResponse>> attemptAsync(String key, PaymentRequest request) {
+        byte[] fingerprint = fingerprinter.fingerprint(request);
 
-        if (PROCESSING_SENTINEL.equals(cachedValue)) {
-            return new IdempotencyOutcome<>(null, IdempotencyOutcome.OutcomeStatus.IN_PROGRESS);
+        IdempotentResponse nearCached = nearCache.get(key);
+        if (nearCached != null) {
+            return CompletableFuture.completedFuture(replay(nearCached, fingerprint, request));
+        }
+
+        try {
+            rateLimiter.rejectIfDenied(request.accountId());
+        } catch (RateLimitExceededException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return store.claimAsync(key, fingerprint, properties.lockDuration()).thenCompose(claim ->
+                claim.status() != Claim.Status.CLAIMED
+                        ? CompletableFuture.completedFuture(handleExistingKey(key, fingerprint, request, claim))
+                        : executeClaimedAsync(key, request, fingerprint, claim.fencingToken()));
+    }
+
+    private CompletableFuture<IdempotencyOutcome<PaymentResponse>> executeClaimedAsync(String key, PaymentRequest request,
+                                                                                     byte[] fingerprint, long fencingToken) {
+        ClaimLeaseKeeper.Lease lease = leaseKeeper.hold(key, fencingToken);
+        return accountExecutor.submit(request.accountId(), () -> pay(request))
+                .thenCompose(response -> {
+                    RenderedBody body = renderer.render(response);
+                    IdempotentResponse cacheWrapper = new IdempotentResponse(201, body, fingerprint);
+                    return store.completeAsync(key, fencingToken, cacheWrapper, properties.ttlDuration()).thenCompose(stored -> stored
+                            ? journal.record(key, cacheWrapper).thenApply(journaled -> true)
+                            : CompletableFuture.completedFuture(false)
+                    ).thenApply(stored -> {
+                        if (stored) {
+                            nearCache.put(key, cacheWrapper, properties.ttlDuration());
+                            completionSignals.signal(key);
+                        } else {
+                            log.warn("Claim on idempotency key {} (fencing token {}, lease lost: {}) was superseded before "
+                                    + "completion; result not stored", key, fencingToken, lease.isLost());
+                        }
+                        return new IdempotencyOutcome<>(response, IdempotencyOutcome.OutcomeStatus.CREATED, body);
+                    });
+                })
+                .whenComplete((outcome, error) -> lease.close())
+                .exceptionallyCompose(error -> releaseAfterFailure(key, fencingToken, error));
+    }
+
+    private CompletableFuture<IdempotencyOutcome<PaymentResponse>> releaseAfterFailure(String key, long fencingToken,
+                                                                                      Throwable failure) {
+        return store.releaseAsync(key, fencingToken).<IdempotencyOutcome<PaymentResponse>>handle((released, error) -> {
+            completionSignals.signal(key);
+            throw failure instanceof CompletionException completion ? completion : new CompletionException(failure);
+        });
+    }
+
+    public List<BatchPaymentResult> processBatch(List<BatchPaymentItem> items) {
+        int maxItems = properties.batch().maxItems();
+        if (items.size() > maxItems) {
+            throw new BatchSizeExceededException("A batch may contain at most " + maxItems + " items.");
+        }
+        IdempotencyProperties.RateLimit rateLimit = properties.rateLimit();
+        if (rateLimit.enabled() && paymentsByAccount(items).values().stream()
+                .anyMatch(payments -> payments > rateLimit.capacity())) {
+            // No amount of waiting would let the batch through, so it is refused outright rather than with a 429.
+            throw new BatchSizeExceededException("A batch may contain at most " + rateLimit.capacity()
+                    + " payments for one account.");
+        }
+
+        int size = items.size();
+        byte[][] fingerprints = new byte[size][];
+        List<IdempotencyOutcome<PaymentResponse>> outcomes = new ArrayList<>(Collections.nCopies(size, null));
+        List<Integer> pending = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            BatchPaymentItem item = items.get(i);
+            fingerprints[i] = fingerprinter.fingerprint(item.payment());
+            IdempotentResponse nearCached = nearCache.get(item.idempotencyKey());
+            if (nearCached != null) {
+                outcomes.set(i, replay(nearCached, fingerprints[i], item.payment()));
+            } else {
+                pending.add(i);
+            }
+        }
+
+        pending.stream().map(i -> items.get(i).payment().accountId()).distinct().forEach(rateLimiter::rejectIfDenied);
+
+        // One store call claims every remaining key. Duplicate keys within the batch see each other's claim.
+        List<IdempotencyStore.ClaimCommand> claimCommands = new ArrayList<>(pending.size());
+        for (int i : pending) {
+            claimCommands.add(new IdempotencyStore.ClaimCommand(items.get(i).idempotencyKey(), fingerprints[i],
+                    properties.lockDuration()));
         }
+        List<Claim> claims = store.claimAll(claimCommands);
 
-        if (cachedValue instanceof IdempotentResponse stored) {
-            if (!stored.requestHash().equals(currentHash)) {
-                return new IdempotencyOutcome<>(null, IdempotencyOutcome.OutcomeStatus.DATA_MISMATCH);
+        long[] fencingTokens = new long[size];
+        List<Integer> claimed = new ArrayList<>(pending.size());
+        for (int n = 0; n < pending.size(); n++) {
+            int i = pending.get(n);
+            Claim claim = claims.get(n);
+            if (claim.status() == Claim.Status.CLAIMED) {
+                fencingTokens[i] = claim.fencingToken();
+                claimed.add(i);
+            } else {
+                BatchPaymentItem item = items.get(i);
+                outcomes.set(i, handleExistingKey(item.idempotencyKey(), fingerprints[i], item.payment(), claim));
             }
-            return new IdempotencyOutcome<>((PaymentResponse) stored.responseBody(), IdempotencyOutcome.OutcomeStatus.ALREADY_EXISTS);
         }
 
-        throw new IllegalStateException("Unexpected cache state for key: " + key);
+        try {
+            rateLimiter.acquire(paymentsByAccount(claimed.stream().map(items::get).toList()));
+        } catch (RateLimitExceededException e) {
+            releaseClaims(items, claimed, fencingTokens);
+            throw e;
+        }
+
+        List<ClaimLeaseKeeper.Lease> leases = new ArrayList<>(claimed.size());
+        try {
+            for (int i : claimed) {
+                leases.add(leaseKeeper.hold(items.get(i).idempotencyKey(), fencingTokens[i]));
+            }
+            writeBack(items, claimed, fingerprints, fencingTokens, outcomes);
+        } finally {
+            leases.forEach(ClaimLeaseKeeper.Lease::close);
+        }
+
+        List<BatchPaymentResult> results = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            IdempotencyOutcome<PaymentResponse> outcome = outcomes.get(i);
+            metrics.recordBatch(outcome.status());
+            results.add(new BatchPaymentResult(items.get(i).idempotencyKey(), outcome.status(), outcome.data()));
+        }
+        return results;
+    }
+
+    private static Map<String, Integer> paymentsByAccount(List<BatchPaymentItem> items) {
+        Map<String, Integer> payments = new LinkedHashMap<>();
+        for (BatchPaymentItem item : items) {
+            payments.merge(item.payment().accountId(), 1, Integer::sum);
+        }
+        return payments;
+    }
+
+    private void releaseClaims(List<BatchPaymentItem> items, List<Integer> claimed, long[] fencingTokens) {
+        List<IdempotencyStore.FinishCommand> releases = new ArrayList<>(claimed.size());
+        for (int i : claimed) {
+            releases.add(new IdempotencyStore.FinishCommand(items.get(i).idempotencyKey(), fencingTokens[i], null, null));
+        }
+        store.finishAll(releases);
+        releases.forEach(release -> completionSignals.signal(release.key()));
+    }
+
+    // Runs the claimed payments, then one store call stores every result and releases the keys whose payment failed.
+    private void writeBack(List<BatchPaymentItem> items, List<Integer> claimed, byte[][] fingerprints, long[] fencingTokens,
+                           List<IdempotencyOutcome<PaymentResponse>> outcomes) {
+        List<CompletableFuture<PaymentResponse>> executions = executeConcurrently(items, claimed);
+
+        List<IdempotencyStore.FinishCommand> writeBack = new ArrayList<>(claimed.size());
+        for (int n = 0; n < claimed.size(); n++) {
+            int i = claimed.get(n);
+            String key = items.get(i).idempotencyKey();
+            Future<PaymentResponse> execution = executions.get(n);
+            if (execution.state() == Future.State.SUCCESS) {
+                RenderedBody body = renderer.render(execution.resultNow());
+                IdempotentResponse cacheWrapper = new IdempotentResponse(201, body, fingerprints[i]);
+                writeBack.add(new IdempotencyStore.FinishCommand(key, fencingTokens[i], cacheWrapper, properties.ttlDuration()));
+                outcomes.set(i, new IdempotencyOutcome<>(execution.resultNow(), IdempotencyOutcome.OutcomeStatus.CREATED, body));
+            } else {
+                log.error("Payment for idempotency key {} failed within batch; key released", key, execution.exceptionNow());
+                writeBack.add(new IdempotencyStore.FinishCommand(key, fencingTokens[i], null, null));
+                outcomes.set(i, new IdempotencyOutcome<>(null, IdempotencyOutcome.OutcomeStatus.FAILED));
+            }
+        }
+        List<Boolean> written = store.finishAll(writeBack);
+        List<CompletableFuture<Void>> journaled = new ArrayList<>(writeBack.size());
+        for (int n = 0; n < writeBack.size(); n++) {
+            IdempotencyStore.FinishCommand command = writeBack.get(n);
+            if (command.response() == null) {
+                completionSignals.signal(command.key());
+            } else if (written.get(n)) {
+                journaled.add(journal.record(command.key(), command.response()));
+                nearCache.put(command.key(), command.response(), properties.ttlDuration());
+                completionSignals.signal(command.key());
+            } else {
+                log.warn("Claim on idempotency key {} (fencing token {}) was superseded before completion; result not stored",
+                        command.key(), command.fencingToken());
+            }
+        }
+        // The whole batch shares one journal fsync.
+        CompletableFuture.allOf(journaled.toArray(CompletableFuture[]::new)).join();
+    }
+
+    // One account's items run in batch order as a single turn on that account, so a large batch for one account takes
+    // one place in its queue. Up to batch.concurrency accounts of the batch run at once.
+    private List<CompletableFuture<PaymentResponse>> executeConcurrently(List<BatchPaymentItem> items, List<Integer> claimed) {
+        List<CompletableFuture<PaymentResponse>> executions = new ArrayList<>(claimed.size());
+        Map<String, List<Integer>> byAccount = new LinkedHashMap<>();
+        for (int n = 0; n < claimed.size(); n++) {
+            executions.add(new CompletableFuture<>());
+            byAccount.computeIfAbsent(items.get(claimed.get(n)).payment().accountId(), accountId -> new ArrayList<>()).add(n);
+        }
+
+        Semaphore permits = new Semaphore(properties.batch().concurrency());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            byAccount.forEach((accountId, positions) -> executor.execute(() -> {
+                permits.acquireUninterruptibly();
+                try {
+                    accountExecutor.execute(accountId, () -> {
+                        for (int n : positions) {
+                            try {
+                                executions.get(n).complete(executePaymentTransaction(items.get(claimed.get(n)).payment()));
+                            } catch (RuntimeException e) {
+                                executions.get(n).completeExceptionally(e);
+                            }
+                        }
+                        return null;
+                    });
+                } catch (RuntimeException e) {
+                    positions.forEach(n -> executions.get(n).completeExceptionally(e));
+                } finally {
+                    permits.release();
+                }
+            }));
+        }
+        return executions;
+    }
+
+    private IdempotencyOutcome<PaymentResponse> handleExistingKey(String key, byte[] fingerprint, PaymentRequest request,
+                                                                  Claim claim) {
+        return switch (claim.status()) {
+            case IN_PROGRESS -> new IdempotencyOutcome<>(null, IdempotencyOutcome.OutcomeStatus.IN_PROGRESS);
+            case MISMATCH -> handleHashMismatch(key, fingerprint, request, claim);
+            case COMPLETED -> {
+                nearCache.put(key, claim.response(), properties.ttlDuration());
+                yield replay(claim.response(), fingerprint, request);
+            }
+            case CLAIMED -> throw new IllegalStateException("Claimed key handled as existing: " + key);
+        };
+    }
+
+    // Keys claimed before fingerprints existed hold the old hex hash; treat them as the same request when it matches.
+    private IdempotencyOutcome<PaymentResponse> handleHashMismatch(String key, byte[] fingerprint, PaymentRequest request,
+                                                                   Claim claim) {
+        byte[] storedHash = claim.storedHash();
+        if (!RequestFingerprinter.isLegacy(storedHash) || !fingerprinter.matches(storedHash, fingerprint, request)) {
+            return new IdempotencyOutcome<>(null, IdempotencyOutcome.OutcomeStatus.DATA_MISMATCH);
+        }
+        if (claim.response() == null) {
+            return new IdempotencyOutcome<>(null, IdempotencyOutcome.OutcomeStatus.IN_PROGRESS);
+        }
+        nearCache.put(key, claim.response(), properties.ttlDuration());
+        return alreadyExists(claim.response());
+    }
+
+    private IdempotencyOutcome<PaymentResponse> replay(IdempotentResponse stored, byte[] fingerprint, PaymentRequest request) {
+        if (!fingerprinter.matches(stored.requestHash(), fingerprint, request)) {
+            return new IdempotencyOutcome<>(null, IdempotencyOutcome.OutcomeStatus.DATA_MISMATCH);
+        }
+        return alreadyExists(stored);
+    }
+
+    // Results stored before rendered bodies existed hold the response object, which Spring MVC serializes again.
+    private IdempotencyOutcome<PaymentResponse> alreadyExists(IdempotentResponse stored) {
+        return stored.responseBody() instanceof RenderedBody body
+                ? IdempotencyOutcome.replayed(body, renderer::read)
+                : new IdempotencyOutcome<>((PaymentResponse) stored.responseBody(), IdempotencyOutcome.OutcomeStatus.ALREADY_EXISTS);
     }
 
-    private String generateHash(PaymentRequest request) {
-        String rawData = request.accountId() + request.amount() + request.destinationAccount();
-        return DigestUtils.sha256Hex(rawData);
+    // Tokens are spent only once the key is claimed, so replays and duplicates never count against the account.
+    private PaymentResponse pay(PaymentRequest request) {
+        rateLimiter.acquire(request.accountId());
+        return executePaymentTransaction(request);
     }
 
     private PaymentResponse executePaymentTransaction(PaymentRequest request) {
-        return new PaymentResponse(UUID.randomUUID().toString(), "SUCCESS", request.amount(), request.currency(), LocalDateTime.now());
+        return metrics.paymentExecution().record(() ->
+                new PaymentResponse(UUID.randomUUID().toString(), "SUCCESS", request.amount(), request.currency(), LocalDateTime.now()));
     }
 
     public void clearKeyManual(String key) {
-        redisTemplate.delete(key);
+        store.delete(key);
+        nearCache.invalidateEverywhere(key);
     }
 }
\ No newline at end of file
@@ -0,0 +1,174 @@
+package com.tyme.payment.service;
+
+import com.tyme.payment.model.PaymentRequest;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * SHA-256 fingerprint of the canonical form of a {@link PaymentRequest}. Every field is length-prefixed so field
+ * boundaries cannot shift, currency is upper-cased and amounts are compared by value ({@code 100.0 == 100.00}).
+ * Digests are pooled in a small striped array rather than a ThreadLocal, which would create one per virtual thread.
+ */
+@Component
+public class RequestFingerprinter {
+
+    public static final int FINGERPRINT_LENGTH = 32;
+
+    // Bumped whenever the canonical form changes, so old and new fingerprints can never collide.
+    private static final byte CANONICAL_FORM_VERSION = 1;
+    private static final int NULL_LENGTH = -1;
+
+    private final AtomicReferenceArray<Lease> pool;
+    private final int poolMask;
+
+    public RequestFingerprinter() {
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 4 - 1) << 1;
+        this.pool = new AtomicReferenceArray<>(stripes);
+        this.poolMask = stripes - 1;
+    }
+
+    public byte[] fingerprint(PaymentRequest request) {
+        int slot = stripe();
+        Lease lease = pool.getAndSet(slot, null);
+        if (lease == null) {
+            lease = new Lease();
+        }
+        try {
+            lease.digest.update(CANONICAL_FORM_VERSION);
+            lease.writeString(request.accountId(), false);
+            lease.writeString(request.destinationAccount(), false);
+            lease.writeString(request.currency(), true);
+            lease.writeAmount(request.amount());
+            return lease.digest.digest();
+        } finally {
+            lease.digest.reset();
+            pool.compareAndSet(slot, null, lease);
+        }
+    }
+
+    /**
+     * Whether a stored hash belongs to this request. Entries written before fingerprints existed carry the old
+     * 64-char hex hash; those are checked against the old algorithm until they expire.
+     */
+    public boolean matches(byte[] storedHash, byte[] fingerprint, PaymentRequest request) {
+        if (storedHash == null) {
+            return false;
+        }
+        if (storedHash.length == FINGERPRINT_LENGTH) {
+            return MessageDigest.isEqual(storedHash, fingerprint);
+        }
+        return Arrays.equals(storedHash, legacyHash(request));
+    }
+
+    public static boolean isLegacy(byte[] storedHash) {
+        return storedHash != null && storedHash.length != FINGERPRINT_LENGTH;
+    }
+
+    static byte[] legacyHash(PaymentRequest request) {
+        String rawData = request.accountId() + request.amount() + request.destinationAccount();
+        return DigestUtils.sha256Hex(rawData).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().threadId();
+        return (int) (id ^ (id >>> 16)) & poolMask;
+    }
+
+    private static final class Lease {
+
+        private final MessageDigest digest;
+        private byte[] scratch = new byte[128];
+
+        private Lease() {
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+
+        // 4-byte big-endian UTF-8 length, then the bytes; -1 marks null.
+        private void writeString(String value, boolean upperCaseAscii) {
+            if (value == null) {
+                writeLength(NULL_LENGTH);
+                return;
+            }
+            int length = 4;
+            for (int i = 0; i < value.length(); i++) {
+                ensureCapacity(length + 4);
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    scratch[length++] = (byte) (upperCaseAscii && c >= 'a' && c <= 'z' ? c - 32 : c);
+                } else if (c < 0x800) {
+                    scratch[length++] = (byte) (0xC0 | c >> 6);
+                    scratch[length++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    scratch[length++] = (byte) (0xF0 | codePoint >> 18);
+                    scratch[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                    scratch[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                    scratch[length++] = (byte) (0x80 | codePoint & 0x3F);
+                } else if (Character.isSurrogate(c)) {
+                    // Unpaired surrogate: same replacement String.getBytes(UTF_8) would produce.
+                    scratch[length++] = '?';
+                } else {
+                    scratch[length++] = (byte) (0xE0 | c >> 12);
+                    scratch[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    scratch[length++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+            putInt(0, length - 4);
+            digest.update(scratch, 0, length);
+        }
+
+        // Scale and unscaled value of the amount with trailing zeros stripped.
+        private void writeAmount(BigDecimal amount) {
+            if (amount == null) {
+                writeLength(NULL_LENGTH);
+                return;
+            }
+            BigDecimal canonical = amount.signum() == 0 ? BigDecimal.ZERO : amount.stripTrailingZeros();
+            BigInteger unscaled = canonical.unscaledValue();
+            putInt(0, canonical.scale());
+            if (unscaled.bitLength() < 64) {
+                putInt(4, Long.BYTES);
+                long value = unscaled.longValue();
+                for (int i = 0; i < Long.BYTES; i++) {
+                    scratch[8 + i] = (byte) (value >>> (56 - 8 * i));
+                }
+                digest.update(scratch, 0, 8 + Long.BYTES);
+            } else {
+                byte[] magnitude = unscaled.toByteArray();
+                putInt(4, magnitude.length);
+                digest.update(scratch, 0, 8);
+                digest.update(magnitude);
+            }
+        }
+
+        private void writeLength(int length) {
+            putInt(0, length);
+            digest.update(scratch, 0, 4);
+        }
+
+        private void putInt(int offset, int value) {
+            scratch[offset] = (byte) (value >>> 24);
+            scratch[offset + 1] = (byte) (value >>> 16);
+            scratch[offset + 2] = (byte) (value >>> 8);
+            scratch[offset + 3] = (byte) value;
+        }
+
+        private void ensureCapacity(int needed) {
+            if (needed > scratch.length) {
+                scratch = Arrays.copyOf(scratch, Math.max(scratch.length * 2, needed));
+            }
+        }
+    }
+}
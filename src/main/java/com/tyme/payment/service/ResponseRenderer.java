@@ -0,0 +1,41 @@
+package com.tyme.payment.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tyme.payment.model.PaymentResponse;
+import com.tyme.payment.model.RenderedBody;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Renders payment responses once, with the same {@link ObjectMapper} Spring MVC writes responses with, so the stored
+ * bytes are what the client would have received anyway.
+ */
+@Component
+public class ResponseRenderer {
+
+    private final ObjectMapper objectMapper;
+
+    public ResponseRenderer(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public RenderedBody render(PaymentResponse response) {
+        try {
+            return new RenderedBody(MediaType.APPLICATION_JSON_VALUE, objectMapper.writeValueAsBytes(response));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Payment response could not be rendered", e);
+        }
+    }
+
+    // Replays read the object back only when something needs it, such as a batch result embedding it.
+    public PaymentResponse read(RenderedBody body) {
+        try {
+            return objectMapper.readValue(body.content(), PaymentResponse.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Stored payment response could not be read", e);
+        }
+    }
+}
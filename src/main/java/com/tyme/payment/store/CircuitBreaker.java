@@ -0,0 +1,61 @@
+package com.tyme.payment.store;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Consecutive-failure circuit breaker. {@code failureThreshold} failures in a row open it for {@code openDuration};
+ * after that a single probe call is let through, whose outcome closes or reopens it. Calls are never queued: a caller
+ * refused by {@link #tryAcquire()} is expected to take its fallback at once.
+ */
+public final class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final Clock clock;
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openUntil;
+
+    public CircuitBreaker(int failureThreshold, Duration openDuration, Clock clock) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openDuration.toMillis();
+        this.clock = clock;
+    }
+
+    /** Whether a call may go to the guarded resource; an open breaker past its open duration admits one probe. */
+    public boolean tryAcquire() {
+        return switch (state.get()) {
+            case CLOSED -> true;
+            case OPEN -> clock.millis() >= openUntil && state.compareAndSet(State.OPEN, State.HALF_OPEN);
+            case HALF_OPEN -> false;
+        };
+    }
+
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+        state.compareAndSet(State.HALF_OPEN, State.CLOSED);
+    }
+
+    /** Returns true if this failure opened the breaker. */
+    public boolean onFailure() {
+        // The deadline is set before the state flips, so nobody sees OPEN with a stale deadline.
+        if (state.get() == State.HALF_OPEN) {
+            openUntil = clock.millis() + openMillis;
+            return state.compareAndSet(State.HALF_OPEN, State.OPEN);
+        }
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold && state.get() == State.CLOSED) {
+            openUntil = clock.millis() + openMillis;
+            return state.compareAndSet(State.CLOSED, State.OPEN);
+        }
+        return false;
+    }
+
+    public State state() {
+        return state.get();
+    }
+}
@@ -0,0 +1,43 @@
+package com.tyme.payment.store;
+
+import com.tyme.payment.model.IdempotentResponse;
+
+/**
+ * Result of {@link IdempotencyStore#claim}. {@code CLAIMED} carries the fencing token that later store calls must
+ * present. On {@code MISMATCH} the stored hash is returned so callers can accept hashes written by older versions,
+ * and {@code response} is null while the stored entry is still in progress.
+ */
+public record Claim(
+        Status status,
+        long fencingToken,
+        byte[] storedHash,
+        IdempotentResponse response
+) {
+
+    public static final long NO_TOKEN = 0;
+
+    private static final Claim IN_PROGRESS = new Claim(Status.IN_PROGRESS, NO_TOKEN, null, null);
+
+    public enum Status {
+        CLAIMED,
+        IN_PROGRESS,
+        COMPLETED,
+        MISMATCH
+    }
+
+    public static Claim claimed(long fencingToken) {
+        return new Claim(Status.CLAIMED, fencingToken, null, null);
+    }
+
+    public static Claim inProgress() {
+        return IN_PROGRESS;
+    }
+
+    public static Claim completed(IdempotentResponse response) {
+        return new Claim(Status.COMPLETED, NO_TOKEN, null, response);
+    }
+
+    public static Claim mismatch(byte[] storedHash, IdempotentResponse response) {
+        return new Claim(Status.MISMATCH, NO_TOKEN, storedHash, response);
+    }
+}
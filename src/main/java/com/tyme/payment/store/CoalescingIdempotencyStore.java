@@ -0,0 +1,283 @@
+package com.tyme.payment.store;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.model.IdempotentResponse;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Sends the single-key claims, completions and releases of concurrent requests to the store together. Commands are
+ * gathered from the first one queued for up to {@code window}, or until {@code max-batch} are waiting, and then sent
+ * through {@link #claimAll} or {@link #finishAll}, which the Redis store writes as one pipeline; each caller gets its
+ * own reply back. Callers keep the single-key API and wait at most the window longer. A command sent while no other
+ * is queued or awaiting its reply has nothing to be gathered with, so it goes straight to the store's async API
+ * instead. The number of commands per
+ * flush is recorded as {@code <meterPrefix>.coalesced.batch}, tagged with the operation. Everything else, including
+ * the callers' own batches, goes straight to the store.
+ */
+public class CoalescingIdempotencyStore implements IdempotencyStore, AutoCloseable {
+
+    private final IdempotencyStore delegate;
+    private final Coalescer<ClaimCommand, Claim> claims;
+    private final Coalescer<FinishCommand, Boolean> finishes;
+    private final ExecutorService flushers = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("idempotency-coalesced-flush-", 0).factory());
+
+    public CoalescingIdempotencyStore(IdempotencyStore delegate, IdempotencyProperties.Coalescing settings,
+                                      MeterRegistry meterRegistry, String meterPrefix, Tags tags) {
+        this.delegate = delegate;
+        this.claims = new Coalescer<>("claim", settings, flushers, meterRegistry, meterPrefix, tags,
+                delegate::claimAll, command -> delegate.claim(command.key(), command.fingerprint(), command.lease()),
+                command -> delegate.claimAsync(command.key(), command.fingerprint(), command.lease()));
+        this.finishes = new Coalescer<>("finish", settings, flushers, meterRegistry, meterPrefix, tags,
+                delegate::finishAll, command -> command.response() != null
+                        ? delegate.complete(command.key(), command.fencingToken(), command.response(), command.ttl())
+                        : delegate.release(command.key(), command.fencingToken()),
+                command -> command.response() != null
+                        ? delegate.completeAsync(command.key(), command.fencingToken(), command.response(), command.ttl())
+                        : delegate.releaseAsync(command.key(), command.fencingToken()));
+    }
+
+    @Override
+    public Claim claim(String key, byte[] fingerprint, Duration lease) {
+        return await(claimAsync(key, fingerprint, lease));
+    }
+
+    @Override
+    public boolean renew(String key, long fencingToken, Duration lease) {
+        return delegate.renew(key, fencingToken, lease);
+    }
+
+    @Override
+    public boolean complete(String key, long fencingToken, IdempotentResponse response, Duration ttl) {
+        return await(completeAsync(key, fencingToken, response, ttl));
+    }
+
+    @Override
+    public boolean release(String key, long fencingToken) {
+        return await(releaseAsync(key, fencingToken));
+    }
+
+    @Override
+    public IdempotentResponse fetch(String key) {
+        return delegate.fetch(key);
+    }
+
+    @Override
+    public void delete(String key) {
+        delegate.delete(key);
+    }
+
+    @Override
+    public CompletableFuture<Claim> claimAsync(String key, byte[] fingerprint, Duration lease) {
+        return claims.submit(new ClaimCommand(key, fingerprint, lease));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> completeAsync(String key, long fencingToken, IdempotentResponse response, Duration ttl) {
+        return finishes.submit(new FinishCommand(key, fencingToken, response, ttl));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> releaseAsync(String key, long fencingToken) {
+        return finishes.submit(new FinishCommand(key, fencingToken, null, null));
+    }
+
+    @Override
+    public KeyspaceSample sampleKeyspace(int sampleSize, int scanCount) {
+        return delegate.sampleKeyspace(sampleSize, scanCount);
+    }
+
+    @Override
+    public KeyPage scanKeys(String cursor, String keyPrefix, boolean legacyKeys, int count) {
+        return delegate.scanKeys(cursor, keyPrefix, legacyKeys, count);
+    }
+
+    @Override
+    public long unlinkAll(List<StoredKey> keys) {
+        return delegate.unlinkAll(keys);
+    }
+
+    @Override
+    public List<Claim> claimAll(List<ClaimCommand> commands) {
+        return delegate.claimAll(commands);
+    }
+
+    @Override
+    public List<Boolean> renewAll(List<RenewCommand> commands, Duration lease) {
+        return delegate.renewAll(commands, lease);
+    }
+
+    @Override
+    public List<Boolean> finishAll(List<FinishCommand> commands) {
+        return delegate.finishAll(commands);
+    }
+
+    private static <T> T await(CompletableFuture<T> reply) {
+        try {
+            return reply.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    // Commands already queued are still sent; only new ones are refused.
+    @Override
+    public void close() throws Exception {
+        claims.close();
+        finishes.close();
+        flushers.close();
+        if (delegate instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    /**
+     * One queue and the platform thread gathering it; a platform thread so that waits of a few microseconds are not
+     * stretched by virtual-thread scheduling. Each gathered batch is flushed on its own virtual thread, so the next
+     * one is gathered while the store answers.
+     */
+    private static final class Coalescer<C, R> {
+
+        private final Duration window;
+        private final int maxBatch;
+        private final ExecutorService flushers;
+        private final Function<List<C>, List<R>> batch;
+        private final Function<C, R> single;
+        private final Function<C, CompletableFuture<R>> direct;
+        // Commands submitted and not yet answered, whichever way they were sent.
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final DistributionSummary batchSize;
+        private final LinkedBlockingQueue<Pending<C, R>> queue = new LinkedBlockingQueue<>();
+        private final Thread gatherer;
+        private volatile boolean closed;
+
+        private Coalescer(String operation, IdempotencyProperties.Coalescing settings, ExecutorService flushers,
+                          MeterRegistry meterRegistry, String meterPrefix, Tags tags,
+                          Function<List<C>, List<R>> batch, Function<C, R> single,
+                          Function<C, CompletableFuture<R>> direct) {
+            this.window = settings.window();
+            this.maxBatch = settings.maxBatch();
+            this.flushers = flushers;
+            this.batch = batch;
+            this.single = single;
+            this.direct = direct;
+            this.batchSize = DistributionSummary.builder(meterPrefix + ".coalesced.batch")
+                    .description("Single-key commands sent to the idempotency store in one flush")
+                    .baseUnit("commands")
+                    .tags(tags.and("operation", operation))
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(1.0)
+                    .maximumExpectedValue((double) maxBatch)
+                    .register(meterRegistry);
+            this.gatherer = Thread.ofPlatform().daemon().name("idempotency-coalescer-" + operation).start(this::gather);
+        }
+
+        private CompletableFuture<R> submit(C command) {
+            if (inFlight.getAndIncrement() == 0 && !closed) {
+                CompletableFuture<R> reply;
+                try {
+                    reply = direct.apply(command);
+                } catch (RuntimeException e) {
+                    reply = CompletableFuture.failedFuture(e);
+                }
+                return reply.whenComplete((result, error) -> inFlight.decrementAndGet());
+            }
+            Pending<C, R> pending = new Pending<>(command);
+            pending.reply.whenComplete((result, error) -> inFlight.decrementAndGet());
+            queue.add(pending);
+            // The gatherer may have drained the queue for the last time before this command was added.
+            if (closed && queue.remove(pending)) {
+                pending.reply.completeExceptionally(new IllegalStateException("Idempotency store is closed"));
+            }
+            return pending.reply;
+        }
+
+        private void gather() {
+            while (!closed) {
+                List<Pending<C, R>> pending = new ArrayList<>(maxBatch);
+                try {
+                    pending.add(queue.take());
+                    long deadline = System.nanoTime() + window.toNanos();
+                    queue.drainTo(pending, maxBatch - pending.size());
+                    long remaining;
+                    while (pending.size() < maxBatch && (remaining = deadline - System.nanoTime()) > 0) {
+                        Pending<C, R> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        pending.add(next);
+                        queue.drainTo(pending, maxBatch - pending.size());
+                    }
+                } catch (InterruptedException e) {
+                    // Closing: whatever was gathered is still flushed below.
+                }
+                if (!pending.isEmpty()) {
+                    flush(pending);
+                }
+            }
+            List<Pending<C, R>> left = new ArrayList<>();
+            queue.drainTo(left);
+            for (int from = 0; from < left.size(); from += maxBatch) {
+                flush(left.subList(from, Math.min(from + maxBatch, left.size())));
+            }
+        }
+
+        private void flush(List<Pending<C, R>> pending) {
+            batchSize.record(pending.size());
+            flushers.execute(() -> send(pending));
+        }
+
+        // A reply that cannot be read fails the whole batch call, so then each command is sent again on its own and
+        // only the callers whose entry is bad see the error. Anything else, such as a lost connection, fails them all.
+        private void send(List<Pending<C, R>> pending) {
+            List<R> replies;
+            try {
+                replies = batch.apply(pending.stream().map(Pending::command).toList());
+            } catch (IllegalStateException e) {
+                pending.forEach(this::sendAlone);
+                return;
+            } catch (RuntimeException | Error e) {
+                pending.forEach(each -> each.reply.completeExceptionally(e));
+                return;
+            }
+            for (int i = 0; i < pending.size(); i++) {
+                pending.get(i).reply.complete(replies.get(i));
+            }
+        }
+
+        private void sendAlone(Pending<C, R> pending) {
+            try {
+                pending.reply.complete(single.apply(pending.command()));
+            } catch (RuntimeException | Error e) {
+                pending.reply.completeExceptionally(e);
+            }
+        }
+
+        private void close() throws InterruptedException {
+            closed = true;
+            gatherer.interrupt();
+            gatherer.join();
+        }
+    }
+
+    private record Pending<C, R>(C command, CompletableFuture<R> reply) {
+
+        private Pending(C command) {
+            this(command, new CompletableFuture<>());
+        }
+    }
+}
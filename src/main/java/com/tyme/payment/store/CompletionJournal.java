@@ -0,0 +1,420 @@
+package com.tyme.payment.store;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only record of completed keys on local disk, kept in numbered segment files that are preallocated and
+ * memory-mapped. A record is {@code length, crc32c, payload} with the payload {@code expires-at millis, key length,
+ * key, value}; a zero length ends the segment. Appends are copied into the mapping under a short lock and made durable
+ * by one thread that forces everything appended so far, so concurrent appends share one fsync. The future returned by
+ * {@link #append} completes once its record is on disk.
+ * <p>
+ * Every start writes to a new segment; the segments found on disk are only read back by {@link #replay}, which stops
+ * at the first torn or corrupt record of a segment. {@link #compact} deletes finished segments whose records have all
+ * expired; every record outlives its payment by the same TTL, so segments expire in the order they were written.
+ */
+@Slf4j
+public class CompletionJournal implements AutoCloseable {
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("completions-(\\d{20})\\.journal");
+    private static final byte[] MAGIC = "IDJRNL01".getBytes(StandardCharsets.US_ASCII);
+    private static final int RECORD_HEADER = 2 * Integer.BYTES;
+    private static final int PAYLOAD_HEADER = Long.BYTES + Short.BYTES;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Clock clock;
+    // Finished segments by sequence. Those found at startup count as unexpired until replay has read them.
+    private final ConcurrentSkipListMap<Long, SealedSegment> sealed = new ConcurrentSkipListMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final ArrayDeque<CompletableFuture<Void>> unsynced = new ArrayDeque<>();
+    private Segment active;
+    private IOException syncFailure;
+    private boolean closed;
+    private final Thread syncer;
+
+    private final Timer syncTimer;
+    private final DistributionSummary syncBatch;
+
+    private CompletionJournal(Path directory, int segmentSize, Clock clock, MeterRegistry meterRegistry) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.clock = clock;
+        this.syncTimer = Timer.builder("idempotency.journal.sync")
+                .description("Time to force appended journal records to disk")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(10_000))
+                .maximumExpectedValue(Duration.ofSeconds(1))
+                .register(meterRegistry);
+        this.syncBatch = DistributionSummary.builder("idempotency.journal.sync.batch")
+                .description("Journal records made durable by one fsync")
+                .baseUnit("records")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(1.0)
+                .maximumExpectedValue(10_000.0)
+                .register(meterRegistry);
+        Gauge.builder("idempotency.journal.segments", sealed, segments -> segments.size() + 1)
+                .description("Journal segment files on disk")
+                .register(meterRegistry);
+        this.syncer = Thread.ofPlatform().daemon().name("idempotency-journal-sync").unstarted(this::syncLoop);
+    }
+
+    /** Opens the journal in {@code directory}, creating it if needed, and starts a new segment after the existing ones. */
+    public static CompletionJournal open(Path directory, int segmentSize, Clock clock, MeterRegistry meterRegistry)
+            throws IOException {
+        if (segmentSize < MAGIC.length + RECORD_HEADER + PAYLOAD_HEADER + 1) {
+            throw new IllegalArgumentException("Journal segment size is too small: " + segmentSize + " bytes");
+        }
+        Files.createDirectories(directory);
+        CompletionJournal journal = new CompletionJournal(directory, segmentSize, clock, meterRegistry);
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher name = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (name.matches()) {
+                    journal.sealed.put(Long.parseLong(name.group(1)), new SealedSegment(file, Long.MAX_VALUE));
+                }
+            });
+        }
+        journal.active = journal.createSegment(journal.sealed.isEmpty() ? 0 : journal.sealed.lastKey() + 1);
+        journal.syncer.start();
+        return journal;
+    }
+
+    /**
+     * Appends a record that is kept until {@code expiresAtMillis}. The future completes once the record is durable and
+     * fails if it could not be written.
+     */
+    public CompletableFuture<Void> append(String key, byte[] value, long expiresAtMillis) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long recordLength = (long) RECORD_HEADER + PAYLOAD_HEADER + keyBytes.length + value.length;
+        if (recordLength > segmentSize - MAGIC.length || keyBytes.length > Short.MAX_VALUE) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException(
+                    "Journal record for key " + key + " does not fit a segment: " + recordLength + " bytes"));
+        }
+        ByteBuffer record = ByteBuffer.allocate((int) recordLength);
+        int payloadLength = record.capacity() - RECORD_HEADER;
+        record.putInt(payloadLength).putInt(0)
+                .putLong(expiresAtMillis).putShort((short) keyBytes.length).put(keyBytes).put(value);
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), RECORD_HEADER, payloadLength);
+        record.putInt(Integer.BYTES, (int) crc.getValue());
+
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        lock.lock();
+        try {
+            if (closed || syncFailure != null) {
+                return CompletableFuture.failedFuture(closed ? new IllegalStateException("Completion journal is closed")
+                        : new UncheckedIOException("Completion journal cannot be written", syncFailure));
+            }
+            if (active.position + record.capacity() > segmentSize) {
+                roll();
+            }
+            active.buffer.put(active.position, record.array());
+            active.position += record.capacity();
+            active.maxExpiresAt = Math.max(active.maxExpiresAt, expiresAtMillis);
+            unsynced.add(durable);
+            appended.signal();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new UncheckedIOException("Completion journal cannot be written", e));
+        } finally {
+            lock.unlock();
+        }
+        return durable;
+    }
+
+    // The segment being left is forced here, under the lock, so the syncer only ever has to force the active one.
+    private void roll() throws IOException {
+        Segment finished = active;
+        finished.buffer.force();
+        active = createSegment(finished.sequence + 1);
+        sealed.put(finished.sequence, new SealedSegment(finished.file, finished.maxExpiresAt));
+        finished.channel.close();
+    }
+
+    private Segment createSegment(long sequence) throws IOException {
+        Path file = directory.resolve("completions-%020d.journal".formatted(sequence));
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buffer.put(0, MAGIC);
+            buffer.force();
+            channel.force(true);
+            forceDirectory();
+            return new Segment(sequence, file, channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Makes the new file's directory entry durable; not every platform can open a directory for that.
+    private void forceDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            log.debug("Journal directory {} could not be forced: {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Group commit: waits for appends, forces everything appended up to that moment with one call, then completes the
+     * appends it covered. Appends arriving while it forces wait for the next round.
+     */
+    private void syncLoop() {
+        while (true) {
+            Segment segment;
+            int from;
+            int to;
+            List<CompletableFuture<Void>> batch = new ArrayList<>();
+            lock.lock();
+            try {
+                while (unsynced.isEmpty() && !closed) {
+                    appended.awaitUninterruptibly();
+                }
+                if (unsynced.isEmpty()) {
+                    return;
+                }
+                segment = active;
+                from = segment.syncedPosition;
+                to = segment.position;
+                batch.addAll(unsynced);
+                unsynced.clear();
+            } finally {
+                lock.unlock();
+            }
+
+            long started = System.nanoTime();
+            IOException failure = null;
+            try {
+                // Records in segments rolled since the last round were forced by the roll.
+                if (to > from) {
+                    segment.buffer.force(from, to - from);
+                }
+            } catch (UncheckedIOException e) {
+                failure = e.getCause();
+            }
+            syncTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            syncBatch.record(batch.size());
+
+            lock.lock();
+            try {
+                if (failure == null) {
+                    segment.syncedPosition = Math.max(segment.syncedPosition, to);
+                } else {
+                    syncFailure = failure;
+                }
+            } finally {
+                lock.unlock();
+            }
+            for (CompletableFuture<Void> durable : batch) {
+                if (failure == null) {
+                    durable.complete(null);
+                } else {
+                    durable.completeExceptionally(new UncheckedIOException("Completion journal fsync failed", failure));
+                }
+            }
+            if (failure != null) {
+                log.error("Completion journal in {} can no longer be written: {}", directory, failure.toString());
+            }
+        }
+    }
+
+    /**
+     * Reads the segments found at startup, oldest first, and passes the records that have not expired to
+     * {@code consumer} in batches of up to {@code batchSize}, never spanning two segments. A segment counts as read,
+     * and can be compacted, once all its batches were consumed; if {@code consumer} throws, the next call starts over
+     * with that segment.
+     */
+    public ReplayStats replay(int batchSize, Consumer<List<Entry>> consumer) throws IOException {
+        long now = clock.millis();
+        Tally tally = new Tally();
+        for (SealedSegment segment : sealed.values()) {
+            if (segment.maxExpiresAt == Long.MAX_VALUE) {
+                tally.segments++;
+                segment.maxExpiresAt = replaySegment(segment.file, now, batchSize, consumer, tally);
+            }
+        }
+        return new ReplayStats(tally.live, tally.expired, tally.segments, tally.corruptSegments);
+    }
+
+    private long replaySegment(Path file, long now, int batchSize, Consumer<List<Entry>> consumer, Tally stats)
+            throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        byte[] magic = new byte[MAGIC.length];
+        if (buffer.limit() >= MAGIC.length) {
+            buffer.get(0, magic);
+        }
+        if (!Arrays.equals(magic, MAGIC)) {
+            log.warn("Skipping {}: not a completion journal segment", file);
+            stats.corruptSegments++;
+            return Long.MIN_VALUE;
+        }
+
+        long maxExpiresAt = Long.MIN_VALUE;
+        List<Entry> batch = new ArrayList<>(batchSize);
+        int position = MAGIC.length;
+        CRC32C crc = new CRC32C();
+        while (position + RECORD_HEADER <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            int payload = position + RECORD_HEADER;
+            if (length < PAYLOAD_HEADER || length > buffer.limit() - payload) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.slice(payload, length));
+            if ((int) crc.getValue() != buffer.getInt(position + Integer.BYTES)) {
+                break;
+            }
+            long expiresAt = buffer.getLong(payload);
+            int keyLength = buffer.getShort(payload + Long.BYTES);
+            if (keyLength < 0 || keyLength > length - PAYLOAD_HEADER) {
+                break;
+            }
+            maxExpiresAt = Math.max(maxExpiresAt, expiresAt);
+            if (expiresAt > now) {
+                byte[] key = new byte[keyLength];
+                buffer.get(payload + PAYLOAD_HEADER, key);
+                byte[] value = new byte[length - PAYLOAD_HEADER - keyLength];
+                buffer.get(payload + PAYLOAD_HEADER + keyLength, value);
+                batch.add(new Entry(new String(key, StandardCharsets.UTF_8), expiresAt, value));
+                stats.live++;
+                if (batch.size() == batchSize) {
+                    consumer.accept(List.copyOf(batch));
+                    batch.clear();
+                }
+            } else {
+                stats.expired++;
+            }
+            position = payload + length;
+        }
+        if (!batch.isEmpty()) {
+            consumer.accept(List.copyOf(batch));
+        }
+        if (position + RECORD_HEADER <= buffer.limit() && buffer.getInt(position) != 0) {
+            // A write the process did not finish before it stopped; nothing after it was acknowledged.
+            log.warn("Completion journal {} ends in a torn or corrupt record at offset {}", file, position);
+            stats.corruptSegments++;
+        }
+        return maxExpiresAt;
+    }
+
+    /** Deletes finished segments whose records have all expired; returns how many were deleted. */
+    public int compact() {
+        long now = clock.millis();
+        int deleted = 0;
+        for (Map.Entry<Long, SealedSegment> entry : sealed.entrySet()) {
+            SealedSegment segment = entry.getValue();
+            if (segment.maxExpiresAt > now) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(segment.file);
+                sealed.remove(entry.getKey(), segment);
+                deleted++;
+            } catch (IOException e) {
+                log.warn("Could not delete expired journal segment {}: {}", segment.file, e.getMessage());
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public void close() throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            appended.signal();
+        } finally {
+            lock.unlock();
+        }
+        syncer.join();
+        active.buffer.force();
+        active.channel.close();
+    }
+
+    public record Entry(String key, long expiresAtMillis, byte[] value) {
+    }
+
+    /** What {@link #replay} read: records passed on, records already expired, and segments read or cut short. */
+    public record ReplayStats(long live, long expired, int segments, int corruptSegments) {
+    }
+
+    private static final class Tally {
+
+        private long live;
+        private long expired;
+        private int segments;
+        private int corruptSegments;
+    }
+
+    private static final class Segment {
+
+        private final long sequence;
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int position = MAGIC.length;
+        private int syncedPosition = MAGIC.length;
+        private long maxExpiresAt = Long.MIN_VALUE;
+
+        private Segment(long sequence, Path file, FileChannel channel, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class SealedSegment {
+
+        private final Path file;
+        private volatile long maxExpiresAt;
+
+        private SealedSegment(Path file, long maxExpiresAt) {
+            this.file = file;
+            this.maxExpiresAt = maxExpiresAt;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.tyme.payment.store;
+
+import org.apache.commons.codec.digest.MurmurHash3;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Hash ring with {@code virtualNodes} points per node. A key belongs to the first point at or after its hash, so
+ * adding a node only moves the keys that now fall just before its points, about 1/N of them. The ring depends on the
+ * node names alone, so every instance configured with the same names routes every key the same way.
+ */
+final class ConsistentHashRing<T> {
+
+    private final NavigableMap<Long, T> points = new TreeMap<>();
+
+    ConsistentHashRing(Map<String, T> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("A hash ring needs at least one node and one virtual node per node");
+        }
+        nodes.forEach((name, node) -> {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.put(hash(name + "#" + i), node);
+            }
+        });
+    }
+
+    T owner(String key) {
+        Map.Entry<Long, T> point = points.ceilingEntry(hash(key));
+        return (point != null ? point : points.firstEntry()).getValue();
+    }
+
+    private static long hash(String value) {
+        return MurmurHash3.hash128x64(value.getBytes(StandardCharsets.UTF_8))[0];
+    }
+}
@@ -0,0 +1,315 @@
+package com.tyme.payment.store;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.model.IdempotentResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process {@link IdempotencyStore} with the same semantics as the Redis scripts. Each key is updated atomically
+ * through {@link ConcurrentHashMap#compute}; entries are checked for expiry on access and reclaimed in the background
+ * by an {@link ExpiryWheel}. Completed values are serialized with the value codec into an {@link OffHeapValueArena},
+ * so the heap only carries the key and a small fixed-size entry per idempotency key.
+ */
+@Slf4j
+public class EmbeddedIdempotencyStore implements IdempotencyStore, AutoCloseable {
+
+    private static final String CURSOR_PREFIX = "k:";
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong fencingTokens = new AtomicLong();
+    private final RedisSerializer<Object> valueSerializer;
+    private final Clock clock;
+    private final ExpiryWheel expiryWheel;
+    private final OffHeapValueArena arena;
+    private final ScheduledExecutorService sweeper;
+
+    public EmbeddedIdempotencyStore(IdempotencyProperties.Store.Embedded settings, RedisSerializer<Object> valueSerializer,
+                                    Clock clock) {
+        this.valueSerializer = valueSerializer;
+        this.clock = clock;
+        this.expiryWheel = new ExpiryWheel(settings.expiryTick().toMillis(), settings.wheelSlots(), clock.millis());
+        this.arena = settings.offHeapValues() ? new OffHeapValueArena((int) settings.offHeapChunkSize().toBytes()) : null;
+
+        long tickMillis = settings.expiryTick().toMillis();
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("idempotency-expiry").daemon().factory());
+        sweeper.scheduleWithFixedDelay(this::sweepQuietly, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Claim claim(String key, byte[] fingerprint, Duration lease) {
+        long now = clock.millis();
+        long expiresAt = now + lease.toMillis();
+        Entry[] existing = new Entry[1];
+        Entry current = entries.compute(key, (k, entry) -> {
+            if (entry == null || entry.isExpired(now)) {
+                return new Processing(fingerprint, fencingTokens.incrementAndGet(), expiresAt);
+            }
+            existing[0] = entry;
+            return entry;
+        });
+
+        Entry entry = existing[0];
+        if (entry == null) {
+            expiryWheel.schedule(key, expiresAt);
+            return Claim.claimed(((Processing) current).token());
+        }
+        if (entry instanceof Processing processing) {
+            return Arrays.equals(processing.hash(), fingerprint)
+                    ? Claim.inProgress()
+                    : Claim.mismatch(processing.hash(), null);
+        }
+        IdempotentResponse stored = responseOf(entry);
+        if (stored == null) {
+            // The value outlived its arena segment, which only happens once it has expired anyway.
+            return claimAfterExpiry(key, entry, fingerprint, lease);
+        }
+        return Arrays.equals(stored.requestHash(), fingerprint)
+                ? Claim.completed(stored)
+                : Claim.mismatch(stored.requestHash(), stored);
+    }
+
+    private Claim claimAfterExpiry(String key, Entry expired, byte[] fingerprint, Duration lease) {
+        entries.remove(key, expired);
+        return claim(key, fingerprint, lease);
+    }
+
+    @Override
+    public boolean renew(String key, long fencingToken, Duration lease) {
+        long now = clock.millis();
+        long expiresAt = now + lease.toMillis();
+        boolean[] renewed = new boolean[1];
+        entries.computeIfPresent(key, (k, entry) -> {
+            if (isHeldBy(entry, fencingToken, now)) {
+                renewed[0] = true;
+                return new Processing(((Processing) entry).hash(), fencingToken, expiresAt);
+            }
+            return entry;
+        });
+        if (renewed[0]) {
+            expiryWheel.schedule(key, expiresAt);
+        }
+        return renewed[0];
+    }
+
+    @Override
+    public boolean complete(String key, long fencingToken, IdempotentResponse response, Duration ttl) {
+        long now = clock.millis();
+        long expiresAt = now + ttl.toMillis();
+        byte[] value = arena != null ? valueSerializer.serialize(response) : null;
+        boolean[] stored = new boolean[1];
+        // Arena space is only taken once the claim is known to be held; it cannot be given back.
+        entries.computeIfPresent(key, (k, entry) -> {
+            if (isHeldBy(entry, fencingToken, now)) {
+                stored[0] = true;
+                return completedEntry(response, value, expiresAt);
+            }
+            return entry;
+        });
+        if (stored[0]) {
+            expiryWheel.schedule(key, expiresAt);
+        }
+        return stored[0];
+    }
+
+    @Override
+    public boolean release(String key, long fencingToken) {
+        long now = clock.millis();
+        boolean[] released = new boolean[1];
+        entries.computeIfPresent(key, (k, entry) -> {
+            if (isHeldBy(entry, fencingToken, now)) {
+                released[0] = true;
+                return null;
+            }
+            return entry;
+        });
+        return released[0];
+    }
+
+    private static boolean isHeldBy(Entry entry, long fencingToken, long nowMillis) {
+        return entry instanceof Processing processing && processing.token() == fencingToken && !processing.isExpired(nowMillis);
+    }
+
+    @Override
+    public IdempotentResponse fetch(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry instanceof Processing || entry.isExpired(clock.millis())) {
+            return null;
+        }
+        return responseOf(entry);
+    }
+
+    @Override
+    public void delete(String key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Measures the first {@code sampleSize} entries by their key and encoded value; {@code scanCount} has no meaning
+     * for a map. Object headers are not counted, so this understates heap use by a constant per entry.
+     */
+    @Override
+    public KeyspaceSample sampleKeyspace(int sampleSize, int scanCount) {
+        int sampled = 0;
+        long sampledBytes = 0;
+        for (Map.Entry<String, Entry> mapping : entries.entrySet()) {
+            if (sampled == sampleSize) {
+                break;
+            }
+            sampled++;
+            sampledBytes += mapping.getKey().length() + encodedSize(mapping.getValue());
+        }
+        return new KeyspaceSample(entries.size(), sampled, sampledBytes, fencingTokens.get());
+    }
+
+    private long encodedSize(Entry entry) {
+        return switch (entry) {
+            case Processing processing -> processing.hash().length;
+            case HeapCompleted completed -> valueSerializer.serialize(completed.response()).length;
+            case OffHeapCompleted completed -> {
+                byte[] value = arena.read(completed.handle());
+                yield value != null ? value.length : 0;
+            }
+        };
+    }
+
+    /**
+     * Walks the keys in order, so the cursor is the last key returned ({@code k:<key>}) and keys that stay put are
+     * never missed however the map is resized meanwhile. Each page reads the whole map to pick the next
+     * {@code count} keys. There are no legacy keys in this store.
+     */
+    @Override
+    public KeyPage scanKeys(String cursor, String keyPrefix, boolean legacyKeys, int count) {
+        if (legacyKeys) {
+            return new KeyPage(KeyPage.START, 0, List.of());
+        }
+        String after = KeyPage.START.equals(cursor) ? null : cursor.substring(CURSOR_PREFIX.length());
+        long now = clock.millis();
+        // The count smallest keys after the cursor, largest on top.
+        PriorityQueue<Map.Entry<String, Entry>> page = new PriorityQueue<>(Map.Entry.<String, Entry>comparingByKey().reversed());
+        for (Map.Entry<String, Entry> mapping : entries.entrySet()) {
+            String key = mapping.getKey();
+            if (!key.startsWith(keyPrefix) || (after != null && key.compareTo(after) <= 0) || mapping.getValue().isExpired(now)) {
+                continue;
+            }
+            page.add(Map.entry(key, mapping.getValue()));
+            if (page.size() > count) {
+                page.poll();
+            }
+        }
+
+        List<StoredKey> found = new ArrayList<>(page.size());
+        for (Map.Entry<String, Entry> mapping : page) {
+            StoredKey.State state = mapping.getValue() instanceof Processing ? StoredKey.State.PROCESSING : StoredKey.State.COMPLETED;
+            found.add(new StoredKey(mapping.getKey(), mapping.getKey(), null, state,
+                    Duration.ofMillis(mapping.getValue().expiresAt() - now)));
+        }
+        found.sort(Comparator.comparing(StoredKey::storedKey));
+        String next = found.size() < count ? KeyPage.START : CURSOR_PREFIX + found.getLast().storedKey();
+        return new KeyPage(next, found.size(), found);
+    }
+
+    @Override
+    public long unlinkAll(List<StoredKey> keys) {
+        return keys.stream().filter(key -> entries.remove(key.storedKey()) != null).count();
+    }
+
+    /** Live and not yet reclaimed entries, including expired ones the wheel has not reached. */
+    public int size() {
+        return entries.size();
+    }
+
+    public long offHeapBytes() {
+        return arena != null ? arena.reservedBytes() : 0;
+    }
+
+    // Removes entries whose time has come and drops arena segments nobody can reference any more.
+    synchronized int sweep() {
+        long now = clock.millis();
+        int[] removed = new int[1];
+        expiryWheel.advance(now, key -> entries.computeIfPresent(key, (k, entry) -> {
+            if (!entry.isExpired(now)) {
+                return entry;
+            }
+            removed[0]++;
+            return null;
+        }));
+        if (arena != null) {
+            arena.dropExpired(now);
+        }
+        return removed[0];
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (RuntimeException e) {
+            log.error("Idempotency expiry sweep failed", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+        entries.clear();
+        if (arena != null) {
+            arena.clear();
+        }
+    }
+
+    private Entry completedEntry(IdempotentResponse response, byte[] value, long expiresAt) {
+        if (value != null) {
+            long handle = arena.store(value, expiresAt);
+            if (handle != OffHeapValueArena.NO_HANDLE) {
+                return new OffHeapCompleted(handle, expiresAt);
+            }
+        }
+        return new HeapCompleted(response, expiresAt);
+    }
+
+    private IdempotentResponse responseOf(Entry entry) {
+        return switch (entry) {
+            case HeapCompleted completed -> completed.response();
+            case OffHeapCompleted completed -> {
+                byte[] value = arena.read(completed.handle());
+                yield value != null ? (IdempotentResponse) valueSerializer.deserialize(value) : null;
+            }
+            case Processing processing -> null;
+        };
+    }
+
+    private sealed interface Entry permits Processing, HeapCompleted, OffHeapCompleted {
+
+        long expiresAt();
+
+        default boolean isExpired(long nowMillis) {
+            return expiresAt() <= nowMillis;
+        }
+    }
+
+    private record Processing(byte[] hash, long token, long expiresAt) implements Entry {
+    }
+
+    // Used when values are kept on-heap, or one is too large for an arena chunk.
+    private record HeapCompleted(IdempotentResponse response, long expiresAt) implements Entry {
+    }
+
+    private record OffHeapCompleted(long handle, long expiresAt) implements Entry {
+    }
+}
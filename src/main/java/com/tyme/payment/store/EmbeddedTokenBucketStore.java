@@ -0,0 +1,51 @@
+package com.tyme.payment.store;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tyme.payment.config.IdempotencyProperties;
+
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * In-process token buckets for the embedded store: the same arithmetic as {@code take-tokens.lua}, shared by nothing
+ * but this JVM. A bucket left alone long enough to refill completely is dropped, since a missing bucket counts as full.
+ */
+public class EmbeddedTokenBucketStore implements TokenBucketStore {
+
+    private final Cache<String, Bucket> buckets;
+    private final double capacity;
+    private final double refillPerMilli;
+    private final Clock clock;
+
+    public EmbeddedTokenBucketStore(IdempotencyProperties.RateLimit settings, Clock clock) {
+        this.capacity = settings.capacity();
+        this.refillPerMilli = settings.refillPerSecond() / 1000;
+        this.clock = clock;
+        this.buckets = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMillis((long) Math.ceil(capacity / refillPerMilli) + 1))
+                .build();
+    }
+
+    @Override
+    public Grant take(String bucket, long needed, long wanted) {
+        long now = clock.millis();
+        Grant[] grant = new Grant[1];
+        buckets.asMap().compute(bucket, (name, stored) -> {
+            double tokens = stored == null
+                    ? capacity
+                    : Math.min(capacity, stored.tokens() + Math.max(0, now - stored.computedAt()) * refillPerMilli);
+            if (tokens < needed) {
+                grant[0] = new Grant(0, Duration.ofMillis((long) Math.ceil((needed - tokens) / refillPerMilli)));
+                return new Bucket(tokens, now);
+            }
+            long taken = Math.min(wanted, (long) tokens);
+            grant[0] = new Grant(taken, Duration.ZERO);
+            return new Bucket(tokens - taken, now);
+        });
+        return grant[0];
+    }
+
+    private record Bucket(double tokens, long computedAt) {
+    }
+}
@@ -0,0 +1,97 @@
+package com.tyme.payment.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel of keys by expiry time, so expired entries are reclaimed without scanning the whole map. A slot
+ * keeps keys that are due in a later revolution; a key that was rescheduled leaves a stale record behind, which the
+ * store ignores because it re-checks the entry's own expiry.
+ */
+final class ExpiryWheel {
+
+    private final Slot[] slots;
+    private final int mask;
+    private final long tickMillis;
+    private long lastTick;
+
+    ExpiryWheel(long tickMillis, int slotCount, long nowMillis) {
+        if (tickMillis <= 0 || slotCount <= 0 || Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("Tick must be positive and slot count a power of two");
+        }
+        this.tickMillis = tickMillis;
+        this.mask = slotCount - 1;
+        this.slots = new Slot[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new Slot();
+        }
+        this.lastTick = Math.floorDiv(nowMillis, tickMillis);
+    }
+
+    // Rounded up, so by the time a slot is visited every key scheduled for that tick is due.
+    void schedule(String key, long expiresAtMillis) {
+        slots[(int) (Math.ceilDiv(expiresAtMillis, tickMillis) & mask)].add(key, expiresAtMillis);
+    }
+
+    /** Visits every tick since the last call and hands due keys to {@code onDue}. Callers serialize advances. */
+    int advance(long nowMillis, Consumer<String> onDue) {
+        long currentTick = Math.floorDiv(nowMillis, tickMillis);
+        // After a long pause one full revolution still covers every slot.
+        long firstTick = Math.max(lastTick + 1, currentTick - mask);
+        int due = 0;
+        for (long tick = firstTick; tick <= currentTick; tick++) {
+            List<String> keys = slots[(int) (tick & mask)].drainDue(nowMillis);
+            keys.forEach(onDue);
+            due += keys.size();
+        }
+        lastTick = Math.max(lastTick, currentTick);
+        return due;
+    }
+
+    private static final class Slot {
+
+        private static final int INITIAL_CAPACITY = 8;
+
+        private String[] keys = new String[INITIAL_CAPACITY];
+        private long[] expiries = new long[INITIAL_CAPACITY];
+        private int size;
+
+        private synchronized void add(String key, long expiresAtMillis) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                expiries = Arrays.copyOf(expiries, size * 2);
+            }
+            keys[size] = key;
+            expiries[size] = expiresAtMillis;
+            size++;
+        }
+
+        // Compacts the not-yet-due records to the front and shrinks the arrays once they are mostly empty.
+        private synchronized List<String> drainDue(long nowMillis) {
+            if (size == 0) {
+                return List.of();
+            }
+            List<String> due = new ArrayList<>();
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (expiries[i] <= nowMillis) {
+                    due.add(keys[i]);
+                } else {
+                    keys[kept] = keys[i];
+                    expiries[kept] = expiries[i];
+                    kept++;
+                }
+            }
+            Arrays.fill(keys, kept, size, null);
+            size = kept;
+            if (keys.length > INITIAL_CAPACITY && size < keys.length / 4) {
+                int capacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, size)) * 2);
+                keys = Arrays.copyOf(keys, capacity);
+                expiries = Arrays.copyOf(expiries, capacity);
+            }
+            return due;
+        }
+    }
+}
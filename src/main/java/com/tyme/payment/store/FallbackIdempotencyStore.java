@@ -0,0 +1,408 @@
+package com.tyme.payment.store;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.model.IdempotentResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Keeps idempotency working on this node while the primary store is slow or unreachable. Calls go through a
+ * {@link CircuitBreaker} and are given up on after call-timeout, or call-timeout per {@value #COMMANDS_PER_CALL_TIMEOUT}
+ * commands of a batch; the timeout is this store's own, so other Redis commands keep the client's. A call that fails
+ * or times out, or one the open breaker refuses, is answered by a node-local {@link EmbeddedIdempotencyStore}, which
+ * still turns away or holds back same-key duplicates on this node.
+ * <p>
+ * Local claims carry negative fencing tokens, so later calls on them go back to the local store. A key with a local
+ * claim or an unreconciled local result stays local until that result has been written to the primary store. The
+ * write-back runs in the background whenever the breaker is closed. It claims the key like any caller would, so a
+ * result another node stored first is kept, and the clash is logged and counted.
+ */
+@Slf4j
+public class FallbackIdempotencyStore implements IdempotencyStore, AutoCloseable {
+
+    static final int COMMANDS_PER_CALL_TIMEOUT = 64;
+
+    private final IdempotencyStore primary;
+    private final EmbeddedIdempotencyStore local;
+    private final CircuitBreaker breaker;
+    private final IdempotencyProperties properties;
+    private final Clock clock;
+    // Local fencing token of every in-flight local claim, by key.
+    private final ConcurrentMap<String, Long> localClaims = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LocalResult> unreconciled = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService reconciler;
+    // Runs blocking primary calls so the caller can stop waiting for them; a call given up on finishes in the background.
+    private final ExecutorService calls = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("idempotency-store-call").factory());
+    private final Counter localCalls;
+    private final Counter reconciledWritten;
+    private final Counter reconciledConflict;
+    private final Counter reconciledExpired;
+
+    public FallbackIdempotencyStore(IdempotencyStore primary, EmbeddedIdempotencyStore local, IdempotencyProperties properties,
+                                    MeterRegistry meterRegistry, Clock clock) {
+        IdempotencyProperties.Fallback settings = properties.fallback();
+        this.primary = primary;
+        this.local = local;
+        this.properties = properties;
+        this.clock = clock;
+        this.breaker = new CircuitBreaker(settings.failureThreshold(), settings.openDuration(), clock);
+
+        this.localCalls = Counter.builder("idempotency.fallback.local-calls")
+                .description("Store calls answered by the node-local fallback")
+                .register(meterRegistry);
+        this.reconciledWritten = reconciled(meterRegistry, "written");
+        this.reconciledConflict = reconciled(meterRegistry, "conflict");
+        this.reconciledExpired = reconciled(meterRegistry, "expired");
+        Gauge.builder("idempotency.fallback.open", breaker, b -> b.state() == CircuitBreaker.State.CLOSED ? 0 : 1)
+                .description("1 while the breaker around the primary store is open or probing")
+                .register(meterRegistry);
+        Gauge.builder("idempotency.fallback.unreconciled", unreconciled, Map::size)
+                .description("Results completed locally and not yet written back to the primary store")
+                .register(meterRegistry);
+
+        long intervalMillis = settings.reconcileInterval().toMillis();
+        this.reconciler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("idempotency-reconciler").daemon().factory());
+        reconciler.scheduleWithFixedDelay(this::reconcileQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static Counter reconciled(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("idempotency.fallback.reconciled")
+                .description("Locally completed results handled by the write-back to the primary store")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Claim claim(String key, byte[] fingerprint, Duration lease) {
+        if (isLocal(key)) {
+            return claimLocally(key, fingerprint, lease);
+        }
+        return guarded(() -> primary.claim(key, fingerprint, lease), () -> claimLocally(key, fingerprint, lease));
+    }
+
+    // A lease that cannot be renewed during an outage cannot be taken over either, so the holder carries on.
+    @Override
+    public boolean renew(String key, long fencingToken, Duration lease) {
+        if (fencingToken < 0) {
+            return local.renew(key, -fencingToken, lease);
+        }
+        return guarded(() -> primary.renew(key, fencingToken, lease), () -> true);
+    }
+
+    @Override
+    public boolean complete(String key, long fencingToken, IdempotentResponse response, Duration ttl) {
+        if (fencingToken < 0) {
+            // The key stays local throughout: the result is recorded before the claim is forgotten.
+            boolean completed = local.complete(key, -fencingToken, response, localTtl(ttl));
+            if (completed) {
+                unreconciled.put(key, new LocalResult(response, clock.instant().plus(ttl)));
+            }
+            localClaims.remove(key, -fencingToken);
+            return completed;
+        }
+        return guarded(() -> primary.complete(key, fencingToken, response, ttl), () -> completeLocally(key, response, ttl));
+    }
+
+    @Override
+    public boolean release(String key, long fencingToken) {
+        if (fencingToken < 0) {
+            boolean released = local.release(key, -fencingToken);
+            localClaims.remove(key, -fencingToken);
+            return released;
+        }
+        // The claim lapses with its lease.
+        return guarded(() -> primary.release(key, fencingToken), () -> false);
+    }
+
+    @Override
+    public IdempotentResponse fetch(String key) {
+        if (isLocal(key)) {
+            return local.fetch(key);
+        }
+        return guarded(() -> primary.fetch(key), () -> local.fetch(key));
+    }
+
+    @Override
+    public void delete(String key) {
+        localClaims.remove(key);
+        unreconciled.remove(key);
+        local.delete(key);
+        primary.delete(key);
+    }
+
+    @Override
+    public CompletableFuture<Claim> claimAsync(String key, byte[] fingerprint, Duration lease) {
+        if (isLocal(key)) {
+            return CompletableFuture.completedFuture(claimLocally(key, fingerprint, lease));
+        }
+        return guardedAsync(() -> primary.claimAsync(key, fingerprint, lease), () -> claimLocally(key, fingerprint, lease));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> completeAsync(String key, long fencingToken, IdempotentResponse response, Duration ttl) {
+        if (fencingToken < 0) {
+            return CompletableFuture.completedFuture(complete(key, fencingToken, response, ttl));
+        }
+        return guardedAsync(() -> primary.completeAsync(key, fencingToken, response, ttl), () -> completeLocally(key, response, ttl));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> releaseAsync(String key, long fencingToken) {
+        if (fencingToken < 0) {
+            return CompletableFuture.completedFuture(release(key, fencingToken));
+        }
+        return guardedAsync(() -> primary.releaseAsync(key, fencingToken), () -> false);
+    }
+
+    // Sizes the primary store only; local entries are few and short-lived.
+    @Override
+    public KeyspaceSample sampleKeyspace(int sampleSize, int scanCount) {
+        return primary.sampleKeyspace(sampleSize, scanCount);
+    }
+
+    // Administration only ever sees the shared store; keys guarded on this node meanwhile are not listed.
+    @Override
+    public KeyPage scanKeys(String cursor, String keyPrefix, boolean legacyKeys, int count) {
+        return primary.scanKeys(cursor, keyPrefix, legacyKeys, count);
+    }
+
+    @Override
+    public long unlinkAll(List<StoredKey> keys) {
+        return primary.unlinkAll(keys);
+    }
+
+    @Override
+    public List<Claim> claimAll(List<ClaimCommand> commands) {
+        if (commands.stream().anyMatch(command -> isLocal(command.key()))) {
+            return IdempotencyStore.super.claimAll(commands);
+        }
+        return guarded(commands.size(), () -> primary.claimAll(commands),
+                () -> commands.stream().map(command -> claimLocally(command.key(), command.fingerprint(), command.lease())).toList());
+    }
+
+    @Override
+    public List<Boolean> renewAll(List<RenewCommand> commands, Duration lease) {
+        return splitByOwner(commands, RenewCommand::fencingToken,
+                remote -> guarded(remote.size(), () -> primary.renewAll(remote, lease), () -> remote.stream().map(command -> true).toList()),
+                command -> local.renew(command.key(), -command.fencingToken(), lease));
+    }
+
+    @Override
+    public List<Boolean> finishAll(List<FinishCommand> commands) {
+        return splitByOwner(commands, FinishCommand::fencingToken,
+                remote -> guarded(remote.size(), () -> primary.finishAll(remote), () -> remote.stream()
+                        .map(command -> command.response() != null && completeLocally(command.key(), command.response(), command.ttl()))
+                        .toList()),
+                command -> command.response() != null
+                        ? complete(command.key(), command.fencingToken(), command.response(), command.ttl())
+                        : release(command.key(), command.fencingToken()));
+    }
+
+    private <C> List<Boolean> splitByOwner(List<C> commands, Function<C, Long> fencingToken,
+                                           Function<List<C>, List<Boolean>> remoteBatch, Function<C, Boolean> localCall) {
+        List<C> remote = commands.stream().filter(command -> fencingToken.apply(command) >= 0).toList();
+        List<Boolean> remoteResults = remote.isEmpty() ? List.of() : remoteBatch.apply(remote);
+        List<Boolean> results = new ArrayList<>(commands.size());
+        int next = 0;
+        for (C command : commands) {
+            results.add(fencingToken.apply(command) >= 0 ? remoteResults.get(next++) : localCall.apply(command));
+        }
+        return results;
+    }
+
+    private boolean isLocal(String key) {
+        return localClaims.containsKey(key) || unreconciled.containsKey(key);
+    }
+
+    private Claim claimLocally(String key, byte[] fingerprint, Duration lease) {
+        localCalls.increment();
+        Claim claim = local.claim(key, fingerprint, lease);
+        if (claim.status() != Claim.Status.CLAIMED) {
+            return claim;
+        }
+        localClaims.put(key, claim.fencingToken());
+        return Claim.claimed(-claim.fencingToken());
+    }
+
+    // The primary claim is still held; the result is kept here and written back once that claim can be completed.
+    private boolean completeLocally(String key, IdempotentResponse response, Duration ttl) {
+        localCalls.increment();
+        Claim claim = local.claim(key, response.requestHash(), properties.lockDuration());
+        if (claim.status() == Claim.Status.CLAIMED) {
+            local.complete(key, claim.fencingToken(), response, localTtl(ttl));
+        }
+        unreconciled.put(key, new LocalResult(response, clock.instant().plus(ttl)));
+        return true;
+    }
+
+    private Duration localTtl(Duration ttl) {
+        return ttl.compareTo(properties.fallback().localResultTtl()) < 0 ? ttl : properties.fallback().localResultTtl();
+    }
+
+    private <T> T guarded(Supplier<T> call, Supplier<T> fallback) {
+        return guarded(1, call, fallback);
+    }
+
+    // An IllegalStateException means the store answered with something unreadable, which is not an outage.
+    private <T> T guarded(int commands, Supplier<T> call, Supplier<T> fallback) {
+        if (!breaker.tryAcquire()) {
+            return fallback.get();
+        }
+        T result;
+        try {
+            result = withinCallTimeout(commands, call);
+        } catch (IllegalStateException e) {
+            breaker.onSuccess();
+            throw e;
+        } catch (RuntimeException e) {
+            onFailure(e);
+            return fallback.get();
+        }
+        breaker.onSuccess();
+        return result;
+    }
+
+    private <T> CompletableFuture<T> guardedAsync(Supplier<CompletableFuture<T>> call, Supplier<T> fallback) {
+        if (!breaker.tryAcquire()) {
+            return CompletableFuture.completedFuture(fallback.get());
+        }
+        CompletableFuture<T> pending;
+        try {
+            pending = call.get().orTimeout(properties.fallback().callTimeout().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (RuntimeException e) {
+            pending = CompletableFuture.failedFuture(e);
+        }
+        return pending.handle((result, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause == null || cause instanceof IllegalStateException) {
+                breaker.onSuccess();
+                return cause == null ? CompletableFuture.completedFuture(result) : CompletableFuture.<T>failedFuture(cause);
+            }
+            onFailure(cause);
+            try {
+                return CompletableFuture.completedFuture(fallback.get());
+            } catch (RuntimeException e) {
+                return CompletableFuture.<T>failedFuture(e);
+            }
+        }).thenCompose(Function.identity());
+    }
+
+    private <T> T withinCallTimeout(int commands, Supplier<T> call) {
+        Duration timeout = properties.fallback().callTimeout().multipliedBy(Math.ceilDiv(Math.max(commands, 1), COMMANDS_PER_CALL_TIMEOUT));
+        Future<T> pending = calls.submit(call::get);
+        try {
+            return pending.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new CompletionException(e.getCause());
+        } catch (TimeoutException e) {
+            pending.cancel(true);
+            throw new CompletionException(new TimeoutException("Idempotency store call took longer than " + timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.cancel(true);
+            throw new CompletionException(e);
+        }
+    }
+
+    private void onFailure(Throwable error) {
+        if (breaker.onFailure()) {
+            log.warn("Idempotency store unavailable, using node-local fallback for {}: {}",
+                    properties.fallback().openDuration(), error.toString());
+        } else {
+            log.debug("Idempotency store call failed, answered locally: {}", error.toString());
+        }
+    }
+
+    private void reconcileQuietly() {
+        try {
+            reconcile();
+        } catch (RuntimeException e) {
+            log.warn("Idempotency write-back failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Writes locally completed results back to the primary store; returns how many are still waiting. Its calls go
+     * through the breaker like any other, so without traffic it is the write-back that probes for recovery.
+     */
+    int reconcile() {
+        for (Map.Entry<String, LocalResult> entry : unreconciled.entrySet()) {
+            String key = entry.getKey();
+            LocalResult result = entry.getValue();
+            Duration remaining = Duration.between(clock.instant(), result.expiresAt());
+            if (remaining.isNegative() || remaining.isZero()) {
+                unreconciled.remove(key, result);
+                reconciledExpired.increment();
+                continue;
+            }
+            WriteBack outcome = guarded(() -> writeBack(key, result.response(), remaining), () -> WriteBack.UNAVAILABLE);
+            if (outcome == WriteBack.UNAVAILABLE) {
+                break;
+            }
+            if (outcome == WriteBack.WRITTEN) {
+                unreconciled.remove(key, result);
+                reconciledWritten.increment();
+            } else if (outcome == WriteBack.CONFLICT) {
+                unreconciled.remove(key, result);
+                reconciledConflict.increment();
+                log.warn("Idempotency key {} was also completed elsewhere while the store was unavailable; keeping the stored result", key);
+            }
+        }
+        return unreconciled.size();
+    }
+
+    private WriteBack writeBack(String key, IdempotentResponse response, Duration ttl) {
+        Claim claim = primary.claim(key, response.requestHash(), properties.lockDuration());
+        return switch (claim.status()) {
+            case CLAIMED -> primary.complete(key, claim.fencingToken(), response, ttl) ? WriteBack.WRITTEN : WriteBack.RETRY;
+            // Usually this node's own claim from before the outage, until its lease lapses.
+            case IN_PROGRESS -> WriteBack.RETRY;
+            // A completion whose reply was lost to a timeout lands here too.
+            case COMPLETED -> response.equals(claim.response()) ? WriteBack.WRITTEN : WriteBack.CONFLICT;
+            case MISMATCH -> WriteBack.CONFLICT;
+        };
+    }
+
+    public CircuitBreaker.State state() {
+        return breaker.state();
+    }
+
+    @Override
+    public void close() throws Exception {
+        reconciler.shutdownNow();
+        calls.shutdownNow();
+        local.close();
+        if (primary instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    private enum WriteBack { WRITTEN, CONFLICT, RETRY, UNAVAILABLE }
+
+    private record LocalResult(IdempotentResponse response, Instant expiresAt) {
+    }
+}
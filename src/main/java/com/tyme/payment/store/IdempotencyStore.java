@@ -0,0 +1,110 @@
+package com.tyme.payment.store;
+
+import com.tyme.payment.model.IdempotentResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Backing store for idempotency keys. A key is claimed for one caller under a short lease, which the caller renews
+ * while it works, then either completed with the response or released so it can be claimed again. Every operation is
+ * atomic per key. Each claim gets a fencing token larger than any issued before it; complete, release and renew only
+ * succeed for the current token, so a caller whose lease lapsed cannot overwrite the next owner.
+ */
+public interface IdempotencyStore {
+
+    /** Claims {@code key} for {@code lease} if it is free; otherwise reports what is stored there. */
+    Claim claim(String key, byte[] fingerprint, Duration lease);
+
+    /** Extends the lease of an unfinished claim. Returns false if the claim is no longer held. */
+    boolean renew(String key, long fencingToken, Duration lease);
+
+    /** Stores the response and keeps it for {@code ttl}. Returns false if the claim is no longer held. */
+    boolean complete(String key, long fencingToken, IdempotentResponse response, Duration ttl);
+
+    /** Drops an unfinished claim. Returns false if the claim is no longer held. */
+    boolean release(String key, long fencingToken);
+
+    /** The completed response for {@code key}, or null if it is absent or still in progress. */
+    IdempotentResponse fetch(String key);
+
+    void delete(String key);
+
+    /** Size of the keyspace, measured on at most {@code sampleSize} entries; may be slow on large keyspaces. */
+    KeyspaceSample sampleKeyspace(int sampleSize, int scanCount);
+
+    /**
+     * Looks at about {@code count} more keys of the walk that {@code cursor} continues, and reports the entries among
+     * them whose client key starts with {@code keyPrefix}. Entries stored under a hash of an over-long client key only
+     * match an empty prefix. {@code legacyKeys} walks entries stored under the bare client key instead.
+     */
+    KeyPage scanKeys(String cursor, String keyPrefix, boolean legacyKeys, int count);
+
+    /** Removes scanned entries without blocking the store on freeing them. Returns how many still existed. */
+    long unlinkAll(List<StoredKey> keys);
+
+    /** {@link #claim} without blocking the caller; stores without a non-blocking client answer in the caller's thread. */
+    default CompletableFuture<Claim> claimAsync(String key, byte[] fingerprint, Duration lease) {
+        return completed(() -> claim(key, fingerprint, lease));
+    }
+
+    /** {@link #complete} without blocking the caller. */
+    default CompletableFuture<Boolean> completeAsync(String key, long fencingToken, IdempotentResponse response, Duration ttl) {
+        return completed(() -> complete(key, fencingToken, response, ttl));
+    }
+
+    /** {@link #release} without blocking the caller. */
+    default CompletableFuture<Boolean> releaseAsync(String key, long fencingToken) {
+        return completed(() -> release(key, fencingToken));
+    }
+
+    private static <T> CompletableFuture<T> completed(Supplier<T> operation) {
+        try {
+            return CompletableFuture.completedFuture(operation.get());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /** Claims many keys at once; stores that can batch round trips override this. */
+    default List<Claim> claimAll(List<ClaimCommand> commands) {
+        List<Claim> claims = new ArrayList<>(commands.size());
+        for (ClaimCommand command : commands) {
+            claims.add(claim(command.key(), command.fingerprint(), command.lease()));
+        }
+        return claims;
+    }
+
+    /** Renews many leases at once; stores that can batch round trips override this. */
+    default List<Boolean> renewAll(List<RenewCommand> commands, Duration lease) {
+        List<Boolean> results = new ArrayList<>(commands.size());
+        for (RenewCommand command : commands) {
+            results.add(renew(command.key(), command.fencingToken(), lease));
+        }
+        return results;
+    }
+
+    /** Completes or releases many claims at once; stores that can batch round trips override this. */
+    default List<Boolean> finishAll(List<FinishCommand> commands) {
+        List<Boolean> results = new ArrayList<>(commands.size());
+        for (FinishCommand command : commands) {
+            results.add(command.response() != null
+                    ? complete(command.key(), command.fencingToken(), command.response(), command.ttl())
+                    : release(command.key(), command.fencingToken()));
+        }
+        return results;
+    }
+
+    record ClaimCommand(String key, byte[] fingerprint, Duration lease) {
+    }
+
+    record RenewCommand(String key, long fencingToken) {
+    }
+
+    /** A {@code null} response releases the claim instead of completing it. */
+    record FinishCommand(String key, long fencingToken, IdempotentResponse response, Duration ttl) {
+    }
+}
@@ -0,0 +1,22 @@
+package com.tyme.payment.store;
+
+import java.util.List;
+
+/**
+ * One page of a cursor-driven walk over a store. {@code scanned} counts every key the page looked at, including the
+ * ones that were not idempotency entries or expired meanwhile. As with SCAN, an entry that exists for the whole walk
+ * is reported at least once; entries added or removed during it may or may not be.
+ */
+public record KeyPage(
+        String nextCursor,
+        int scanned,
+        List<StoredKey> keys
+) {
+
+    /** The cursor that starts a walk; a page handing it back is the last one. */
+    public static final String START = "0";
+
+    public boolean isLast() {
+        return START.equals(nextCursor);
+    }
+}
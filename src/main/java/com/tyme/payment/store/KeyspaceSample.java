@@ -0,0 +1,17 @@
+package com.tyme.payment.store;
+
+/**
+ * One measurement of an idempotency keyspace. {@code sampledBytes} covers {@code sampledKeys} of the
+ * {@code keyCount} keys; {@code claimsIssued} is the running total of claims ever handed out.
+ */
+public record KeyspaceSample(
+        long keyCount,
+        int sampledKeys,
+        long sampledBytes,
+        long claimsIssued
+) {
+
+    public long averageEntryBytes() {
+        return sampledKeys == 0 ? 0 : sampledBytes / sampledKeys;
+    }
+}
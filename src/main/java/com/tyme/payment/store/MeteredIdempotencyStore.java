@@ -0,0 +1,214 @@
+package com.tyme.payment.store;
+
+import com.tyme.payment.model.IdempotentResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every store operation as {@code idempotency.store.requests}, tagged with the operation and the store type
+ * only, so the series count is fixed. Meters are registered once up front; a call costs two clock reads. Stored
+ * values that cannot be read back are counted as {@code idempotency.store.unexpected-state}. Shards of a sharded
+ * store are timed under their own meter name, tagged with the shard, so per-shard and overall series never mix.
+ */
+public class MeteredIdempotencyStore implements IdempotencyStore, AutoCloseable {
+
+    static final Duration MIN_EXPECTED_LATENCY = Duration.ofNanos(100_000);
+    static final Duration MAX_EXPECTED_LATENCY = Duration.ofSeconds(10);
+
+    private final IdempotencyStore delegate;
+    private final Timer claimTimer;
+    private final Timer renewTimer;
+    private final Timer completeTimer;
+    private final Timer releaseTimer;
+    private final Timer fetchTimer;
+    private final Timer deleteTimer;
+    private final Timer claimAllTimer;
+    private final Timer renewAllTimer;
+    private final Timer finishAllTimer;
+    private final Counter unexpectedState;
+
+    public MeteredIdempotencyStore(IdempotencyStore delegate, MeterRegistry meterRegistry, String storeType) {
+        this(delegate, meterRegistry, "idempotency.store", Tags.of("store", storeType));
+    }
+
+    /** Registers {@code <meterPrefix>.requests} and {@code <meterPrefix>.unexpected-state} with the given tags. */
+    public MeteredIdempotencyStore(IdempotencyStore delegate, MeterRegistry meterRegistry, String meterPrefix, Tags tags) {
+        this.delegate = delegate;
+        this.claimTimer = timer(meterRegistry, meterPrefix, tags, "claim");
+        this.renewTimer = timer(meterRegistry, meterPrefix, tags, "renew");
+        this.completeTimer = timer(meterRegistry, meterPrefix, tags, "complete");
+        this.releaseTimer = timer(meterRegistry, meterPrefix, tags, "release");
+        this.fetchTimer = timer(meterRegistry, meterPrefix, tags, "fetch");
+        this.deleteTimer = timer(meterRegistry, meterPrefix, tags, "delete");
+        this.claimAllTimer = timer(meterRegistry, meterPrefix, tags, "claim_all");
+        this.renewAllTimer = timer(meterRegistry, meterPrefix, tags, "renew_all");
+        this.finishAllTimer = timer(meterRegistry, meterPrefix, tags, "finish_all");
+        this.unexpectedState = Counter.builder(meterPrefix + ".unexpected-state")
+                .description("Stored idempotency entries that could not be read back as a response")
+                .tags(tags)
+                .register(meterRegistry);
+    }
+
+    private static Timer timer(MeterRegistry meterRegistry, String meterPrefix, Tags tags, String operation) {
+        return Timer.builder(meterPrefix + ".requests")
+                .description("Latency of idempotency store operations")
+                .tags(tags.and("operation", operation))
+                .publishPercentileHistogram()
+                .minimumExpectedValue(MIN_EXPECTED_LATENCY)
+                .maximumExpectedValue(MAX_EXPECTED_LATENCY)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Claim claim(String key, byte[] fingerprint, Duration lease) {
+        long start = System.nanoTime();
+        try {
+            return delegate.claim(key, fingerprint, lease);
+        } catch (IllegalStateException e) {
+            unexpectedState.increment();
+            throw e;
+        } finally {
+            claimTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public boolean renew(String key, long fencingToken, Duration lease) {
+        long start = System.nanoTime();
+        try {
+            return delegate.renew(key, fencingToken, lease);
+        } finally {
+            renewTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public boolean complete(String key, long fencingToken, IdempotentResponse response, Duration ttl) {
+        long start = System.nanoTime();
+        try {
+            return delegate.complete(key, fencingToken, response, ttl);
+        } finally {
+            completeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public boolean release(String key, long fencingToken) {
+        long start = System.nanoTime();
+        try {
+            return delegate.release(key, fencingToken);
+        } finally {
+            releaseTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public IdempotentResponse fetch(String key) {
+        long start = System.nanoTime();
+        try {
+            return delegate.fetch(key);
+        } catch (IllegalStateException e) {
+            unexpectedState.increment();
+            throw e;
+        } finally {
+            fetchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void delete(String key) {
+        long start = System.nanoTime();
+        try {
+            delegate.delete(key);
+        } finally {
+            deleteTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Claim> claimAsync(String key, byte[] fingerprint, Duration lease) {
+        long start = System.nanoTime();
+        return delegate.claimAsync(key, fingerprint, lease).whenComplete((claim, error) -> {
+            claimTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (error instanceof IllegalStateException || error != null && error.getCause() instanceof IllegalStateException) {
+                unexpectedState.increment();
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> completeAsync(String key, long fencingToken, IdempotentResponse response, Duration ttl) {
+        long start = System.nanoTime();
+        return delegate.completeAsync(key, fencingToken, response, ttl)
+                .whenComplete((completed, error) -> completeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> releaseAsync(String key, long fencingToken) {
+        long start = System.nanoTime();
+        return delegate.releaseAsync(key, fencingToken)
+                .whenComplete((released, error) -> releaseTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public KeyspaceSample sampleKeyspace(int sampleSize, int scanCount) {
+        return delegate.sampleKeyspace(sampleSize, scanCount);
+    }
+
+    @Override
+    public KeyPage scanKeys(String cursor, String keyPrefix, boolean legacyKeys, int count) {
+        return delegate.scanKeys(cursor, keyPrefix, legacyKeys, count);
+    }
+
+    @Override
+    public long unlinkAll(List<StoredKey> keys) {
+        return delegate.unlinkAll(keys);
+    }
+
+    @Override
+    public List<Claim> claimAll(List<ClaimCommand> commands) {
+        long start = System.nanoTime();
+        try {
+            return delegate.claimAll(commands);
+        } catch (IllegalStateException e) {
+            unexpectedState.increment();
+            throw e;
+        } finally {
+            claimAllTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public List<Boolean> renewAll(List<RenewCommand> commands, Duration lease) {
+        long start = System.nanoTime();
+        try {
+            return delegate.renewAll(commands, lease);
+        } finally {
+            renewAllTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public List<Boolean> finishAll(List<FinishCommand> commands) {
+        long start = System.nanoTime();
+        try {
+            return delegate.finishAll(commands);
+        } finally {
+            finishAllTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (delegate instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+}
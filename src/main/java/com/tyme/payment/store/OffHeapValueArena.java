@@ -0,0 +1,117 @@
+package com.tyme.payment.store;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Append-only direct memory for completed values, grouped into one segment per minute of expiry. Nothing is freed
+ * per value: a whole segment is dropped once every value in it has expired, so the heap only holds an 8-byte handle
+ * per entry and the collector never has to trace the values themselves.
+ */
+final class OffHeapValueArena {
+
+    static final long NO_HANDLE = -1;
+
+    private static final long BUCKET_SPAN_MILLIS = 60_000;
+    private static final int OFFSET_BITS = 24;
+    private static final int CHUNK_BITS = 12;
+    private static final int MAX_CHUNK_SIZE = 1 << OFFSET_BITS;
+    private static final int MAX_CHUNKS = 1 << CHUNK_BITS;
+    private static final int LENGTH_PREFIX = Integer.BYTES;
+
+    private final ConcurrentMap<Long, Segment> segments = new ConcurrentHashMap<>();
+    private final int chunkSize;
+
+    OffHeapValueArena(int chunkSize) {
+        if (chunkSize <= LENGTH_PREFIX || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be between 5 bytes and 16MB: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Copies {@code value} off-heap until {@code expiresAtMillis}; {@link #NO_HANDLE} if it does not fit a chunk, or if
+     * a new chunk is needed and the direct memory limit (-XX:MaxDirectMemorySize) has been reached.
+     */
+    long store(byte[] value, long expiresAtMillis) {
+        if (value.length > chunkSize - LENGTH_PREFIX) {
+            return NO_HANDLE;
+        }
+        long bucket = Math.ceilDiv(expiresAtMillis, BUCKET_SPAN_MILLIS);
+        return segments.computeIfAbsent(bucket, b -> new Segment()).append(bucket, value);
+    }
+
+    /** The stored bytes, or null once the segment holding them has been dropped. */
+    byte[] read(long handle) {
+        Segment segment = segments.get(handle >>> (OFFSET_BITS + CHUNK_BITS));
+        if (segment == null) {
+            return null;
+        }
+        ByteBuffer chunk = segment.chunks[(int) (handle >>> OFFSET_BITS) & (MAX_CHUNKS - 1)];
+        int offset = (int) handle & (MAX_CHUNK_SIZE - 1);
+        byte[] value = new byte[chunk.getInt(offset)];
+        chunk.get(offset + LENGTH_PREFIX, value);
+        return value;
+    }
+
+    // A segment outlives its last value by one bucket span, so a reader that checked expiry just before the sweep
+    // can still finish its read.
+    int dropExpired(long nowMillis) {
+        long lastExpiredBucket = Math.floorDiv(nowMillis, BUCKET_SPAN_MILLIS) - 1;
+        int dropped = 0;
+        for (Long bucket : segments.keySet()) {
+            if (bucket <= lastExpiredBucket && segments.remove(bucket) != null) {
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    long reservedBytes() {
+        long reserved = 0;
+        for (Segment segment : segments.values()) {
+            reserved += (long) segment.chunks.length * chunkSize;
+        }
+        return reserved;
+    }
+
+    void clear() {
+        segments.clear();
+    }
+
+    private final class Segment {
+
+        // Copy-on-append so readers can index it without locking; a new chunk is only added once per chunkSize bytes.
+        private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+        private int position = chunkSize;
+
+        private synchronized long append(long bucket, byte[] value) {
+            int recordLength = LENGTH_PREFIX + value.length;
+            if (position + recordLength > chunkSize) {
+                if (chunks.length == MAX_CHUNKS) {
+                    return NO_HANDLE;
+                }
+                ByteBuffer chunk;
+                try {
+                    chunk = ByteBuffer.allocateDirect(chunkSize);
+                } catch (OutOfMemoryError e) {
+                    // "Direct buffer memory": the caller keeps the value on-heap, and the next append tries again.
+                    return NO_HANDLE;
+                }
+                ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+                grown[chunks.length] = chunk;
+                chunks = grown;
+                position = 0;
+            }
+            int chunkIndex = chunks.length - 1;
+            ByteBuffer chunk = chunks[chunkIndex];
+            chunk.putInt(position, value.length);
+            chunk.put(position + LENGTH_PREFIX, value);
+            long handle = bucket << (OFFSET_BITS + CHUNK_BITS) | (long) chunkIndex << OFFSET_BITS | position;
+            position += recordLength;
+            return handle;
+        }
+    }
+}
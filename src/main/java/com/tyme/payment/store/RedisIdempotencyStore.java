@@ -0,0 +1,518 @@
+package com.tyme.payment.store;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.model.IdempotentResponse;
+import io.lettuce.core.KeyScanCursor;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScanArgs;
+import io.lettuce.core.ScanCursor;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.api.async.RedisAdvancedClusterAsyncCommands;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisClusterNode;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
+
+// Each key is a hash: h (request hash), s (PROCESSING / COMPLETED), t (fencing token), v (serialized response).
+// Callers pass client keys; they are mapped to Redis keys by the RedisKeyLayout.
+public class RedisIdempotencyStore implements IdempotencyStore {
+
+    private static final String PROCESSING_SENTINEL = "PROCESSING";
+
+    private static final RedisScript<List<Object>> CLAIM_OR_FETCH_SCRIPT = listScript("scripts/claim-or-fetch.lua");
+    private static final RedisScript<Long> COMPLETE_SCRIPT = RedisScript.of(new ClassPathResource("scripts/complete.lua"), Long.class);
+    private static final RedisScript<Long> RELEASE_SCRIPT = RedisScript.of(new ClassPathResource("scripts/release.lua"), Long.class);
+    private static final RedisScript<Long> RENEW_SCRIPT = RedisScript.of(new ClassPathResource("scripts/renew.lua"), Long.class);
+    private static final RedisScript<List<Object>> MEMORY_USAGE_SCRIPT = listScript("scripts/memory-usage.lua");
+    private static final RedisScript<List<Object>> INSPECT_KEY_SCRIPT = listScript("scripts/inspect-key.lua");
+
+    private static final long CLAIMED = 0;
+    private static final long CLAIM_IN_PROGRESS = 1;
+    private static final long CLAIM_COMPLETED = 2;
+    private static final long CLAIM_MISMATCH = 3;
+    private static final long CLAIM_LEGACY_VALUE = 4;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final IdempotencyProperties properties;
+    private final RedisKeyLayout keyLayout;
+    // Redis keys of the service's own; a client key naming one of them is never looked up or deleted as a legacy entry.
+    private final List<String> ownKeyPrefixes;
+
+    public RedisIdempotencyStore(RedisTemplate<String, Object> redisTemplate, IdempotencyProperties properties) {
+        this.redisTemplate = redisTemplate;
+        this.properties = properties;
+        this.keyLayout = new RedisKeyLayout(properties.keys(), properties.fencingCounterKey(),
+                properties.sharding().mode() == IdempotencyProperties.Sharding.Mode.CLUSTER ? properties.sharding().hashTagBuckets() : 0);
+        this.ownKeyPrefixes = List.of(properties.fencingCounterKey(), properties.rateLimit().keyPrefix(), properties.keys().prefix());
+    }
+
+    @Override
+    public Claim claim(String key, byte[] fingerprint, Duration lease) {
+        List<Object> reply = executeScript(CLAIM_OR_FETCH_SCRIPT, claimKeys(key), fingerprint, bytes(lease.toMillis()));
+        return toClaim(key, reply);
+    }
+
+    @Override
+    public boolean renew(String key, long fencingToken, Duration lease) {
+        return executeScript(RENEW_SCRIPT, List.of(keyLayout.redisKey(key)), bytes(fencingToken), bytes(lease.toMillis())) == 1;
+    }
+
+    @Override
+    public boolean complete(String key, long fencingToken, IdempotentResponse response, Duration ttl) {
+        return executeScript(COMPLETE_SCRIPT, List.of(keyLayout.redisKey(key)), completeArgs(key, fencingToken, response, ttl)) == 1;
+    }
+
+    @Override
+    public boolean release(String key, long fencingToken) {
+        return executeScript(RELEASE_SCRIPT, List.of(keyLayout.redisKey(key)), releaseArgs(key, fencingToken)) == 1;
+    }
+
+    @Override
+    public IdempotentResponse fetch(String key) {
+        IdempotentResponse response = fetchRedisKey(keyLayout.redisKey(key));
+        return response == null && readsLegacyKey(key) ? fetchRedisKey(key) : response;
+    }
+
+    private IdempotentResponse fetchRedisKey(String redisKey) {
+        if (!"hash".equals(redisTemplate.type(redisKey).code())) {
+            return null;
+        }
+        return redisTemplate.opsForHash().get(redisKey, "v") instanceof IdempotentResponse response ? response : null;
+    }
+
+    @Override
+    public void delete(String key) {
+        redisTemplate.unlink(readsLegacyKey(key) ? List.of(keyLayout.redisKey(key), key) : List.of(keyLayout.redisKey(key)));
+    }
+
+    @Override
+    public CompletableFuture<Claim> claimAsync(String key, byte[] fingerprint, Duration lease) {
+        return this.<List<Object>>evalAsync(CLAIM_OR_FETCH_SCRIPT, ScriptOutputType.MULTI, keys(claimKeys(key)),
+                fingerprint, bytes(lease.toMillis()))
+                .thenApply(reply -> toClaim(key, reply));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> completeAsync(String key, long fencingToken, IdempotentResponse response, Duration ttl) {
+        return this.<Long>evalAsync(COMPLETE_SCRIPT, ScriptOutputType.INTEGER, keys(List.of(keyLayout.redisKey(key))),
+                completeArgs(key, fencingToken, response, ttl))
+                .thenApply(reply -> reply == 1);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> releaseAsync(String key, long fencingToken) {
+        return this.<Long>evalAsync(RELEASE_SCRIPT, ScriptOutputType.INTEGER, keys(List.of(keyLayout.redisKey(key))),
+                releaseArgs(key, fencingToken))
+                .thenApply(reply -> reply == 1);
+    }
+
+    /**
+     * Counts the keys of this namespace with a full SCAN and measures a uniform sample of them with MEMORY USAGE.
+     * The fencing counters double as a cluster-wide count of claims issued, which gives the write rate.
+     */
+    @Override
+    public KeyspaceSample sampleKeyspace(int sampleSize, int scanCount) {
+        List<String> sample = new ArrayList<>(sampleSize);
+        long[] keyCount = {0};
+        ScanOptions options = ScanOptions.scanOptions().match(keyLayout.pattern()).count(scanCount).build();
+        scanKeys(options, redisKey -> {
+            keyCount[0]++;
+            // Reservoir sampling keeps every key equally likely to be measured.
+            if (sample.size() < sampleSize) {
+                sample.add(redisKey);
+            } else {
+                long slot = ThreadLocalRandom.current().nextLong(keyCount[0]);
+                if (slot < sampleSize) {
+                    sample.set((int) slot, redisKey);
+                }
+            }
+        });
+
+        int measured = 0;
+        long sampledBytes = 0;
+        for (Object usage : measureMemory(sample)) {
+            if (usage instanceof Long bytes && bytes >= 0) {
+                measured++;
+                sampledBytes += bytes;
+            }
+        }
+
+        byte[][] counterKeys = keys(keyLayout.fencingCounterKeys());
+        List<byte[]> counters = redisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                connection.stringCommands().mGet(counterKeys));
+        long claims = 0;
+        for (byte[] counter : counters != null ? counters : List.<byte[]>of()) {
+            claims += counter != null ? Long.parseLong(new String(counter, StandardCharsets.UTF_8)) : 0;
+        }
+        return new KeyspaceSample(keyCount[0], measured, sampledBytes, claims);
+    }
+
+    // A cluster cannot SCAN as a whole, so every master is scanned on its own.
+    private void scanKeys(ScanOptions options, Consumer<String> action) {
+        if (!keyLayout.isHashTagged()) {
+            try (Cursor<String> cursor = redisTemplate.scan(options)) {
+                cursor.forEachRemaining(action);
+            }
+            return;
+        }
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            RedisClusterConnection cluster = (RedisClusterConnection) connection;
+            for (RedisClusterNode node : cluster.clusterGetNodes()) {
+                if (node.isMaster()) {
+                    try (Cursor<byte[]> cursor = cluster.scan(node, options)) {
+                        cursor.forEachRemaining(redisKey -> action.accept(new String(redisKey, StandardCharsets.UTF_8)));
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    // Hash-tagged keys sit in different slots, which one script cannot span.
+    private List<Object> measureMemory(List<String> redisKeys) {
+        if (redisKeys.isEmpty()) {
+            return List.of();
+        }
+        if (!keyLayout.isHashTagged()) {
+            return executeScript(MEMORY_USAGE_SCRIPT, redisKeys);
+        }
+        List<Object> usages = new ArrayList<>(redisKeys.size());
+        for (String redisKey : redisKeys) {
+            usages.addAll(executeScript(MEMORY_USAGE_SCRIPT, List.of(redisKey)));
+        }
+        return usages;
+    }
+
+    /**
+     * One SCAN call, then one round trip that reads the state and TTL of every key it returned. The legacy walk has no
+     * namespace to match, so it reads every key starting with the prefix and reports only idempotency entries.
+     */
+    @Override
+    public KeyPage scanKeys(String cursor, String keyPrefix, boolean legacyKeys, int count) {
+        if (legacyKeys && !readsLegacyKeys()) {
+            return new KeyPage(KeyPage.START, 0, List.of());
+        }
+        ScanPage page = scanPage(cursor, legacyKeys ? RedisKeyLayout.escape(keyPrefix) + "*" : keyLayout.pattern(keyPrefix), count);
+
+        List<String> candidates = legacyKeys
+                ? page.keys().stream().filter(redisKey -> !isOwnKey(redisKey)).toList()
+                : page.keys();
+        List<ScriptCall> calls = new ArrayList<>(candidates.size());
+        for (String redisKey : candidates) {
+            calls.add(ScriptCall.of(INSPECT_KEY_SCRIPT, ReturnType.MULTI, keys(List.of(redisKey))));
+        }
+        List<Object> replies = executeAll(calls);
+
+        List<StoredKey> found = new ArrayList<>(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            @SuppressWarnings("unchecked")
+            List<Object> reply = (List<Object>) replies.get(i);
+            StoredKey.State state = storedState(new String((byte[]) reply.get(0), StandardCharsets.UTF_8), (byte[]) reply.get(1));
+            if (state != null) {
+                String redisKey = candidates.get(i);
+                long ttlMillis = (Long) reply.get(2);
+                found.add(new StoredKey(legacyKeys ? redisKey : keyLayout.clientKey(redisKey), redisKey, null, state,
+                        ttlMillis >= 0 ? Duration.ofMillis(ttlMillis) : null));
+            }
+        }
+        return new KeyPage(page.nextCursor(), page.keys().size(), found);
+    }
+
+    // Bare string entries hold the serialized value itself; anything that does not decode to one is not ours.
+    private StoredKey.State storedState(String type, byte[] state) {
+        if ("hash".equals(type)) {
+            String status = new String(state, StandardCharsets.UTF_8);
+            return PROCESSING_SENTINEL.equals(status) ? StoredKey.State.PROCESSING
+                    : "COMPLETED".equals(status) ? StoredKey.State.COMPLETED : null;
+        }
+        if (!"string".equals(type)) {
+            return null;
+        }
+        try {
+            Object value = valueSerializer().deserialize(state);
+            return PROCESSING_SENTINEL.equals(value) ? StoredKey.State.PROCESSING
+                    : value instanceof IdempotentResponse ? StoredKey.State.COMPLETED : null;
+        } catch (SerializationException e) {
+            return null;
+        }
+    }
+
+    // A cluster cannot SCAN as a whole, so its cursor also names the master being walked: "<master>:<cursor>", with
+    // masters in node id order.
+    @SuppressWarnings("unchecked")
+    private ScanPage scanPage(String cursor, String pattern, int count) {
+        ScanArgs args = ScanArgs.Builder.matches(pattern).limit(count);
+        try (RedisConnection connection = redisTemplate.getRequiredConnectionFactory().getConnection()) {
+            if (!keyLayout.isHashTagged()) {
+                RedisClusterAsyncCommands<byte[], byte[]> commands = (RedisClusterAsyncCommands<byte[], byte[]>) connection.getNativeConnection();
+                KeyScanCursor<byte[]> page = await(commands.scan(ScanCursor.of(cursor), args));
+                return new ScanPage(page.isFinished() ? KeyPage.START : page.getCursor(), strings(page.getKeys()));
+            }
+
+            List<String> masters = StreamSupport.stream(((RedisClusterConnection) connection).clusterGetNodes().spliterator(), false)
+                    .filter(RedisClusterNode::isMaster)
+                    .map(RedisClusterNode::getId)
+                    .sorted(Comparator.naturalOrder())
+                    .toList();
+            int separator = cursor.indexOf(':');
+            int master = separator < 0 ? 0 : Integer.parseInt(cursor.substring(0, separator));
+            if (master >= masters.size()) {
+                return new ScanPage(KeyPage.START, List.of());
+            }
+            RedisClusterAsyncCommands<byte[], byte[]> node =
+                    ((RedisAdvancedClusterAsyncCommands<byte[], byte[]>) connection.getNativeConnection()).getConnection(masters.get(master));
+            KeyScanCursor<byte[]> page = await(node.scan(ScanCursor.of(cursor.substring(separator + 1)), args));
+            String next = !page.isFinished() ? master + ":" + page.getCursor()
+                    : master + 1 < masters.size() ? (master + 1) + ":" + KeyPage.START
+                    : KeyPage.START;
+            return new ScanPage(next, strings(page.getKeys()));
+        }
+    }
+
+    @Override
+    public long unlinkAll(List<StoredKey> keys) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        Long unlinked = redisTemplate.unlink(keys.stream().map(StoredKey::storedKey).toList());
+        return unlinked != null ? unlinked : 0;
+    }
+
+    private record ScanPage(String nextCursor, List<String> keys) {
+    }
+
+    private static <T> T await(RedisFuture<T> reply) {
+        try {
+            return reply.toCompletableFuture().join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    private static List<String> strings(List<byte[]> raw) {
+        return raw.stream().map(key -> new String(key, StandardCharsets.UTF_8)).toList();
+    }
+
+    // One round trip for every claim. Duplicate keys within the list see each other's claim.
+    @Override
+    public List<Claim> claimAll(List<ClaimCommand> commands) {
+        List<ScriptCall> calls = new ArrayList<>(commands.size());
+        for (ClaimCommand command : commands) {
+            calls.add(ScriptCall.of(CLAIM_OR_FETCH_SCRIPT, ReturnType.MULTI, keys(claimKeys(command.key())),
+                    command.fingerprint(), bytes(command.lease().toMillis())));
+        }
+        List<Object> replies = executeAll(calls);
+
+        List<Claim> claims = new ArrayList<>(commands.size());
+        for (int i = 0; i < commands.size(); i++) {
+            @SuppressWarnings("unchecked")
+            List<Object> reply = (List<Object>) replies.get(i);
+            claims.add(toClaim(commands.get(i).key(), reply));
+        }
+        return claims;
+    }
+
+    @Override
+    public List<Boolean> renewAll(List<RenewCommand> commands, Duration lease) {
+        byte[] leaseMillis = bytes(lease.toMillis());
+        List<ScriptCall> calls = new ArrayList<>(commands.size());
+        for (RenewCommand command : commands) {
+            calls.add(ScriptCall.of(RENEW_SCRIPT, ReturnType.INTEGER, keys(List.of(keyLayout.redisKey(command.key()))),
+                    bytes(command.fencingToken()), leaseMillis));
+        }
+        return executeAll(calls).stream().map(reply -> (Long) reply == 1).toList();
+    }
+
+    @Override
+    public List<Boolean> finishAll(List<FinishCommand> commands) {
+        List<ScriptCall> calls = new ArrayList<>(commands.size());
+        for (FinishCommand command : commands) {
+            byte[][] keys = keys(List.of(keyLayout.redisKey(command.key())));
+            calls.add(command.response() != null
+                    ? ScriptCall.of(COMPLETE_SCRIPT, ReturnType.INTEGER, keys,
+                            completeArgs(command.key(), command.fencingToken(), command.response(), command.ttl()))
+                    : ScriptCall.of(RELEASE_SCRIPT, ReturnType.INTEGER, keys, releaseArgs(command.key(), command.fencingToken())));
+        }
+        return executeAll(calls).stream().map(reply -> (Long) reply == 1).toList();
+    }
+
+    private Claim toClaim(String key, List<Object> reply) {
+        long status = (Long) reply.getFirst();
+        if (status == CLAIMED) {
+            return Claim.claimed((Long) reply.get(1));
+        }
+        if (status == CLAIM_IN_PROGRESS) {
+            return Claim.inProgress();
+        }
+        if (status == CLAIM_MISMATCH) {
+            boolean inProgress = PROCESSING_SENTINEL.equals(new String((byte[]) reply.get(2), StandardCharsets.UTF_8));
+            IdempotentResponse stored = inProgress ? null : toResponse(key, valueSerializer().deserialize((byte[]) reply.get(3)));
+            return Claim.mismatch((byte[]) reply.get(1), stored);
+        }
+
+        Object cachedValue = valueSerializer().deserialize((byte[]) reply.get(1));
+
+        // Plain string entries written before the hash layout stay readable until they expire.
+        if (status == CLAIM_LEGACY_VALUE && PROCESSING_SENTINEL.equals(cachedValue)) {
+            return Claim.inProgress();
+        }
+        if (status == CLAIM_COMPLETED || status == CLAIM_LEGACY_VALUE) {
+            return Claim.completed(toResponse(key, cachedValue));
+        }
+        throw new IllegalStateException("Unexpected claim reply " + status + " for key: " + key);
+    }
+
+    private static IdempotentResponse toResponse(String key, Object cachedValue) {
+        if (cachedValue instanceof IdempotentResponse response) {
+            return response;
+        }
+        throw new IllegalStateException("Unexpected cache state for key: " + key);
+    }
+
+    // Waiters are registered by client key, so that is what the scripts announce.
+    private byte[][] completeArgs(String key, long fencingToken, IdempotentResponse response, Duration ttl) {
+        return new byte[][]{bytes(fencingToken), valueSerializer().serialize(response), bytes(ttl.toMillis()), completionChannel(), bytes(key)};
+    }
+
+    private byte[][] releaseArgs(String key, long fencingToken) {
+        return new byte[][]{bytes(fencingToken), completionChannel(), bytes(key)};
+    }
+
+    private List<String> claimKeys(String key) {
+        String redisKey = keyLayout.redisKey(key);
+        String fencingCounterKey = keyLayout.fencingCounterKey(key);
+        return readsLegacyKey(key) ? List.of(redisKey, fencingCounterKey, key) : List.of(redisKey, fencingCounterKey);
+    }
+
+    // Bare client keys were only ever written to a standalone Redis, never to a cluster.
+    private boolean readsLegacyKeys() {
+        return properties.keys().readLegacyKeys() && !keyLayout.isHashTagged();
+    }
+
+    private boolean readsLegacyKey(String key) {
+        return readsLegacyKeys() && !isOwnKey(key);
+    }
+
+    private boolean isOwnKey(String redisKey) {
+        for (String prefix : ownKeyPrefixes) {
+            if (redisKey.startsWith(prefix) && (redisKey.length() == prefix.length() || redisKey.charAt(prefix.length()) == ':')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // RedisScript.of takes a Class, which cannot carry the element type of a list reply.
+    @SuppressWarnings("unchecked")
+    private static RedisScript<List<Object>> listScript(String location) {
+        return (RedisScript<List<Object>>) (RedisScript<?>) RedisScript.of(new ClassPathResource(location), List.class);
+    }
+
+    // Arguments and results stay raw bytes; list replies come back as byte[] / Long elements.
+    @SuppressWarnings("unchecked")
+    private <T> T executeScript(RedisScript<T> script, List<String> keys, byte[]... args) {
+        RedisSerializer<T> rawResult = (RedisSerializer<T>) (RedisSerializer<?>) RedisSerializer.byteArray();
+        return redisTemplate.execute(script, RedisSerializer.byteArray(), rawResult, keys, (Object[]) args);
+    }
+
+    // Runs on the factory's shared native connection, which outlives the Spring connection wrapper closed here, so
+    // replies complete on the Lettuce event loop without holding a thread. A script not yet cached falls back to EVAL.
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> evalAsync(RedisScript<?> script, ScriptOutputType outputType, byte[][] keys, byte[]... args) {
+        try (RedisConnection connection = redisTemplate.getRequiredConnectionFactory().getConnection()) {
+            RedisClusterAsyncCommands<byte[], byte[]> commands = (RedisClusterAsyncCommands<byte[], byte[]>) connection.getNativeConnection();
+            return commands.<T>evalsha(script.getSha1(), outputType, keys, args).toCompletableFuture()
+                    .exceptionallyCompose(e -> e instanceof RedisNoScriptException || e.getCause() instanceof RedisNoScriptException
+                            ? commands.<T>eval(script.getScriptAsString(), outputType, keys, args).toCompletableFuture()
+                            : CompletableFuture.failedFuture(e));
+        }
+    }
+
+    // Every call goes out on the shared native connection without waiting for the one before, so Lettuce pipelines
+    // them on a single node and routes each to the node owning its slot on a cluster; calls on one key stay in order.
+    // Each is an EVALSHA, and only a call whose script Redis has not cached is sent again as EVAL.
+    private List<Object> executeAll(List<ScriptCall> calls) {
+        List<CompletableFuture<Object>> replies = new ArrayList<>(calls.size());
+        for (ScriptCall call : calls) {
+            replies.add(evalAsync(call.script(), call.outputType(), call.keys(), call.args()));
+        }
+        List<Object> results = new ArrayList<>(calls.size());
+        for (CompletableFuture<Object> reply : replies) {
+            try {
+                results.add(reply.join());
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        return results;
+    }
+
+    // keysAndArgs holds numKeys keys first, then the arguments, as EVALSHA expects.
+    private record ScriptCall(RedisScript<?> script, ReturnType returnType, int numKeys, byte[][] keysAndArgs) {
+
+        private static ScriptCall of(RedisScript<?> script, ReturnType returnType, byte[][] keys, byte[]... args) {
+            byte[][] keysAndArgs = Arrays.copyOf(keys, keys.length + args.length);
+            System.arraycopy(args, 0, keysAndArgs, keys.length, args.length);
+            return new ScriptCall(script, returnType, keys.length, keysAndArgs);
+        }
+
+        private byte[][] keys() {
+            return Arrays.copyOfRange(keysAndArgs, 0, numKeys);
+        }
+
+        private byte[][] args() {
+            return Arrays.copyOfRange(keysAndArgs, numKeys, keysAndArgs.length);
+        }
+
+        private ScriptOutputType outputType() {
+            return returnType == ReturnType.MULTI ? ScriptOutputType.MULTI : ScriptOutputType.INTEGER;
+        }
+    }
+
+    private static byte[][] keys(List<String> keys) {
+        byte[][] raw = new byte[keys.size()][];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = bytes(keys.get(i));
+        }
+        return raw;
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisSerializer<Object> valueSerializer() {
+        return (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+    }
+
+    private byte[] completionChannel() {
+        return bytes(properties.waitForCompletion().completionChannel());
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(long value) {
+        return bytes(Long.toString(value));
+    }
+}
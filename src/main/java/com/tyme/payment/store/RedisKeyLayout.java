@@ -0,0 +1,109 @@
+package com.tyme.payment.store;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.codec.digest.MurmurHash3;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Maps client idempotency keys to Redis keys: {@code <prefix>:<tenant>:<client key>}. Client keys longer than the
+ * configured bound, or starting with the hash marker, are replaced by {@code #} and the base64url SHA-256 of the key,
+ * so no Redis key is longer than the prefix, tenant and 44 characters however long the header value is.
+ * <p>
+ * For Redis Cluster the layout hash-tags every key with one of a fixed number of buckets,
+ * {@code <prefix>:<tenant>:{b<n>}:<client key>}, and gives each bucket its own fencing counter tagged the same way,
+ * so a claim script only ever touches one slot. The tag comes before the client key, so braces in the key are inert.
+ */
+public final class RedisKeyLayout {
+
+    private static final char HASH_MARKER = '#';
+
+    private final String namespace;
+    private final int maxRawLength;
+    private final String fencingCounterKey;
+    private final int hashTagBuckets;
+
+    public RedisKeyLayout(IdempotencyProperties.Keys settings) {
+        this(settings, null, 0);
+    }
+
+    /** {@code hashTagBuckets} of 0 keeps keys untagged, with one fencing counter for the whole keyspace. */
+    public RedisKeyLayout(IdempotencyProperties.Keys settings, String fencingCounterKey, int hashTagBuckets) {
+        if (hashTagBuckets > 0 && (settings.prefix() + settings.tenant() + fencingCounterKey).matches(".*[{}].*")) {
+            throw new IllegalArgumentException("Key prefix, tenant and fencing counter key must not contain braces when keys are hash-tagged");
+        }
+        this.namespace = settings.prefix() + ":" + settings.tenant() + ":";
+        this.maxRawLength = settings.maxRawLength();
+        this.fencingCounterKey = fencingCounterKey;
+        this.hashTagBuckets = hashTagBuckets;
+    }
+
+    public String redisKey(String clientKey) {
+        String tag = hashTagBuckets > 0 ? hashTag(clientKey) + ":" : "";
+        if (clientKey.length() <= maxRawLength && (clientKey.isEmpty() || clientKey.charAt(0) != HASH_MARKER)) {
+            return namespace + tag + clientKey;
+        }
+        return namespace + tag + HASH_MARKER + Base64.getUrlEncoder().withoutPadding().encodeToString(DigestUtils.sha256(clientKey));
+    }
+
+    /** The counter that issues fencing tokens for {@code clientKey}; always in the same slot as its Redis key. */
+    public String fencingCounterKey(String clientKey) {
+        return hashTagBuckets > 0 ? fencingCounterKey + ":" + hashTag(clientKey) : fencingCounterKey;
+    }
+
+    /** Every fencing counter of this layout, one per bucket when keys are hash-tagged. */
+    public List<String> fencingCounterKeys() {
+        if (hashTagBuckets == 0) {
+            return List.of(fencingCounterKey);
+        }
+        List<String> counters = new ArrayList<>(hashTagBuckets);
+        for (int bucket = 0; bucket < hashTagBuckets; bucket++) {
+            counters.add(fencingCounterKey + ":{b" + bucket + "}");
+        }
+        return counters;
+    }
+
+    public boolean isHashTagged() {
+        return hashTagBuckets > 0;
+    }
+
+    /** SCAN pattern matching every key of this namespace. */
+    public String pattern() {
+        return pattern("");
+    }
+
+    /** SCAN pattern matching the keys of this namespace whose client key starts with {@code clientKeyPrefix}. */
+    public String pattern(String clientKeyPrefix) {
+        return escape(namespace) + (hashTagBuckets > 0 ? "{b*}:" : "") + escape(clientKeyPrefix) + "*";
+    }
+
+    /** The client key stored under {@code redisKey}, or null if it was stored hashed or is not in this namespace. */
+    public String clientKey(String redisKey) {
+        if (!isNamespaced(redisKey)) {
+            return null;
+        }
+        String stored = redisKey.substring(namespace.length());
+        if (hashTagBuckets > 0) {
+            stored = stored.substring(stored.indexOf("}:") + 2);
+        }
+        return stored.isEmpty() || stored.charAt(0) != HASH_MARKER ? stored : null;
+    }
+
+    public boolean isNamespaced(String redisKey) {
+        return redisKey.startsWith(namespace);
+    }
+
+    /** Escapes the characters SCAN patterns treat as wildcards. */
+    public static String escape(String literal) {
+        return literal.replaceAll("([*?\\[\\]\\\\])", "\\\\$1");
+    }
+
+    private String hashTag(String clientKey) {
+        long hash = MurmurHash3.hash128x64(clientKey.getBytes(StandardCharsets.UTF_8))[0];
+        return "{b" + Math.floorMod(hash, hashTagBuckets) + "}";
+    }
+}
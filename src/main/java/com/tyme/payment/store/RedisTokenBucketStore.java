@@ -0,0 +1,58 @@
+package com.tyme.payment.store;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+// Each bucket is a hash under "<key-prefix>:<tenant>:<bucket>": n (tokens left), t (when n was computed, server ms).
+public class RedisTokenBucketStore implements TokenBucketStore {
+
+    private static final RedisScript<List<Long>> TAKE_TOKENS_SCRIPT = takeTokensScript();
+    private static final RedisSerializer<List<Long>> RAW_REPLY = rawReply();
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final String keyPrefix;
+    private final byte[] capacity;
+    private final byte[] refillPerMilli;
+
+    public RedisTokenBucketStore(RedisTemplate<String, Object> redisTemplate, IdempotencyProperties properties) {
+        IdempotencyProperties.RateLimit settings = properties.rateLimit();
+        this.redisTemplate = redisTemplate;
+        this.keyPrefix = settings.keyPrefix() + ":" + properties.keys().tenant() + ":";
+        this.capacity = bytes(String.valueOf(settings.capacity()));
+        this.refillPerMilli = bytes(String.valueOf(settings.refillPerSecond() / 1000));
+    }
+
+    @Override
+    public Grant take(String bucket, long needed, long wanted) {
+        List<Long> reply = redisTemplate.execute(TAKE_TOKENS_SCRIPT, RedisSerializer.byteArray(), RAW_REPLY,
+                List.of(keyPrefix + bucket), bytes(String.valueOf(needed)), bytes(String.valueOf(wanted)), capacity,
+                refillPerMilli);
+        if (reply == null || reply.size() != 2) {
+            throw new IllegalStateException("Unexpected reply from the token bucket script: " + reply);
+        }
+        return new Grant(reply.get(0), Duration.ofMillis(reply.get(1)));
+    }
+
+    // RedisScript.of takes a Class, which cannot carry the element type of the list reply.
+    @SuppressWarnings("unchecked")
+    private static RedisScript<List<Long>> takeTokensScript() {
+        return (RedisScript<List<Long>>) (RedisScript<?>) RedisScript.of(new ClassPathResource("scripts/take-tokens.lua"), List.class);
+    }
+
+    // The integers of the reply are returned as they are; the serializer only stands in for the script's result type.
+    @SuppressWarnings("unchecked")
+    private static RedisSerializer<List<Long>> rawReply() {
+        return (RedisSerializer<List<Long>>) (RedisSerializer<?>) RedisSerializer.byteArray();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,294 @@
+package com.tyme.payment.store;
+
+import com.tyme.payment.model.IdempotentResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Spreads keys over independent stores on a consistent-hash ring; every operation on a key lands on the one shard
+ * that owns it, and batches are split per shard and sent to all of them at once.
+ * <p>
+ * While nodes are being added, the ring from before the change is kept too. A key whose owner moved is claimed on its
+ * previous owner first, so instances still on the old ring and instances already on the new one exclude each other,
+ * and only then on its new owner. The claim on the previous owner is held until the key is completed or released, and
+ * results stored before the change stay readable there until they expire.
+ */
+public class ShardedIdempotencyStore implements IdempotencyStore, AutoCloseable {
+
+    private final ConsistentHashRing<IdempotencyStore> ring;
+    // Null outside a migration.
+    private final ConsistentHashRing<IdempotencyStore> previousRing;
+    private final Set<IdempotencyStore> shards;
+    private final Map<String, IdempotencyStore> shardsByName;
+    // Previous-owner fencing tokens, by key and the fencing token issued by the new owner.
+    private final Map<HeldClaim, Long> previousOwnerClaims = new ConcurrentHashMap<>();
+
+    /**
+     * @param shards        every shard by name, covering both {@code nodes} and {@code previousNodes}
+     * @param previousNodes the ring before nodes were added; empty once the migration is over
+     */
+    public ShardedIdempotencyStore(Map<String, ? extends IdempotencyStore> shards, List<String> nodes,
+                                   List<String> previousNodes, int virtualNodes) {
+        this.ring = new ConsistentHashRing<>(select(shards, nodes), virtualNodes);
+        this.previousRing = previousNodes.isEmpty() || Set.copyOf(previousNodes).equals(Set.copyOf(nodes))
+                ? null
+                : new ConsistentHashRing<>(select(shards, previousNodes), virtualNodes);
+        this.shards = new LinkedHashSet<>(shards.values());
+        this.shardsByName = new LinkedHashMap<>(shards);
+    }
+
+    private static Map<String, IdempotencyStore> select(Map<String, ? extends IdempotencyStore> shards, List<String> names) {
+        Map<String, IdempotencyStore> selected = new LinkedHashMap<>();
+        for (String name : names) {
+            IdempotencyStore shard = shards.get(name);
+            if (shard == null) {
+                throw new IllegalArgumentException("No shard configured for node " + name);
+            }
+            selected.put(name, shard);
+        }
+        return selected;
+    }
+
+    @Override
+    public Claim claim(String key, byte[] fingerprint, Duration lease) {
+        IdempotencyStore owner = ring.owner(key);
+        IdempotencyStore previousOwner = previousOwner(key);
+        if (previousOwner == null) {
+            return owner.claim(key, fingerprint, lease);
+        }
+
+        Claim previous = previousOwner.claim(key, fingerprint, lease);
+        if (previous.status() != Claim.Status.CLAIMED) {
+            return previous;
+        }
+        Claim claim;
+        try {
+            claim = owner.claim(key, fingerprint, lease);
+        } catch (RuntimeException e) {
+            previousOwner.release(key, previous.fencingToken());
+            throw e;
+        }
+        if (claim.status() == Claim.Status.CLAIMED) {
+            previousOwnerClaims.put(new HeldClaim(key, claim.fencingToken()), previous.fencingToken());
+        } else {
+            previousOwner.release(key, previous.fencingToken());
+        }
+        return claim;
+    }
+
+    @Override
+    public boolean renew(String key, long fencingToken, Duration lease) {
+        boolean renewed = ring.owner(key).renew(key, fencingToken, lease);
+        Long previousToken = previousOwnerClaims.get(new HeldClaim(key, fencingToken));
+        if (previousToken != null) {
+            // Losing the previous owner's claim lets instances on the old ring in, so it counts as losing the lease.
+            renewed &= previousOwner(key).renew(key, previousToken, lease);
+        }
+        return renewed;
+    }
+
+    @Override
+    public boolean complete(String key, long fencingToken, IdempotentResponse response, Duration ttl) {
+        boolean completed = ring.owner(key).complete(key, fencingToken, response, ttl);
+        Long previousToken = previousOwnerClaims.remove(new HeldClaim(key, fencingToken));
+        if (previousToken != null) {
+            // Instances still on the old ring replay from the previous owner.
+            if (completed) {
+                previousOwner(key).complete(key, previousToken, response, ttl);
+            } else {
+                previousOwner(key).release(key, previousToken);
+            }
+        }
+        return completed;
+    }
+
+    @Override
+    public boolean release(String key, long fencingToken) {
+        boolean released = ring.owner(key).release(key, fencingToken);
+        Long previousToken = previousOwnerClaims.remove(new HeldClaim(key, fencingToken));
+        if (previousToken != null) {
+            previousOwner(key).release(key, previousToken);
+        }
+        return released;
+    }
+
+    @Override
+    public IdempotentResponse fetch(String key) {
+        IdempotentResponse response = ring.owner(key).fetch(key);
+        IdempotencyStore previousOwner = previousOwner(key);
+        return response == null && previousOwner != null ? previousOwner.fetch(key) : response;
+    }
+
+    @Override
+    public void delete(String key) {
+        ring.owner(key).delete(key);
+        IdempotencyStore previousOwner = previousOwner(key);
+        if (previousOwner != null) {
+            previousOwner.delete(key);
+        }
+    }
+
+    // Keys that moved take the two-owner path above, which runs in the caller's thread.
+    @Override
+    public CompletableFuture<Claim> claimAsync(String key, byte[] fingerprint, Duration lease) {
+        return previousOwner(key) == null
+                ? ring.owner(key).claimAsync(key, fingerprint, lease)
+                : IdempotencyStore.super.claimAsync(key, fingerprint, lease);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> completeAsync(String key, long fencingToken, IdempotentResponse response, Duration ttl) {
+        return previousOwner(key) == null
+                ? ring.owner(key).completeAsync(key, fencingToken, response, ttl)
+                : IdempotencyStore.super.completeAsync(key, fencingToken, response, ttl);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> releaseAsync(String key, long fencingToken) {
+        return previousOwner(key) == null
+                ? ring.owner(key).releaseAsync(key, fencingToken)
+                : IdempotencyStore.super.releaseAsync(key, fencingToken);
+    }
+
+    /** Sums the shards, each measured on its share of {@code sampleSize}. */
+    @Override
+    public KeyspaceSample sampleKeyspace(int sampleSize, int scanCount) {
+        int shardSampleSize = Math.max(1, sampleSize / shards.size());
+        long keyCount = 0;
+        int sampledKeys = 0;
+        long sampledBytes = 0;
+        long claimsIssued = 0;
+        for (IdempotencyStore shard : shards) {
+            KeyspaceSample sample = shard.sampleKeyspace(shardSampleSize, scanCount);
+            keyCount += sample.keyCount();
+            sampledKeys += sample.sampledKeys();
+            sampledBytes += sample.sampledBytes();
+            claimsIssued += sample.claimsIssued();
+        }
+        return new KeyspaceSample(keyCount, sampledKeys, sampledBytes, claimsIssued);
+    }
+
+    // Walks the shards one after the other; the cursor is "<shard>:<cursor within it>", shards in configuration order.
+    @Override
+    public KeyPage scanKeys(String cursor, String keyPrefix, boolean legacyKeys, int count) {
+        List<String> names = List.copyOf(shardsByName.keySet());
+        int separator = cursor.indexOf(':');
+        int shard = separator < 0 ? 0 : Integer.parseInt(cursor.substring(0, separator));
+        if (shard >= names.size()) {
+            return new KeyPage(KeyPage.START, 0, List.of());
+        }
+        String name = names.get(shard);
+        KeyPage page = shardsByName.get(name).scanKeys(cursor.substring(separator + 1), keyPrefix, legacyKeys, count);
+        String next = !page.isLast() ? shard + ":" + page.nextCursor()
+                : shard + 1 < names.size() ? (shard + 1) + ":" + KeyPage.START
+                : KeyPage.START;
+        return new KeyPage(next, page.scanned(), page.keys().stream().map(key -> key.onShard(name)).toList());
+    }
+
+    @Override
+    public long unlinkAll(List<StoredKey> keys) {
+        Map<String, List<StoredKey>> byShard = new LinkedHashMap<>();
+        for (StoredKey key : keys) {
+            byShard.computeIfAbsent(key.shard(), name -> new ArrayList<>()).add(key);
+        }
+        long unlinked = 0;
+        for (Map.Entry<String, List<StoredKey>> group : byShard.entrySet()) {
+            IdempotencyStore shard = shardsByName.get(group.getKey());
+            if (shard == null) {
+                throw new IllegalArgumentException("No shard configured for node " + group.getKey());
+            }
+            unlinked += shard.unlinkAll(group.getValue());
+        }
+        return unlinked;
+    }
+
+    @Override
+    public List<Claim> claimAll(List<ClaimCommand> commands) {
+        return routeAll(commands, ClaimCommand::key, IdempotencyStore::claimAll,
+                command -> claim(command.key(), command.fingerprint(), command.lease()));
+    }
+
+    @Override
+    public List<Boolean> renewAll(List<RenewCommand> commands, Duration lease) {
+        return routeAll(commands, RenewCommand::key, (shard, shardCommands) -> shard.renewAll(shardCommands, lease),
+                command -> renew(command.key(), command.fencingToken(), lease));
+    }
+
+    @Override
+    public List<Boolean> finishAll(List<FinishCommand> commands) {
+        return routeAll(commands, FinishCommand::key, IdempotencyStore::finishAll,
+                command -> command.response() != null
+                        ? complete(command.key(), command.fencingToken(), command.response(), command.ttl())
+                        : release(command.key(), command.fencingToken()));
+    }
+
+    // Commands keep their order within a shard, so duplicate keys in one batch still see each other.
+    private <C, R> List<R> routeAll(List<C> commands, Function<C, String> keyOf,
+                                    BiFunction<IdempotencyStore, List<C>, List<R>> batch, Function<C, R> single) {
+        Map<IdempotencyStore, List<Integer>> byShard = new LinkedHashMap<>();
+        List<Integer> moved = new ArrayList<>();
+        for (int i = 0; i < commands.size(); i++) {
+            String key = keyOf.apply(commands.get(i));
+            if (previousOwner(key) != null) {
+                moved.add(i);
+            } else {
+                byShard.computeIfAbsent(ring.owner(key), shard -> new ArrayList<>()).add(i);
+            }
+        }
+        if (moved.isEmpty() && byShard.size() == 1) {
+            return batch.apply(byShard.keySet().iterator().next(), commands);
+        }
+
+        List<R> results = new ArrayList<>(Collections.nCopies(commands.size(), null));
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<CompletableFuture<Void>> shardBatches = new ArrayList<>(byShard.size());
+            byShard.forEach((shard, indexes) -> shardBatches.add(CompletableFuture.runAsync(() -> {
+                List<R> shardResults = batch.apply(shard, indexes.stream().map(commands::get).toList());
+                for (int i = 0; i < indexes.size(); i++) {
+                    results.set(indexes.get(i), shardResults.get(i));
+                }
+            }, executor)));
+            for (int i : moved) {
+                results.set(i, single.apply(commands.get(i)));
+            }
+            CompletableFuture.allOf(shardBatches.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+        return results;
+    }
+
+    private IdempotencyStore previousOwner(String key) {
+        if (previousRing == null) {
+            return null;
+        }
+        IdempotencyStore previousOwner = previousRing.owner(key);
+        return previousOwner != ring.owner(key) ? previousOwner : null;
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (IdempotencyStore shard : shards) {
+            if (shard instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    private record HeldClaim(String key, long fencingToken) {
+    }
+}
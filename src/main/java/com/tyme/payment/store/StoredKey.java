@@ -0,0 +1,23 @@
+package com.tyme.payment.store;
+
+import java.time.Duration;
+
+/**
+ * An entry found by {@link IdempotencyStore#scanKeys}. {@code clientKey} is null for keys stored as a hash of an
+ * over-long client key; {@code shard} names the node of a sharded store that holds it. {@code remainingTtl} is null
+ * for an entry that never expires, which only a stuck claim from before leases existed should be.
+ */
+public record StoredKey(
+        String clientKey,
+        String storedKey,
+        String shard,
+        State state,
+        Duration remainingTtl
+) {
+
+    public enum State { PROCESSING, COMPLETED }
+
+    StoredKey onShard(String shardName) {
+        return new StoredKey(clientKey, storedKey, shardName, state, remainingTtl);
+    }
+}
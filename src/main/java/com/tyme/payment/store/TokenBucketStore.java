@@ -0,0 +1,23 @@
+package com.tyme.payment.store;
+
+import java.time.Duration;
+
+/**
+ * Token buckets, one per name, shared by every node that uses the store. A bucket starts full and regains tokens at a
+ * steady rate up to its capacity. Taking tokens is atomic per bucket.
+ */
+public interface TokenBucketStore {
+
+    /**
+     * Takes up to {@code wanted} tokens from {@code bucket}, but none unless at least {@code needed} are there. When
+     * none are taken, the grant says how long until {@code needed} tokens will be.
+     */
+    Grant take(String bucket, long needed, long wanted);
+
+    record Grant(long taken, Duration retryAfter) {
+
+        public boolean denied() {
+            return taken == 0;
+        }
+    }
+}
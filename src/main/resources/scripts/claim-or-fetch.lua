@@ -0,0 +1,36 @@
+-- KEYS[1] idempotency key, KEYS[2] fencing token counter, KEYS[3] (optional) the same key before namespacing
+-- ARGV[1] request fingerprint, ARGV[2] lease duration in ms
+-- Returns {0, fencing token} claimed, {1} in progress, {2, value} completed, {3, hash, state, value} hash mismatch, {4, value} legacy string entry
+local key = KEYS[1]
+local keyType = redis.call('TYPE', key).ok
+
+-- An entry stored under the bare client key is answered from, but never claimed or rewritten there.
+if keyType == 'none' and KEYS[3] then
+    local legacyType = redis.call('TYPE', KEYS[3]).ok
+    if legacyType ~= 'none' then
+        key = KEYS[3]
+        keyType = legacyType
+    end
+end
+
+if keyType == 'none' then
+    -- Every claim gets a larger token than any claim before it, so a holder whose lease lapsed can be told apart.
+    local token = redis.call('INCR', KEYS[2])
+    redis.call('HSET', KEYS[1], 'h', ARGV[1], 's', 'PROCESSING', 't', token)
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+    return {0, token}
+end
+
+if keyType == 'string' then
+    return {4, redis.call('GET', key)}
+end
+
+local stored = redis.call('HMGET', key, 'h', 's', 'v')
+if stored[1] ~= ARGV[1] then
+    -- The caller decides whether a legacy-format hash still belongs to the same request.
+    return {3, stored[1], stored[2], stored[3]}
+end
+if stored[2] == 'PROCESSING' then
+    return {1}
+end
+return {2, stored[3]}
@@ -0,0 +1,12 @@
+-- KEYS[1] idempotency key
+-- ARGV[1] fencing token, ARGV[2] serialized response, ARGV[3] result ttl in ms, ARGV[4] completion channel, ARGV[5] client key announced on it
+-- Stores the response only if the caller still owns the claim, then wakes waiters on every node.
+-- Returns 1 on success, 0 otherwise.
+if redis.call('TYPE', KEYS[1]).ok ~= 'hash' or redis.call('HGET', KEYS[1], 't') ~= ARGV[1] then
+    return 0
+end
+
+redis.call('HSET', KEYS[1], 's', 'COMPLETED', 'v', ARGV[2])
+redis.call('PEXPIRE', KEYS[1], ARGV[3])
+redis.call('PUBLISH', ARGV[4], ARGV[5])
+return 1
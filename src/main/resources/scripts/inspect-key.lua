@@ -0,0 +1,11 @@
+-- KEYS[1] a key returned by SCAN
+-- Returns {type, state, remaining ttl in ms}: the 's' field of a hash entry, the whole value of a string entry (the
+-- caller decodes it), or '' for other types and keys that expired meanwhile. The ttl is -1 for a key with no expiry.
+local keyType = redis.call('TYPE', KEYS[1]).ok
+local state = ''
+if keyType == 'hash' then
+    state = redis.call('HGET', KEYS[1], 's') or ''
+elseif keyType == 'string' then
+    state = redis.call('GET', KEYS[1])
+end
+return {keyType, state, redis.call('PTTL', KEYS[1])}
@@ -0,0 +1,7 @@
+-- KEYS sampled keys
+-- Measures every key in one round trip. Returns the MEMORY USAGE of each key, or -1 for keys that expired meanwhile.
+local usage = {}
+for i, key in ipairs(KEYS) do
+    usage[i] = redis.call('MEMORY', 'USAGE', key) or -1
+end
+return usage
@@ -0,0 +1,15 @@
+-- KEYS[1] idempotency key
+-- ARGV[1] fencing token, ARGV[2] completion channel, ARGV[3] client key announced on it
+-- Deletes an unfinished claim only if the caller still owns it, then wakes waiters so one of them can claim it.
+-- Returns 1 on success, 0 otherwise.
+if redis.call('TYPE', KEYS[1]).ok ~= 'hash' then
+    return 0
+end
+
+local stored = redis.call('HMGET', KEYS[1], 't', 's')
+if stored[1] == ARGV[1] and stored[2] == 'PROCESSING' then
+    redis.call('DEL', KEYS[1])
+    redis.call('PUBLISH', ARGV[2], ARGV[3])
+    return 1
+end
+return 0
@@ -0,0 +1,14 @@
+-- KEYS[1] idempotency key
+-- ARGV[1] fencing token, ARGV[2] lease duration in ms
+-- Extends an unfinished claim only if the caller still owns it.
+-- Returns 1 on success, 0 otherwise.
+if redis.call('TYPE', KEYS[1]).ok ~= 'hash' then
+    return 0
+end
+
+local stored = redis.call('HMGET', KEYS[1], 't', 's')
+if stored[1] == ARGV[1] and stored[2] == 'PROCESSING' then
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+    return 1
+end
+return 0
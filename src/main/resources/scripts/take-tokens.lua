@@ -0,0 +1,30 @@
+-- KEYS[1] token bucket
+-- ARGV[1] tokens needed, ARGV[2] tokens wanted, ARGV[3] capacity, ARGV[4] tokens regained per ms
+-- Refills the bucket for the time since it was last touched, then takes up to ARGV[2] tokens if at least ARGV[1] are
+-- there. The clock is the server's, so every node refills the bucket at the same rate. An idle bucket expires once it
+-- would be full again, since a missing bucket counts as full.
+-- Returns {tokens taken, ms until ARGV[1] tokens are there (0 if any were taken)}.
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local needed = tonumber(ARGV[1])
+local capacity = tonumber(ARGV[3])
+local refill = tonumber(ARGV[4])
+
+local tokens = capacity
+local stored = redis.call('HMGET', KEYS[1], 'n', 't')
+if stored[1] then
+    tokens = math.min(capacity, tonumber(stored[1]) + math.max(0, now - tonumber(stored[2])) * refill)
+end
+
+local taken = 0
+if tokens >= needed then
+    taken = math.min(tonumber(ARGV[2]), math.floor(tokens))
+    tokens = tokens - taken
+end
+
+redis.call('HSET', KEYS[1], 'n', tostring(tokens), 't', tostring(now))
+redis.call('PEXPIRE', KEYS[1], math.ceil((capacity - tokens) / refill) + 1)
+if taken > 0 then
+    return {taken, 0}
+end
+return {0, math.ceil((needed - tokens) / refill)}
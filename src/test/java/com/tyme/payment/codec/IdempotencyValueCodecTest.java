@@ -0,0 +1,91 @@
+package com.tyme.payment.codec;
+
+import com.tyme.payment.config.RedisConfig;
+import com.tyme.payment.model.IdempotentResponse;
+import com.tyme.payment.model.PaymentResponse;
+import com.tyme.payment.model.RenderedBody;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdempotencyValueCodecTest {
+
+    private final GenericJackson2JsonRedisSerializer json = RedisConfig.jsonValueSerializer();
+    private final IdempotencyValueCodec codec = new IdempotencyValueCodec(json, IdempotencyValueCodec.WriteFormat.BINARY, 1024);
+
+    private final IdempotentResponse sample = new IdempotentResponse(201,
+            new PaymentResponse("8c6b8a5e-0f0e-4a52-9d0b-3f2f7f3b2a11", "SUCCESS", new BigDecimal("1500.00"), "PHP",
+                    LocalDateTime.of(2026, 3, 14, 9, 26, 53, 589_793_000)),
+            HexFormat.of().parseHex("2f1c0a7d3e5b4c6a8f9e0d1c2b3a4f5e6d7c8b9a0f1e2d3c4b5a69788796a5b4"));
+
+    @Test
+    @DisplayName("Binary values round-trip and are smaller than the JSON encoding")
+    void shouldRoundTripIdempotentResponse() {
+        byte[] encoded = codec.serialize(sample);
+
+        assertEquals(sample, codec.deserialize(encoded));
+        assertEquals(new BigDecimal("1500.00"), ((PaymentResponse) ((IdempotentResponse) codec.deserialize(encoded)).responseBody()).amount(),
+                "Scale must be preserved exactly.");
+        assertTrue(encoded.length < json.serialize(sample).length / 2, "Binary entry should be well under half the JSON size.");
+    }
+
+    @Test
+    @DisplayName("Rollout: entries written by the JSON serializer stay readable")
+    void shouldReadLegacyJsonEntries() {
+        assertEquals(sample, codec.deserialize(json.serialize(sample)));
+        assertEquals("PROCESSING", codec.deserialize(json.serialize("PROCESSING")));
+    }
+
+    @Test
+    @DisplayName("Rollout: hex request hashes from older JSON entries are kept as their ASCII bytes")
+    void shouldReadLegacyHexRequestHash() {
+        String hex = "2f1c0a7d3e5b4c6a8f9e0d1c2b3a4f5e6d7c8b9a0f1e2d3c4b5a69788796a5b4";
+        String legacy = "{\"@class\":\"com.tyme.payment.model.IdempotentResponse\",\"statusCode\":201,"
+                + "\"responseBody\":\"ok\",\"requestHash\":\"" + hex + "\"}";
+
+        IdempotentResponse decoded = (IdempotentResponse) codec.deserialize(legacy.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(new IdempotentResponse(201, "ok", hex.getBytes(StandardCharsets.US_ASCII)), decoded);
+    }
+
+    @Test
+    @DisplayName("Rendered bodies round-trip byte for byte, in both the binary and the JSON encoding")
+    void shouldRoundTripRenderedBody() {
+        IdempotentResponse rendered = new IdempotentResponse(201, new RenderedBody("application/json",
+                "{\"transactionId\":\"8c6b8a5e\",\"amount\":1500.00}".getBytes(StandardCharsets.UTF_8)), sample.requestHash());
+
+        assertEquals(rendered, codec.deserialize(codec.serialize(rendered)));
+        assertEquals(rendered, codec.deserialize(json.serialize(rendered)));
+    }
+
+    @Test
+    @DisplayName("Payloads above the threshold are compressed transparently")
+    void shouldCompressLargePayloads() {
+        IdempotencyValueCodec compressing = new IdempotencyValueCodec(json, IdempotencyValueCodec.WriteFormat.BINARY, 64);
+        IdempotentResponse large = new IdempotentResponse(200, "x".repeat(4096), sample.requestHash());
+
+        byte[] encoded = compressing.serialize(large);
+
+        assertTrue(encoded.length < 512, "Repetitive payload should compress.");
+        assertEquals(large, compressing.deserialize(encoded));
+    }
+
+    @Test
+    @DisplayName("Unknown codec versions are rejected instead of misread")
+    void shouldRejectUnknownVersion() {
+        byte[] encoded = codec.serialize(sample);
+        encoded[1] = 99;
+
+        assertThrows(SerializationException.class, () -> codec.deserialize(encoded));
+    }
+}
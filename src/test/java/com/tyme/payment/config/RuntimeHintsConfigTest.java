@@ -0,0 +1,41 @@
+package com.tyme.payment.config;
+
+import com.tyme.payment.model.IdempotentResponse;
+import com.tyme.payment.model.PaymentResponse;
+import com.tyme.payment.model.RenderedBody;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.annotation.ReflectiveRuntimeHintsRegistrar;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RuntimeHintsConfigTest {
+
+    @Test
+    @DisplayName("AOT: Scripts, stored value types and the properties records are reachable in a native image")
+    void shouldRegisterHints_ForScriptsStoredValuesAndProperties() throws Exception {
+        // Arrange
+        RuntimeHints hints = new RuntimeHints();
+
+        // Act
+        new RuntimeHintsConfig.IdempotencyRuntimeHints().registerHints(hints, getClass().getClassLoader());
+        new ReflectiveRuntimeHintsRegistrar().registerRuntimeHints(hints, RuntimeHintsConfig.class);
+
+        // Assert
+        for (Resource script : new PathMatchingResourcePatternResolver().getResources("classpath:scripts/*.lua")) {
+            assertTrue(RuntimeHintsPredicates.resource().forResource("scripts/" + script.getFilename()).test(hints),
+                    script.getFilename());
+        }
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(IdempotentResponse.class, "responseBody").invoke().test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(PaymentResponse.class, "createdAt").invoke().test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onType(RenderedBody.class).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onType(BigDecimal.class).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onType(IdempotencyProperties.RateLimit.class).test(hints));
+    }
+}
@@ -0,0 +1,66 @@
+package com.tyme.payment.controller;
+
+import com.tyme.payment.service.IdempotencyKeyAdmin;
+import com.tyme.payment.store.StoredKey;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = IdempotencyKeyAdminController.class, properties = "app.idempotency.admin.enabled=true")
+class IdempotencyKeyAdminControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private IdempotencyKeyAdmin admin;
+
+    @Test
+    @DisplayName("Admin: Removal streams one JSON line per page, then the totals")
+    void shouldStreamProgressAsNdjson() throws Exception {
+        // Arrange
+        StoredKey key = new StoredKey("stuck-1", "stuck-1", null, StoredKey.State.PROCESSING, null);
+        when(admin.walk(any(), eq("0"), eq(true), any())).thenAnswer(invocation -> {
+            IdempotencyKeyAdmin.ProgressListener listener = invocation.getArgument(3);
+            listener.onPage(new IdempotencyKeyAdmin.Progress("0", 40, 1, 1, List.of(key), true));
+            return new IdempotencyKeyAdmin.Progress("0", 40, 1, 1, List.of(), true);
+        });
+
+        // Act
+        String body = mockMvc.perform(delete("/v1/admin/idempotency-keys")
+                        .param("prefix", "stuck-")
+                        .param("state", "PROCESSING")
+                        .param("olderThan", "1h")
+                        .param("legacy", "true"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(IdempotencyKeyAdminController.NDJSON))
+                .andReturn().getResponse().getContentAsString();
+
+        // Assert
+        ArgumentCaptor<IdempotencyKeyAdmin.KeyQuery> query = ArgumentCaptor.forClass(IdempotencyKeyAdmin.KeyQuery.class);
+        verify(admin).walk(query.capture(), eq("0"), eq(true), any());
+        assertEquals(new IdempotencyKeyAdmin.KeyQuery("stuck-", StoredKey.State.PROCESSING, Duration.ofHours(1), true, Long.MAX_VALUE),
+                query.getValue());
+        String[] lines = body.split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("\"storedKey\":\"stuck-1\""));
+        assertTrue(lines[1].contains("\"unlinked\":1"));
+    }
+}
@@ -0,0 +1,65 @@
+package com.tyme.payment.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tyme.payment.model.IdempotencyOutcome;
+import com.tyme.payment.model.PaymentRequest;
+import com.tyme.payment.model.PaymentResponse;
+import com.tyme.payment.service.PaymentService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = PaymentController.class, properties = "app.idempotency.execution-mode=async")
+class PaymentControllerAsyncTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private PaymentService paymentService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    @DisplayName("Async mode: The response is completed from the service's future, with the same status mapping")
+    void shouldCompleteResponseAsynchronously() throws Exception {
+        // Arrange
+        PaymentRequest request = new PaymentRequest("ACC1", new BigDecimal("100"), "PHP", "DEST2");
+        PaymentResponse response = new PaymentResponse("TXN-ASYNC", "SUCCESS", new BigDecimal("100"), "PHP", LocalDateTime.now());
+        CompletableFuture<IdempotencyOutcome<PaymentResponse>> outcome = new CompletableFuture<>();
+        when(paymentService.processPaymentAsync(eq("async-key"), any(), any())).thenReturn(outcome);
+
+        // Act
+        MvcResult started = mockMvc.perform(post("/v1/payments")
+                        .header("Idempotency-Key", "async-key")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        outcome.complete(new IdempotencyOutcome<>(response, IdempotencyOutcome.OutcomeStatus.CREATED));
+
+        // Assert
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.transactionId").value("TXN-ASYNC"));
+    }
+}
@@ -1,9 +1,15 @@
 package com.tyme.payment.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tyme.payment.exception.PaymentRejectedException;
+import com.tyme.payment.exception.RateLimitExceededException;
+import com.tyme.payment.model.BatchPaymentItem;
+import com.tyme.payment.model.BatchPaymentRequest;
+import com.tyme.payment.model.BatchPaymentResult;
 import com.tyme.payment.model.IdempotencyOutcome;
 import com.tyme.payment.model.PaymentRequest;
 import com.tyme.payment.model.PaymentResponse;
+import com.tyme.payment.model.RenderedBody;
 import com.tyme.payment.service.PaymentService;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -14,13 +20,18 @@ import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.UUID;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -55,7 +66,7 @@ class PaymentControllerTest {
         PaymentRequest request = new PaymentRequest("ACC1", new BigDecimal("100"), "PHP", "DEST2");
         PaymentResponse response = new PaymentResponse("TXN-123", "SUCCESS", new BigDecimal("100"), "PHP", LocalDateTime.now());
 
-        when(paymentService.processPayment(eq(key), any()))
+        when(paymentService.processPayment(eq(key), any(), any()))
                 .thenReturn(new IdempotencyOutcome<>(response, IdempotencyOutcome.OutcomeStatus.CREATED));
 
         mockMvc.perform(post("/v1/payments")
@@ -72,7 +83,7 @@ class PaymentControllerTest {
         String key = "processing-key";
         PaymentRequest request = new PaymentRequest("ACC1", new BigDecimal("100"), "PHP", "DEST2");
 
-        when(paymentService.processPayment(eq(key), any()))
+        when(paymentService.processPayment(eq(key), any(), any()))
                 .thenReturn(new IdempotencyOutcome<>(null, IdempotencyOutcome.OutcomeStatus.IN_PROGRESS));
 
         mockMvc.perform(post("/v1/payments")
@@ -89,7 +100,7 @@ class PaymentControllerTest {
         String key = "reused-key";
         PaymentRequest request = new PaymentRequest("ACC1", new BigDecimal("100"), "PHP", "DEST2");
 
-        when(paymentService.processPayment(eq(key), any()))
+        when(paymentService.processPayment(eq(key), any(), any()))
                 .thenReturn(new IdempotencyOutcome<>(null, IdempotencyOutcome.OutcomeStatus.DATA_MISMATCH));
 
         mockMvc.perform(post("/v1/payments")
@@ -99,4 +110,112 @@ class PaymentControllerTest {
                 .andExpect(status().isUnprocessableEntity())
                 .andExpect(jsonPath("$.code").value("KEY_REUSE"));
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Backpressure: A payment turned away by its account's queue answers with the configured status")
+    void shouldReturnRejectionStatus_WhenAccountIsBackedUp() throws Exception {
+        String key = "backlogged-key";
+        PaymentRequest request = new PaymentRequest("ACC1", new BigDecimal("100"), "PHP", "DEST2");
+
+        when(paymentService.processPayment(eq(key), any(), any()))
+                .thenThrow(new PaymentRejectedException("Payments for account ACC1 are backed up", 429));
+
+        mockMvc.perform(post("/v1/payments")
+                        .header("Idempotency-Key", key)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(jsonPath("$.code").value("PAYMENT_BACKLOGGED"));
+    }
+
+    @Test
+    @DisplayName("Rate Limit: An account out of tokens gets 429 with Retry-After")
+    void shouldReturn429WithRetryAfter_WhenAccountIsRateLimited() throws Exception {
+        PaymentRequest request = new PaymentRequest("ACC1", new BigDecimal("100"), "PHP", "DEST2");
+
+        when(paymentService.processPayment(eq("limited-key"), any(), any()))
+                .thenThrow(new RateLimitExceededException("Too many payments for account ACC1; retry later.", Duration.ofMillis(1500)));
+
+        mockMvc.perform(post("/v1/payments")
+                        .header("Idempotency-Key", "limited-key")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "2"))
+                .andExpect(jsonPath("$.code").value("RATE_LIMITED"));
+    }
+
+    @Test
+    @DisplayName("Requirement 3: Should write a stored body back byte for byte on replay")
+    void shouldReplayStoredBody_ByteForByte() throws Exception {
+        String key = UUID.randomUUID().toString();
+        PaymentRequest request = new PaymentRequest("ACC1", new BigDecimal("100"), "PHP", "DEST2");
+        byte[] stored = "{\"transactionId\":\"TXN-123\", \"amount\":100.00}".getBytes(StandardCharsets.UTF_8);
+
+        when(paymentService.processPayment(eq(key), any(), any()))
+                .thenReturn(new IdempotencyOutcome<>(null, IdempotencyOutcome.OutcomeStatus.ALREADY_EXISTS,
+                        new RenderedBody(MediaType.APPLICATION_JSON_VALUE, stored)));
+
+        mockMvc.perform(post("/v1/payments")
+                        .header("Idempotency-Key", key)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(content().bytes(stored));
+    }
+
+    @Test
+    @DisplayName("Wait-for-completion: Should pass the Prefer wait preference to the service")
+    void shouldPassRequestedWait_FromPreferHeader() throws Exception {
+        String key = "waiting-key";
+        PaymentRequest request = new PaymentRequest("ACC1", new BigDecimal("100"), "PHP", "DEST2");
+        PaymentResponse response = new PaymentResponse("TXN-123", "SUCCESS", new BigDecimal("100"), "PHP", LocalDateTime.now());
+
+        when(paymentService.processPayment(eq(key), any(), eq(Duration.ofSeconds(5))))
+                .thenReturn(new IdempotencyOutcome<>(response, IdempotencyOutcome.OutcomeStatus.ALREADY_EXISTS));
+
+        mockMvc.perform(post("/v1/payments")
+                        .header("Idempotency-Key", key)
+                        .header("Prefer", "respond-async, wait=5")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.transactionId").value("TXN-123"));
+    }
+
+    @Test
+    @DisplayName("Batch: Should return a per-item status for every item")
+    void shouldReturnPerItemResults_ForBatch() throws Exception {
+        PaymentRequest request = new PaymentRequest("ACC1", new BigDecimal("100"), "PHP", "DEST2");
+        PaymentResponse response = new PaymentResponse("TXN-123", "SUCCESS", new BigDecimal("100"), "PHP", LocalDateTime.now());
+        BatchPaymentRequest batch = new BatchPaymentRequest(List.of(
+                new BatchPaymentItem("key-1", request),
+                new BatchPaymentItem("key-2", request)));
+
+        when(paymentService.processBatch(any())).thenReturn(List.of(
+                new BatchPaymentResult("key-1", IdempotencyOutcome.OutcomeStatus.CREATED, response),
+                new BatchPaymentResult("key-2", IdempotencyOutcome.OutcomeStatus.DATA_MISMATCH, null)));
+
+        mockMvc.perform(post("/v1/payments/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(batch)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.results[0].status").value("CREATED"))
+                .andExpect(jsonPath("$.results[0].data.transactionId").value("TXN-123"))
+                .andExpect(jsonPath("$.results[1].status").value("DATA_MISMATCH"));
+    }
+
+    @Test
+    @DisplayName("Batch: Should return 400 Bad Request when an item has no idempotency key")
+    void shouldReturn400_WhenBatchItemHasNoKey() throws Exception {
+        PaymentRequest request = new PaymentRequest("ACC1", new BigDecimal("100"), "PHP", "DEST2");
+        BatchPaymentRequest batch = new BatchPaymentRequest(List.of(new BatchPaymentItem(" ", request)));
+
+        mockMvc.perform(post("/v1/payments/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(batch)))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value("INVALID_REQUEST_PAYLOAD"));
+    }
+}
@@ -0,0 +1,119 @@
+package com.tyme.payment.service;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.exception.PaymentRejectedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.BindException;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.core.NestedExceptionUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AccountPaymentExecutorTest {
+
+    private final IdempotencyProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+            "app.idempotency.ttl-duration", "24h",
+            "app.idempotency.lock-duration", "30s",
+            "app.idempotency.payment-executor.max-queued-per-account", "2",
+            "app.idempotency.payment-executor.max-queue-wait", "2s",
+            "app.idempotency.payment-executor.rejection-status", "429")))
+            .bindOrCreate("app.idempotency", Bindable.of(IdempotencyProperties.class));
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AccountPaymentExecutor executor = new AccountPaymentExecutor(properties, meterRegistry);
+
+    @AfterEach
+    void tearDown() {
+        executor.destroy();
+    }
+
+    @Test
+    @DisplayName("Ordering: One account's payments run one at a time in order, while another account's run alongside")
+    void shouldSerializePerAccount_AndRunAccountsInParallel() throws Exception {
+        // Arrange
+        CountDownLatch otherAccountRan = new CountDownLatch(1);
+        List<Integer> order = new ArrayList<>();
+
+        // Act
+        CompletableFuture<Boolean> first = executor.submit("ACC-1", () -> {
+            try {
+                // Only finishes if ACC-2 is not stuck behind ACC-1.
+                return otherAccountRan.await(2, TimeUnit.SECONDS) && order.add(1);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        CompletableFuture<Boolean> second = executor.submit("ACC-1", () -> order.add(2));
+        CompletableFuture<Boolean> third = executor.submit("ACC-1", () -> order.add(3));
+        executor.execute("ACC-2", () -> {
+            otherAccountRan.countDown();
+            return null;
+        });
+
+        // Assert
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertTrue(second.get(5, TimeUnit.SECONDS));
+        assertTrue(third.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of(1, 2, 3), order);
+        assertEquals(0, meterRegistry.get("idempotency.payment.queue.depth").gauge().value());
+        assertEquals(4, meterRegistry.get("idempotency.payment.queue.wait").timer().count());
+    }
+
+    @Test
+    @DisplayName("Backpressure: A full account queue turns payments away with the configured status, other accounts still run")
+    void shouldRejectPayment_WhenAccountQueueIsFull() throws Exception {
+        // Arrange
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> running = executor.submit("ACC-1", () -> {
+            try {
+                return release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        executor.submit("ACC-1", () -> true);
+        executor.submit("ACC-1", () -> true);
+
+        // Act
+        CompletableFuture<Boolean> rejected = executor.submit("ACC-1", () -> true);
+        String otherAccount = executor.execute("ACC-2", () -> "ran");
+        release.countDown();
+
+        // Assert
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> rejected.get(1, TimeUnit.SECONDS));
+        PaymentRejectedException rejection = assertInstanceOf(PaymentRejectedException.class, failure.getCause());
+        assertEquals(429, rejection.getStatus());
+        assertEquals("ran", otherAccount);
+        assertTrue(running.get(5, TimeUnit.SECONDS));
+        assertEquals(1, meterRegistry.get("idempotency.payment.rejected")
+                .tag("reason", "ACCOUNT_QUEUE_FULL").counter().count());
+    }
+
+    @Test
+    @DisplayName("Backpressure: A rejection status that is not a 4xx or 5xx code fails at startup")
+    void shouldRefuseRejectionStatus_WhenNotAnErrorCode() {
+        // Arrange
+        Binder binder = new Binder(new MapConfigurationPropertySource(Map.of(
+                "app.idempotency.payment-executor.rejection-status", "200")));
+
+        // Act & Assert
+        BindException failure = assertThrows(BindException.class,
+                () -> binder.bindOrCreate("app.idempotency.payment-executor", Bindable.of(IdempotencyProperties.PaymentExecutor.class)));
+        assertInstanceOf(IllegalArgumentException.class, NestedExceptionUtils.getMostSpecificCause(failure));
+    }
+}
@@ -0,0 +1,106 @@
+package com.tyme.payment.service;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.exception.RateLimitExceededException;
+import com.tyme.payment.store.EmbeddedTokenBucketStore;
+import com.tyme.payment.store.TokenBucketStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AccountRateLimiterTest {
+
+    private final IdempotencyProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+            "app.idempotency.ttl-duration", "24h",
+            "app.idempotency.lock-duration", "30s",
+            "app.idempotency.rate-limit.capacity", "20",
+            "app.idempotency.rate-limit.refill-per-second", "1",
+            "app.idempotency.rate-limit.lease-size", "5",
+            "app.idempotency.rate-limit.lease-ttl", "1m")))
+            .bindOrCreate("app.idempotency", Bindable.of(IdempotencyProperties.class));
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final EmbeddedTokenBucketStore buckets = new EmbeddedTokenBucketStore(properties.rateLimit(), Clock.systemUTC());
+    private final AtomicInteger storeCalls = new AtomicInteger();
+
+    @Test
+    @DisplayName("Leasing: Tokens are fetched five at a time, and a spent account is refused without asking the store again")
+    void shouldSpendLeasedTokensLocally_AndRememberRefusal() {
+        // Arrange
+        AccountRateLimiter limiter = new AccountRateLimiter((bucket, needed, wanted) -> {
+            storeCalls.incrementAndGet();
+            return buckets.take(bucket, needed, wanted);
+        }, properties, meterRegistry);
+
+        // Act
+        for (int i = 0; i < 20; i++) {
+            limiter.acquire("ACC-1");
+        }
+        RateLimitExceededException refused = assertThrows(RateLimitExceededException.class, () -> limiter.acquire("ACC-1"));
+        assertThrows(RateLimitExceededException.class, () -> limiter.acquire("ACC-1"));
+        limiter.acquire("ACC-2", 3);
+
+        // Assert
+        assertEquals(6, storeCalls.get(), "4 leases and 1 refusal for ACC-1, 1 lease for ACC-2");
+        assertTrue(refused.getRetryAfter().compareTo(Duration.ZERO) > 0);
+        assertEquals(16, acquisitions("LEASED"));
+        assertEquals(5, acquisitions("FETCHED"));
+        assertEquals(2, acquisitions("REJECTED"));
+    }
+
+    @Test
+    @DisplayName("Degraded: An unreachable bucket store lets payments through instead of refusing them")
+    void shouldFailOpen_WhenStoreIsUnreachable() {
+        // Arrange
+        TokenBucketStore unreachable = (bucket, needed, wanted) -> {
+            storeCalls.incrementAndGet();
+            throw new IllegalStateException("Redis is down");
+        };
+        AccountRateLimiter limiter = new AccountRateLimiter(unreachable, properties, meterRegistry);
+
+        // Act & Assert
+        for (int i = 0; i < 10; i++) {
+            assertDoesNotThrow(() -> limiter.acquire("ACC-1"));
+        }
+        assertEquals(2, storeCalls.get(), "A failed call still leases, so the store is only retried per lease.");
+        assertEquals(2, acquisitions("STORE_FAILED"));
+    }
+
+    @Test
+    @DisplayName("Batches: Accounts are charged all or nothing, and tokens spent before a refusal are given back")
+    void shouldGiveBackTokens_WhenLaterAccountIsRefused() {
+        // Arrange
+        AccountRateLimiter limiter = new AccountRateLimiter((bucket, needed, wanted) -> {
+            storeCalls.incrementAndGet();
+            return buckets.take(bucket, needed, wanted);
+        }, properties, meterRegistry);
+        limiter.acquire("ACC-2", 20);
+
+        // Act
+        assertThrows(RateLimitExceededException.class, () -> limiter.acquire(new TreeMap<>(Map.of("ACC-1", 5, "ACC-2", 1))));
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire("ACC-1");
+        }
+
+        // Assert
+        assertEquals(3, storeCalls.get(), "ACC-1's five tokens came back to its lease, so spending them needs no store call.");
+        assertThrows(IllegalArgumentException.class, () -> limiter.acquire("ACC-1", 21));
+    }
+
+    private long acquisitions(String outcome) {
+        return meterRegistry.get("idempotency.rate-limit.acquire").tag("outcome", outcome).timer().count();
+    }
+}
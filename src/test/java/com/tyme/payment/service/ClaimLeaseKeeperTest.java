@@ -0,0 +1,82 @@
+package com.tyme.payment.service;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.config.IdempotencyStoreConfig;
+import com.tyme.payment.model.IdempotentResponse;
+import com.tyme.payment.store.Claim;
+import com.tyme.payment.store.EmbeddedIdempotencyStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClaimLeaseKeeperTest {
+
+    private static final Duration LEASE = Duration.ofMillis(600);
+    private static final byte[] FINGERPRINT = new byte[32];
+    private static final IdempotentResponse RESULT = new IdempotentResponse(201, null, FINGERPRINT);
+
+    private final IdempotencyProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+            "app.idempotency.ttl-duration", "24h",
+            "app.idempotency.lock-duration", LEASE.toMillis() + "ms",
+            "app.idempotency.store.type", "embedded")))
+            .bindOrCreate("app.idempotency", Bindable.of(IdempotencyProperties.class));
+    private final EmbeddedIdempotencyStore store = IdempotencyStoreConfig.embeddedStore(properties);
+    private final ClaimLeaseKeeper leaseKeeper = new ClaimLeaseKeeper(store, properties);
+
+    @AfterEach
+    void tearDown() {
+        leaseKeeper.destroy();
+        store.close();
+    }
+
+    @Test
+    @DisplayName("Lease: A held claim stays in progress well past its first lease")
+    void shouldKeepHeldClaimAlive() throws InterruptedException {
+        // Arrange
+        long fencingToken = store.claim("slow-payment", FINGERPRINT, LEASE).fencingToken();
+
+        // Act
+        try (ClaimLeaseKeeper.Lease lease = leaseKeeper.hold("slow-payment", fencingToken)) {
+            Thread.sleep(LEASE.multipliedBy(3).toMillis());
+
+            // Assert
+            assertFalse(lease.isLost());
+            assertEquals(Claim.Status.IN_PROGRESS, store.claim("slow-payment", FINGERPRINT, LEASE).status());
+            assertTrue(store.complete("slow-payment", fencingToken, RESULT, Duration.ofHours(1)));
+        }
+        assertEquals(0, leaseKeeper.heldLeases());
+    }
+
+    @Test
+    @DisplayName("Lease: A claim taken over by someone else is reported lost once it is due for renewal")
+    void shouldReportLostLease() throws InterruptedException {
+        // Arrange
+        long fencingToken = store.claim("taken-over", FINGERPRINT, LEASE).fencingToken();
+        ClaimLeaseKeeper.Lease lease = leaseKeeper.hold("taken-over", fencingToken);
+        store.delete("taken-over");
+        long takeover = store.claim("taken-over", FINGERPRINT, LEASE).fencingToken();
+
+        // Act
+        leaseKeeper.renewHeld();
+        boolean lostWithTimeLeft = lease.isLost();
+        Thread.sleep(LEASE.dividedBy(2).toMillis());
+        leaseKeeper.renewHeld();
+
+        // Assert
+        assertFalse(lostWithTimeLeft, "A lease with two renewal periods or more left is not renewed yet.");
+        assertTrue(lease.isLost());
+        assertEquals(0, leaseKeeper.heldLeases());
+        assertFalse(store.complete("taken-over", fencingToken, RESULT, Duration.ofHours(1)));
+        assertTrue(takeover > fencingToken);
+    }
+}
@@ -0,0 +1,137 @@
+package com.tyme.payment.service;
+
+import com.tyme.payment.codec.IdempotencyValueCodec;
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.config.RedisConfig;
+import com.tyme.payment.model.IdempotentResponse;
+import com.tyme.payment.store.EmbeddedIdempotencyStore;
+import com.tyme.payment.store.StoredKey;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdempotencyKeyAdminTest {
+
+    private static final byte[] FINGERPRINT = new byte[32];
+    private static final Duration LEASE = Duration.ofSeconds(30);
+
+    private final IdempotencyProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+            "app.idempotency.ttl-duration", "24h",
+            "app.idempotency.lock-duration", LEASE.toSeconds() + "s",
+            "app.idempotency.store.type", "embedded",
+            "app.idempotency.admin.scan-count", "10",
+            "app.idempotency.admin.unlink-batch-size", "3",
+            "app.idempotency.admin.max-keys-per-second", "100000")))
+            .bindOrCreate("app.idempotency", Bindable.of(IdempotencyProperties.class));
+    private final MutableClock clock = new MutableClock(Instant.parse("2026-01-01T00:00:00Z"));
+    private final EmbeddedIdempotencyStore store = new EmbeddedIdempotencyStore(properties.store().embedded(),
+            new IdempotencyValueCodec(RedisConfig.jsonValueSerializer(), IdempotencyValueCodec.WriteFormat.BINARY, 1024), clock);
+    private final IdempotencyNearCache nearCache = new IdempotencyNearCache(properties, null, new SimpleMeterRegistry());
+    private final IdempotencyKeyAdmin admin = new IdempotencyKeyAdmin(store, nearCache, properties);
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @Test
+    @DisplayName("Admin: A walk reports every matching key page by page, without removing anything")
+    void shouldListMatchingKeysPageByPage() throws Exception {
+        // Arrange
+        complete("order-", 25);
+        complete("refund-", 5);
+        List<IdempotencyKeyAdmin.Progress> pages = new ArrayList<>();
+
+        // Act
+        IdempotencyKeyAdmin.Progress last = admin.walk(query("order-", null, null), "0", false, pages::add);
+
+        // Assert
+        assertEquals(3, pages.size(), "25 keys at 10 keys per page.");
+        assertEquals(25, pages.stream().mapToInt(page -> page.keys().size()).sum());
+        assertTrue(pages.stream().flatMap(page -> page.keys().stream()).allMatch(key -> key.clientKey().startsWith("order-")));
+        assertEquals(10, pages.getFirst().matched());
+        assertTrue(last.done());
+        assertEquals(25, last.matched());
+        assertEquals(0, last.unlinked());
+        assertEquals(30, store.size());
+    }
+
+    @Test
+    @DisplayName("Admin: Removal unlinks only keys in the state and above the age asked for, and evicts them from the near cache")
+    void shouldUnlinkOldCompletedKeys() throws Exception {
+        // Arrange
+        complete("old-", 12);
+        clock.advance(Duration.ofHours(2));
+        complete("new-", 4);
+        store.claim("in-flight", FINGERPRINT, LEASE);
+        nearCache.put("old-0", new IdempotentResponse(201, null, FINGERPRINT), properties.ttlDuration());
+
+        // Act
+        IdempotencyKeyAdmin.Progress last = admin.walk(
+                query("", StoredKey.State.COMPLETED, Duration.ofHours(1)), "0", true, progress -> { });
+
+        // Assert
+        assertEquals(12, last.matched());
+        assertEquals(12, last.unlinked());
+        assertEquals(5, store.size(), "The new keys and the in-flight claim stay.");
+        assertNull(store.fetch("old-3"));
+        assertNull(nearCache.get("old-0"));
+    }
+
+    private static IdempotencyKeyAdmin.KeyQuery query(String prefix, StoredKey.State state, Duration minAge) {
+        return new IdempotencyKeyAdmin.KeyQuery(prefix, state, minAge, false, Long.MAX_VALUE);
+    }
+
+    private void complete(String prefix, int count) {
+        for (int i = 0; i < count; i++) {
+            String key = prefix + i;
+            long token = store.claim(key, FINGERPRINT, LEASE).fencingToken();
+            store.complete(key, token, new IdempotentResponse(201, null, FINGERPRINT), properties.ttlDuration());
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private volatile Instant now;
+
+        private MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        private void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.tyme.payment.service;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.config.IdempotencyStoreConfig;
+import com.tyme.payment.model.IdempotentResponse;
+import com.tyme.payment.store.EmbeddedIdempotencyStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdempotencyMemorySamplerTest {
+
+    private static final byte[] FINGERPRINT = new byte[32];
+
+    private final IdempotencyProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+            "app.idempotency.ttl-duration", "100s",
+            "app.idempotency.store.type", "embedded",
+            "app.idempotency.memory-sampler.enabled", "false")))
+            .bindOrCreate("app.idempotency", Bindable.of(IdempotencyProperties.class));
+    private final EmbeddedIdempotencyStore store = IdempotencyStoreConfig.embeddedStore(properties);
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @Test
+    @DisplayName("Memory sampler: Projects the steady-state keyspace from the claim rate and the TTL")
+    void shouldProjectSteadyStateSize() {
+        // Arrange
+        MutableClock clock = new MutableClock(Instant.parse("2026-01-01T00:00:00Z"));
+        IdempotencyMemorySampler sampler = new IdempotencyMemorySampler(store, properties, clock);
+        claim(10);
+        sampler.sample();
+
+        // Act - 20 claims over the next 10 seconds
+        claim(20);
+        clock.advance(Duration.ofSeconds(10));
+        IdempotencyMemorySampler.Snapshot snapshot = sampler.sample();
+
+        // Assert
+        assertEquals(30, snapshot.keyCount());
+        assertTrue(snapshot.averageEntryBytes() > 0);
+        assertEquals(2.0, snapshot.claimsPerSecond(), 0.001);
+        assertEquals(200, snapshot.projectedKeys(), "2 claims/s kept for 100s settle at 200 keys.");
+        assertEquals(200 * snapshot.averageEntryBytes(), snapshot.projectedBytes());
+    }
+
+    @Test
+    @DisplayName("Memory sampler: The endpoint reports nothing until the first run")
+    void shouldReportNothingBeforeFirstRun() {
+        IdempotencyMemorySampler sampler = new IdempotencyMemorySampler(store, properties);
+
+        assertNull(sampler.snapshot());
+        sampler.sample();
+        assertEquals(0, sampler.snapshot().keyCount());
+    }
+
+    private void claim(int count) {
+        for (int i = 0; i < count; i++) {
+            String key = "key-" + store.size();
+            long token = store.claim(key, FINGERPRINT, Duration.ofSeconds(30)).fencingToken();
+            store.complete(key, token, new IdempotentResponse(201, null, FINGERPRINT), properties.ttlDuration());
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private volatile Instant now;
+
+        private MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        private void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
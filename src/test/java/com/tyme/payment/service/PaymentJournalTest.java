@@ -0,0 +1,80 @@
+package com.tyme.payment.service;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.config.IdempotencyStoreConfig;
+import com.tyme.payment.model.IdempotentResponse;
+import com.tyme.payment.model.PaymentResponse;
+import com.tyme.payment.store.Claim;
+import com.tyme.payment.store.EmbeddedIdempotencyStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PaymentJournalTest {
+
+    private static final Duration LEASE = Duration.ofSeconds(30);
+    private static final Duration TTL = Duration.ofHours(24);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    @DisplayName("Journal: On startup, completed payments the store lost are restored and those it kept are left alone")
+    void shouldRestoreCompletedPaymentsTheStoreLost() throws Exception {
+        // Arrange
+        IdempotencyProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+                "app.idempotency.ttl-duration", "24h",
+                "app.idempotency.lock-duration", LEASE.toSeconds() + "s",
+                "app.idempotency.journal.enabled", "true",
+                "app.idempotency.journal.directory", directory.toString())))
+                .bindOrCreate("app.idempotency", Bindable.of(IdempotencyProperties.class));
+        IdempotentResponse lost = response("tx-lost", 1);
+        IdempotentResponse kept = response("tx-kept", 2);
+
+        try (EmbeddedIdempotencyStore before = IdempotencyStoreConfig.embeddedStore(properties)) {
+            PaymentJournal journal = new PaymentJournal(before, properties, meterRegistry);
+            journal.record("pay-lost", lost).join();
+            journal.record("pay-kept", kept).join();
+            journal.destroy();
+        }
+
+        // A flushed store that still holds one of the two results.
+        EmbeddedIdempotencyStore after = IdempotencyStoreConfig.embeddedStore(properties);
+        Claim claim = after.claim("pay-kept", kept.requestHash(), LEASE);
+        after.complete("pay-kept", claim.fencingToken(), kept, TTL);
+        PaymentJournal restarted = new PaymentJournal(after, properties, meterRegistry);
+
+        // Act
+        restarted.run(null);
+
+        // Assert
+        assertEquals(lost, after.fetch("pay-lost"));
+        assertEquals(kept, after.fetch("pay-kept"));
+        assertEquals(1.0, meterRegistry.get("idempotency.journal.restored").tag("outcome", "RESTORED").counter().count());
+        assertEquals(1.0, meterRegistry.get("idempotency.journal.restored").tag("outcome", "PRESENT").counter().count());
+        restarted.destroy();
+        after.close();
+    }
+
+    private static IdempotentResponse response(String transactionId, int fingerprintByte) {
+        byte[] fingerprint = new byte[32];
+        fingerprint[0] = (byte) fingerprintByte;
+        PaymentResponse body = new PaymentResponse(transactionId, "SUCCESS", new BigDecimal("100.00"), "PHP",
+                LocalDateTime.of(2026, 1, 1, 0, 0));
+        return new IdempotentResponse(201, body, fingerprint);
+    }
+}
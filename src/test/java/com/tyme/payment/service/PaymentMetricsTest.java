@@ -0,0 +1,92 @@
+package com.tyme.payment.service;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.config.IdempotencyStoreConfig;
+import com.tyme.payment.model.BatchPaymentItem;
+import com.tyme.payment.model.BatchPaymentResult;
+import com.tyme.payment.model.IdempotencyOutcome;
+import com.tyme.payment.model.PaymentRequest;
+import com.tyme.payment.model.PaymentResponse;
+import com.tyme.payment.store.EmbeddedTokenBucketStore;
+import com.tyme.payment.store.MeteredIdempotencyStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PaymentMetricsTest {
+
+    private final IdempotencyProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+            "app.idempotency.ttl-duration", "24h",
+            "app.idempotency.lock-duration", "30s",
+            "app.idempotency.store.type", "embedded",
+            "app.idempotency.near-cache.enabled", "false")))
+            .bindOrCreate("app.idempotency", Bindable.of(IdempotencyProperties.class));
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MeteredIdempotencyStore store =
+            new MeteredIdempotencyStore(IdempotencyStoreConfig.embeddedStore(properties), meterRegistry, "embedded");
+    private final ClaimLeaseKeeper leaseKeeper = new ClaimLeaseKeeper(store, properties);
+    private final PaymentService paymentService = new PaymentService(store, properties,
+            new IdempotencyNearCache(properties, null, meterRegistry), new RequestFingerprinter(),
+            new IdempotencyCompletionSignals(), leaseKeeper, new PaymentMetrics(meterRegistry, leaseKeeper),
+            new ResponseRenderer(Jackson2ObjectMapperBuilder.json().build()),
+            new AccountPaymentExecutor(properties, meterRegistry),
+            new AccountRateLimiter(new EmbeddedTokenBucketStore(properties.rateLimit(), Clock.systemUTC()), properties, meterRegistry),
+            new PaymentJournal(store, properties, meterRegistry));
+
+    @AfterEach
+    void tearDown() throws Exception {
+        leaseKeeper.destroy();
+        store.close();
+    }
+
+    @Test
+    @DisplayName("Metrics: Every outcome is counted once per request, with store and payment latencies recorded")
+    void shouldCountOutcomesAndTimeStoreCalls() {
+        // Arrange
+        PaymentRequest request = new PaymentRequest("ACC-1", new BigDecimal("10.00"), "PHP", "DEST-2");
+        PaymentRequest modified = new PaymentRequest("ACC-1", new BigDecimal("11.00"), "PHP", "DEST-2");
+
+        // Act
+        IdempotencyOutcome<PaymentResponse> created = paymentService.processPayment("metrics-1", request);
+        IdempotencyOutcome<PaymentResponse> replay = paymentService.processPayment("metrics-1", request, null);
+        paymentService.processPayment("metrics-1", modified);
+        List<BatchPaymentResult> batch = paymentService.processBatch(List.of(
+                new BatchPaymentItem("metrics-1", request),
+                new BatchPaymentItem("metrics-2", request)));
+
+        // Assert
+        assertEquals(1, outcomes("CREATED", "single"));
+        assertEquals(1, outcomes("ALREADY_EXISTS", "single"));
+        assertEquals(1, outcomes("DATA_MISMATCH", "single"));
+        assertEquals(1, outcomes("ALREADY_EXISTS", "batch"));
+        assertEquals(1, outcomes("CREATED", "batch"));
+        assertEquals(created.data(), replay.data(), "Replays read their data back from the stored body.");
+        assertEquals(created.data(), batch.getFirst().data());
+        assertEquals(3, storeCalls("claim"));
+        assertEquals(1, storeCalls("claim_all"));
+        assertEquals(1, storeCalls("complete"));
+        assertEquals(2, meterRegistry.get("idempotency.payment.execution").timer().count());
+        assertEquals(0, meterRegistry.get("idempotency.claims.in-flight").gauge().value());
+        assertEquals(0, meterRegistry.get("idempotency.store.unexpected-state").counter().count());
+    }
+
+    private double outcomes(String outcome, String mode) {
+        return meterRegistry.get("idempotency.outcomes").tags("outcome", outcome, "mode", mode).counter().count();
+    }
+
+    private long storeCalls(String operation) {
+        return meterRegistry.get("idempotency.store.requests").tags("store", "embedded", "operation", operation).timer().count();
+    }
+}
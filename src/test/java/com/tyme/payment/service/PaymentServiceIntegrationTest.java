@@ -1,25 +1,52 @@
 package com.tyme.payment.service;
 
 import com.tyme.payment.BaseRedisIntegrationTest;
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.exception.BatchSizeExceededException;
+import com.tyme.payment.model.BatchPaymentItem;
+import com.tyme.payment.model.BatchPaymentResult;
 import com.tyme.payment.model.IdempotencyOutcome;
+import com.tyme.payment.model.IdempotentResponse;
 import com.tyme.payment.model.PaymentRequest;
 import com.tyme.payment.model.PaymentResponse;
+import com.tyme.payment.store.Claim;
+import com.tyme.payment.store.IdempotencyStore;
+import com.tyme.payment.store.KeyPage;
+import com.tyme.payment.store.KeyspaceSample;
+import com.tyme.payment.store.RedisIdempotencyStore;
+import com.tyme.payment.store.RedisKeyLayout;
+import com.tyme.payment.store.StoredKey;
+import com.tyme.payment.store.TokenBucketStore;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SpringBootTest
@@ -28,6 +55,27 @@ class PaymentServiceIntegrationTest extends BaseRedisIntegrationTest {
     @Autowired
     private PaymentService paymentService;
 
+    @Autowired
+    private IdempotencyNearCache nearCache;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RequestFingerprinter fingerprinter;
+
+    @Autowired
+    private IdempotencyProperties properties;
+
+    @Autowired
+    private IdempotencyKeyAdmin keyAdmin;
+
+    @Autowired
+    private TokenBucketStore tokenBuckets;
+
     @Test
     @DisplayName("Requirement 3: Return cached response when same key is reused")
     void shouldReturnCachedResponse_WhenKeyIsReused() {
@@ -46,6 +94,8 @@ class PaymentServiceIntegrationTest extends BaseRedisIntegrationTest {
         assertEquals(IdempotencyOutcome.OutcomeStatus.ALREADY_EXISTS, secondOutcome.status());
         assertEquals(firstOutcome.data().transactionId(), secondOutcome.data().transactionId(),
                 "The replayed transaction ID must be identical to the original.");
+        assertArrayEquals(firstOutcome.body().content(), secondOutcome.body().content(),
+                "The replayed body must be byte-identical to the original.");
     }
 
     @Test
@@ -131,4 +181,342 @@ class PaymentServiceIntegrationTest extends BaseRedisIntegrationTest {
         assertEquals(IdempotencyOutcome.OutcomeStatus.CREATED, outcome.status(),
                 "After expiration, the same key should be treated as a new request.");
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Near Cache: Replays are answered locally and invalidated by manual deletion")
+    void shouldServeReplaysFromNearCache_UntilKeyIsCleared() {
+        // Arrange
+        String key = "near-cache-" + UUID.randomUUID();
+        PaymentRequest request = new PaymentRequest("ACC-7", new BigDecimal("75.00"), "PHP", "DEST-8");
+        var firstOutcome = paymentService.processPayment(key, request);
+        long hitsBefore = nearCache.stats().hitCount();
+
+        // Act
+        var replayOutcome = paymentService.processPayment(key, request);
+        paymentService.clearKeyManual(key);
+
+        // Assert
+        assertEquals(IdempotencyOutcome.OutcomeStatus.ALREADY_EXISTS, replayOutcome.status());
+        assertEquals(firstOutcome.data().transactionId(), replayOutcome.data().transactionId());
+        assertEquals(hitsBefore + 1, nearCache.stats().hitCount(), "Replay should be served from the near cache.");
+        assertNull(nearCache.get(key), "Manual deletion must evict the near cache entry.");
+    }
+
+    @Test
+    @DisplayName("Rollout: In-flight claims written with the old string layout are still honoured")
+    void shouldReportInProgress_ForLegacyStringClaim() {
+        // Arrange
+        String key = "legacy-claim-" + UUID.randomUUID();
+        PaymentRequest request = new PaymentRequest("ACC-1", new BigDecimal("20"), "PHP", "DEST-2");
+        redisTemplate.opsForValue().set(key, "PROCESSING");
+
+        // Act
+        var outcome = paymentService.processPayment(key, request);
+
+        // Assert
+        assertEquals(IdempotencyOutcome.OutcomeStatus.IN_PROGRESS, outcome.status());
+    }
+
+    @Test
+    @DisplayName("Rollout: Keys completed with the old hex request hash still replay for the same payload")
+    void shouldReplay_ForLegacyHexHashEntry() {
+        // Arrange
+        String key = "legacy-hash-" + UUID.randomUUID();
+        PaymentRequest request = new PaymentRequest("ACC-1", new BigDecimal("20"), "PHP", "DEST-2");
+        PaymentRequest modified = new PaymentRequest("ACC-1", new BigDecimal("21"), "PHP", "DEST-2");
+        String legacyHash = DigestUtils.sha256Hex("ACC-1" + "20" + "DEST-2");
+        PaymentResponse original = new PaymentResponse("txn-legacy", "SUCCESS", new BigDecimal("20"), "PHP", LocalDateTime.now());
+        stringRedisTemplate.opsForHash().putAll(key, Map.of("h", legacyHash, "s", "COMPLETED"));
+        redisTemplate.opsForHash().put(key, "v",
+                new IdempotentResponse(201, original, legacyHash.getBytes(StandardCharsets.US_ASCII)));
+
+        // Act
+        var modifiedOutcome = paymentService.processPayment(key, modified);
+        var replayOutcome = paymentService.processPayment(key, request);
+
+        // Assert
+        assertEquals(IdempotencyOutcome.OutcomeStatus.DATA_MISMATCH, modifiedOutcome.status());
+        assertEquals(IdempotencyOutcome.OutcomeStatus.ALREADY_EXISTS, replayOutcome.status());
+        assertEquals("txn-legacy", replayOutcome.data().transactionId());
+    }
+
+    @Test
+    @DisplayName("Batch: New, replayed, mismatched and duplicate keys keep single-request semantics")
+    void shouldApplyIdempotencyPerItem_ForBatch() {
+        // Arrange
+        String existingKey = "batch-existing-" + UUID.randomUUID();
+        String newKey = "batch-new-" + UUID.randomUUID();
+        PaymentRequest request = new PaymentRequest("ACC-1", new BigDecimal("30.00"), "PHP", "DEST-2");
+        PaymentRequest modified = new PaymentRequest("ACC-1", new BigDecimal("31.00"), "PHP", "DEST-2");
+        var original = paymentService.processPayment(existingKey, request);
+        nearCache.invalidateEverywhere(existingKey); // force the replay through the pipelined claim
+
+        // Act
+        List<BatchPaymentResult> results = paymentService.processBatch(List.of(
+                new BatchPaymentItem(newKey, request),
+                new BatchPaymentItem(existingKey, request),
+                new BatchPaymentItem(existingKey, modified),
+                new BatchPaymentItem(newKey, request)));
+        var replay = paymentService.processPayment(newKey, request);
+
+        // Assert
+        assertEquals(IdempotencyOutcome.OutcomeStatus.CREATED, results.get(0).status());
+        assertEquals(IdempotencyOutcome.OutcomeStatus.ALREADY_EXISTS, results.get(1).status());
+        assertEquals(original.data().transactionId(), results.get(1).data().transactionId());
+        assertEquals(IdempotencyOutcome.OutcomeStatus.DATA_MISMATCH, results.get(2).status());
+        assertEquals(IdempotencyOutcome.OutcomeStatus.IN_PROGRESS, results.get(3).status(),
+                "A key repeated within one batch must not be processed twice.");
+        assertEquals(results.get(0).data().transactionId(), replay.data().transactionId(),
+                "Batch results must be stored for later replays.");
+    }
+
+    @Test
+    @DisplayName("Batch: Batches above the configured cap are rejected before touching Redis")
+    void shouldRejectBatch_AboveMaxItems() {
+        // Arrange
+        PaymentRequest request = new PaymentRequest("ACC-1", new BigDecimal("1"), "PHP", "DEST-2");
+        List<BatchPaymentItem> items = IntStream.rangeClosed(0, 500)
+                .mapToObj(i -> new BatchPaymentItem("batch-cap-" + i, request))
+                .toList();
+
+        // Act & Assert
+        assertThrows(BatchSizeExceededException.class, () -> paymentService.processBatch(items));
+    }
+
+    @Test
+    @DisplayName("Wait-for-completion: A duplicate parks until another node completes the key, then replays")
+    void shouldReplay_WhenWaitingDuplicateIsWokenByCompletion() throws Exception {
+        // Arrange - another node holds the claim
+        String key = "waiting-" + UUID.randomUUID();
+        PaymentRequest request = new PaymentRequest("ACC-1", new BigDecimal("40.00"), "PHP", "DEST-2");
+        claimElsewhere(key, request);
+        PaymentResponse original = new PaymentResponse("txn-remote", "SUCCESS", new BigDecimal("40.00"), "PHP", LocalDateTime.now());
+
+        // Act - the other node completes while we wait
+        CompletableFuture<Void> remoteCompletion = CompletableFuture.runAsync(() -> {
+            sleep(300);
+            String redisKey = keyLayout().redisKey(key);
+            redisTemplate.opsForHash().put(redisKey, "v", new IdempotentResponse(201, original, fingerprinter.fingerprint(request)));
+            stringRedisTemplate.opsForHash().put(redisKey, "s", "COMPLETED");
+            stringRedisTemplate.convertAndSend("idempotency:completions", key);
+        });
+        long started = System.nanoTime();
+        var outcome = paymentService.processPayment(key, request, Duration.ofSeconds(5));
+        remoteCompletion.join();
+
+        // Assert
+        assertEquals(IdempotencyOutcome.OutcomeStatus.ALREADY_EXISTS, outcome.status());
+        assertEquals("txn-remote", outcome.data().transactionId());
+        assertTrue(Duration.ofNanos(System.nanoTime() - started).compareTo(Duration.ofSeconds(4)) < 0,
+                "Waiter must be woken by the completion signal, not the deadline.");
+    }
+
+    @Test
+    @DisplayName("Wait-for-completion: A duplicate still gets IN_PROGRESS once its wait runs out")
+    void shouldReportInProgress_WhenWaitExpires() {
+        // Arrange
+        String key = "waiting-timeout-" + UUID.randomUUID();
+        PaymentRequest request = new PaymentRequest("ACC-1", new BigDecimal("41.00"), "PHP", "DEST-2");
+        claimElsewhere(key, request);
+
+        // Act
+        var outcome = paymentService.processPayment(key, request, Duration.ofMillis(300));
+
+        // Assert
+        assertEquals(IdempotencyOutcome.OutcomeStatus.IN_PROGRESS, outcome.status());
+    }
+
+    @Test
+    @DisplayName("Lease: Completed results are kept for ttl-duration; a superseded claim cannot overwrite them")
+    void shouldKeepResultForTtl_AndFenceOffSupersededClaim() {
+        // Arrange
+        String key = "lease-" + UUID.randomUUID();
+        PaymentRequest request = new PaymentRequest("ACC-1", new BigDecimal("42.00"), "PHP", "DEST-2");
+        byte[] fingerprint = fingerprinter.fingerprint(request);
+        IdempotencyStore store = new RedisIdempotencyStore(redisTemplate, properties);
+        Claim first = store.claim(key, fingerprint, properties.lockDuration());
+
+        // Act - the first holder's lease lapses and another caller takes over
+        store.delete(key);
+        Claim takeover = store.claim(key, fingerprint, properties.lockDuration());
+        IdempotentResponse result = new IdempotentResponse(201, null, fingerprint);
+        boolean staleWrite = store.complete(key, first.fencingToken(), result, properties.ttlDuration());
+        boolean ownerWrite = store.complete(key, takeover.fencingToken(), result, properties.ttlDuration());
+
+        // Assert
+        assertTrue(takeover.fencingToken() > first.fencingToken());
+        assertFalse(staleWrite, "A holder whose lease lapsed must not store its result.");
+        assertTrue(ownerWrite);
+        long ttlMillis = stringRedisTemplate.getExpire(keyLayout().redisKey(key), TimeUnit.MILLISECONDS);
+        assertTrue(ttlMillis > properties.lockDuration().toMillis(), "Results must outlive the claim lease.");
+    }
+
+    @Test
+    @DisplayName("Keys: Stored under the tenant namespace, with over-long client keys hashed to a bounded length")
+    void shouldNamespaceAndBoundRedisKeys() {
+        // Arrange
+        String shortKey = "keys-" + UUID.randomUUID();
+        String longKey = shortKey + "-" + "x".repeat(200);
+        PaymentRequest request = new PaymentRequest("ACC-1", new BigDecimal("43.00"), "PHP", "DEST-2");
+
+        // Act
+        paymentService.processPayment(shortKey, request);
+        var first = paymentService.processPayment(longKey, request);
+        var replay = paymentService.processPayment(longKey, request);
+
+        // Assert
+        String prefix = properties.keys().prefix() + ":" + properties.keys().tenant() + ":";
+        assertEquals(Boolean.TRUE, redisTemplate.hasKey(prefix + shortKey));
+        assertEquals(Boolean.FALSE, redisTemplate.hasKey(shortKey));
+        String hashedKey = keyLayout().redisKey(longKey);
+        assertEquals(Boolean.TRUE, redisTemplate.hasKey(hashedKey));
+        assertEquals(prefix.length() + 44, hashedKey.length(), "Over-long keys must be stored as '#' plus a SHA-256.");
+        assertEquals(IdempotencyOutcome.OutcomeStatus.ALREADY_EXISTS, replay.status());
+        assertEquals(first.data().transactionId(), replay.data().transactionId());
+    }
+
+    @Test
+    @DisplayName("Memory sampler: Counts namespaced keys, measures them and projects the steady-state size")
+    void shouldSampleKeyspaceMemory() {
+        // Arrange
+        PaymentRequest request = new PaymentRequest("ACC-1", new BigDecimal("44.00"), "PHP", "DEST-2");
+        for (int i = 0; i < 5; i++) {
+            paymentService.processPayment("sampled-" + UUID.randomUUID(), request);
+        }
+        IdempotencyStore store = new RedisIdempotencyStore(redisTemplate, properties);
+
+        // Act
+        KeyspaceSample sample = store.sampleKeyspace(3, 100);
+
+        // Assert
+        assertTrue(sample.keyCount() >= 5);
+        assertEquals(3, sample.sampledKeys());
+        assertTrue(sample.averageEntryBytes() > 0);
+        assertTrue(sample.claimsIssued() >= 5, "The fencing counter counts every claim issued.");
+    }
+
+    @Test
+    @DisplayName("Async: Concurrent non-blocking requests create exactly one payment; later ones replay or mismatch")
+    void shouldKeepIdempotency_OnAsyncPath() {
+        // Arrange - an empty script cache makes the first calls fall back from EVALSHA to EVAL
+        String key = "async-" + UUID.randomUUID();
+        PaymentRequest request = new PaymentRequest("ACC-1", new BigDecimal("45.00"), "PHP", "DEST-2");
+        PaymentRequest modified = new PaymentRequest("ACC-1", new BigDecimal("46.00"), "PHP", "DEST-2");
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.scriptingCommands().scriptFlush();
+            return null;
+        });
+
+        // Act
+        List<CompletableFuture<IdempotencyOutcome<PaymentResponse>>> concurrent = IntStream.range(0, 10)
+                .mapToObj(i -> paymentService.processPaymentAsync(key, request, Duration.ZERO))
+                .toList();
+        List<IdempotencyOutcome<PaymentResponse>> outcomes = concurrent.stream().map(CompletableFuture::join).toList();
+        var replay = paymentService.processPaymentAsync(key, request, Duration.ZERO).join();
+        var mismatch = paymentService.processPaymentAsync(key, modified, Duration.ZERO).join();
+
+        // Assert
+        List<IdempotencyOutcome<PaymentResponse>> created = outcomes.stream()
+                .filter(o -> o.status() == IdempotencyOutcome.OutcomeStatus.CREATED).toList();
+        assertEquals(1, created.size(), "Exactly one request should have been processed.");
+        assertEquals(IdempotencyOutcome.OutcomeStatus.ALREADY_EXISTS, replay.status());
+        assertEquals(created.getFirst().data().transactionId(), replay.data().transactionId());
+        assertEquals(IdempotencyOutcome.OutcomeStatus.DATA_MISMATCH, mismatch.status());
+    }
+
+    @Test
+    @DisplayName("Async: A waiting duplicate is completed by the original's completion signal")
+    void shouldReplay_WhenAsyncWaiterIsWokenByCompletion() {
+        // Arrange - another node holds the claim
+        String key = "async-waiting-" + UUID.randomUUID();
+        PaymentRequest request = new PaymentRequest("ACC-1", new BigDecimal("47.00"), "PHP", "DEST-2");
+        claimElsewhere(key, request);
+        PaymentResponse original = new PaymentResponse("txn-remote-async", "SUCCESS", new BigDecimal("47.00"), "PHP", LocalDateTime.now());
+
+        // Act
+        CompletableFuture<IdempotencyOutcome<PaymentResponse>> waiting =
+                paymentService.processPaymentAsync(key, request, Duration.ofSeconds(5));
+        sleep(300);
+        String redisKey = keyLayout().redisKey(key);
+        redisTemplate.opsForHash().put(redisKey, "v", new IdempotentResponse(201, original, fingerprinter.fingerprint(request)));
+        stringRedisTemplate.opsForHash().put(redisKey, "s", "COMPLETED");
+        stringRedisTemplate.convertAndSend("idempotency:completions", key);
+        var outcome = waiting.orTimeout(4, TimeUnit.SECONDS).join();
+
+        // Assert
+        assertEquals(IdempotencyOutcome.OutcomeStatus.ALREADY_EXISTS, outcome.status());
+        assertEquals("txn-remote-async", outcome.data().transactionId());
+    }
+
+    @Test
+    @DisplayName("Admin: Keys are walked with SCAN and unlinked by prefix and state, stuck legacy claims included")
+    void shouldUnlinkKeysByPrefix_IncludingStuckLegacyClaims() throws Exception {
+        // Arrange
+        String prefix = "purge-" + UUID.randomUUID() + "-";
+        String kept = "kept-" + UUID.randomUUID();
+        PaymentRequest request = new PaymentRequest("ACC-1", new BigDecimal("48.00"), "PHP", "DEST-2");
+        for (int i = 0; i < 5; i++) {
+            paymentService.processPayment(prefix + i, request);
+        }
+        paymentService.processPayment(kept, request);
+        redisTemplate.opsForValue().set(prefix + "stuck", "PROCESSING");
+        List<StoredKey> stuck = new ArrayList<>();
+
+        // Act
+        var completed = keyAdmin.walk(new IdempotencyKeyAdmin.KeyQuery(prefix, StoredKey.State.COMPLETED, null, false,
+                Long.MAX_VALUE), KeyPage.START, true, progress -> { });
+        var legacy = keyAdmin.walk(new IdempotencyKeyAdmin.KeyQuery(prefix, StoredKey.State.PROCESSING, Duration.ofDays(365),
+                true, Long.MAX_VALUE), KeyPage.START, true, progress -> stuck.addAll(progress.keys()));
+
+        // Assert
+        assertEquals(5, completed.unlinked());
+        assertEquals(1, legacy.unlinked());
+        assertNull(stuck.getFirst().remainingTtl(), "A claim without expiry counts as older than any bound.");
+        assertEquals(Boolean.FALSE, redisTemplate.hasKey(prefix + "stuck"));
+        assertEquals(IdempotencyOutcome.OutcomeStatus.CREATED, paymentService.processPayment(prefix + "0", request).status());
+        assertEquals(IdempotencyOutcome.OutcomeStatus.ALREADY_EXISTS, paymentService.processPayment(kept, request).status());
+    }
+
+    @Test
+    @DisplayName("Rate Limit: A Redis token bucket hands out what it holds, refuses more, and expires once idle")
+    void shouldTakeTokensFromRedisBucket_UntilSpent() {
+        // Arrange
+        String account = "ACC-" + UUID.randomUUID();
+
+        // Act
+        TokenBucketStore.Grant lease = tokenBuckets.take(account, 1, 150);
+        TokenBucketStore.Grant tooMany = tokenBuckets.take(account, 100, 100);
+        TokenBucketStore.Grant rest = tokenBuckets.take(account, 1, 40);
+
+        // Assert
+        assertEquals(150, lease.taken());
+        assertTrue(tooMany.denied());
+        assertTrue(tooMany.retryAfter().compareTo(Duration.ofMillis(400)) >= 0, "50 tokens at 100/s take about 500ms.");
+        assertEquals(40, rest.taken(), "About 50 are left, and a grant never exceeds what was asked for.");
+        Long ttl = stringRedisTemplate.getExpire("idempotency:rate:default:" + account, TimeUnit.MILLISECONDS);
+        assertTrue(ttl > 0 && ttl <= 2_001, "Even an empty bucket refills within 2s: " + ttl);
+    }
+
+    private void claimElsewhere(String key, PaymentRequest request) {
+        byte[] fingerprint = fingerprinter.fingerprint(request);
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.hashCommands().hMSet(keyLayout().redisKey(key).getBytes(StandardCharsets.UTF_8), Map.of(
+                    "h".getBytes(StandardCharsets.UTF_8), fingerprint,
+                    "s".getBytes(StandardCharsets.UTF_8), "PROCESSING".getBytes(StandardCharsets.UTF_8),
+                    "t".getBytes(StandardCharsets.UTF_8), "other-node".getBytes(StandardCharsets.UTF_8)));
+            return null;
+        });
+    }
+
+    private RedisKeyLayout keyLayout() {
+        return new RedisKeyLayout(properties.keys());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.tyme.payment.service;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.config.IdempotencyStoreConfig;
+import com.tyme.payment.exception.BatchSizeExceededException;
+import com.tyme.payment.exception.RateLimitExceededException;
+import com.tyme.payment.model.BatchPaymentItem;
+import com.tyme.payment.model.IdempotencyOutcome;
+import com.tyme.payment.model.PaymentRequest;
+import com.tyme.payment.store.Claim;
+import com.tyme.payment.store.EmbeddedIdempotencyStore;
+import com.tyme.payment.store.EmbeddedTokenBucketStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+class PaymentServiceRateLimitTest {
+
+    private final IdempotencyProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+            "app.idempotency.ttl-duration", "24h",
+            "app.idempotency.lock-duration", "30s",
+            "app.idempotency.store.type", "embedded",
+            "app.idempotency.near-cache.enabled", "false",
+            "app.idempotency.rate-limit.capacity", "3",
+            "app.idempotency.rate-limit.refill-per-second", "0.001",
+            "app.idempotency.rate-limit.lease-size", "1")))
+            .bindOrCreate("app.idempotency", Bindable.of(IdempotencyProperties.class));
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final EmbeddedIdempotencyStore store = spy(IdempotencyStoreConfig.embeddedStore(properties));
+    private final ClaimLeaseKeeper leaseKeeper = new ClaimLeaseKeeper(store, properties);
+    private final PaymentService paymentService = new PaymentService(store, properties,
+            new IdempotencyNearCache(properties, null, meterRegistry), new RequestFingerprinter(),
+            new IdempotencyCompletionSignals(), leaseKeeper, new PaymentMetrics(meterRegistry, leaseKeeper),
+            new ResponseRenderer(Jackson2ObjectMapperBuilder.json().build()),
+            new AccountPaymentExecutor(properties, meterRegistry),
+            new AccountRateLimiter(new EmbeddedTokenBucketStore(properties.rateLimit(), Clock.systemUTC()), properties, meterRegistry),
+            new PaymentJournal(store, properties, meterRegistry));
+    private final PaymentRequest request = new PaymentRequest("ACC-1", new BigDecimal("10.00"), "PHP", "DEST-2");
+
+    @AfterEach
+    void tearDown() throws Exception {
+        leaseKeeper.destroy();
+        store.close();
+    }
+
+    @Test
+    @DisplayName("Rate Limit: Replays spend no tokens, and a refused payment releases its key for a later retry")
+    void shouldChargeOnlyNewClaims() {
+        // Arrange
+        paymentService.processPayment("limit-1", request);
+
+        // Act
+        for (int i = 0; i < 5; i++) {
+            assertEquals(IdempotencyOutcome.OutcomeStatus.ALREADY_EXISTS, paymentService.processPayment("limit-1", request).status());
+        }
+        paymentService.processPayment("limit-2", request);
+        paymentService.processPayment("limit-3", request);
+
+        // Assert
+        assertEquals(IdempotencyOutcome.OutcomeStatus.ALREADY_EXISTS, paymentService.processPayment("limit-3", request).status());
+        assertThrows(RateLimitExceededException.class, () -> paymentService.processPayment("limit-4", request));
+        assertEquals(Claim.Status.CLAIMED, claim("limit-4"), "The refused key must be free to retry.");
+    }
+
+    @Test
+    @DisplayName("Rate Limit: Once an account is refused, its next payments are turned away without claiming a key")
+    void shouldNotClaimForDeniedAccount() {
+        // Arrange
+        for (int i = 0; i < 3; i++) {
+            paymentService.processPayment("denied-" + i, request);
+        }
+        assertThrows(RateLimitExceededException.class, () -> paymentService.processPayment("denied-3", request));
+
+        // Act & Assert
+        assertThrows(RateLimitExceededException.class, () -> paymentService.processPayment("denied-4", request));
+        CompletionException asyncError = assertThrows(CompletionException.class,
+                () -> paymentService.processPaymentAsync("denied-5", request, Duration.ZERO).join());
+        assertInstanceOf(RateLimitExceededException.class, asyncError.getCause());
+        assertThrows(RateLimitExceededException.class,
+                () -> paymentService.processBatch(List.of(new BatchPaymentItem("denied-6", request))));
+        verify(store, never()).claim(eq("denied-4"), any(), any());
+        verify(store, never()).claimAsync(eq("denied-5"), any(), any());
+        verify(store, never()).claimAll(any());
+    }
+
+    @Test
+    @DisplayName("Rate Limit: A batch whose new payments the account cannot afford claims nothing, and one above capacity is a 400")
+    void shouldRefuseBatchAsAWhole() {
+        // Arrange
+        paymentService.processPayment("batch-limit-0", request);
+        List<BatchPaymentItem> affordable = List.of(
+                new BatchPaymentItem("batch-limit-0", request),
+                new BatchPaymentItem("batch-limit-1", request),
+                new BatchPaymentItem("batch-limit-2", request));
+        List<BatchPaymentItem> unaffordable = List.of(new BatchPaymentItem("batch-limit-3", request));
+        List<BatchPaymentItem> aboveCapacity = IntStream.range(0, 4)
+                .mapToObj(i -> new BatchPaymentItem("batch-limit-big-" + i, request))
+                .toList();
+
+        // Act
+        paymentService.processBatch(affordable);
+
+        // Assert
+        assertThrows(RateLimitExceededException.class, () -> paymentService.processBatch(unaffordable));
+        assertEquals(Claim.Status.CLAIMED, claim("batch-limit-3"), "The refused batch's claims must be released.");
+        assertThrows(BatchSizeExceededException.class, () -> paymentService.processBatch(aboveCapacity));
+    }
+
+    private Claim.Status claim(String key) {
+        return store.claim(key, new RequestFingerprinter().fingerprint(request), properties.lockDuration()).status();
+    }
+}
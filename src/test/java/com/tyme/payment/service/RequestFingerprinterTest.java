@@ -0,0 +1,54 @@
+package com.tyme.payment.service;
+
+import com.tyme.payment.model.PaymentRequest;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestFingerprinterTest {
+
+    private final RequestFingerprinter fingerprinter = new RequestFingerprinter();
+
+    @Test
+    @DisplayName("Fingerprints are 32 bytes and equal for canonically equal requests")
+    void shouldCanonicalizeAmountAndCurrency() {
+        byte[] fingerprint = fingerprinter.fingerprint(new PaymentRequest("ACC-1", new BigDecimal("100.0"), "php", "DEST-2"));
+
+        assertEquals(RequestFingerprinter.FINGERPRINT_LENGTH, fingerprint.length);
+        assertArrayEquals(fingerprint, fingerprinter.fingerprint(new PaymentRequest("ACC-1", new BigDecimal("100.00"), "PHP", "DEST-2")));
+        assertArrayEquals(fingerprint, fingerprinter.fingerprint(new PaymentRequest("ACC-1", new BigDecimal("1E+2"), "PHP", "DEST-2")));
+    }
+
+    @Test
+    @DisplayName("Field boundaries and currency are part of the fingerprint")
+    void shouldDistinguishShiftedFieldsAndCurrency() {
+        byte[] fingerprint = fingerprinter.fingerprint(new PaymentRequest("ACC-1", new BigDecimal("100"), "PHP", "DEST-2"));
+
+        // The old concatenated hash could not tell these apart.
+        assertFalse(Arrays.equals(fingerprint,
+                fingerprinter.fingerprint(new PaymentRequest("ACC-", new BigDecimal("100"), "PHP", "1DEST-2"))));
+        assertFalse(Arrays.equals(fingerprint,
+                fingerprinter.fingerprint(new PaymentRequest("ACC-1", new BigDecimal("100"), "USD", "DEST-2"))));
+        assertFalse(Arrays.equals(fingerprint,
+                fingerprinter.fingerprint(new PaymentRequest("ACC-1", new BigDecimal("1000"), "PHP", "DEST-2"))));
+    }
+
+    @Test
+    @DisplayName("Rollout: stored hex hashes from the old algorithm still match the same request")
+    void shouldMatchLegacyHexHash() {
+        PaymentRequest request = new PaymentRequest("ACC-1", new BigDecimal("20"), "PHP", "DEST-2");
+        PaymentRequest modified = new PaymentRequest("ACC-1", new BigDecimal("21"), "PHP", "DEST-2");
+        byte[] legacy = RequestFingerprinter.legacyHash(request);
+
+        assertTrue(RequestFingerprinter.isLegacy(legacy));
+        assertTrue(fingerprinter.matches(legacy, fingerprinter.fingerprint(request), request));
+        assertFalse(fingerprinter.matches(legacy, fingerprinter.fingerprint(modified), modified));
+    }
+}
@@ -0,0 +1,160 @@
+package com.tyme.payment.store;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.model.IdempotentResponse;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CoalescingIdempotencyStoreTest {
+
+    private static final Duration LEASE = Duration.ofSeconds(30);
+    private static final Duration TTL = Duration.ofHours(24);
+    private static final byte[] FINGERPRINT = new byte[32];
+    private static final IdempotentResponse RESULT = new IdempotentResponse(201, null, FINGERPRINT);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final IdempotencyStore delegate = mock(IdempotencyStore.class);
+    private CoalescingIdempotencyStore store;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        store.close();
+    }
+
+    @Test
+    @DisplayName("Coalescing: A command sent while nothing else is pending goes straight to the store")
+    void shouldSendLoneCommandDirectly() {
+        // Arrange
+        store = coalescing("1s", 4);
+        when(delegate.claimAsync(eq("pay-1"), any(), any())).thenReturn(CompletableFuture.completedFuture(Claim.claimed(1)));
+        when(delegate.completeAsync(eq("pay-1"), eq(1L), any(), any())).thenReturn(CompletableFuture.completedFuture(true));
+
+        // Act
+        Claim claim = store.claim("pay-1", FINGERPRINT, LEASE);
+        boolean completed = store.complete("pay-1", 1, RESULT, TTL);
+
+        // Assert
+        assertEquals(1, claim.fencingToken());
+        assertTrue(completed);
+        verify(delegate, times(0)).claimAll(anyList());
+        verify(delegate, times(0)).finishAll(anyList());
+        assertEquals(0, meterRegistry.get("idempotency.store.coalesced.batch").tag("operation", "claim").summary().count());
+    }
+
+    @Test
+    @DisplayName("Coalescing: Concurrent claims go to the store as one batch and each caller gets its own reply")
+    void shouldSendConcurrentClaimsAsOneBatch() {
+        // Arrange
+        store = coalescing("1s", 4);
+        CompletableFuture<Claim> first = holdClaims();
+        when(delegate.claimAll(anyList())).thenAnswer(invocation -> {
+            List<IdempotencyStore.ClaimCommand> commands = invocation.getArgument(0);
+            List<Claim> claims = new ArrayList<>();
+            for (IdempotencyStore.ClaimCommand command : commands) {
+                claims.add(Claim.claimed(Long.parseLong(command.key().substring("pay-".length()))));
+            }
+            return claims;
+        });
+
+        // Act: the batch is full, so it goes out long before the window ends.
+        List<CompletableFuture<Claim>> claims = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            claims.add(store.claimAsync("pay-" + i, FINGERPRINT, LEASE));
+        }
+
+        // Assert
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, claims.get(i - 1).join().fencingToken());
+        }
+        verify(delegate, times(1)).claimAll(anyList());
+        first.complete(Claim.claimed(0));
+        DistributionSummary batchSize = meterRegistry.get("idempotency.store.coalesced.batch").tag("operation", "claim").summary();
+        assertEquals(1, batchSize.count());
+        assertEquals(4.0, batchSize.totalAmount());
+    }
+
+    @Test
+    @DisplayName("Coalescing: Completions and releases share a batch, and an unreadable reply fails only its own caller")
+    void shouldIsolateUnreadableRepliesAndMixFinishes() {
+        // Arrange
+        store = coalescing("1s", 2);
+        CompletableFuture<Claim> firstClaim = holdClaims();
+        CompletableFuture<Boolean> firstFinish = holdFinishes();
+        when(delegate.finishAll(anyList())).thenAnswer(invocation -> {
+            List<IdempotencyStore.FinishCommand> commands = invocation.getArgument(0);
+            return commands.stream().map(command -> command.response() != null).toList();
+        });
+        when(delegate.claimAll(anyList())).thenThrow(new IllegalStateException("Unexpected cache state for key: pay-bad"));
+        when(delegate.claim(eq("pay-bad"), any(), any())).thenThrow(new IllegalStateException("Unexpected cache state for key: pay-bad"));
+        when(delegate.claim(eq("pay-good"), any(), any())).thenReturn(Claim.claimed(7));
+
+        // Act
+        CompletableFuture<Boolean> completed = store.completeAsync("pay-1", 1, RESULT, TTL);
+        CompletableFuture<Boolean> released = store.releaseAsync("pay-2", 2);
+        CompletableFuture<Claim> good = store.claimAsync("pay-good", FINGERPRINT, LEASE);
+        CompletableFuture<Claim> bad = store.claimAsync("pay-bad", FINGERPRINT, LEASE);
+
+        // Assert
+        assertTrue(completed.join());
+        assertFalse(released.join());
+        verify(delegate, times(1)).finishAll(anyList());
+        verify(delegate, times(0)).complete(any(), anyLong(), any(), any());
+        assertEquals(7, good.join().fencingToken());
+        CompletionException error = assertThrows(CompletionException.class, bad::join);
+        assertInstanceOf(IllegalStateException.class, error.getCause());
+        firstClaim.complete(Claim.claimed(0));
+        firstFinish.complete(true);
+    }
+
+    // Sends a claim whose reply stays open until the returned future is completed, so later claims are gathered.
+    private CompletableFuture<Claim> holdClaims() {
+        CompletableFuture<Claim> reply = new CompletableFuture<>();
+        when(delegate.claimAsync(eq("pay-0"), any(), any())).thenReturn(reply);
+        store.claimAsync("pay-0", FINGERPRINT, LEASE);
+        return reply;
+    }
+
+    private CompletableFuture<Boolean> holdFinishes() {
+        CompletableFuture<Boolean> reply = new CompletableFuture<>();
+        when(delegate.completeAsync(eq("pay-0"), anyLong(), any(), any())).thenReturn(reply);
+        store.completeAsync("pay-0", 0, RESULT, TTL);
+        return reply;
+    }
+
+    private CoalescingIdempotencyStore coalescing(String window, int maxBatch) {
+        IdempotencyProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+                "app.idempotency.coalescing.window", window,
+                "app.idempotency.coalescing.max-batch", String.valueOf(maxBatch))))
+                .bindOrCreate("app.idempotency", Bindable.of(IdempotencyProperties.class));
+        return new CoalescingIdempotencyStore(delegate, properties.coalescing(), meterRegistry, "idempotency.store",
+                Tags.of("store", "redis"));
+    }
+}
@@ -0,0 +1,140 @@
+package com.tyme.payment.store;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompletionJournalTest {
+
+    private static final int SEGMENT_SIZE = 128;
+    private static final Duration TTL = Duration.ofHours(24);
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2026-01-01T00:00:00Z"));
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    @DisplayName("Journal: Records appended at once share fsyncs, survive a restart across segments and are compacted after their TTL")
+    void shouldReplayUnexpiredRecordsAndCompactExpiredSegments() throws Exception {
+        // Arrange: the 33-byte records need two 128-byte segments.
+        long expiresAt = clock.millis() + TTL.toMillis();
+        try (CompletionJournal journal = CompletionJournal.open(directory, SEGMENT_SIZE, clock, meterRegistry)) {
+            List<CompletableFuture<Void>> appends = new ArrayList<>();
+            for (int i = 1; i <= 5; i++) {
+                appends.add(journal.append("pay-" + i, ("response-" + i).getBytes(StandardCharsets.UTF_8), expiresAt));
+            }
+            appends.add(journal.append("pay-expired", new byte[8], clock.millis() - 1));
+            CompletableFuture.allOf(appends.toArray(CompletableFuture[]::new)).join();
+        }
+        assertEquals(6.0, meterRegistry.get("idempotency.journal.sync.batch").summary().totalAmount());
+
+        // Act
+        List<List<CompletionJournal.Entry>> batches = new ArrayList<>();
+        CompletionJournal.ReplayStats stats;
+        int deletedBeforeExpiry;
+        int deletedAfterExpiry;
+        try (CompletionJournal reopened = CompletionJournal.open(directory, SEGMENT_SIZE, clock, meterRegistry)) {
+            stats = reopened.replay(2, batches::add);
+            deletedBeforeExpiry = reopened.compact();
+            clock.advance(TTL);
+            deletedAfterExpiry = reopened.compact();
+        }
+
+        // Assert
+        List<String> keys = batches.stream().flatMap(List::stream).map(CompletionJournal.Entry::key).toList();
+        assertEquals(List.of("pay-1", "pay-2", "pay-3", "pay-4", "pay-5"), keys);
+        assertEquals("response-3", new String(batches.stream().flatMap(List::stream).toList().get(2).value(), StandardCharsets.UTF_8));
+        assertTrue(batches.stream().allMatch(batch -> batch.size() <= 2));
+        assertEquals(5, stats.live());
+        assertEquals(1, stats.expired());
+        assertEquals(0, stats.corruptSegments());
+        assertEquals(0, deletedBeforeExpiry);
+        assertEquals(2, stats.segments());
+        assertEquals(2, deletedAfterExpiry, "Every replayed segment expires with its last record.");
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.count(), "Only the segment the reopened journal wrote to is left.");
+        }
+    }
+
+    @Test
+    @DisplayName("Journal: Replay stops at a torn record and keeps what was written before it")
+    void shouldStopAtTornRecord() throws IOException, InterruptedException {
+        // Arrange
+        long expiresAt = clock.millis() + TTL.toMillis();
+        try (CompletionJournal journal = CompletionJournal.open(directory, 4096, clock, meterRegistry)) {
+            journal.append("pay-1", new byte[16], expiresAt).join();
+            journal.append("pay-2", new byte[16], expiresAt).join();
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        // The last byte of the second record's value, as if the process died before it reached the disk.
+        int secondRecordEnd = 8 + 2 * (8 + 10 + 5 + 16);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1}), secondRecordEnd - 1);
+        }
+
+        // Act
+        List<CompletionJournal.Entry> entries = new ArrayList<>();
+        CompletionJournal.ReplayStats stats;
+        try (CompletionJournal reopened = CompletionJournal.open(directory, 4096, clock, meterRegistry)) {
+            stats = reopened.replay(100, entries::addAll);
+        }
+
+        // Assert
+        assertEquals(List.of("pay-1"), entries.stream().map(CompletionJournal.Entry::key).toList());
+        assertEquals(1, stats.corruptSegments());
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private volatile Instant now;
+
+        private MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        private void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
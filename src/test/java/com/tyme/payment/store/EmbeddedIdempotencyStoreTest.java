@@ -0,0 +1,187 @@
+package com.tyme.payment.store;
+
+import com.tyme.payment.codec.IdempotencyValueCodec;
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.config.RedisConfig;
+import com.tyme.payment.model.IdempotentResponse;
+import com.tyme.payment.model.PaymentResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.util.unit.DataSize;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmbeddedIdempotencyStoreTest {
+
+    private static final Duration LOCK = Duration.ofMinutes(2);
+    private static final Duration TTL = Duration.ofHours(24);
+    private static final byte[] FINGERPRINT = new byte[32];
+    private static final byte[] OTHER_FINGERPRINT = new byte[32];
+
+    static {
+        OTHER_FINGERPRINT[0] = 1;
+    }
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2026-01-01T00:00:00Z"));
+    private EmbeddedIdempotencyStore store;
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @ParameterizedTest(name = "offHeapValues={0}")
+    @ValueSource(booleans = {true, false})
+    @DisplayName("Claim, complete and replay follow the Redis script semantics")
+    void shouldClaimCompleteAndReplay(boolean offHeapValues) {
+        // Arrange
+        store = newStore(offHeapValues);
+        IdempotentResponse response = response(FINGERPRINT);
+
+        // Act & Assert
+        Claim claim = store.claim("k1", FINGERPRINT, LOCK);
+        assertEquals(Claim.Status.CLAIMED, claim.status());
+        assertEquals(Claim.Status.IN_PROGRESS, store.claim("k1", FINGERPRINT, LOCK).status());
+        assertFalse(store.complete("k1", claim.fencingToken() + 1, response, TTL), "Only the claim owner may complete.");
+        assertTrue(store.complete("k1", claim.fencingToken(), response, TTL));
+
+        Claim replay = store.claim("k1", FINGERPRINT, LOCK);
+        assertEquals(Claim.Status.COMPLETED, replay.status());
+        assertEquals(response, replay.response());
+        assertEquals(response, store.fetch("k1"));
+
+        Claim mismatch = store.claim("k1", OTHER_FINGERPRINT, LOCK);
+        assertEquals(Claim.Status.MISMATCH, mismatch.status());
+        assertArrayEquals(FINGERPRINT, mismatch.storedHash());
+    }
+
+    @ParameterizedTest(name = "offHeapValues={0}")
+    @ValueSource(booleans = {true, false})
+    @DisplayName("Locks and results expire, and the sweep reclaims them")
+    void shouldExpireLocksAndResults(boolean offHeapValues) {
+        // Arrange
+        store = newStore(offHeapValues);
+        long locked = store.claim("locked", FINGERPRINT, LOCK).fencingToken();
+        store.complete("done", store.claim("done", FINGERPRINT, LOCK).fencingToken(), response(FINGERPRINT), TTL);
+
+        // Act: the lock lapses first, the result only after its own TTL
+        clock.advance(LOCK.plusSeconds(1));
+        int sweptLocks = store.sweep();
+
+        // Assert
+        assertEquals(1, sweptLocks);
+        assertFalse(store.complete("locked", locked, response(FINGERPRINT), TTL), "An expired claim cannot be completed.");
+        assertEquals(Claim.Status.COMPLETED, store.claim("done", FINGERPRINT, LOCK).status());
+
+        clock.advance(TTL);
+        store.sweep();
+        assertEquals(0, store.size());
+        assertEquals(0, store.offHeapBytes(), "Arena segments are dropped once every value in them expired.");
+        assertEquals(Claim.Status.CLAIMED, store.claim("done", FINGERPRINT, LOCK).status());
+    }
+
+    @ParameterizedTest(name = "offHeapValues={0}")
+    @ValueSource(booleans = {true, false})
+    @DisplayName("Release frees the key for the next caller; batch calls behave like single ones")
+    void shouldReleaseAndBatch(boolean offHeapValues) {
+        // Arrange
+        store = newStore(offHeapValues);
+        List<Claim> claims = store.claimAll(List.of(
+                new IdempotencyStore.ClaimCommand("a", FINGERPRINT, LOCK),
+                new IdempotencyStore.ClaimCommand("b", FINGERPRINT, LOCK),
+                new IdempotencyStore.ClaimCommand("a", FINGERPRINT, LOCK)));
+
+        // Act
+        List<Boolean> finished = store.finishAll(List.of(
+                new IdempotencyStore.FinishCommand("a", claims.get(0).fencingToken(), response(FINGERPRINT), TTL),
+                new IdempotencyStore.FinishCommand("b", claims.get(1).fencingToken(), null, null)));
+
+        // Assert
+        assertEquals(List.of(Claim.Status.CLAIMED, Claim.Status.CLAIMED, Claim.Status.IN_PROGRESS),
+                claims.stream().map(Claim::status).toList());
+        assertEquals(List.of(true, true), finished);
+        assertNull(store.fetch("b"));
+        assertEquals(Claim.Status.CLAIMED, store.claim("b", FINGERPRINT, LOCK).status());
+    }
+
+    @ParameterizedTest(name = "offHeapValues={0}")
+    @ValueSource(booleans = {true, false})
+    @DisplayName("Renewed leases outlive their first term; a lapsed holder is fenced off by the next claim")
+    void shouldRenewLeasesAndFenceOffLapsedHolders(boolean offHeapValues) {
+        // Arrange
+        store = newStore(offHeapValues);
+        long renewing = store.claim("renewed", FINGERPRINT, LOCK).fencingToken();
+        long lapsing = store.claim("lapsed", FINGERPRINT, LOCK).fencingToken();
+
+        // Act
+        clock.advance(LOCK.dividedBy(2));
+        boolean renewed = store.renew("renewed", renewing, LOCK);
+        clock.advance(LOCK.dividedBy(2).plusSeconds(1));
+        long takeover = store.claim("lapsed", FINGERPRINT, LOCK).fencingToken();
+
+        // Assert
+        assertTrue(renewed);
+        assertEquals(Claim.Status.IN_PROGRESS, store.claim("renewed", FINGERPRINT, LOCK).status());
+        assertTrue(takeover > lapsing, "Fencing tokens only ever grow.");
+        assertFalse(store.renew("lapsed", lapsing, LOCK));
+        assertFalse(store.complete("lapsed", lapsing, response(FINGERPRINT), TTL), "The lapsed holder must not overwrite the new owner.");
+        assertTrue(store.complete("lapsed", takeover, response(FINGERPRINT), TTL));
+    }
+
+    private EmbeddedIdempotencyStore newStore(boolean offHeapValues) {
+        IdempotencyProperties.Store.Embedded settings = new IdempotencyProperties.Store.Embedded(
+                offHeapValues, DataSize.ofKilobytes(64), Duration.ofSeconds(1), 64);
+        IdempotencyValueCodec codec = new IdempotencyValueCodec(
+                RedisConfig.jsonValueSerializer(), IdempotencyValueCodec.WriteFormat.BINARY, 1024);
+        return new EmbeddedIdempotencyStore(settings, codec, clock);
+    }
+
+    private static IdempotentResponse response(byte[] fingerprint) {
+        PaymentResponse body = new PaymentResponse("tx-1", "SUCCESS", new BigDecimal("100.00"), "PHP",
+                LocalDateTime.of(2026, 1, 1, 0, 0));
+        return new IdempotentResponse(201, body, fingerprint);
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private volatile Instant now;
+
+        private MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        private void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
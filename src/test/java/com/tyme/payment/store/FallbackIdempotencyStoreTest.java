@@ -0,0 +1,252 @@
+package com.tyme.payment.store;
+
+import com.tyme.payment.codec.IdempotencyValueCodec;
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.config.IdempotencyStoreConfig;
+import com.tyme.payment.config.RedisConfig;
+import com.tyme.payment.model.IdempotentResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.data.redis.RedisConnectionFailureException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FallbackIdempotencyStoreTest {
+
+    private static final Duration LEASE = Duration.ofSeconds(30);
+    private static final Duration TTL = Duration.ofHours(24);
+    private static final byte[] FINGERPRINT = new byte[32];
+    private static final IdempotentResponse RESULT = new IdempotentResponse(201, null, FINGERPRINT);
+
+    private final IdempotencyProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+            "app.idempotency.ttl-duration", "24h",
+            "app.idempotency.lock-duration", LEASE.toSeconds() + "s",
+            "app.idempotency.fallback.enabled", "true",
+            "app.idempotency.fallback.failure-threshold", "2",
+            "app.idempotency.fallback.open-duration", "5s",
+            "app.idempotency.fallback.reconcile-interval", "1h")))
+            .bindOrCreate("app.idempotency", Bindable.of(IdempotencyProperties.class));
+    private final MutableClock clock = new MutableClock(Instant.now());
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SwitchableStore primary = new SwitchableStore(new EmbeddedIdempotencyStore(properties.store().embedded(),
+            new IdempotencyValueCodec(RedisConfig.jsonValueSerializer(), IdempotencyValueCodec.WriteFormat.BINARY, 1024), clock));
+    private final FallbackIdempotencyStore store = new FallbackIdempotencyStore(
+            primary, IdempotencyStoreConfig.embeddedStore(properties), properties, meterRegistry, clock);
+
+    @AfterEach
+    void tearDown() throws Exception {
+        store.close();
+        primary.delegate.close();
+    }
+
+    @Test
+    @DisplayName("Fallback: Once the store fails repeatedly, keys are guarded on this node without calling it")
+    void shouldGuardKeysLocallyWhileStoreIsDown() {
+        // Arrange
+        primary.down = true;
+
+        // Act
+        Claim first = store.claim("pay-1", FINGERPRINT, LEASE);
+        Claim second = store.claim("pay-2", FINGERPRINT, LEASE);
+        int callsWhenOpened = primary.calls.get();
+        Claim duplicate = store.claim("pay-1", FINGERPRINT, LEASE);
+        boolean completed = store.complete("pay-1", first.fencingToken(), RESULT, TTL);
+        Claim replay = store.claim("pay-1", FINGERPRINT, LEASE);
+        Claim third = store.claim("pay-3", FINGERPRINT, LEASE);
+
+        // Assert
+        assertEquals(CircuitBreaker.State.OPEN, store.state());
+        assertEquals(Claim.Status.CLAIMED, first.status());
+        assertEquals(Claim.Status.CLAIMED, second.status());
+        assertTrue(first.fencingToken() < 0, "Local claims are told apart by their negative fencing tokens.");
+        assertEquals(Claim.Status.IN_PROGRESS, duplicate.status());
+        assertTrue(completed);
+        assertEquals(Claim.Status.COMPLETED, replay.status());
+        assertEquals(RESULT, replay.response());
+        assertEquals(Claim.Status.CLAIMED, third.status());
+        assertEquals(callsWhenOpened, primary.calls.get(), "An open breaker keeps calls away from the store.");
+        assertEquals(5.0, meterRegistry.get("idempotency.fallback.local-calls").counter().count());
+    }
+
+    @Test
+    @DisplayName("Fallback: After recovery, local results are written back, waiting out claims held from before the outage")
+    void shouldReconcileLocalResultsAfterRecovery() {
+        // Arrange
+        long heldInStore = store.claim("held", FINGERPRINT, LEASE).fencingToken();
+        primary.down = true;
+        long localToken = store.claim("local", FINGERPRINT, LEASE).fencingToken();
+        store.complete("local", localToken, RESULT, TTL);
+        store.complete("held", heldInStore, RESULT, TTL);
+        long conflicting = store.claim("conflict", FINGERPRINT, LEASE).fencingToken();
+        store.complete("conflict", conflicting, RESULT, TTL);
+        primary.delegate.complete("conflict", primary.delegate.claim("conflict", FINGERPRINT, LEASE).fencingToken(),
+                new IdempotentResponse(200, null, FINGERPRINT), TTL);
+
+        // Act
+        primary.down = false;
+        clock.advance(Duration.ofSeconds(6));
+        IdempotentResponse probe = store.fetch("other");
+        int waitingBeforeLeaseLapsed = store.reconcile();
+        clock.advance(LEASE);
+        int waitingAfterLeaseLapsed = store.reconcile();
+
+        // Assert
+        assertNull(probe);
+        assertEquals(CircuitBreaker.State.CLOSED, store.state());
+        assertEquals(1, waitingBeforeLeaseLapsed, "The store still holds the pre-outage claim on \"held\".");
+        assertEquals(0, waitingAfterLeaseLapsed);
+        assertEquals(RESULT, primary.delegate.fetch("local"));
+        assertEquals(RESULT, primary.delegate.fetch("held"));
+        assertEquals(200, primary.delegate.fetch("conflict").statusCode(), "A result stored elsewhere first is kept.");
+        assertEquals(2.0, meterRegistry.get("idempotency.fallback.reconciled").tag("result", "written").counter().count());
+        assertEquals(1.0, meterRegistry.get("idempotency.fallback.reconciled").tag("result", "conflict").counter().count());
+        assertEquals(Claim.Status.COMPLETED, store.claim("local", FINGERPRINT, LEASE).status());
+    }
+
+    @Test
+    @DisplayName("Fallback: A store call that outlasts call-timeout is answered locally, while unguarded calls still wait")
+    void shouldAnswerSlowCallsLocally() {
+        // Arrange
+        primary.stallMillis = 1_000;
+
+        // Act
+        long started = System.nanoTime();
+        Claim claim = store.claim("slow", FINGERPRINT, LEASE);
+        Duration waited = Duration.ofNanos(System.nanoTime() - started);
+        started = System.nanoTime();
+        store.sampleKeyspace(10, 100);
+        Duration sampled = Duration.ofNanos(System.nanoTime() - started);
+
+        // Assert
+        assertEquals(Claim.Status.CLAIMED, claim.status());
+        assertTrue(claim.fencingToken() < 0, "The claim was taken locally.");
+        assertTrue(waited.compareTo(Duration.ofMillis(800)) < 0, "Waited " + waited);
+        assertTrue(sampled.compareTo(Duration.ofMillis(1_000)) >= 0, "Keyspace sampling is not bounded by call-timeout.");
+    }
+
+    // Fails every call with a connection error while down, like Lettuce does once its command timeout passes, and
+    // answers late by stallMillis.
+    private static final class SwitchableStore implements IdempotencyStore {
+
+        private final EmbeddedIdempotencyStore delegate;
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile boolean down;
+        private volatile long stallMillis;
+
+        private SwitchableStore(EmbeddedIdempotencyStore delegate) {
+            this.delegate = delegate;
+        }
+
+        private void call() {
+            calls.incrementAndGet();
+            if (stallMillis > 0) {
+                try {
+                    Thread.sleep(stallMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (down) {
+                throw new RedisConnectionFailureException("Command timed out");
+            }
+        }
+
+        @Override
+        public Claim claim(String key, byte[] fingerprint, Duration lease) {
+            call();
+            return delegate.claim(key, fingerprint, lease);
+        }
+
+        @Override
+        public boolean renew(String key, long fencingToken, Duration lease) {
+            call();
+            return delegate.renew(key, fencingToken, lease);
+        }
+
+        @Override
+        public boolean complete(String key, long fencingToken, IdempotentResponse response, Duration ttl) {
+            call();
+            return delegate.complete(key, fencingToken, response, ttl);
+        }
+
+        @Override
+        public boolean release(String key, long fencingToken) {
+            call();
+            return delegate.release(key, fencingToken);
+        }
+
+        @Override
+        public IdempotentResponse fetch(String key) {
+            call();
+            return delegate.fetch(key);
+        }
+
+        @Override
+        public void delete(String key) {
+            call();
+            delegate.delete(key);
+        }
+
+        @Override
+        public KeyspaceSample sampleKeyspace(int sampleSize, int scanCount) {
+            call();
+            return delegate.sampleKeyspace(sampleSize, scanCount);
+        }
+
+        @Override
+        public KeyPage scanKeys(String cursor, String keyPrefix, boolean legacyKeys, int count) {
+            call();
+            return delegate.scanKeys(cursor, keyPrefix, legacyKeys, count);
+        }
+
+        @Override
+        public long unlinkAll(List<StoredKey> keys) {
+            call();
+            return delegate.unlinkAll(keys);
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private volatile Instant now;
+
+        private MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        private void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.tyme.payment.store;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.config.RedisConfig;
+import com.tyme.payment.model.IdempotentResponse;
+import com.tyme.payment.model.PaymentResponse;
+import com.tyme.payment.support.InProcessRedisServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Runs the Lua scripts through Lettuce against the in-process stand-in, so it needs no Docker;
+// PaymentServiceIntegrationTest covers the same paths against a real Redis.
+class RedisIdempotencyStoreTest {
+
+    private static final Duration LEASE = Duration.ofSeconds(30);
+    private static final Duration TTL = Duration.ofHours(24);
+    private static final byte[] FINGERPRINT = new byte[32];
+    private static final byte[] OTHER_FINGERPRINT = new byte[32];
+
+    static {
+        OTHER_FINGERPRINT[0] = 1;
+    }
+
+    private static InProcessRedisServer redis;
+    private static LettuceConnectionFactory connectionFactory;
+    private static IdempotencyProperties properties;
+    private static RedisTemplate<String, Object> redisTemplate;
+    private static RedisIdempotencyStore store;
+
+    @BeforeAll
+    static void setUp() {
+        redis = InProcessRedisServer.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(redis.getHost(), redis.getPort()));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        properties = new Binder(new MapConfigurationPropertySource(Map.of(
+                "app.idempotency.ttl-duration", "24h",
+                "app.idempotency.lock-duration", LEASE.toSeconds() + "s")))
+                .bindOrCreate("app.idempotency", Bindable.of(IdempotencyProperties.class));
+        redisTemplate = new RedisConfig().redisTemplate(connectionFactory, properties);
+        redisTemplate.afterPropertiesSet();
+        store = new RedisIdempotencyStore(redisTemplate, properties);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        connectionFactory.destroy();
+        redis.close();
+    }
+
+    @Test
+    @DisplayName("Redis store: Claim, complete, replay and mismatch go through the scripts, one at a time and pipelined")
+    void shouldClaimCompleteAndReplay() {
+        // Arrange
+        String key = "pay-" + UUID.randomUUID();
+        String batchKey = "pay-" + UUID.randomUUID();
+        IdempotentResponse response = response();
+
+        // Act & Assert
+        Claim claim = store.claim(key, FINGERPRINT, LEASE);
+        assertEquals(Claim.Status.CLAIMED, claim.status());
+        assertEquals(Claim.Status.IN_PROGRESS, store.claim(key, FINGERPRINT, LEASE).status());
+        assertFalse(store.complete(key, claim.fencingToken() + 1, response, TTL), "Only the claim owner may complete.");
+        assertTrue(store.complete(key, claim.fencingToken(), response, TTL));
+        assertEquals(response, store.claim(key, FINGERPRINT, LEASE).response());
+        Claim mismatch = store.claim(key, OTHER_FINGERPRINT, LEASE);
+        assertEquals(Claim.Status.MISMATCH, mismatch.status());
+        assertArrayEquals(FINGERPRINT, mismatch.storedHash());
+
+        List<Claim> claims = store.claimAll(List.of(
+                new IdempotencyStore.ClaimCommand(key, FINGERPRINT, LEASE),
+                new IdempotencyStore.ClaimCommand(batchKey, FINGERPRINT, LEASE)));
+        assertEquals(List.of(Claim.Status.COMPLETED, Claim.Status.CLAIMED), claims.stream().map(Claim::status).toList());
+        assertTrue(claims.get(1).fencingToken() > claim.fencingToken(), "Fencing tokens only grow.");
+        assertEquals(List.of(true), store.finishAll(List.of(
+                new IdempotencyStore.FinishCommand(batchKey, claims.get(1).fencingToken(), null, null))));
+        assertEquals(Claim.Status.CLAIMED, store.claimAsync(batchKey, FINGERPRINT, LEASE).join().status());
+    }
+
+    @Test
+    @DisplayName("Redis store: A pipeline whose scripts Redis has dropped loads them and sends only the refused calls again")
+    void shouldReloadScriptsForPipeline() {
+        // Arrange
+        String key = "pay-" + UUID.randomUUID();
+        Claim held = store.claimAll(List.of(new IdempotencyStore.ClaimCommand(key, FINGERPRINT, LEASE))).getFirst();
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            connection.scriptingCommands().scriptFlush();
+            return null;
+        });
+
+        // Act
+        List<Claim> claims = store.claimAll(List.of(
+                new IdempotencyStore.ClaimCommand(key, FINGERPRINT, LEASE),
+                new IdempotencyStore.ClaimCommand("pay-" + UUID.randomUUID(), FINGERPRINT, LEASE)));
+
+        // Assert
+        assertEquals(List.of(Claim.Status.IN_PROGRESS, Claim.Status.CLAIMED), claims.stream().map(Claim::status).toList());
+        assertEquals(List.of(true), store.finishAll(List.of(
+                new IdempotencyStore.FinishCommand(key, held.fencingToken(), null, null))), "The claim made before the flush must still be released once.");
+    }
+
+    @Test
+    @DisplayName("Redis store: A completed entry under the bare client key is replayed and deleted with read-legacy-keys")
+    void shouldReadAndDeleteLegacyEntries() {
+        // Arrange
+        String key = "legacy-" + UUID.randomUUID();
+        IdempotentResponse response = response();
+        redisTemplate.opsForValue().set(key, response, TTL);
+
+        // Act
+        Claim claim = store.claim(key, FINGERPRINT, LEASE);
+        store.delete(key);
+
+        // Assert
+        assertEquals(Claim.Status.COMPLETED, claim.status());
+        assertEquals(response, claim.response());
+        assertFalse(redisTemplate.hasKey(key));
+    }
+
+    @Test
+    @DisplayName("Redis store: Client keys naming the service's own Redis keys are never read or deleted as legacy entries")
+    void shouldNotTreatOwnKeysAsLegacyEntries() {
+        // Arrange
+        store.claim("pay-" + UUID.randomUUID(), FINGERPRINT, LEASE);
+        String fencingCounter = properties.fencingCounterKey();
+        String rateBucket = properties.rateLimit().keyPrefix() + ":default:ACC-001";
+        redisTemplate.opsForHash().put(rateBucket, "n", 5L);
+        long counterBefore = Long.parseLong(new String(redisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(fencingCounter.getBytes(StandardCharsets.UTF_8))), StandardCharsets.UTF_8));
+
+        // Act
+        Claim fencingClaim = store.claim(fencingCounter, FINGERPRINT, LEASE);
+        Claim rateClaim = store.claim(rateBucket, FINGERPRINT, LEASE);
+        IdempotentResponse fetched = store.fetch(properties.keys().prefix() + ":other-tenant:pay-1");
+        store.delete(fencingCounter);
+        store.delete(rateBucket);
+
+        // Assert
+        assertEquals(Claim.Status.CLAIMED, fencingClaim.status());
+        assertEquals(Claim.Status.CLAIMED, rateClaim.status());
+        assertNull(fetched);
+        assertTrue(redisTemplate.hasKey(fencingCounter), "The fencing counter must survive a manual key clear.");
+        assertTrue(redisTemplate.hasKey(rateBucket));
+        assertTrue(store.claim("pay-" + UUID.randomUUID(), FINGERPRINT, LEASE).fencingToken() > counterBefore + 2,
+                "Fencing tokens keep growing.");
+    }
+
+    private static IdempotentResponse response() {
+        PaymentResponse body = new PaymentResponse("tx-1", "SUCCESS", new BigDecimal("100.00"), "PHP",
+                LocalDateTime.of(2026, 1, 1, 0, 0));
+        return new IdempotentResponse(201, body, FINGERPRINT);
+    }
+}
@@ -0,0 +1,66 @@
+package com.tyme.payment.store;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RedisKeyLayoutTest {
+
+    private final RedisKeyLayout layout = new RedisKeyLayout(new IdempotencyProperties.Keys("idem", "acme", 16, true));
+
+    @Test
+    @DisplayName("Short client keys are kept readable under the tenant namespace")
+    void shouldPrefixShortKeys() {
+        assertEquals("idem:acme:order-42", layout.redisKey("order-42"));
+        assertEquals("idem:acme:", layout.redisKey(""));
+    }
+
+    @Test
+    @DisplayName("Long keys, and keys that could pass for a hash, are replaced by a fixed-length digest")
+    void shouldHashLongAndMarkerKeys() {
+        // Arrange
+        String longKey = "x".repeat(17);
+
+        // Act
+        String hashed = layout.redisKey(longKey);
+        String marker = layout.redisKey("#short");
+
+        // Assert
+        assertTrue(hashed.startsWith("idem:acme:#"));
+        assertEquals("idem:acme:#".length() + 43, hashed.length());
+        assertEquals(hashed, layout.redisKey(longKey), "Hashing must be deterministic.");
+        assertNotEquals(hashed, layout.redisKey(longKey + "y"));
+        assertTrue(marker.startsWith("idem:acme:#") && !marker.endsWith("short"));
+    }
+
+    @Test
+    @DisplayName("The SCAN pattern escapes glob characters in the namespace")
+    void shouldEscapeScanPattern() {
+        RedisKeyLayout globby = new RedisKeyLayout(new IdempotencyProperties.Keys("idem", "t*[1]", 64, true));
+
+        assertEquals("idem:t\\*\\[1\\]:*", globby.pattern());
+    }
+
+    @Test
+    @DisplayName("Hash-tagged keys share a slot with their fencing counter, whatever braces the client key holds")
+    void shouldHashTagKeysForCluster() {
+        // Arrange
+        RedisKeyLayout tagged = new RedisKeyLayout(new IdempotencyProperties.Keys("idem", "acme", 16, false), "fencing", 64);
+
+        // Act
+        String redisKey = tagged.redisKey("{order}-42");
+        String counter = tagged.fencingCounterKey("{order}-42");
+
+        // Assert
+        String tag = redisKey.substring(redisKey.indexOf('{'), redisKey.indexOf('}') + 1);
+        assertTrue(tag.matches("\\{b\\d+}"), redisKey);
+        assertEquals("idem:acme:" + tag + ":{order}-42", redisKey);
+        assertEquals("fencing:" + tag, counter);
+        assertTrue(tagged.fencingCounterKeys().contains(counter));
+        assertEquals(64, tagged.fencingCounterKeys().size());
+    }
+}
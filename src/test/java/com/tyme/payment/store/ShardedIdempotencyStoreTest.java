@@ -0,0 +1,166 @@
+package com.tyme.payment.store;
+
+import com.tyme.payment.config.IdempotencyProperties;
+import com.tyme.payment.config.IdempotencyStoreConfig;
+import com.tyme.payment.model.IdempotentResponse;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardedIdempotencyStoreTest {
+
+    private static final Duration LEASE = Duration.ofMinutes(1);
+    private static final Duration TTL = Duration.ofHours(24);
+    private static final byte[] FINGERPRINT = new byte[32];
+    private static final IdempotentResponse RESULT = new IdempotentResponse(201, null, FINGERPRINT);
+    private static final List<String> THREE_NODES = List.of("redis-a:6379", "redis-b:6379", "redis-c:6379");
+    private static final List<String> FOUR_NODES = List.of("redis-a:6379", "redis-b:6379", "redis-c:6379", "redis-d:6379");
+
+    private final IdempotencyProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+            "app.idempotency.ttl-duration", "24h",
+            "app.idempotency.lock-duration", "1m",
+            "app.idempotency.store.type", "embedded")))
+            .bindOrCreate("app.idempotency", Bindable.of(IdempotencyProperties.class));
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Map<String, EmbeddedIdempotencyStore> backends = new LinkedHashMap<>();
+    private final Map<String, IdempotencyStore> shards = new LinkedHashMap<>();
+
+    @AfterEach
+    void tearDown() {
+        backends.values().forEach(EmbeddedIdempotencyStore::close);
+    }
+
+    @Test
+    @DisplayName("Sharding: Every operation on a key lands on its one owner, batches included, timed per shard")
+    void shouldRouteEveryKeyToOneShard() {
+        // Arrange
+        ShardedIdempotencyStore store = new ShardedIdempotencyStore(shards(FOUR_NODES), FOUR_NODES, List.of(), 160);
+        List<IdempotencyStore.ClaimCommand> claims = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            claims.add(new IdempotencyStore.ClaimCommand("key-" + i, FINGERPRINT, LEASE));
+        }
+
+        // Act
+        List<Claim> claimed = store.claimAll(claims);
+        List<IdempotencyStore.FinishCommand> finishes = new ArrayList<>();
+        for (int i = 0; i < claimed.size(); i++) {
+            finishes.add(new IdempotencyStore.FinishCommand("key-" + i, claimed.get(i).fencingToken(), RESULT, TTL));
+        }
+        List<Boolean> finished = store.finishAll(finishes);
+
+        // Assert
+        assertTrue(claimed.stream().allMatch(claim -> claim.status() == Claim.Status.CLAIMED));
+        assertTrue(finished.stream().allMatch(Boolean::booleanValue));
+        for (int i = 0; i < 200; i++) {
+            String key = "key-" + i;
+            long holders = backends.values().stream().filter(backend -> backend.fetch(key) != null).count();
+            assertEquals(1, holders, "Exactly one shard holds " + key);
+            assertEquals(RESULT, store.fetch(key));
+        }
+        assertEquals(200, store.sampleKeyspace(100, 1000).keyCount());
+        for (String node : FOUR_NODES) {
+            assertTrue(backends.get(node).size() > 0, "Every shard takes a share of the keys.");
+            assertEquals(1, meterRegistry.get("idempotency.shard.requests")
+                    .tags(Tags.of("shard", node, "operation", "claim_all")).timer().count());
+        }
+    }
+
+    @Test
+    @DisplayName("Sharding: Adding a node moves about a quarter of the keys, all to it, and moved results are still replayed")
+    void shouldReplayResultsStoredBeforeNodeWasAdded() {
+        // Arrange
+        Map<String, IdempotencyStore> allShards = shards(FOUR_NODES);
+        ShardedIdempotencyStore before = new ShardedIdempotencyStore(allShards, THREE_NODES, List.of(), 160);
+        for (int i = 0; i < 1000; i++) {
+            before.complete("key-" + i, before.claim("key-" + i, FINGERPRINT, LEASE).fencingToken(), RESULT, TTL);
+        }
+
+        // Act
+        ShardedIdempotencyStore after = new ShardedIdempotencyStore(allShards, FOUR_NODES, THREE_NODES, 160);
+        List<Claim> replays = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            replays.add(after.claim("key-" + i, FINGERPRINT, LEASE));
+        }
+
+        // Assert
+        List<String> moved = movedKeys("key-", 1000);
+        assertTrue(moved.size() > 150 && moved.size() < 350, "Expected about a quarter of the keys to move, got " + moved.size());
+        assertTrue(moved.stream().allMatch(key -> ring(FOUR_NODES).owner(key).equals("redis-d:6379")));
+        assertTrue(replays.stream().allMatch(claim -> claim.status() == Claim.Status.COMPLETED),
+                "Results stored on the previous owner are replayed, never executed again.");
+        assertEquals(0, backends.get("redis-d:6379").size());
+    }
+
+    @Test
+    @DisplayName("Sharding: While nodes are added, old-ring and new-ring instances exclude each other on a moved key")
+    void shouldExcludeOldRingInstancesDuringMigration() {
+        // Arrange
+        Map<String, IdempotencyStore> allShards = shards(FOUR_NODES);
+        ShardedIdempotencyStore oldRing = new ShardedIdempotencyStore(allShards, THREE_NODES, List.of(), 160);
+        ShardedIdempotencyStore newRing = new ShardedIdempotencyStore(allShards, FOUR_NODES, THREE_NODES, 160);
+        List<String> moved = movedKeys("moved-", 100);
+        String claimedOnOldRing = moved.get(0);
+        String claimedOnNewRing = moved.get(1);
+
+        // Act
+        Claim oldRingHolder = oldRing.claim(claimedOnOldRing, FINGERPRINT, LEASE);
+        Claim blockedOnNewRing = newRing.claim(claimedOnOldRing, FINGERPRINT, LEASE);
+        Claim newRingHolder = newRing.claim(claimedOnNewRing, FINGERPRINT, LEASE);
+        Claim blockedOnOldRing = oldRing.claim(claimedOnNewRing, FINGERPRINT, LEASE);
+        boolean renewed = newRing.renew(claimedOnNewRing, newRingHolder.fencingToken(), LEASE);
+        boolean completed = newRing.complete(claimedOnNewRing, newRingHolder.fencingToken(), RESULT, TTL);
+
+        // Assert
+        assertEquals(Claim.Status.CLAIMED, oldRingHolder.status());
+        assertEquals(Claim.Status.IN_PROGRESS, blockedOnNewRing.status());
+        assertEquals(1, backends.get("redis-d:6379").size(), "A claim refused by the previous owner leaves nothing behind.");
+        assertEquals(Claim.Status.CLAIMED, newRingHolder.status());
+        assertEquals(Claim.Status.IN_PROGRESS, blockedOnOldRing.status());
+        assertTrue(renewed);
+        assertTrue(completed);
+        assertEquals(RESULT, backends.get("redis-d:6379").fetch(claimedOnNewRing));
+        assertEquals(Claim.Status.COMPLETED, oldRing.claim(claimedOnNewRing, FINGERPRINT, LEASE).status(),
+                "Instances still on the old ring replay the result from the previous owner.");
+    }
+
+    private static List<String> movedKeys(String prefix, int count) {
+        ConsistentHashRing<String> before = ring(THREE_NODES);
+        ConsistentHashRing<String> after = ring(FOUR_NODES);
+        List<String> moved = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (!before.owner(prefix + i).equals(after.owner(prefix + i))) {
+                moved.add(prefix + i);
+            }
+        }
+        return moved;
+    }
+
+    private static ConsistentHashRing<String> ring(List<String> nodes) {
+        Map<String, String> byName = new LinkedHashMap<>();
+        nodes.forEach(node -> byName.put(node, node));
+        return new ConsistentHashRing<>(byName, 160);
+    }
+
+    private Map<String, IdempotencyStore> shards(List<String> nodes) {
+        for (String node : nodes) {
+            EmbeddedIdempotencyStore backend = IdempotencyStoreConfig.embeddedStore(properties);
+            backends.put(node, backend);
+            shards.put(node, new MeteredIdempotencyStore(backend, meterRegistry, "idempotency.shard", Tags.of("shard", node)));
+        }
+        return shards;
+    }
+}
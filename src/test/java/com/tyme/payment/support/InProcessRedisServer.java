@@ -0,0 +1,260 @@
+package com.tyme.payment.support;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Minimal RESP2 server backed by {@link RedisKeyspace}. It speaks enough of the protocol for Lettuce,
+ * {@code RedisTemplate}, Lua scripts and pub/sub, so the service can run end to end without Docker.
+ */
+public class InProcessRedisServer implements AutoCloseable {
+
+    private final RedisKeyspace keyspace = new RedisKeyspace(this::publish);
+    private final Set<Connection> connections = new CopyOnWriteArraySet<>();
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final ServerSocket serverSocket;
+
+    private InProcessRedisServer(int port) throws IOException {
+        this.serverSocket = new ServerSocket(port, 512, InetAddress.getLoopbackAddress());
+        Thread.ofVirtual().name("redis-standin-accept").start(this::acceptLoop);
+    }
+
+    public static InProcessRedisServer start() {
+        return start(0);
+    }
+
+    public static InProcessRedisServer start(int port) {
+        try {
+            return new InProcessRedisServer(port);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not start in-process Redis stand-in", e);
+        }
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public RedisKeyspace keyspace() {
+        return keyspace;
+    }
+
+    @Override
+    public void close() {
+        running.set(false);
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+            // shutting down
+        }
+        connections.forEach(Connection::close);
+    }
+
+    private void acceptLoop() {
+        while (running.get()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Connection connection = new Connection(socket);
+                connections.add(connection);
+                Thread.ofPlatform().daemon().name("redis-standin-conn").start(connection::serve);
+            } catch (IOException e) {
+                if (running.get()) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    private long publish(byte[] channel, byte[] message) {
+        long receivers = 0;
+        String name = RedisKeyspace.str(channel);
+        for (Connection connection : connections) {
+            receivers += connection.deliver(name, channel, message);
+        }
+        return receivers;
+    }
+
+    private final class Connection {
+
+        private final Socket socket;
+        private final Set<String> channels = ConcurrentHashMap.newKeySet();
+        private final Set<String> patterns = ConcurrentHashMap.newKeySet();
+        private OutputStream out;
+
+        private Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        private void serve() {
+            try (socket) {
+                InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+                out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+                List<byte[]> command;
+                while ((command = readCommand(in)) != null) {
+                    Object reply = dispatch(command);
+                    synchronized (this) {
+                        if (reply instanceof Replies multi) {
+                            for (Object each : multi.replies()) {
+                                RedisKeyspace.writeReply(out, each);
+                            }
+                        } else {
+                            RedisKeyspace.writeReply(out, reply);
+                        }
+                        if (in.available() == 0) {
+                            out.flush();
+                        }
+                    }
+                    if (reply == RedisKeyspace.QUIT) {
+                        break;
+                    }
+                }
+            } catch (IOException ignored) {
+                // client went away
+            } finally {
+                connections.remove(this);
+            }
+        }
+
+        private Object dispatch(List<byte[]> command) {
+            String name = RedisKeyspace.str(command.getFirst()).toUpperCase(Locale.ROOT);
+            return switch (name) {
+                case "SUBSCRIBE" -> subscribe(command, channels, "subscribe");
+                case "PSUBSCRIBE" -> subscribe(command, patterns, "psubscribe");
+                case "UNSUBSCRIBE" -> unsubscribe(command, channels, "unsubscribe");
+                case "PUNSUBSCRIBE" -> unsubscribe(command, patterns, "punsubscribe");
+                case "PING" -> subscribed()
+                        ? List.of(bytes("pong"), command.size() > 1 ? command.get(1) : new byte[0])
+                        : keyspace.execute(command);
+                default -> keyspace.execute(command);
+            };
+        }
+
+        private boolean subscribed() {
+            return !channels.isEmpty() || !patterns.isEmpty();
+        }
+
+        private Replies subscribe(List<byte[]> command, Set<String> target, String kind) {
+            List<Object> replies = new ArrayList<>();
+            for (byte[] channel : command.subList(1, command.size())) {
+                target.add(RedisKeyspace.str(channel));
+                replies.add(List.of(bytes(kind), channel, (long) (channels.size() + patterns.size())));
+            }
+            return new Replies(replies);
+        }
+
+        private Replies unsubscribe(List<byte[]> command, Set<String> target, String kind) {
+            List<String> names = command.size() > 1
+                    ? command.subList(1, command.size()).stream().map(RedisKeyspace::str).toList()
+                    : List.copyOf(target);
+            List<Object> replies = new ArrayList<>();
+            for (String channel : names) {
+                target.remove(channel);
+                replies.add(List.of(bytes(kind), RedisKeyspace.bytes(channel), (long) (channels.size() + patterns.size())));
+            }
+            if (replies.isEmpty()) {
+                replies.add(List.of(bytes(kind), RedisKeyspace.NIL, 0L));
+            }
+            return new Replies(replies);
+        }
+
+        private long deliver(String name, byte[] channel, byte[] message) {
+            long delivered = 0;
+            if (channels.contains(name)) {
+                push(List.of(bytes("message"), channel, message));
+                delivered++;
+            }
+            for (String pattern : patterns) {
+                if (RedisKeyspace.globMatches(pattern, name)) {
+                    push(List.of(bytes("pmessage"), RedisKeyspace.bytes(pattern), channel, message));
+                    delivered++;
+                }
+            }
+            return delivered;
+        }
+
+        private void push(Object reply) {
+            synchronized (this) {
+                try {
+                    RedisKeyspace.writeReply(out, reply);
+                    out.flush();
+                } catch (IOException ignored) {
+                    close();
+                }
+            }
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // already closed
+            }
+        }
+
+        private static byte[] bytes(String value) {
+            return value.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private record Replies(List<Object> replies) {
+    }
+
+    private static List<byte[]> readCommand(InputStream in) throws IOException {
+        int marker = in.read();
+        if (marker == -1) {
+            return null;
+        }
+        if (marker != '*') {
+            throw new IOException("Inline commands are not supported by the stand-in");
+        }
+        int count = (int) readLong(in);
+        List<byte[]> args = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (in.read() != '$') {
+                throw new IOException("Expected bulk string");
+            }
+            int length = (int) readLong(in);
+            byte[] arg = in.readNBytes(length);
+            in.skipNBytes(2);
+            args.add(arg);
+        }
+        return args;
+    }
+
+    private static long readLong(InputStream in) throws IOException {
+        long value = 0;
+        boolean negative = false;
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b == -1) {
+                throw new IOException("Unexpected end of stream");
+            }
+            if (b == '-') {
+                negative = true;
+            } else {
+                value = value * 10 + (b - '0');
+            }
+        }
+        in.read();
+        return negative ? -value : value;
+    }
+}
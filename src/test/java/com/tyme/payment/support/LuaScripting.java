@@ -0,0 +1,241 @@
+package com.tyme.payment.support;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LoadState;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.compiler.LuaC;
+import org.luaj.vm2.lib.PackageLib;
+import org.luaj.vm2.lib.StringLib;
+import org.luaj.vm2.lib.TableLib;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JseBaseLib;
+import org.luaj.vm2.lib.jse.JseMathLib;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs real Lua scripts (via LuaJ) against a {@link RedisKeyspace}, with Redis' reply conversion rules.
+ */
+class LuaScripting {
+
+    private final RedisKeyspace keyspace;
+    private final Globals globals;
+    private final Map<String, LuaValue> scripts = new HashMap<>();
+
+    LuaScripting(RedisKeyspace keyspace) {
+        this.keyspace = keyspace;
+        this.globals = new Globals();
+        globals.load(new JseBaseLib());
+        globals.load(new PackageLib());
+        globals.load(new TableLib());
+        globals.load(new StringLib());
+        globals.load(new JseMathLib());
+        LoadState.install(globals);
+        LuaC.install(globals);
+        globals.set("redis", redisTable());
+    }
+
+    Object eval(byte[] script, List<byte[]> keysAndArgs) {
+        String sha = load(script);
+        return run(scripts.get(sha), keysAndArgs);
+    }
+
+    Object evalSha(String sha, List<byte[]> keysAndArgs) {
+        LuaValue function = scripts.get(sha.toLowerCase(Locale.ROOT));
+        if (function == null) {
+            return new RedisKeyspace.Err("NOSCRIPT No matching script. Please use EVAL.");
+        }
+        return run(function, keysAndArgs);
+    }
+
+    Object script(List<byte[]> args) {
+        String sub = RedisKeyspace.str(args.getFirst()).toUpperCase(Locale.ROOT);
+        return switch (sub) {
+            case "LOAD" -> RedisKeyspace.bytes(load(args.get(1)));
+            case "EXISTS" -> args.subList(1, args.size()).stream()
+                    .map(sha -> scripts.containsKey(RedisKeyspace.str(sha).toLowerCase(Locale.ROOT)) ? 1L : 0L)
+                    .toList();
+            case "FLUSH" -> {
+                scripts.clear();
+                yield new RedisKeyspace.Status("OK");
+            }
+            default -> new RedisKeyspace.Err("ERR unknown SCRIPT subcommand");
+        };
+    }
+
+    private String load(byte[] script) {
+        String sha = sha1Hex(script);
+        if (!scripts.containsKey(sha)) {
+            try {
+                scripts.put(sha, globals.load(new String(script, StandardCharsets.UTF_8), "@user_script"));
+            } catch (LuaError e) {
+                throw new RedisKeyspace.RedisError("ERR Error compiling script " + e.getMessage());
+            }
+        }
+        return sha;
+    }
+
+    private Object run(LuaValue function, List<byte[]> keysAndArgs) {
+        int numKeys = (int) RedisKeyspace.parseLong(keysAndArgs.getFirst());
+        globals.set("KEYS", toTable(keysAndArgs.subList(1, 1 + numKeys)));
+        globals.set("ARGV", toTable(keysAndArgs.subList(1 + numKeys, keysAndArgs.size())));
+        try {
+            return toReply(function.call());
+        } catch (LuaError e) {
+            String message = e.getMessage();
+            return new RedisKeyspace.Err(message.startsWith("ERR") || message.startsWith("WRONGTYPE")
+                    ? message : "ERR Error running script: " + message);
+        }
+    }
+
+    private LuaTable redisTable() {
+        LuaTable redis = new LuaTable();
+        redis.set("call", new RedisCall(true));
+        redis.set("pcall", new RedisCall(false));
+        redis.set("sha1hex", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                return LuaValue.valueOf(sha1Hex(toBytes(args.checkstring(1))));
+            }
+        });
+        redis.set("status_reply", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                LuaTable table = new LuaTable();
+                table.set("ok", args.checkstring(1));
+                return table;
+            }
+        });
+        redis.set("error_reply", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                LuaTable table = new LuaTable();
+                table.set("err", args.checkstring(1));
+                return table;
+            }
+        });
+        VarArgFunction noop = new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                return LuaValue.TRUE;
+            }
+        };
+        redis.set("log", noop);
+        redis.set("replicate_commands", noop);
+        redis.set("set_repl", noop);
+        redis.set("setresp", noop);
+        redis.set("LOG_DEBUG", 0);
+        redis.set("LOG_VERBOSE", 1);
+        redis.set("LOG_NOTICE", 2);
+        redis.set("LOG_WARNING", 3);
+        return redis;
+    }
+
+    private final class RedisCall extends VarArgFunction {
+
+        private final boolean raise;
+
+        private RedisCall(boolean raise) {
+            this.raise = raise;
+        }
+
+        @Override
+        public Varargs invoke(Varargs args) {
+            List<byte[]> command = new ArrayList<>(args.narg());
+            for (int i = 1; i <= args.narg(); i++) {
+                command.add(toBytes(args.checkstring(i)));
+            }
+            Object reply = keyspace.execute(command);
+            if (reply instanceof RedisKeyspace.Err err && raise) {
+                throw new LuaError(err.message());
+            }
+            return toLua(reply);
+        }
+    }
+
+    private static LuaTable toTable(List<byte[]> values) {
+        LuaTable table = new LuaTable();
+        for (int i = 0; i < values.size(); i++) {
+            table.set(i + 1, LuaValue.valueOf(values.get(i)));
+        }
+        return table;
+    }
+
+    private static LuaValue toLua(Object reply) {
+        if (reply == RedisKeyspace.NIL || reply == null) {
+            return LuaValue.FALSE;
+        }
+        if (reply instanceof byte[] bulk) {
+            return LuaValue.valueOf(bulk);
+        }
+        if (reply instanceof Long number) {
+            return LuaValue.valueOf((double) number);
+        }
+        if (reply instanceof RedisKeyspace.Status status) {
+            LuaTable table = new LuaTable();
+            table.set("ok", status.value());
+            return table;
+        }
+        if (reply instanceof RedisKeyspace.Err err) {
+            LuaTable table = new LuaTable();
+            table.set("err", err.message());
+            return table;
+        }
+        List<?> array = (List<?>) reply;
+        LuaTable table = new LuaTable();
+        for (int i = 0; i < array.size(); i++) {
+            table.set(i + 1, toLua(array.get(i)));
+        }
+        return table;
+    }
+
+    private static Object toReply(LuaValue value) {
+        return switch (value.type()) {
+            case LuaValue.TNUMBER -> (long) value.todouble();
+            case LuaValue.TSTRING -> toBytes(value.checkstring());
+            case LuaValue.TBOOLEAN -> value.toboolean() ? (Object) 1L : RedisKeyspace.NIL;
+            case LuaValue.TTABLE -> {
+                LuaValue err = value.get("err");
+                if (!err.isnil()) {
+                    yield new RedisKeyspace.Err(err.tojstring());
+                }
+                LuaValue ok = value.get("ok");
+                if (!ok.isnil()) {
+                    yield new RedisKeyspace.Status(ok.tojstring());
+                }
+                List<Object> array = new ArrayList<>();
+                for (int i = 1; !value.get(i).isnil(); i++) {
+                    array.add(toReply(value.get(i)));
+                }
+                yield array;
+            }
+            default -> RedisKeyspace.NIL;
+        };
+    }
+
+    private static byte[] toBytes(LuaString value) {
+        byte[] bytes = new byte[value.rawlen()];
+        value.copyInto(0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    private static String sha1Hex(byte[] script) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(script));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package com.tyme.payment.support;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-threaded (globally locked) keyspace implementing the subset of Redis commands the service relies on:
+ * strings, hashes, expiry, scripting, SCAN and the handful of server commands Lettuce issues on connect.
+ */
+public class RedisKeyspace {
+
+    public static final Object NIL = new Object();
+    static final Object QUIT = new Status("OK");
+
+    record Status(String value) {
+    }
+
+    record Err(String message) {
+    }
+
+    interface Publisher {
+        long publish(byte[] channel, byte[] message);
+    }
+
+    private static final class Entry {
+        private Object value;
+        private long expiresAt;
+
+        private Entry(Object value) {
+            this.value = value;
+        }
+    }
+
+    private final Map<String, Entry> data = new HashMap<>();
+    private final AtomicLong clockOffset = new AtomicLong();
+    private final Publisher publisher;
+    private final LuaScripting scripting = new LuaScripting(this);
+    private final Random random = new Random();
+
+    RedisKeyspace(Publisher publisher) {
+        this.publisher = publisher;
+    }
+
+    /**
+     * Moves the stand-in's clock forward so TTL behaviour can be exercised without sleeping.
+     */
+    public void advanceClock(long millis) {
+        clockOffset.addAndGet(millis);
+    }
+
+    public synchronized int size() {
+        purgeExpired();
+        return data.size();
+    }
+
+    long now() {
+        return System.currentTimeMillis() + clockOffset.get();
+    }
+
+    public synchronized Object execute(List<byte[]> command) {
+        try {
+            return doExecute(command);
+        } catch (RedisError e) {
+            return new Err(e.getMessage());
+        }
+    }
+
+    static final class RedisError extends RuntimeException {
+        RedisError(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private Object doExecute(List<byte[]> c) {
+        String name = str(c.getFirst()).toUpperCase(Locale.ROOT);
+        return switch (name) {
+            case "PING" -> c.size() > 1 ? c.get(1) : new Status("PONG");
+            case "ECHO" -> c.get(1);
+            case "HELLO" -> throw new RedisError("ERR unknown command 'HELLO'");
+            case "QUIT" -> QUIT;
+            case "SELECT", "CLIENT", "READONLY", "RESET", "AUTH" -> new Status("OK");
+            case "CONFIG" -> "GET".equalsIgnoreCase(str(c.get(1))) ? List.of() : new Status("OK");
+            case "COMMAND" -> List.of();
+            case "INFO" -> bytes("# Server\r\nredis_version:7.2.0\r\nredis_mode:standalone\r\n");
+            case "TIME" -> {
+                long micros = now() * 1000;
+                yield List.of(bytes(Long.toString(micros / 1_000_000)), bytes(Long.toString(micros % 1_000_000)));
+            }
+            case "FLUSHALL", "FLUSHDB" -> {
+                data.clear();
+                yield new Status("OK");
+            }
+            case "DBSIZE" -> (long) size();
+            case "RANDOMKEY" -> randomKey();
+            case "GET" -> get(c.get(1));
+            case "MGET" -> c.subList(1, c.size()).stream().map(this::get).toList();
+            case "SET" -> set(c);
+            case "SETNX" -> set(List.of(c.get(0), c.get(1), c.get(2), bytes("NX"))) == NIL ? 0L : 1L;
+            case "GETDEL" -> {
+                Object value = get(c.get(1));
+                data.remove(str(c.get(1)));
+                yield value;
+            }
+            case "DEL", "UNLINK" -> {
+                long removed = 0;
+                for (byte[] key : c.subList(1, c.size())) {
+                    removed += lookup(str(key)) != null && data.remove(str(key)) != null ? 1 : 0;
+                }
+                yield removed;
+            }
+            case "EXISTS" -> c.subList(1, c.size()).stream().filter(k -> lookup(str(k)) != null).count();
+            case "TYPE" -> {
+                Entry entry = lookup(str(c.get(1)));
+                yield new Status(entry == null ? "none" : entry.value instanceof byte[] ? "string" : "hash");
+            }
+            case "PEXPIRE", "EXPIRE" -> {
+                Entry entry = lookup(str(c.get(1)));
+                long amount = parseLong(c.get(2));
+                if (entry == null) {
+                    yield 0L;
+                }
+                entry.expiresAt = now() + (name.equals("EXPIRE") ? amount * 1000 : amount);
+                yield 1L;
+            }
+            case "PERSIST" -> {
+                Entry entry = lookup(str(c.get(1)));
+                if (entry == null || entry.expiresAt == 0) {
+                    yield 0L;
+                }
+                entry.expiresAt = 0;
+                yield 1L;
+            }
+            case "PTTL", "TTL" -> {
+                Entry entry = lookup(str(c.get(1)));
+                if (entry == null) {
+                    yield -2L;
+                }
+                if (entry.expiresAt == 0) {
+                    yield -1L;
+                }
+                long remaining = entry.expiresAt - now();
+                yield name.equals("TTL") ? (remaining + 999) / 1000 : remaining;
+            }
+            case "INCR" -> incrBy(c.get(1), 1);
+            case "DECR" -> incrBy(c.get(1), -1);
+            case "INCRBY" -> incrBy(c.get(1), parseLong(c.get(2)));
+            case "DECRBY" -> incrBy(c.get(1), -parseLong(c.get(2)));
+            case "HSET", "HMSET" -> {
+                Map<String, byte[]> hash = hashForWrite(c.get(1));
+                long added = 0;
+                for (int i = 2; i + 1 < c.size(); i += 2) {
+                    added += hash.put(str(c.get(i)), c.get(i + 1)) == null ? 1 : 0;
+                }
+                yield name.equals("HMSET") ? new Status("OK") : (Object) added;
+            }
+            case "HSETNX" -> {
+                Map<String, byte[]> hash = hashForWrite(c.get(1));
+                yield hash.putIfAbsent(str(c.get(2)), c.get(3)) == null ? 1L : 0L;
+            }
+            case "HGET" -> {
+                Map<String, byte[]> hash = hashForRead(c.get(1));
+                byte[] value = hash == null ? null : hash.get(str(c.get(2)));
+                yield value == null ? NIL : value;
+            }
+            case "HMGET" -> {
+                Map<String, byte[]> hash = hashForRead(c.get(1));
+                List<Object> values = new ArrayList<>();
+                for (byte[] field : c.subList(2, c.size())) {
+                    byte[] value = hash == null ? null : hash.get(str(field));
+                    values.add(value == null ? NIL : value);
+                }
+                yield values;
+            }
+            case "HGETALL" -> {
+                Map<String, byte[]> hash = hashForRead(c.get(1));
+                List<Object> values = new ArrayList<>();
+                if (hash != null) {
+                    hash.forEach((field, value) -> {
+                        values.add(bytes(field));
+                        values.add(value);
+                    });
+                }
+                yield values;
+            }
+            case "HDEL" -> {
+                Map<String, byte[]> hash = hashForRead(c.get(1));
+                long removed = 0;
+                if (hash != null) {
+                    for (byte[] field : c.subList(2, c.size())) {
+                        removed += hash.remove(str(field)) != null ? 1 : 0;
+                    }
+                    if (hash.isEmpty()) {
+                        data.remove(str(c.get(1)));
+                    }
+                }
+                yield removed;
+            }
+            case "HEXISTS" -> {
+                Map<String, byte[]> hash = hashForRead(c.get(1));
+                yield hash != null && hash.containsKey(str(c.get(2))) ? 1L : 0L;
+            }
+            case "HLEN" -> {
+                Map<String, byte[]> hash = hashForRead(c.get(1));
+                yield hash == null ? 0L : (long) hash.size();
+            }
+            case "HINCRBY" -> {
+                Map<String, byte[]> hash = hashForWrite(c.get(1));
+                byte[] current = hash.get(str(c.get(2)));
+                long next = (current == null ? 0 : parseLong(current)) + parseLong(c.get(3));
+                hash.put(str(c.get(2)), bytes(Long.toString(next)));
+                yield next;
+            }
+            case "SCAN" -> scan(c);
+            case "MEMORY" -> {
+                Entry entry = lookup(str(c.get(2)));
+                yield entry == null ? NIL : (Object) memoryUsage(str(c.get(2)), entry);
+            }
+            case "PUBLISH" -> publisher.publish(c.get(1), c.get(2));
+            case "EVAL" -> scripting.eval(c.get(1), c.subList(2, c.size()));
+            case "EVALSHA" -> scripting.evalSha(str(c.get(1)), c.subList(2, c.size()));
+            case "SCRIPT" -> scripting.script(c.subList(1, c.size()));
+            default -> throw new RedisError("ERR unknown command '" + name + "'");
+        };
+    }
+
+    private Entry lookup(String key) {
+        Entry entry = data.get(key);
+        if (entry != null && entry.expiresAt != 0 && entry.expiresAt <= now()) {
+            data.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    private void purgeExpired() {
+        long now = now();
+        data.values().removeIf(entry -> entry.expiresAt != 0 && entry.expiresAt <= now);
+    }
+
+    private Object get(byte[] key) {
+        Entry entry = lookup(str(key));
+        if (entry == null) {
+            return NIL;
+        }
+        if (!(entry.value instanceof byte[] value)) {
+            throw wrongType();
+        }
+        return value;
+    }
+
+    private Object set(List<byte[]> c) {
+        String key = str(c.get(1));
+        boolean nx = false;
+        boolean xx = false;
+        boolean keepTtl = false;
+        boolean returnOld = false;
+        long expiresAt = 0;
+        for (int i = 3; i < c.size(); i++) {
+            switch (str(c.get(i)).toUpperCase(Locale.ROOT)) {
+                case "NX" -> nx = true;
+                case "XX" -> xx = true;
+                case "KEEPTTL" -> keepTtl = true;
+                case "GET" -> returnOld = true;
+                case "EX" -> expiresAt = now() + parseLong(c.get(++i)) * 1000;
+                case "PX" -> expiresAt = now() + parseLong(c.get(++i));
+                default -> throw new RedisError("ERR syntax error");
+            }
+        }
+        Entry existing = lookup(key);
+        Object old = returnOld ? get(c.get(1)) : null;
+        if ((nx && existing != null) || (xx && existing == null)) {
+            return returnOld ? old : NIL;
+        }
+        Entry entry = new Entry(c.get(2));
+        entry.expiresAt = keepTtl && existing != null ? existing.expiresAt : expiresAt;
+        data.put(key, entry);
+        return returnOld ? old : new Status("OK");
+    }
+
+    private long incrBy(byte[] key, long delta) {
+        Entry entry = lookup(str(key));
+        if (entry == null) {
+            entry = new Entry(bytes("0"));
+            data.put(str(key), entry);
+        }
+        if (!(entry.value instanceof byte[] current)) {
+            throw wrongType();
+        }
+        long next = parseLong(current) + delta;
+        entry.value = bytes(Long.toString(next));
+        return next;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, byte[]> hashForRead(byte[] key) {
+        Entry entry = lookup(str(key));
+        if (entry == null) {
+            return null;
+        }
+        if (!(entry.value instanceof Map)) {
+            throw wrongType();
+        }
+        return (Map<String, byte[]>) entry.value;
+    }
+
+    private Map<String, byte[]> hashForWrite(byte[] key) {
+        Map<String, byte[]> hash = hashForRead(key);
+        if (hash == null) {
+            hash = new LinkedHashMap<>();
+            data.put(str(key), new Entry(hash));
+        }
+        return hash;
+    }
+
+    private Object scan(List<byte[]> c) {
+        int cursor = (int) parseLong(c.get(1));
+        String match = null;
+        String type = null;
+        int count = 10;
+        for (int i = 2; i + 1 < c.size(); i += 2) {
+            switch (str(c.get(i)).toUpperCase(Locale.ROOT)) {
+                case "MATCH" -> match = str(c.get(i + 1));
+                case "COUNT" -> count = (int) parseLong(c.get(i + 1));
+                case "TYPE" -> type = str(c.get(i + 1)).toLowerCase(Locale.ROOT);
+                default -> throw new RedisError("ERR syntax error");
+            }
+        }
+        purgeExpired();
+        List<String> keys = new ArrayList<>(new TreeSet<>(data.keySet()));
+        List<Object> page = new ArrayList<>();
+        int end = Math.min(keys.size(), cursor + count);
+        for (int i = cursor; i < end; i++) {
+            String key = keys.get(i);
+            Entry entry = data.get(key);
+            boolean typeMatches = type == null
+                    || type.equals(entry.value instanceof byte[] ? "string" : "hash");
+            if (typeMatches && (match == null || globMatches(match, key))) {
+                page.add(bytes(key));
+            }
+        }
+        long next = end >= keys.size() ? 0 : end;
+        return List.of(bytes(Long.toString(next)), page);
+    }
+
+    private Object randomKey() {
+        purgeExpired();
+        if (data.isEmpty()) {
+            return NIL;
+        }
+        int skip = random.nextInt(data.size());
+        Iterator<String> keys = data.keySet().iterator();
+        for (int i = 0; i < skip; i++) {
+            keys.next();
+        }
+        return bytes(keys.next());
+    }
+
+    @SuppressWarnings("unchecked")
+    private long memoryUsage(String key, Entry entry) {
+        long size = 56 + key.length();
+        if (entry.value instanceof byte[] value) {
+            return size + value.length;
+        }
+        for (Map.Entry<String, byte[]> field : ((Map<String, byte[]>) entry.value).entrySet()) {
+            size += 2 + field.getKey().length() + field.getValue().length;
+        }
+        return size;
+    }
+
+    private static RedisError wrongType() {
+        return new RedisError("WRONGTYPE Operation against a key holding the wrong kind of value");
+    }
+
+    static long parseLong(byte[] value) {
+        try {
+            return Long.parseLong(str(value));
+        } catch (NumberFormatException e) {
+            throw new RedisError("ERR value is not an integer or out of range");
+        }
+    }
+
+    static String str(byte[] value) {
+        return new String(value, StandardCharsets.ISO_8859_1);
+    }
+
+    static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    static boolean globMatches(String pattern, String value) {
+        return globMatches(pattern, 0, value, 0);
+    }
+
+    private static boolean globMatches(String p, int pi, String v, int vi) {
+        while (pi < p.length()) {
+            char pc = p.charAt(pi);
+            switch (pc) {
+                case '*' -> {
+                    for (int i = vi; i <= v.length(); i++) {
+                        if (globMatches(p, pi + 1, v, i)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+                case '?' -> {
+                    if (vi >= v.length()) {
+                        return false;
+                    }
+                    pi++;
+                    vi++;
+                }
+                case '[' -> {
+                    int close = p.indexOf(']', pi + 1);
+                    if (vi >= v.length() || close < 0) {
+                        return false;
+                    }
+                    String set = p.substring(pi + 1, close);
+                    boolean negate = set.startsWith("^");
+                    boolean found = false;
+                    String members = negate ? set.substring(1) : set;
+                    for (int i = 0; i < members.length(); i++) {
+                        if (i + 2 < members.length() && members.charAt(i + 1) == '-') {
+                            found |= v.charAt(vi) >= members.charAt(i) && v.charAt(vi) <= members.charAt(i + 2);
+                            i += 2;
+                        } else {
+                            found |= v.charAt(vi) == members.charAt(i);
+                        }
+                    }
+                    if (found == negate) {
+                        return false;
+                    }
+                    pi = close + 1;
+                    vi++;
+                }
+                default -> {
+                    if (pc == '\\' && pi + 1 < p.length()) {
+                        pc = p.charAt(++pi);
+                    }
+                    if (vi >= v.length() || v.charAt(vi) != pc) {
+                        return false;
+                    }
+                    pi++;
+                    vi++;
+                }
+            }
+        }
+        return vi == v.length();
+    }
+
+    @SuppressWarnings("unchecked")
+    static void writeReply(OutputStream out, Object reply) throws IOException {
+        if (reply == NIL || reply == null) {
+            out.write("$-1\r\n".getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof byte[] bulk) {
+            out.write(('$' + Integer.toString(bulk.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(bulk);
+            out.write('\r');
+            out.write('\n');
+        } else if (reply instanceof Long number) {
+            out.write((':' + number.toString() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof Status status) {
+            out.write(('+' + status.value() + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        } else if (reply instanceof Err err) {
+            out.write(('-' + err.message() + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        } else if (reply instanceof List<?> array) {
+            out.write(('*' + Integer.toString(array.size()) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            for (Object element : (List<Object>) array) {
+                writeReply(out, element);
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported reply type " + reply.getClass());
+        }
+    }
+}